@@ -0,0 +1,101 @@
+package org.thoughtcrime.securesms.database;
+
+import android.app.Application;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.signal.core.util.logging.Log;
+import org.thoughtcrime.securesms.dependencies.ApplicationDependencies;
+import org.thoughtcrime.securesms.recipients.RecipientId;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Measures inserting, updating and reading group receipts for messages in a large group. Runs
+ * against a throwaway database that is deleted afterwards, so the app's real data is never touched.
+ */
+@RunWith(AndroidJUnit4.class)
+public final class GroupReceiptDatabaseBenchmark {
+
+  private static final String TAG = Log.tag(GroupReceiptDatabaseBenchmark.class);
+
+  private static final String DATABASE_NAME = "group-receipt-benchmark.db";
+
+  private static final int  MEMBER_COUNT  = 500;
+  private static final int  MESSAGE_COUNT = 200;
+  private static final long TIMESTAMP     = 1_600_000_000_000L;
+
+  private Application          context;
+  private GroupReceiptDatabase groupReceiptDatabase;
+  private List<RecipientId>    members;
+
+  @Before
+  public void setUp() {
+    context = ApplicationDependencies.getApplication();
+
+    DatabaseFactory.replaceForTesting(context, DATABASE_NAME);
+
+    groupReceiptDatabase = DatabaseFactory.getGroupReceiptDatabase(context);
+    members              = new ArrayList<>(MEMBER_COUNT);
+
+    for (int i = 0; i < MEMBER_COUNT; i++) {
+      members.add(RecipientId.from(i + 1));
+    }
+  }
+
+  @After
+  public void tearDown() {
+    DatabaseFactory.restoreAfterTesting(context, DATABASE_NAME);
+  }
+
+  @Test
+  public void insert_update_read() {
+    long start = System.currentTimeMillis();
+
+    for (int i = 0; i < MESSAGE_COUNT; i++) {
+      groupReceiptDatabase.insert(members, i + 1, GroupReceiptDatabase.STATUS_UNDELIVERED, TIMESTAMP + i);
+    }
+
+    long insertElapsed = System.currentTimeMillis() - start;
+    Log.i(TAG, "Inserted receipts for " + MESSAGE_COUNT + " messages to " + MEMBER_COUNT + " members in " + insertElapsed + " ms (" + (insertElapsed * 1000 / MESSAGE_COUNT) + " us/message)");
+    Log.i(TAG, "Database is " + context.getDatabasePath(DATABASE_NAME).length() + " bytes");
+
+    start = System.currentTimeMillis();
+
+    for (RecipientId member : members) {
+      groupReceiptDatabase.update(member, MESSAGE_COUNT, GroupReceiptDatabase.STATUS_DELIVERED, TIMESTAMP + 1000);
+    }
+
+    long updateElapsed = System.currentTimeMillis() - start;
+    Log.i(TAG, "Applied " + MEMBER_COUNT + " delivery receipts to one message in " + updateElapsed + " ms (" + (updateElapsed * 1000 / MEMBER_COUNT) + " us/receipt)");
+
+    start = System.currentTimeMillis();
+
+    int read = 0;
+
+    for (int i = 0; i < MESSAGE_COUNT; i++) {
+      read += groupReceiptDatabase.getGroupReceiptInfo(i + 1).size();
+    }
+
+    long readElapsed = System.currentTimeMillis() - start;
+    Log.i(TAG, "Read receipts for " + MESSAGE_COUNT + " messages in " + readElapsed + " ms (" + (readElapsed * 1000 / MESSAGE_COUNT) + " us/message)");
+
+    assertEquals(MESSAGE_COUNT * MEMBER_COUNT, read);
+
+    for (GroupReceiptDatabase.GroupReceiptInfo info : groupReceiptDatabase.getGroupReceiptInfo(MESSAGE_COUNT)) {
+      assertEquals(GroupReceiptDatabase.STATUS_DELIVERED, info.getStatus());
+      assertEquals(TIMESTAMP + 1000, info.getTimestamp());
+    }
+
+    for (GroupReceiptDatabase.GroupReceiptInfo info : groupReceiptDatabase.getGroupReceiptInfo(1)) {
+      assertEquals(GroupReceiptDatabase.STATUS_UNDELIVERED, info.getStatus());
+    }
+  }
+}
@@ -0,0 +1,184 @@
+package org.thoughtcrime.securesms.database;
+
+import android.app.Application;
+import android.database.Cursor;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import net.sqlcipher.database.SQLiteDatabase;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.thoughtcrime.securesms.dependencies.ApplicationDependencies;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks the columns and running storage totals that {@link MediaDatabase#CREATE_TRIGGERS} derive
+ * from the attachment and message tables. Runs against a throwaway database.
+ */
+@RunWith(AndroidJUnit4.class)
+public final class MediaDatabaseTriggersTest {
+
+  private static final String DATABASE_NAME = "media-triggers-test.db";
+
+  private static final long THREAD_A = 1;
+  private static final long THREAD_B = 2;
+
+  private Application    context;
+  private SQLiteDatabase db;
+
+  @Before
+  public void setUp() {
+    context = ApplicationDependencies.getApplication();
+
+    DatabaseFactory.replaceForTesting(context, DATABASE_NAME);
+
+    db = DatabaseFactory.getInstance(context).getRawDatabase();
+  }
+
+  @After
+  public void tearDown() {
+    DatabaseFactory.restoreAfterTesting(context, DATABASE_NAME);
+  }
+
+  @Test
+  public void insert_setsThreadAndKind() {
+    insertMessage(1, THREAD_A);
+    insertAttachment(1, 1, "image/jpeg", "/parts/a", 100);
+    insertAttachment(2, 1, "audio/aac", "/parts/b", 100);
+    insertAttachment(3, 1, "application/pdf", "/parts/c", 100);
+    insertAttachment(4, 1, "text/x-signal-plain", "/parts/d", 100);
+
+    assertEquals(THREAD_A, getThreadId(1));
+    assertEquals(1, getMediaKind(1));
+    assertEquals(2, getMediaKind(2));
+    assertEquals(3, getMediaKind(3));
+    assertEquals(0, getMediaKind(4));
+  }
+
+  @Test
+  public void insert_sharedFile_countedOnce() {
+    insertMessage(1, THREAD_A);
+    insertAttachment(1, 1, "image/jpeg", "/parts/a", 100);
+    insertAttachment(2, 1, "image/jpeg", "/parts/a", 100);
+    insertAttachment(3, 1, "video/mp4", "/parts/b", 50);
+
+    MediaDatabase.StorageBreakdown breakdown = DatabaseFactory.getMediaDatabase(context).getStorageBreakdown();
+
+    assertEquals(100, breakdown.getPhotoSize());
+    assertEquals(50, breakdown.getVideoSize());
+  }
+
+  @Test
+  public void insert_stickerOrNoFile_notCounted() {
+    insertMessage(1, THREAD_A);
+    insertAttachment(1, 1, "image/webp", null, 100);
+    db.execSQL("INSERT INTO part (_id, mid, unique_id, ct, _data, data_size, sticker_pack_id) VALUES (2, 1, 2, 'image/webp', '/parts/sticker', 100, 'pack')");
+
+    assertEquals(0, getStorageSize(1));
+  }
+
+  @Test
+  public void update_data_movesStorage() {
+    insertMessage(1, THREAD_A);
+    insertAttachment(1, 1, "image/jpeg", null, 100);
+
+    assertEquals(0, getStorageSize(1));
+
+    db.execSQL("UPDATE part SET _data = '/parts/a' WHERE _id = 1");
+
+    assertEquals(100, getStorageSize(1));
+
+    db.execSQL("UPDATE part SET _data = '/parts/b', data_size = 40 WHERE _id = 1");
+
+    assertEquals(40, getStorageSize(1));
+
+    db.execSQL("UPDATE part SET _data = NULL WHERE _id = 1");
+
+    assertEquals(0, getStorageSize(1));
+  }
+
+  @Test
+  public void update_contentType_movesStorageAndKind() {
+    insertMessage(1, THREAD_A);
+    insertAttachment(1, 1, "image/jpeg", "/parts/a", 100);
+
+    db.execSQL("UPDATE part SET ct = 'audio/aac' WHERE _id = 1");
+
+    assertEquals(0, getStorageSize(1));
+    assertEquals(100, getStorageSize(3));
+    assertEquals(2, getMediaKind(1));
+  }
+
+  @Test
+  public void delete_sharedFile_countedUntilLastReferenceIsGone() {
+    insertMessage(1, THREAD_A);
+    insertAttachment(1, 1, "image/jpeg", "/parts/a", 100);
+    insertAttachment(2, 1, "image/jpeg", "/parts/a", 100);
+
+    db.execSQL("DELETE FROM part WHERE _id = 1");
+
+    assertEquals(100, getStorageSize(1));
+
+    db.execSQL("DELETE FROM part WHERE _id = 2");
+
+    assertEquals(0, getStorageSize(1));
+  }
+
+  @Test
+  public void update_messageThread_movesAttachments() {
+    insertMessage(1, THREAD_A);
+    insertMessage(2, THREAD_A);
+    insertAttachment(1, 1, "image/jpeg", "/parts/a", 100);
+    insertAttachment(2, 2, "image/jpeg", "/parts/b", 100);
+
+    db.execSQL("UPDATE mms SET thread_id = " + THREAD_B + " WHERE thread_id = " + THREAD_A);
+
+    assertEquals(THREAD_B, getThreadId(1));
+    assertEquals(THREAD_B, getThreadId(2));
+    assertEquals(200, getStorageSize(1));
+  }
+
+  @Test
+  public void update_attachmentMessage_followsNewThread() {
+    insertMessage(1, THREAD_A);
+    insertMessage(2, THREAD_B);
+    insertAttachment(1, 1, "image/jpeg", "/parts/a", 100);
+
+    db.execSQL("UPDATE part SET mid = 2 WHERE _id = 1");
+
+    assertEquals(THREAD_B, getThreadId(1));
+  }
+
+  private void insertMessage(long id, long threadId) {
+    db.execSQL("INSERT INTO mms (_id, thread_id) VALUES (?, ?)", new Object[] { id, threadId });
+  }
+
+  private void insertAttachment(long id, long mmsId, String contentType, String data, long size) {
+    db.execSQL("INSERT INTO part (_id, mid, unique_id, ct, _data, data_size) VALUES (?, ?, ?, ?, ?, ?)",
+               new Object[] { id, mmsId, id, contentType, data, size });
+  }
+
+  private long getThreadId(long attachmentId) {
+    return getLong("SELECT thread_id FROM part WHERE _id = " + attachmentId);
+  }
+
+  private int getMediaKind(long attachmentId) {
+    return (int) getLong("SELECT media_kind FROM part WHERE _id = " + attachmentId);
+  }
+
+  private long getStorageSize(int kind) {
+    return getLong("SELECT IFNULL(SUM(size), 0) FROM media_storage WHERE kind = " + kind);
+  }
+
+  private long getLong(String query) {
+    try (Cursor cursor = db.rawQuery(query, null)) {
+      assertTrue(cursor.moveToFirst());
+      return cursor.getLong(0);
+    }
+  }
+}
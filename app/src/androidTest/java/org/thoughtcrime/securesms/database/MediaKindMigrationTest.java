@@ -0,0 +1,157 @@
+package org.thoughtcrime.securesms.database;
+
+import android.app.Application;
+import android.database.Cursor;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import net.sqlcipher.database.SQLiteDatabase;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.thoughtcrime.securesms.crypto.DatabaseSecret;
+import org.thoughtcrime.securesms.crypto.DatabaseSecretProvider;
+import org.thoughtcrime.securesms.database.helpers.SQLCipherOpenHelper;
+import org.thoughtcrime.securesms.dependencies.ApplicationDependencies;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Upgrades a database with the version 94 attachment schema, from before the media overview was
+ * indexed, and checks the thread, media kind and storage totals backfilled by the upgrade.
+ */
+@RunWith(AndroidJUnit4.class)
+public final class MediaKindMigrationTest {
+
+  private static final String DATABASE_NAME = "media-kind-migration-test.db";
+
+  private static final int FIXTURE_VERSION = 94;
+
+  private Application         context;
+  private DatabaseSecret      databaseSecret;
+  private SQLCipherOpenHelper helper;
+
+  @Before
+  public void setUp() {
+    context        = ApplicationDependencies.getApplication();
+    databaseSecret = DatabaseSecretProvider.getOrCreateDatabaseSecret(context);
+
+    context.deleteDatabase(DATABASE_NAME);
+    createFixture();
+
+    helper = new SQLCipherOpenHelper(context, databaseSecret, DATABASE_NAME);
+  }
+
+  @After
+  public void tearDown() {
+    helper.close();
+    context.deleteDatabase(DATABASE_NAME);
+  }
+
+  @Test
+  public void upgrade_backfillsThreadAndKind() {
+    SQLiteDatabase db = helper.getSqlCipherDatabase();
+
+    assertEquals(1L, getLong(db, "SELECT thread_id FROM part WHERE _id = 1"));
+    assertEquals(2L, getLong(db, "SELECT thread_id FROM part WHERE _id = 4"));
+
+    assertEquals(1L, getLong(db, "SELECT media_kind FROM part WHERE _id = 1"));
+    assertEquals(1L, getLong(db, "SELECT media_kind FROM part WHERE _id = 3"));
+    assertEquals(2L, getLong(db, "SELECT media_kind FROM part WHERE _id = 4"));
+    assertEquals(3L, getLong(db, "SELECT media_kind FROM part WHERE _id = 5"));
+    assertEquals(0L, getLong(db, "SELECT media_kind FROM part WHERE _id = 6"));
+  }
+
+  @Test
+  public void upgrade_backfillsStorageCountingSharedFilesOnce() {
+    SQLiteDatabase db = helper.getSqlCipherDatabase();
+
+    assertEquals(100L, getLong(db, "SELECT size FROM media_storage WHERE kind = 1"));
+    assertEquals(30L, getLong(db, "SELECT size FROM media_storage WHERE kind = 3"));
+    assertEquals(20L, getLong(db, "SELECT size FROM media_storage WHERE kind = 4"));
+    assertEquals(0L, getLong(db, "SELECT COUNT(*) FROM media_storage WHERE kind = 2"));
+  }
+
+  @Test
+  public void upgrade_installsTriggers() {
+    SQLiteDatabase db = helper.getSqlCipherDatabase();
+
+    db.execSQL("INSERT INTO part (_id, mid, unique_id, ct, _data, data_size) VALUES (7, 2, 7, 'video/mp4', '/parts/f', 50)");
+    db.execSQL("UPDATE mms SET thread_id = 3 WHERE _id = 1");
+
+    assertEquals(2L, getLong(db, "SELECT thread_id FROM part WHERE _id = 7"));
+    assertEquals(1L, getLong(db, "SELECT media_kind FROM part WHERE _id = 7"));
+    assertEquals(50L, getLong(db, "SELECT size FROM media_storage WHERE kind = 2"));
+    assertEquals(3L, getLong(db, "SELECT thread_id FROM part WHERE _id = 1"));
+  }
+
+  /**
+   * Creates a current database, then takes it back to the version 94 schema as far as the upgrade
+   * cares: no media columns on the attachment table, and none of the tables, indexes or triggers
+   * added since. Fills it with attachments to be backfilled.
+   */
+  private void createFixture() {
+    SQLCipherOpenHelper fixtureHelper = new SQLCipherOpenHelper(context, databaseSecret, DATABASE_NAME);
+    SQLiteDatabase      db            = fixtureHelper.getSqlCipherDatabase();
+
+    for (String trigger : new String[] { "part_media_ai", "part_media_au", "mms_media_thread_au", "part_storage_ai", "part_storage_au", "part_storage_ad", "sticker_emoji_ad" }) {
+      db.execSQL("DROP TRIGGER IF EXISTS " + trigger);
+    }
+
+    db.execSQL("DROP TABLE IF EXISTS " + MediaDatabase.STORAGE_TABLE_NAME);
+    db.execSQL("DROP TABLE IF EXISTS sticker_emoji");
+    db.execSQL("DROP TABLE IF EXISTS pending_receipt");
+
+    String fixturePartTable = AttachmentDatabase.CREATE_TABLE.replace(", " + AttachmentDatabase.THREAD_ID + " INTEGER DEFAULT NULL, " +
+                                                                      AttachmentDatabase.MEDIA_KIND + " INTEGER DEFAULT 0", "");
+
+    db.execSQL("DROP TABLE " + AttachmentDatabase.TABLE_NAME);
+    db.execSQL(fixturePartTable);
+
+    for (String index : AttachmentDatabase.CREATE_INDEXS) {
+      db.execSQL(index);
+    }
+
+    assertFalse(hasColumn(db, AttachmentDatabase.TABLE_NAME, AttachmentDatabase.MEDIA_KIND));
+    assertFalse(hasColumn(db, AttachmentDatabase.TABLE_NAME, AttachmentDatabase.THREAD_ID));
+
+    db.execSQL("INSERT INTO mms (_id, thread_id) VALUES (1, 1)");
+    db.execSQL("INSERT INTO mms (_id, thread_id) VALUES (2, 2)");
+
+    db.execSQL("INSERT INTO part (_id, mid, unique_id, ct, _data, data_size) VALUES (1, 1, 1, 'image/jpeg', '/parts/a', 100)");
+    db.execSQL("INSERT INTO part (_id, mid, unique_id, ct, _data, data_size) VALUES (2, 2, 2, 'image/jpeg', '/parts/a', 100)");
+    db.execSQL("INSERT INTO part (_id, mid, unique_id, ct, _data, data_size, sticker_pack_id) VALUES (3, 1, 3, 'image/webp', '/parts/sticker', 500, 'pack')");
+    db.execSQL("INSERT INTO part (_id, mid, unique_id, ct, _data, data_size) VALUES (4, 2, 4, 'audio/aac', '/parts/b', 30)");
+    db.execSQL("INSERT INTO part (_id, mid, unique_id, ct, _data, data_size) VALUES (5, 2, 5, 'application/pdf', '/parts/c', 20)");
+    db.execSQL("INSERT INTO part (_id, mid, unique_id, ct, _data, data_size) VALUES (6, 2, 6, 'text/x-signal-plain', NULL, 10)");
+
+    db.setVersion(FIXTURE_VERSION);
+
+    fixtureHelper.close();
+  }
+
+  private static boolean hasColumn(SQLiteDatabase db, String table, String column) {
+    try (Cursor cursor = db.rawQuery("PRAGMA table_info(" + table + ")", null)) {
+      int nameIndex = cursor.getColumnIndexOrThrow("name");
+
+      while (cursor.moveToNext()) {
+        if (column.equals(cursor.getString(nameIndex))) {
+          return true;
+        }
+      }
+    }
+
+    return false;
+  }
+
+  private static long getLong(SQLiteDatabase db, String query) {
+    try (Cursor cursor = db.rawQuery(query, null)) {
+      assertTrue(cursor.moveToFirst());
+      return cursor.getLong(0);
+    }
+  }
+}
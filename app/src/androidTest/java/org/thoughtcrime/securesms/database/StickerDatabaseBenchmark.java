@@ -0,0 +1,95 @@
+package org.thoughtcrime.securesms.database;
+
+import android.app.Application;
+import android.database.Cursor;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.signal.core.util.logging.Log;
+import org.thoughtcrime.securesms.components.emoji.EmojiUtil;
+import org.thoughtcrime.securesms.database.model.IncomingSticker;
+import org.thoughtcrime.securesms.dependencies.ApplicationDependencies;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Measures sticker suggestion lookups with a few thousand stickers installed. Runs against a
+ * throwaway database that is deleted afterwards, so the app's real stickers are never touched.
+ */
+@RunWith(AndroidJUnit4.class)
+public final class StickerDatabaseBenchmark {
+
+  private static final String TAG = Log.tag(StickerDatabaseBenchmark.class);
+
+  private static final String DATABASE_NAME = "sticker-benchmark.db";
+
+  private static final String   PACK_ID       = "00000000000000000000000000benchmark";
+  private static final int      STICKER_COUNT = 5_000;
+  private static final int      LOOKUPS       = 200;
+  private static final String[] EMOJI         = { "😀", "👍", "👍🏽", "❤️", "😂😭", "🎉" };
+
+  private Application     context;
+  private StickerDatabase stickerDatabase;
+
+  @Before
+  public void setUp() throws IOException {
+    context = ApplicationDependencies.getApplication();
+
+    DatabaseFactory.replaceForTesting(context, DATABASE_NAME);
+
+    stickerDatabase = DatabaseFactory.getStickerDatabase(context);
+
+    for (int i = 0; i < STICKER_COUNT; i++) {
+      IncomingSticker sticker = new IncomingSticker(PACK_ID, "key", "Benchmark", "Benchmark", i, EMOJI[i % EMOJI.length], "image/webp", false, true);
+      stickerDatabase.insertSticker(sticker, new ByteArrayInputStream(new byte[] { 0 }), false);
+    }
+  }
+
+  @After
+  public void tearDown() {
+    // Only deletes the files written by setUp, since the throwaway database holds no other stickers.
+    stickerDatabase.uninstallPack(PACK_ID);
+    DatabaseFactory.restoreAfterTesting(context, DATABASE_NAME);
+  }
+
+  @Test
+  public void rebuildEmojiIndex() {
+    long start = System.currentTimeMillis();
+    int  count = stickerDatabase.rebuildEmojiIndex();
+
+    long elapsed = System.currentTimeMillis() - start;
+    Log.i(TAG, "Rebuilt the emoji index for " + count + " stickers in " + elapsed + " ms");
+
+    assertEquals(STICKER_COUNT, count);
+
+    try (Cursor cursor = stickerDatabase.getStickersByEmoji(EmojiUtil.getSearchKey("👍"))) {
+      assertEquals(2 * STICKER_COUNT / EMOJI.length, cursor.getCount(), 1);
+    }
+  }
+
+  @Test
+  public void lookup_by_emoji() {
+    long start = System.currentTimeMillis();
+    int  found = 0;
+
+    for (int i = 0; i < LOOKUPS; i++) {
+      try (Cursor cursor = stickerDatabase.getStickersByEmoji(EmojiUtil.getSearchKey(EMOJI[i % EMOJI.length]))) {
+        found += cursor.getCount();
+      }
+    }
+
+    long elapsed = System.currentTimeMillis() - start;
+    Log.i(TAG, LOOKUPS + " lookups over " + STICKER_COUNT + " stickers in " + elapsed + " ms (" + (elapsed * 1000 / LOOKUPS) + " us/lookup), " + found + " results");
+
+    try (Cursor cursor = stickerDatabase.getStickersByEmoji(EmojiUtil.getSearchKey("👍"))) {
+      assertEquals(2 * STICKER_COUNT / EMOJI.length, cursor.getCount(), 1);
+    }
+  }
+}
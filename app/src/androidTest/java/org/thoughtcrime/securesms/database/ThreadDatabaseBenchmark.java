@@ -0,0 +1,88 @@
+package org.thoughtcrime.securesms.database;
+
+import android.app.Application;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.signal.core.util.logging.Log;
+import org.thoughtcrime.securesms.dependencies.ApplicationDependencies;
+import org.thoughtcrime.securesms.recipients.Recipient;
+import org.thoughtcrime.securesms.sms.OutgoingTextMessage;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Measures the thread upkeep on the message write path. Runs against a throwaway database that is
+ * deleted afterwards, so the app's real data is never touched.
+ */
+@RunWith(AndroidJUnit4.class)
+public final class ThreadDatabaseBenchmark {
+
+  private static final String TAG = Log.tag(ThreadDatabaseBenchmark.class);
+
+  private static final String DATABASE_NAME = "thread-benchmark.db";
+
+  private static final int MESSAGE_COUNT = 10_000;
+
+  private Application    context;
+  private ThreadDatabase threadDatabase;
+  private SmsDatabase    smsDatabase;
+  private Recipient      recipient;
+  private long           threadId;
+
+  @Before
+  public void setUp() {
+    context = ApplicationDependencies.getApplication();
+
+    DatabaseFactory.replaceForTesting(context, DATABASE_NAME);
+
+    threadDatabase = DatabaseFactory.getThreadDatabase(context);
+    smsDatabase    = DatabaseFactory.getSmsDatabase(context);
+    recipient      = Recipient.resolved(DatabaseFactory.getRecipientDatabase(context).getOrInsertFromE164("+15555550199"));
+    threadId       = threadDatabase.getThreadIdFor(recipient);
+  }
+
+  @After
+  public void tearDown() {
+    DatabaseFactory.restoreAfterTesting(context, DATABASE_NAME);
+  }
+
+  @Test
+  public void insert_10k_messages() {
+    List<Long> messageIds = new ArrayList<>(MESSAGE_COUNT);
+    long       start      = System.currentTimeMillis();
+
+    for (int i = 0; i < MESSAGE_COUNT; i++) {
+      OutgoingTextMessage message = new OutgoingTextMessage(recipient, "Message " + i, -1);
+      messageIds.add(smsDatabase.insertMessageOutbox(threadId, message, false, start + i, null));
+    }
+
+    long insertElapsed = System.currentTimeMillis() - start;
+    Log.i(TAG, "Inserted " + MESSAGE_COUNT + " messages in " + insertElapsed + " ms (" + (insertElapsed * 1000 / MESSAGE_COUNT) + " us/message)");
+
+    assertEquals(MESSAGE_COUNT, threadDatabase.getConversationMessageCount(threadId));
+    assertTrue(threadDatabase.verifyThreadSummary(threadId));
+
+    start = System.currentTimeMillis();
+
+    for (int i = 0; i < 100; i++) {
+      smsDatabase.deleteMessage(messageIds.get(i));
+    }
+
+    long deleteElapsed = System.currentTimeMillis() - start;
+    Log.i(TAG, "Deleted 100 older messages in " + deleteElapsed + " ms");
+
+    smsDatabase.deleteMessage(messageIds.get(MESSAGE_COUNT - 1));
+
+    assertEquals(MESSAGE_COUNT - 101, threadDatabase.getConversationMessageCount(threadId));
+    assertTrue(threadDatabase.verifyThreadSummary(threadId));
+  }
+}
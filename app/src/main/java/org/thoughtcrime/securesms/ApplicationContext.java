@@ -41,6 +41,7 @@ import org.thoughtcrime.securesms.database.helpers.SQLCipherOpenHelper;
 import org.thoughtcrime.securesms.dependencies.ApplicationDependencies;
 import org.thoughtcrime.securesms.dependencies.ApplicationDependencyProvider;
 import org.thoughtcrime.securesms.gcm.FcmJobService;
+import org.thoughtcrime.securesms.jobs.AttachmentFileCleanupJob;
 import org.thoughtcrime.securesms.jobs.CreateSignedPreKeyJob;
 import org.thoughtcrime.securesms.jobs.FcmRefreshJob;
 import org.thoughtcrime.securesms.jobs.GroupV1MigrationJob;
@@ -48,6 +49,7 @@ import org.thoughtcrime.securesms.jobs.MultiDeviceContactUpdateJob;
 import org.thoughtcrime.securesms.jobs.PushNotificationReceiveJob;
 import org.thoughtcrime.securesms.jobs.RefreshPreKeysJob;
 import org.thoughtcrime.securesms.jobs.RetrieveProfileJob;
+import org.thoughtcrime.securesms.jobs.StickerEmojiIndexJob;
 import org.thoughtcrime.securesms.keyvalue.SignalStore;
 import org.thoughtcrime.securesms.logging.CustomSignalProtocolLogger;
 import org.thoughtcrime.securesms.logging.LogSecretProvider;
@@ -118,34 +120,34 @@ public class ApplicationContext extends MultiDexApplication implements AppForegr
 
     super.onCreate();
 
-    AppStartup.getInstance().addBlocking("security-provider", this::initializeSecurityProvider)
-                            .addBlocking("logging", () -> {
+    AppStartup.getInstance().addBlockingOnMainThread("security-provider", this::initializeSecurityProvider)
+                            .addBlockingOnMainThread("logging", () -> {
                                 initializeLogging();
                                 Log.i(TAG, "onCreate()");
-                            })
-                            .addBlocking("crash-handling", this::initializeCrashHandling)
-                            .addBlocking("eat-db", () -> DatabaseFactory.getInstance(this))
-                            .addBlocking("app-dependencies", this::initializeAppDependencies)
-                            .addBlocking("notification-channels", () -> NotificationChannels.create(this))
-                            .addBlocking("first-launch", this::initializeFirstEverAppLaunch)
-                            .addBlocking("app-migrations", this::initializeApplicationMigrations)
-                            .addBlocking("ring-rtc", this::initializeRingRtc)
-                            .addBlocking("mark-registration", () -> RegistrationUtil.maybeMarkRegistrationComplete(this))
-                            .addBlocking("lifecycle-observer", () -> ApplicationDependencies.getAppForegroundObserver().addListener(this))
-                            .addBlocking("message-retriever", this::initializeMessageRetrieval)
-                            .addBlocking("dynamic-theme", () -> DynamicTheme.setDefaultDayNightMode(this))
-                            .addBlocking("vector-compat", () -> {
+                            }, "security-provider")
+                            .addBlockingOnMainThread("crash-handling", this::initializeCrashHandling, "logging")
+                            .addBlockingInBackground("eat-db", () -> DatabaseFactory.getInstance(this), "crash-handling")
+                            .addBlockingOnMainThread("app-dependencies", this::initializeAppDependencies, "crash-handling")
+                            .addBlockingInBackground("notification-channels", () -> NotificationChannels.create(this), "eat-db", "app-dependencies")
+                            .addBlockingOnMainThread("first-launch", this::initializeFirstEverAppLaunch, "eat-db", "app-dependencies")
+                            .addBlockingOnMainThread("app-migrations", this::initializeApplicationMigrations, "first-launch")
+                            .addBlockingInBackground("ring-rtc", this::initializeRingRtc, "logging")
+                            .addBlockingInBackground("mark-registration", () -> RegistrationUtil.maybeMarkRegistrationComplete(this), "app-migrations")
+                            .addBlockingOnMainThread("lifecycle-observer", () -> ApplicationDependencies.getAppForegroundObserver().addListener(this), "app-dependencies")
+                            .addBlockingOnMainThread("dynamic-theme", () -> DynamicTheme.setDefaultDayNightMode(this), "app-dependencies")
+                            .addBlockingOnMainThread("vector-compat", () -> {
                               if (Build.VERSION.SDK_INT < 21) {
                                 AppCompatDelegate.setCompatVectorFromResourcesEnabled(true);
                               }
-                            })
-                            .addBlocking("proxy-init", () -> {
+                            }, "logging")
+                            .addBlockingInBackground("proxy-init", () -> {
                               if (SignalStore.proxy().isProxyEnabled()) {
                                 Log.w(TAG, "Proxy detected. Enabling Conscrypt.setUseEngineSocketByDefault()");
                                 Conscrypt.setUseEngineSocketByDefault(true);
                               }
-                            })
-                            .addBlocking("blob-provider", this::initializeBlobProvider)
+                            }, "app-dependencies")
+                            .addBlockingOnMainThread("message-retriever", this::initializeMessageRetrieval, "notification-channels", "app-migrations", "ring-rtc", "mark-registration", "lifecycle-observer", "proxy-init")
+                            .addBlockingInBackground("blob-provider", this::initializeBlobProvider, "logging")
                             .addNonBlocking(this::initializeRevealableMessageManager)
                             .addNonBlocking(this::initializeGcmCheck)
                             .addNonBlocking(this::initializeSignedPreKeyCheck)
@@ -156,6 +158,7 @@ public class ApplicationContext extends MultiDexApplication implements AppForegr
                             .addNonBlocking(this::initializeGlideCodecs)
                             .addNonBlocking(FeatureFlags::init)
                             .addNonBlocking(RefreshPreKeysJob::scheduleIfNecessary)
+                            .addNonBlocking(StickerEmojiIndexJob::enqueueIfNecessary)
                             .addNonBlocking(StorageSyncHelper::scheduleRoutineSync)
                             .addNonBlocking(() -> ApplicationDependencies.getJobManager().beginJobLoop())
                             .addPostRender(this::initializeExpiringMessageManager)
@@ -374,6 +377,9 @@ public class ApplicationContext extends MultiDexApplication implements AppForegr
   }
 
   private void initializePendingMessages() {
+    // Creating it applies any receipts that were stored but not yet applied before the app was killed.
+    ApplicationDependencies.getReceiptAggregator();
+
     if (TextSecurePreferences.getNeedsMessagePull(this)) {
       Log.i(TAG, "Scheduling a message fetch.");
       if (Build.VERSION.SDK_INT >= 26) {
@@ -394,6 +400,8 @@ public class ApplicationContext extends MultiDexApplication implements AppForegr
   private void initializeCleanup() {
     int deleted = DatabaseFactory.getAttachmentDatabase(this).deleteAbandonedPreuploadedAttachments();
     Log.i(TAG, "Deleted " + deleted + " abandoned attachments.");
+
+    AttachmentFileCleanupJob.enqueueIfIncomplete();
   }
 
   private void initializeGlideCodecs() {
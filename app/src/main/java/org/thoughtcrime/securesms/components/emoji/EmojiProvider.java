@@ -1,6 +1,5 @@
 package org.thoughtcrime.securesms.components.emoji;
 
-import android.annotation.TargetApi;
 import android.content.Context;
 import android.graphics.Bitmap;
 import android.graphics.Canvas;
@@ -9,8 +8,6 @@ import android.graphics.Paint;
 import android.graphics.PixelFormat;
 import android.graphics.Rect;
 import android.graphics.drawable.Drawable;
-import android.os.Build.VERSION;
-import android.os.Build.VERSION_CODES;
 import android.text.Spannable;
 import android.text.SpannableStringBuilder;
 import android.widget.TextView;
@@ -23,6 +20,7 @@ import org.thoughtcrime.securesms.R;
 import org.thoughtcrime.securesms.components.emoji.parsing.EmojiDrawInfo;
 import org.thoughtcrime.securesms.components.emoji.parsing.EmojiPageBitmap;
 import org.thoughtcrime.securesms.components.emoji.parsing.EmojiParser;
+import org.thoughtcrime.securesms.components.emoji.parsing.EmojiTileCache;
 import org.thoughtcrime.securesms.components.emoji.parsing.EmojiTree;
 import org.thoughtcrime.securesms.util.FutureTaskListener;
 import org.thoughtcrime.securesms.util.Util;
@@ -37,15 +35,10 @@ class EmojiProvider {
   private static volatile EmojiProvider instance = null;
   private static final    Paint         paint    = new Paint(Paint.FILTER_BITMAP_FLAG | Paint.ANTI_ALIAS_FLAG);
 
-  private final EmojiTree emojiTree = new EmojiTree();
-
-  private static final int EMOJI_RAW_HEIGHT = 64;
-  private static final int EMOJI_RAW_WIDTH  = 64;
-  private static final int EMOJI_VERT_PAD   = 0;
-  private static final int EMOJI_PER_ROW    = 16;
+  private final EmojiTree   emojiTree   = new EmojiTree();
+  private final EmojiParser emojiParser = new EmojiParser(emojiTree);
 
   private final float decodeScale;
-  private final float verticalPad;
 
   public static EmojiProvider getInstance(Context context) {
     if (instance == null) {
@@ -59,12 +52,13 @@ class EmojiProvider {
   }
 
   private EmojiProvider(Context context) {
-    this.decodeScale = Math.min(1f, context.getResources().getDimension(R.dimen.emoji_drawer_size) / EMOJI_RAW_HEIGHT);
-    this.verticalPad = EMOJI_VERT_PAD * this.decodeScale;
+    this.decodeScale = Math.min(1f, context.getResources().getDimension(R.dimen.emoji_drawer_size) / EmojiPageBitmap.EMOJI_RAW_HEIGHT);
+
+    EmojiTileCache tileCache = new EmojiTileCache(context);
 
     for (EmojiPageModel page : EmojiPages.DATA_PAGES) {
       if (page.hasSpriteMap()) {
-        EmojiPageBitmap pageBitmap = new EmojiPageBitmap(context, page, decodeScale);
+        EmojiPageBitmap pageBitmap = new EmojiPageBitmap(context, page, decodeScale, tileCache);
 
         List<String> emojis = page.getEmoji();
         for (int i = 0; i < emojis.size(); i++) {
@@ -78,9 +72,9 @@ class EmojiProvider {
     }
   }
 
-  @Nullable EmojiParser.CandidateList getCandidates(@Nullable CharSequence text) {
+  public @Nullable EmojiParser.CandidateList getCandidates(@Nullable CharSequence text) {
     if (text == null) return null;
-    return new EmojiParser(emojiTree).findCandidates(text);
+    return emojiParser.findCandidates(text);
   }
 
   @Nullable Spannable emojify(@Nullable CharSequence text, @NonNull TextView tv) {
@@ -116,7 +110,7 @@ class EmojiProvider {
     }
 
     final EmojiDrawable drawable = new EmojiDrawable(drawInfo, decodeScale);
-    drawInfo.getPage().get().addListener(new FutureTaskListener<Bitmap>() {
+    drawInfo.getPage().get(drawInfo.getIndex()).addListener(new FutureTaskListener<Bitmap>() {
       @Override public void onSuccess(final Bitmap result) {
         Util.runOnMain(() -> drawable.setBitmap(result));
       }
@@ -130,6 +124,7 @@ class EmojiProvider {
 
   class EmojiDrawable extends Drawable {
     private final EmojiDrawInfo info;
+    private final Rect          sourceRect = new Rect();
     private       Bitmap        bmp;
     private       float         intrinsicWidth;
     private       float         intrinsicHeight;
@@ -146,8 +141,8 @@ class EmojiProvider {
 
     EmojiDrawable(EmojiDrawInfo info, float decodeScale) {
       this.info            = info;
-      this.intrinsicWidth  = EMOJI_RAW_WIDTH  * decodeScale;
-      this.intrinsicHeight = EMOJI_RAW_HEIGHT * decodeScale;
+      this.intrinsicWidth  = EmojiPageBitmap.EMOJI_RAW_WIDTH  * decodeScale;
+      this.intrinsicHeight = EmojiPageBitmap.EMOJI_RAW_HEIGHT * decodeScale;
     }
 
     @Override
@@ -156,22 +151,23 @@ class EmojiProvider {
         return;
       }
 
-      final int row = info.getIndex() / EMOJI_PER_ROW;
-      final int row_index = info.getIndex() % EMOJI_PER_ROW;
-
-      canvas.drawBitmap(bmp,
-                        new Rect((int)(row_index * intrinsicWidth),
-                                 (int)(row * intrinsicHeight + row * verticalPad)+1,
-                                 (int)(((row_index + 1) * intrinsicWidth)-1),
-                                 (int)((row + 1) * intrinsicHeight + row * verticalPad)-1),
-                        getBounds(),
-                        paint);
+      canvas.drawBitmap(bmp, sourceRect, getBounds(), paint);
     }
 
-    @TargetApi(VERSION_CODES.HONEYCOMB_MR1)
-    public void setBitmap(Bitmap bitmap) {
+    /**
+     * @param bitmap The row of the sprite sheet containing this emoji.
+     */
+    public void setBitmap(@Nullable Bitmap bitmap) {
       Util.assertMainThread();
-      if (VERSION.SDK_INT < VERSION_CODES.HONEYCOMB_MR1 || bmp == null || !bmp.sameAs(bitmap)) {
+      if (bitmap != null && bmp != bitmap) {
+        float tileWidth = bitmap.getWidth() / (float) EmojiPageBitmap.EMOJI_PER_ROW;
+        int   column    = info.getIndex() % EmojiPageBitmap.EMOJI_PER_ROW;
+
+        sourceRect.set((int)(column * tileWidth),
+                       1,
+                       (int)((column + 1) * tileWidth) - 1,
+                       bitmap.getHeight() - 1);
+
         bmp = bitmap;
         invalidateSelf();
       }
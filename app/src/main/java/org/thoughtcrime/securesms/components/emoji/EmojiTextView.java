@@ -48,6 +48,8 @@ public class EmojiTextView extends AppCompatTextView {
   private CharSequence previousOverflowText;
   private boolean      renderMentions;
 
+  private EmojiParser.CandidateList precomputedCandidates;
+
   private MentionRendererDelegate mentionRendererDelegate;
 
   public EmojiTextView(Context context) {
@@ -91,9 +93,23 @@ public class EmojiTextView extends AppCompatTextView {
     super.onDraw(canvas);
   }
 
+  /**
+   * Sets text whose emoji have already been found, typically on a background thread, so they don't
+   * have to be parsed again here.
+   *
+   * @param candidates Candidates from {@link EmojiProvider#getCandidates(CharSequence)} for text with
+   *                   exactly the same characters as {@code text}.
+   */
+  public void setText(@Nullable CharSequence text, @Nullable EmojiParser.CandidateList candidates) {
+    precomputedCandidates = candidates;
+    setText(text);
+  }
+
   @Override public void setText(@Nullable CharSequence text, BufferType type) {
     EmojiProvider             provider   = EmojiProvider.getInstance(getContext());
-    EmojiParser.CandidateList candidates = provider.getCandidates(text);
+    EmojiParser.CandidateList candidates = precomputedCandidates != null ? precomputedCandidates : provider.getCandidates(text);
+
+    precomputedCandidates = null;
 
     if (scaleEmojis && candidates != null && candidates.allEmojis) {
       int   emojis = candidates.size();
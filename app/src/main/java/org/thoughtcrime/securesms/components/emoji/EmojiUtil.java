@@ -13,8 +13,10 @@ import org.whispersystems.libsignal.util.Pair;
 
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Set;
 
 public final class EmojiUtil {
@@ -31,6 +33,14 @@ public final class EmojiUtil {
     }
   }
 
+  private static final Map<String, String> SEARCH_KEY_MAP = new HashMap<>(VARIATION_MAP);
+
+  static {
+    for (Pair<String, String> obsolete : EmojiPages.OBSOLETE) {
+      SEARCH_KEY_MAP.put(obsolete.first(), getCanonicalRepresentation(obsolete.second()));
+    }
+  }
+
   public static final int MAX_EMOJI_LENGTH;
   static {
     int max = 0;
@@ -42,6 +52,20 @@ public final class EmojiUtil {
     MAX_EMOJI_LENGTH = max;
   }
 
+  /**
+   * Changes whenever the emoji data behind {@link #getSearchKeys(Context, String)} does, meaning
+   * anything indexed by search key has to be indexed again. Only built from hash codes that are
+   * defined by the spec, so it's stable across runs.
+   */
+  public static final int SEARCH_KEY_FINGERPRINT;
+  static {
+    Set<String> allEmoji = new HashSet<>();
+    for (EmojiPageModel page : EmojiPages.DATA_PAGES) {
+      allEmoji.addAll(page.getEmoji());
+    }
+    SEARCH_KEY_FINGERPRINT = Objects.hash(allEmoji, SEARCH_KEY_MAP);
+  }
+
   private EmojiUtil() {}
 
   public static List<EmojiPageModel> getDisplayPages() {
@@ -49,35 +73,52 @@ public final class EmojiUtil {
   }
 
   /**
-   * This will return all ways we know of expressing a singular emoji. This is to aid in search,
-   * where some platforms may send an emoji we've locally marked as 'obsolete'.
+   * When provided an emoji that is a skin variation of another, this will return the default yellow
+   * version. This is to aid in search, so using a variation will still find all emojis tagged with
+   * the default version.
+   *
+   * If the emoji has no skin variations, this function will return the original emoji.
    */
-  public static @NonNull Set<String> getAllRepresentations(@NonNull String emoji) {
-    Set<String> out = new HashSet<>();
+  public static @NonNull String getCanonicalRepresentation(@NonNull String emoji) {
+    String canonical = VARIATION_MAP.get(emoji);
+    return canonical != null ? canonical : emoji;
+  }
 
-    out.add(emoji);
+  /**
+   * Collapses every way we know of expressing an emoji, its skin variations and obsolete forms, into
+   * a single key, so emoji can be matched with a plain equality lookup.
+   */
+  public static @NonNull String getSearchKey(@NonNull String emoji) {
+    String key = SEARCH_KEY_MAP.get(emoji);
+    return key != null ? key : emoji;
+  }
 
-    for (Pair<String, String> pair : EmojiPages.OBSOLETE) {
-      if (pair.first().equals(emoji)) {
-        out.add(pair.second());
-      } else if (pair.second().equals(emoji)) {
-        out.add(pair.first());
+  /**
+   * @return The search keys of the emoji found in the provided text. If no emoji we know of are
+   *         found, the text itself is treated as a single emoji.
+   */
+  public static @NonNull Set<String> getSearchKeys(@NonNull Context context, @NonNull String text) {
+    Set<String>               keys       = new LinkedHashSet<>();
+    EmojiParser.CandidateList candidates = EmojiProvider.getInstance(context).getCandidates(text);
+
+    if (candidates != null) {
+      for (EmojiParser.Candidate candidate : candidates) {
+        keys.add(getSearchKey(text.substring(candidate.getStartIndex(), candidate.getEndIndex())));
       }
     }
 
-    return out;
+    if (keys.isEmpty() && !text.trim().isEmpty()) {
+      keys.add(getSearchKey(text.trim()));
+    }
+
+    return keys;
   }
 
   /**
-   * When provided an emoji that is a skin variation of another, this will return the default yellow
-   * version. This is to aid in search, so using a variation will still find all emojis tagged with
-   * the default version.
-   *
-   * If the emoji has no skin variations, this function will return the original emoji.
+   * @return The emoji found in the provided text, or null if there's no text.
    */
-  public static @NonNull String getCanonicalRepresentation(@NonNull String emoji) {
-    String canonical = VARIATION_MAP.get(emoji);
-    return canonical != null ? canonical : emoji;
+  public static @Nullable EmojiParser.CandidateList getCandidates(@NonNull Context context, @Nullable CharSequence text) {
+    return EmojiProvider.getInstance(context).getCandidates(text);
   }
 
   /**
@@ -2,9 +2,12 @@ package org.thoughtcrime.securesms.components.emoji.parsing;
 
 import android.annotation.SuppressLint;
 import android.content.Context;
-import android.content.res.AssetManager;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
+import android.graphics.BitmapRegionDecoder;
+import android.graphics.Rect;
+import android.util.LruCache;
+import android.util.SparseArray;
 
 import androidx.annotation.NonNull;
 
@@ -17,86 +20,238 @@ import org.thoughtcrime.securesms.util.concurrent.SimpleTask;
 
 import java.io.IOException;
 import java.io.InputStream;
-import java.lang.ref.SoftReference;
 import java.util.concurrent.Callable;
 
+/**
+ * A sprite sheet of emoji, decoded one row at a time.
+ *
+ * Rather than decoding the whole sheet and scaling it, only the rows that are actually drawn are
+ * decoded with a {@link BitmapRegionDecoder}, subsampled as close to the target scale as possible.
+ * Decoded rows are held in a shared {@link EmojiTileCache}, and the decoders of the few most
+ * recently used sheets are kept open so that loading the next row doesn't re-read the sheet.
+ */
 public class EmojiPageBitmap {
 
   private static final String TAG = EmojiPageBitmap.class.getSimpleName();
 
+  public static final int EMOJI_RAW_HEIGHT = 64;
+  public static final int EMOJI_RAW_WIDTH  = 64;
+  public static final int EMOJI_PER_ROW    = 16;
+
+  /** Each open decoder holds on to a compressed sheet, so only the most recently used few are kept. */
+  private static final int MAX_OPEN_DECODERS = 3;
+
+  private static final LruCache<String, SharedDecoder> DECODERS = new LruCache<String, SharedDecoder>(MAX_OPEN_DECODERS) {
+    @Override
+    protected void entryRemoved(boolean evicted, @NonNull String key, @NonNull SharedDecoder oldValue, SharedDecoder newValue) {
+      oldValue.close();
+    }
+  };
+
   private final Context        context;
   private final EmojiPageModel model;
   private final float          decodeScale;
+  private final EmojiTileCache tileCache;
 
-  private SoftReference<Bitmap>        bitmapReference;
-  private ListenableFutureTask<Bitmap> task;
+  private final SparseArray<ListenableFutureTask<Bitmap>> tasks = new SparseArray<>();
 
-  public EmojiPageBitmap(@NonNull Context context, @NonNull EmojiPageModel model, float decodeScale) {
+  public EmojiPageBitmap(@NonNull Context context, @NonNull EmojiPageModel model, float decodeScale, @NonNull EmojiTileCache tileCache) {
     this.context     = context.getApplicationContext();
     this.model       = model;
     this.decodeScale = decodeScale;
+    this.tileCache   = tileCache;
   }
 
+  /**
+   * @return A bitmap of the row of the sprite sheet that contains the emoji at the given index.
+   *         The emoji is at column {@code index % EMOJI_PER_ROW}.
+   */
   @SuppressLint("StaticFieldLeak")
-  public ListenableFutureTask<Bitmap> get() {
+  public ListenableFutureTask<Bitmap> get(int index) {
     Util.assertMainThread();
 
-    if (bitmapReference != null && bitmapReference.get() != null) {
-      return new ListenableFutureTask<>(bitmapReference.get());
-    } else if (task != null) {
+    int    row    = index / EMOJI_PER_ROW;
+    Bitmap cached = tileCache.get(getTileKey(row));
+
+    if (cached != null) {
+      return new ListenableFutureTask<>(cached);
+    }
+
+    ListenableFutureTask<Bitmap> task = tasks.get(row);
+
+    if (task != null) {
       return task;
-    } else {
-      Callable<Bitmap> callable = () -> {
-        try {
-          Log.i(TAG, "loading page " + model.getSprite());
-          return loadPage();
-        } catch (IOException ioe) {
-          Log.w(TAG, ioe);
+    }
+
+    Callable<Bitmap> callable = () -> {
+      try {
+        return loadRow(row);
+      } catch (IOException ioe) {
+        Log.w(TAG, ioe);
+      }
+      return null;
+    };
+
+    ListenableFutureTask<Bitmap> newTask = new ListenableFutureTask<>(callable);
+
+    tasks.put(row, newTask);
+    SimpleTask.run(() -> {
+                     newTask.run();
+                     return null;
+                   },
+                   unused -> tasks.remove(row));
+
+    return newTask;
+  }
+
+  private Bitmap loadRow(int row) throws IOException {
+    Bitmap cached = tileCache.get(getTileKey(row));
+    if (cached != null) return cached;
+
+    SharedDecoder       sharedDecoder = acquireDecoder();
+    BitmapRegionDecoder regionDecoder = sharedDecoder.decoder;
+
+    try {
+      Stopwatch             stopwatch  = new Stopwatch(model.getSprite() + "#" + row);
+      BitmapFactory.Options options    = new BitmapFactory.Options();
+      int                   sampleSize = getSampleSize(decodeScale);
+      Rect                  region     = new Rect(0,
+                                                  row * EMOJI_RAW_HEIGHT,
+                                                  Math.min(EMOJI_PER_ROW * EMOJI_RAW_WIDTH, regionDecoder.getWidth()),
+                                                  Math.min((row + 1) * EMOJI_RAW_HEIGHT, regionDecoder.getHeight()));
+
+      options.inSampleSize = sampleSize;
+
+      Bitmap decoded = regionDecoder.decodeRegion(region, options);
+      stopwatch.split("decode");
+
+      if (decoded == null) {
+        throw new IOException("Failed to decode row " + row + " of " + model.getSprite());
+      }
+
+      Bitmap tile           = decoded;
+      float  remainingScale = decodeScale * sampleSize;
+
+      if (remainingScale < 0.99f) {
+        tile = Bitmap.createScaledBitmap(decoded,
+                                         Math.max(1, Math.round(decoded.getWidth() * remainingScale)),
+                                         Math.max(1, Math.round(decoded.getHeight() * remainingScale)),
+                                         true);
+        if (tile != decoded) {
+          decoded.recycle();
         }
-        return null;
-      };
-      task = new ListenableFutureTask<>(callable);
-      SimpleTask.run(() -> {
-                       task.run();
-                       return null;
-                     },
-                     unused -> task = null);
+        stopwatch.split("scale");
+      }
+
+      stopwatch.stop(TAG);
+
+      int decodeCount = tileCache.putDecoded(getTileKey(row), tile);
+
+      Log.d(TAG, "onRowLoaded(" + model.getSprite() + ", " + row + ")  sampleSize: " + sampleSize
+                                                                       + "  byteCount: "   + tile.getByteCount()
+                                                                       + "  totalDecodes: " + decodeCount
+                                                                       + "  cacheBytes: "   + tileCache.getSize() + "/" + tileCache.getMaxSize());
+      return tile;
+    } finally {
+      releaseDecoder(sharedDecoder);
     }
-    return task;
   }
 
-  private Bitmap loadPage() throws IOException {
-    if (bitmapReference != null && bitmapReference.get() != null) return bitmapReference.get();
+  /**
+   * Hands out this sheet's decoder, opening it if it isn't one of the {@link #MAX_OPEN_DECODERS}
+   * kept open. Must be paired with {@link #releaseDecoder(SharedDecoder)}.
+   *
+   * The sheet is opened without holding the lock, so other sheets aren't held up behind it. If two
+   * rows of the same sheet race to open it, the loser's decoder is thrown away.
+   */
+  private @NonNull SharedDecoder acquireDecoder() throws IOException {
+    synchronized (DECODERS) {
+      SharedDecoder sharedDecoder = DECODERS.get(model.getSprite());
 
+      if (sharedDecoder != null) {
+        sharedDecoder.users++;
+        return sharedDecoder;
+      }
+    }
 
-    float                 scale        = decodeScale;
-    AssetManager          assetManager = context.getAssets();
-    InputStream           assetStream  = assetManager.open(model.getSprite());
-    BitmapFactory.Options options      = new BitmapFactory.Options();
+    SharedDecoder opened;
 
-    if (Util.isLowMemory(context)) {
-      Log.i(TAG, "Low memory detected. Changing sample size.");
-      options.inSampleSize = 2;
-      scale = decodeScale * 2;
+    try (InputStream assetStream = context.getAssets().open(model.getSprite())) {
+      opened = new SharedDecoder(BitmapRegionDecoder.newInstance(assetStream, false));
     }
 
-    Stopwatch stopwatch = new Stopwatch(model.getSprite());
-    Bitmap    bitmap    = BitmapFactory.decodeStream(assetStream, null, options);
-    stopwatch.split("decode");
+    SharedDecoder sharedDecoder;
+
+    synchronized (DECODERS) {
+      sharedDecoder = DECODERS.get(model.getSprite());
 
-    Bitmap scaledBitmap = Bitmap.createScaledBitmap(bitmap, (int)(bitmap.getWidth() * scale), (int)(bitmap.getHeight() * scale), true);
-    stopwatch.split("scale");
-    stopwatch.stop(TAG);
+      if (sharedDecoder == null) {
+        sharedDecoder = opened;
+        DECODERS.put(model.getSprite(), sharedDecoder);
+      }
+
+      sharedDecoder.users++;
+    }
 
-    bitmapReference = new SoftReference<>(scaledBitmap);
-    Log.i(TAG, "onPageLoaded(" + model.getSprite() + ")  originalByteCount: " + bitmap.getByteCount()
-                                                    + "  scaledByteCount: "   + scaledBitmap.getByteCount()
-                                                    + "  scaledSize: "        + scaledBitmap.getWidth() + "x" + scaledBitmap.getHeight());
-    return scaledBitmap;
+    if (sharedDecoder != opened) {
+      opened.decoder.recycle();
+    }
+
+    return sharedDecoder;
+  }
+
+  private static void releaseDecoder(@NonNull SharedDecoder sharedDecoder) {
+    synchronized (DECODERS) {
+      sharedDecoder.users--;
+
+      if (sharedDecoder.closed && sharedDecoder.users == 0) {
+        sharedDecoder.decoder.recycle();
+      }
+    }
+  }
+
+  private @NonNull String getTileKey(int row) {
+    return model.getSprite() + "#" + row;
+  }
+
+  /**
+   * @return The largest power of two sample size that doesn't take the image below the target scale.
+   */
+  private static int getSampleSize(float scale) {
+    int sampleSize = 1;
+
+    while (scale * sampleSize * 2 <= 1) {
+      sampleSize *= 2;
+    }
+
+    return sampleSize;
   }
 
   @Override
   public @NonNull String toString() {
     return model.getSprite();
   }
+
+  /**
+   * A decoder that may still be in use by row loads after it falls out of {@link #DECODERS}, so
+   * it's only recycled once the last of them is done. Guarded by {@link #DECODERS}.
+   */
+  private static final class SharedDecoder {
+    private final BitmapRegionDecoder decoder;
+
+    private int     users;
+    private boolean closed;
+
+    private SharedDecoder(@NonNull BitmapRegionDecoder decoder) {
+      this.decoder = decoder;
+    }
+
+    private void close() {
+      closed = true;
+
+      if (users == 0) {
+        decoder.recycle();
+      }
+    }
+  }
 }
@@ -24,8 +24,9 @@ package org.thoughtcrime.securesms.components.emoji.parsing;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Iterator;
-import java.util.LinkedList;
 import java.util.List;
 
 /**
@@ -39,17 +40,19 @@ public class EmojiParser {
     this.emojiTree = emojiTree;
   }
 
+  /**
+   * Does not allocate if the text contains no emoji.
+   */
   public @NonNull CandidateList findCandidates(@Nullable CharSequence text) {
-    List<Candidate> results = new LinkedList<>();
-
-    if (text == null) {
-      return new CandidateList(results, false);
+    if (text == null || text.length() == 0) {
+      return CandidateList.EMPTY;
     }
 
-    boolean allEmojis = text.length() > 0;
+    List<Candidate> results   = null;
+    boolean         allEmojis = true;
 
     for (int i = 0; i < text.length(); i++) {
-      int emojiEnd = getEmojiEndPos(text, i);
+      int emojiEnd = emojiTree.findEmojiEnd(text, i);
 
       if (emojiEnd != -1) {
         EmojiDrawInfo drawInfo = emojiTree.getEmoji(text, i, emojiEnd);
@@ -60,6 +63,10 @@ public class EmojiParser {
           }
         }
 
+        if (results == null) {
+          results = new ArrayList<>();
+        }
+
         results.add(new Candidate(i, emojiEnd, drawInfo));
 
         i = emojiEnd - 1;
@@ -68,25 +75,11 @@ public class EmojiParser {
       }
     }
 
-    allEmojis &= !results.isEmpty();
-
-    return new CandidateList(results, allEmojis);
-  }
-
-  private int getEmojiEndPos(CharSequence text, int startPos) {
-    int best = -1;
-
-    for (int j = startPos + 1; j <= text.length(); j++) {
-      EmojiTree.Matches status = emojiTree.isEmoji(text, startPos, j);
-
-      if (status.exactMatch()) {
-        best = j;
-      } else if (status.impossibleMatch()) {
-        return best;
-      }
+    if (results == null) {
+      return CandidateList.EMPTY;
     }
 
-    return best;
+    return new CandidateList(results, allEmojis);
   }
 
   public static class Candidate {
@@ -115,6 +108,8 @@ public class EmojiParser {
   }
 
   public static class CandidateList implements Iterable<Candidate> {
+    private static final CandidateList EMPTY = new CandidateList(Collections.emptyList(), false);
+
     public final List<EmojiParser.Candidate> list;
     public final boolean                     allEmojis;
 
@@ -0,0 +1,58 @@
+package org.thoughtcrime.securesms.components.emoji.parsing;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.util.LruCache;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import org.thoughtcrime.securesms.util.Util;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A size-bounded cache of decoded emoji sprite tiles, shared between all sprite pages.
+ *
+ * Tiles are held strongly so that they survive until they're actually the least recently used,
+ * rather than being collected (and re-decoded) whenever the GC feels like it.
+ */
+public final class EmojiTileCache {
+
+  private static final int MAX_BYTES            = 6 * 1024 * 1024;
+  private static final int LOW_MEMORY_MAX_BYTES = 2 * 1024 * 1024;
+
+  private final LruCache<String, Bitmap> tiles;
+  private final AtomicInteger            decodeCount = new AtomicInteger();
+
+  public EmojiTileCache(@NonNull Context context) {
+    this.tiles = new LruCache<String, Bitmap>(Util.isLowMemory(context) ? LOW_MEMORY_MAX_BYTES : MAX_BYTES) {
+      @Override
+      protected int sizeOf(@NonNull String key, @NonNull Bitmap value) {
+        return value.getByteCount();
+      }
+    };
+  }
+
+  @Nullable Bitmap get(@NonNull String key) {
+    return tiles.get(key);
+  }
+
+  /**
+   * Stores a freshly decoded tile.
+   *
+   * @return The number of tiles decoded so far, across all pages.
+   */
+  int putDecoded(@NonNull String key, @NonNull Bitmap tile) {
+    tiles.put(key, tile);
+    return decodeCount.incrementAndGet();
+  }
+
+  int getSize() {
+    return tiles.size();
+  }
+
+  int getMaxSize() {
+    return tiles.maxSize();
+  }
+}
@@ -22,30 +22,50 @@ package org.thoughtcrime.securesms.components.emoji.parsing;
 
 import androidx.annotation.Nullable;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.util.Arrays;
 
 /**
+ * A trie of emoji, keyed by UTF-16 char.
+ *
+ * Nodes are stored in flat arrays and referenced by index. Each node keeps its child keys as a
+ * sorted char array alongside a parallel array of child node indices, so lookups are a binary
+ * search over primitives and never allocate.
+ *
  * Based in part on code from emoji-java
  */
 public class EmojiTree {
 
-  private final EmojiTreeNode root = new EmojiTreeNode();
-
   private static final char TERMINATOR = '\ufe0f';
+  private static final int  ROOT       = 0;
+  private static final int  NONE       = -1;
+
+  private static final char[] NO_KEYS     = new char[0];
+  private static final int[]  NO_CHILDREN = new int[0];
+
+  private char[][]        childKeys  = new char[64][];
+  private int[][]         childNodes = new int[64][];
+  private EmojiDrawInfo[] emoji      = new EmojiDrawInfo[64];
+  private int             nodeCount;
+
+  public EmojiTree() {
+    newNode();
+  }
 
   public void add(String emojiEncoding, EmojiDrawInfo emoji) {
-    EmojiTreeNode tree = root;
+    int node = ROOT;
+
+    for (int i = 0; i < emojiEncoding.length(); i++) {
+      char c     = emojiEncoding.charAt(i);
+      int  child = getChild(node, c);
 
-    for (char c: emojiEncoding.toCharArray()) {
-      if (!tree.hasChild(c)) {
-        tree.addChild(c);
+      if (child == NONE) {
+        child = addChild(node, c);
       }
 
-      tree = tree.getChild(c);
+      node = child;
     }
 
-    tree.setEmoji(emoji);
+    this.emoji[node] = emoji;
   }
 
   public Matches isEmoji(CharSequence sequence, int startPosition, int endPosition) {
@@ -53,74 +73,134 @@ public class EmojiTree {
       return Matches.POSSIBLY;
     }
 
-    EmojiTreeNode tree = root;
-
-    for (int i=startPosition; i<endPosition; i++) {
-      char character = sequence.charAt(i);
-
-      if (!tree.hasChild(character)) {
-        return Matches.IMPOSSIBLE;
-      }
+    int node = walk(sequence, startPosition, endPosition);
 
-      tree = tree.getChild(character);
-    }
-
-    if (tree.isEndOfEmoji()) {
-      return Matches.EXACTLY;
-    } else if (sequence.charAt(endPosition-1) != TERMINATOR && tree.hasChild(TERMINATOR) && tree.getChild(TERMINATOR).isEndOfEmoji()) {
+    if (node == NONE) {
+      return Matches.IMPOSSIBLE;
+    } else if (isExactMatch(node, sequence.charAt(endPosition - 1))) {
       return Matches.EXACTLY;
     } else {
       return Matches.POSSIBLY;
     }
   }
 
-  public @Nullable EmojiDrawInfo getEmoji(CharSequence unicode, int startPosition, int endPostiion) {
-    EmojiTreeNode tree = root;
+  /**
+   * Finds the longest emoji starting at {@code startPosition} in a single pass.
+   *
+   * @return The end position (exclusive) of the longest emoji, or -1 if there is none.
+   */
+  public int findEmojiEnd(CharSequence sequence, int startPosition) {
+    int node = ROOT;
+    int best = NONE;
+
+    for (int i = startPosition; i < sequence.length(); i++) {
+      char c = sequence.charAt(i);
 
-    for (int i=startPosition; i<endPostiion; i++) {
-      char character = unicode.charAt(i);
+      node = getChild(node, c);
 
-      if (!tree.hasChild(character)) {
-        return null;
+      if (node == NONE) {
+        return best;
       }
 
-      tree = tree.getChild(character);
+      if (isExactMatch(node, c)) {
+        best = i + 1;
+      }
     }
 
-    if      (tree.getEmoji() != null)                                                  return tree.getEmoji();
-    else if (unicode.charAt(endPostiion-1) != TERMINATOR && tree.hasChild(TERMINATOR)) return tree.getChild(TERMINATOR).getEmoji();
-    else    return null;
+    return best;
   }
 
+  public @Nullable EmojiDrawInfo getEmoji(CharSequence unicode, int startPosition, int endPostiion) {
+    int node = walk(unicode, startPosition, endPostiion);
 
-  private static class EmojiTreeNode {
-
-    private Map<Character, EmojiTreeNode> children = new HashMap<>();
-    private EmojiDrawInfo emoji;
+    if (node == NONE) {
+      return null;
+    }
 
-    public void setEmoji(EmojiDrawInfo emoji) {
-      this.emoji = emoji;
+    if (emoji[node] != null) {
+      return emoji[node];
     }
 
-    public @Nullable EmojiDrawInfo getEmoji() {
-      return emoji;
+    if (unicode.charAt(endPostiion - 1) != TERMINATOR) {
+      int terminator = getChild(node, TERMINATOR);
+
+      if (terminator != NONE) {
+        return emoji[terminator];
+      }
     }
 
-    boolean hasChild(char child) {
-      return children.containsKey(child);
+    return null;
+  }
+
+  private int walk(CharSequence sequence, int startPosition, int endPosition) {
+    int node = ROOT;
+
+    for (int i = startPosition; i < endPosition && node != NONE; i++) {
+      node = getChild(node, sequence.charAt(i));
     }
 
-    void addChild(char child) {
-      children.put(child, new EmojiTreeNode());
+    return node;
+  }
+
+  /**
+   * An emoji may be written with or without its trailing variation selector, so a node also
+   * matches exactly if it's only one {@link #TERMINATOR} away from an emoji.
+   */
+  private boolean isExactMatch(int node, char lastChar) {
+    if (emoji[node] != null) {
+      return true;
     }
 
-    EmojiTreeNode getChild(char child) {
-      return children.get(child);
+    if (lastChar != TERMINATOR) {
+      int terminator = getChild(node, TERMINATOR);
+      return terminator != NONE && emoji[terminator] != null;
     }
 
-    boolean isEndOfEmoji() {
-      return emoji != null;
+    return false;
+  }
+
+  private int getChild(int node, char c) {
+    int index = Arrays.binarySearch(childKeys[node], c);
+    return index >= 0 ? childNodes[node][index] : NONE;
+  }
+
+  private int addChild(int node, char c) {
+    int    child     = newNode();
+    char[] keys      = childKeys[node];
+    int[]  children  = childNodes[node];
+    int    insertion = -(Arrays.binarySearch(keys, c) + 1);
+
+    char[] newKeys     = new char[keys.length + 1];
+    int[]  newChildren = new int[children.length + 1];
+
+    System.arraycopy(keys, 0, newKeys, 0, insertion);
+    System.arraycopy(children, 0, newChildren, 0, insertion);
+
+    newKeys[insertion]     = c;
+    newChildren[insertion] = child;
+
+    System.arraycopy(keys, insertion, newKeys, insertion + 1, keys.length - insertion);
+    System.arraycopy(children, insertion, newChildren, insertion + 1, children.length - insertion);
+
+    childKeys[node]  = newKeys;
+    childNodes[node] = newChildren;
+
+    return child;
+  }
+
+  private int newNode() {
+    if (nodeCount == emoji.length) {
+      int capacity = nodeCount * 2;
+
+      childKeys  = Arrays.copyOf(childKeys, capacity);
+      childNodes = Arrays.copyOf(childNodes, capacity);
+      emoji      = Arrays.copyOf(emoji, capacity);
     }
+
+    childKeys[nodeCount]  = NO_KEYS;
+    childNodes[nodeCount] = NO_CHILDREN;
+
+    return nodeCount++;
   }
 
   public enum Matches {
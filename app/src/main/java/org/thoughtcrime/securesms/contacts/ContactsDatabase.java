@@ -38,6 +38,7 @@ import org.thoughtcrime.securesms.util.Util;
 import org.whispersystems.libsignal.util.guava.Optional;
 
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
@@ -131,6 +132,26 @@ public class ContactsDatabase {
     }
   }
 
+  public synchronized void removeRegisteredUsers(@NonNull Account account, @NonNull Collection<String> addresses)
+      throws RemoteException, OperationApplicationException
+  {
+    ArrayList<ContentProviderOperation> operations      = new ArrayList<>();
+    Map<String, SignalContact>          currentContacts = getSignalRawContacts(account);
+
+    for (String address : addresses) {
+      SignalContact contact = currentContacts.get(address);
+
+      if (contact != null) {
+        Log.i(TAG, "Removing number: " + address);
+        removeTextSecureRawContact(operations, account, contact.getId());
+      }
+    }
+
+    if (!operations.isEmpty()) {
+      applyOperationsInBatches(context.getContentResolver(), ContactsContract.AUTHORITY, operations, 50);
+    }
+  }
+
   public @Nullable Cursor getNameDetails(long contactId) {
     String[] projection = new String[] { ContactsContract.CommonDataKinds.StructuredName.DISPLAY_NAME,
                                          ContactsContract.CommonDataKinds.StructuredName.GIVEN_NAME,
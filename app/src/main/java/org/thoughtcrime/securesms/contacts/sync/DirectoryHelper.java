@@ -25,6 +25,7 @@ import org.thoughtcrime.securesms.R;
 import org.thoughtcrime.securesms.contacts.ContactAccessor;
 import org.thoughtcrime.securesms.contacts.ContactsDatabase;
 import org.thoughtcrime.securesms.crypto.SessionUtil;
+import org.thoughtcrime.securesms.database.CdsDatabase;
 import org.thoughtcrime.securesms.database.DatabaseFactory;
 import org.thoughtcrime.securesms.database.MessageDatabase.InsertResult;
 import org.thoughtcrime.securesms.database.RecipientDatabase;
@@ -76,6 +77,9 @@ public class DirectoryHelper {
 
   private static final String TAG = Log.tag(DirectoryHelper.class);
 
+  private static final long DELTA_STALE_AGE       = TimeUnit.DAYS.toMillis(7);
+  private static final long FULL_REFRESH_INTERVAL = TimeUnit.DAYS.toMillis(30);
+
   @WorkerThread
   public static void refreshDirectory(@NonNull Context context, boolean notifyOfNewUsers) throws IOException {
     if (TextUtils.isEmpty(TextSecurePreferences.getLocalNumber(context))) {
@@ -98,7 +102,7 @@ public class DirectoryHelper {
     Set<String>       databaseNumbers   = sanitizeNumbers(recipientDatabase.getAllPhoneNumbers());
     Set<String>       systemNumbers     = sanitizeNumbers(ContactAccessor.getInstance().getAllContactsWithNumbers(context));
 
-    refreshNumbers(context, databaseNumbers, systemNumbers, notifyOfNewUsers);
+    refreshNumbers(context, databaseNumbers, systemNumbers, notifyOfNewUsers, true);
 
     StorageSyncHelper.scheduleSyncForDataChange();
   }
@@ -122,7 +126,7 @@ public class DirectoryHelper {
                                 .map(Recipient::requireE164)
                                 .collect(Collectors.toSet());
 
-    refreshNumbers(context, numbers, numbers, notifyOfNewUsers);
+    refreshNumbers(context, numbers, numbers, notifyOfNewUsers, false);
   }
 
   @WorkerThread
@@ -186,7 +190,7 @@ public class DirectoryHelper {
     }
 
     if (Permissions.hasAll(context, Manifest.permission.WRITE_CONTACTS)) {
-      updateContactsDatabase(context, Collections.singletonList(recipient.getId()), false, result.getNumberRewrites());
+      updateContactsDatabase(context, Collections.singletonList(recipient.getId()), Collections.emptyList(), false, result.getNumberRewrites());
     }
 
     newRegisteredState = result.getRegisteredNumbers().size() > 0 ? RegisteredState.REGISTERED : RegisteredState.NOT_REGISTERED;
@@ -208,9 +212,21 @@ public class DirectoryHelper {
     return newRegisteredState;
   }
 
+  /**
+   * @param deltaOnly If true, only numbers that have never been checked or haven't been checked in
+   *                  a while are sent to the server, and only recipients whose result changed are
+   *                  written. A full refresh is still forced periodically.
+   */
   @WorkerThread
-  private static void refreshNumbers(@NonNull Context context, @NonNull Set<String> databaseNumbers, @NonNull Set<String> systemNumbers, boolean notifyOfNewUsers) throws IOException {
+  private static void refreshNumbers(@NonNull Context context,
+                                     @NonNull Set<String> databaseNumbers,
+                                     @NonNull Set<String> systemNumbers,
+                                     boolean notifyOfNewUsers,
+                                     boolean deltaOnly)
+      throws IOException
+  {
     RecipientDatabase recipientDatabase = DatabaseFactory.getRecipientDatabase(context);
+    CdsDatabase       cdsDatabase       = DatabaseFactory.getCdsDatabase(context);
     Set<String>       allNumbers        = SetUtil.union(databaseNumbers, systemNumbers);
 
     if (allNumbers.isEmpty()) {
@@ -218,9 +234,22 @@ public class DirectoryHelper {
       return;
     }
 
+    long    now         = System.currentTimeMillis();
+    boolean fullRefresh = !deltaOnly || now - SignalStore.misc().getLastFullCdsRefreshTime() > FULL_REFRESH_INTERVAL;
+
+    Set<String> queryNumbers = fullRefresh ? allNumbers : cdsDatabase.getStaleNumbers(allNumbers, now - DELTA_STALE_AGE);
+
+    Log.i(TAG, "[refreshNumbers] " + (fullRefresh ? "Full" : "Delta") + " refresh. Querying " + queryNumbers.size() + " numbers, skipping " + (allNumbers.size() - queryNumbers.size()) + " recently checked numbers.");
+
+    if (queryNumbers.isEmpty()) {
+      return;
+    }
+
     Stopwatch stopwatch = new Stopwatch("refresh");
 
-    DirectoryResult result = ContactDiscoveryV2.getDirectoryResult(context, databaseNumbers, systemNumbers);
+    DirectoryResult result = ContactDiscoveryV2.getDirectoryResult(context,
+                                                                   SetUtil.intersection(databaseNumbers, queryNumbers),
+                                                                   SetUtil.intersection(systemNumbers, queryNumbers));
 
     stopwatch.split("network");
 
@@ -229,15 +258,37 @@ public class DirectoryHelper {
       recipientDatabase.updatePhoneNumbers(result.getNumberRewrites());
     }
 
-    Map<RecipientId, String> uuidMap       = recipientDatabase.bulkProcessCdsResult(result.getRegisteredNumbers());
-    Set<String>              activeNumbers = result.getRegisteredNumbers().keySet();
-    Set<RecipientId>         activeIds     = uuidMap.keySet();
-    Set<RecipientId>         inactiveIds   = Stream.of(allNumbers)
-                                                   .filterNot(activeNumbers::contains)
-                                                   .filterNot(n -> result.getNumberRewrites().containsKey(n))
-                                                   .filterNot(n -> result.getIgnoredNumbers().contains(n))
-                                                   .map(recipientDatabase::getOrInsertFromE164)
-                                                   .collect(Collectors.toSet());
+    Map<String, UUID> registeredNumbers = result.getRegisteredNumbers();
+    Set<String>       inactiveNumbers   = Stream.of(queryNumbers)
+                                                .filterNot(registeredNumbers::containsKey)
+                                                .filterNot(n -> result.getNumberRewrites().containsKey(n))
+                                                .filterNot(n -> result.getIgnoredNumbers().contains(n))
+                                                .collect(Collectors.toSet());
+
+    Set<String> noResultNumbers = SetUtil.union(SetUtil.intersection(result.getNumberRewrites().keySet(), queryNumbers),
+                                                SetUtil.intersection(result.getIgnoredNumbers(), queryNumbers));
+
+    Map<String, UUID> numbersToWrite  = registeredNumbers;
+    Set<String>       inactiveToWrite = inactiveNumbers;
+
+    if (!fullRefresh) {
+      // Compared against the recipients rather than the last results, since other paths (like
+      // marking someone unregistered after a failed send, or storage sync) change them too.
+      Set<String> changedNumbers = recipientDatabase.getNumbersWithChangedRegistration(registeredNumbers, inactiveNumbers);
+
+      numbersToWrite  = Stream.of(registeredNumbers.entrySet())
+                              .filter(e -> changedNumbers.contains(e.getKey()))
+                              .collect(Collectors.toMap(Map.Entry::getKey, Map.Entry::getValue));
+      inactiveToWrite = SetUtil.intersection(inactiveNumbers, changedNumbers);
+    }
+
+    Log.i(TAG, "[refreshNumbers] Writing " + (numbersToWrite.size() + inactiveToWrite.size()) + " of " + (registeredNumbers.size() + inactiveNumbers.size()) + " recipients.");
+
+    stopwatch.split("diff-recipients");
+
+    Map<RecipientId, String> uuidMap     = recipientDatabase.bulkProcessCdsResult(numbersToWrite);
+    Set<RecipientId>         activeIds   = uuidMap.keySet();
+    Set<RecipientId>         inactiveIds = recipientDatabase.bulkGetOrInsertFromE164(inactiveToWrite);
 
     stopwatch.split("process-cds");
 
@@ -258,7 +309,17 @@ public class DirectoryHelper {
 
     stopwatch.split("update-registered");
 
-    updateContactsDatabase(context, activeIds, true, result.getNumberRewrites());
+    // Only recorded once the recipients are written, so that if we die before then, the next
+    // refresh checks these numbers again instead of skipping them.
+    cdsDatabase.updateResults(registeredNumbers, inactiveNumbers, noResultNumbers, now);
+
+    stopwatch.split("cds-record");
+
+    if (fullRefresh) {
+      updateContactsDatabase(context, activeIds, Collections.emptyList(), true, result.getNumberRewrites());
+    } else {
+      updateContactsDatabase(context, activeIds, inactiveIds, false, result.getNumberRewrites());
+    }
 
     stopwatch.split("contacts-db");
 
@@ -278,6 +339,10 @@ public class DirectoryHelper {
       TextSecurePreferences.setHasSuccessfullyRetrievedDirectory(context, true);
     }
 
+    if (deltaOnly && fullRefresh) {
+      SignalStore.misc().setLastFullCdsRefreshTime(now);
+    }
+
     stopwatch.stop(TAG);
   }
 
@@ -291,8 +356,14 @@ public class DirectoryHelper {
     }
   }
 
+  /**
+   * @param inactiveIds   Recipients to remove from the contacts database, regardless of
+   *                      removeMissing.
+   * @param removeMissing Whether to remove everyone not in activeIds.
+   */
   private static void updateContactsDatabase(@NonNull Context context,
                                              @NonNull Collection<RecipientId> activeIds,
+                                             @NonNull Collection<RecipientId> inactiveIds,
                                              boolean removeMissing,
                                              @NonNull Map<String, String> rewrites)
   {
@@ -317,9 +388,19 @@ public class DirectoryHelper {
                                                   .map(Recipient::requireE164)
                                                   .toList();
 
+      List<String>      inactiveAddresses = Stream.of(inactiveIds)
+                                                  .map(Recipient::resolved)
+                                                  .filter(Recipient::hasE164)
+                                                  .map(Recipient::requireE164)
+                                                  .toList();
+
       contactsDatabase.removeDeletedRawContacts(account.getAccount());
       contactsDatabase.setRegisteredUsers(account.getAccount(), activeAddresses, removeMissing);
 
+      if (!inactiveAddresses.isEmpty()) {
+        contactsDatabase.removeRegisteredUsers(account.getAccount(), inactiveAddresses);
+      }
+
       Cursor               cursor = ContactAccessor.getInstance().getAllSystemContacts(context);
       BulkOperationsHandle handle = recipientDatabase.beginBulkSystemContactUpdate();
 
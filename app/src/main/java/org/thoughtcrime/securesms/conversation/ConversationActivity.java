@@ -1049,6 +1049,7 @@ public class ConversationActivity extends PassphraseRequiredActivity
   @Override
   public void onKeyboardShown() {
     inputPanel.onKeyboardShown();
+    stickerViewModel.onKeyboardShown();
   }
 
   @Subscribe(threadMode = ThreadMode.MAIN)
@@ -39,7 +39,6 @@ import android.text.style.ClickableSpan;
 import android.text.style.ForegroundColorSpan;
 import android.text.style.StyleSpan;
 import android.text.style.URLSpan;
-import android.text.util.Linkify;
 import android.util.AttributeSet;
 import android.util.TypedValue;
 import android.view.View;
@@ -56,8 +55,6 @@ import androidx.appcompat.app.AlertDialog;
 import androidx.core.content.ContextCompat;
 import androidx.lifecycle.LifecycleOwner;
 
-import com.annimon.stream.Stream;
-
 import org.signal.core.util.logging.Log;
 import org.thoughtcrime.securesms.BindableConversationItem;
 import org.thoughtcrime.securesms.ConfirmIdentityDialog;
@@ -76,6 +73,7 @@ import org.thoughtcrime.securesms.components.Outliner;
 import org.thoughtcrime.securesms.components.QuoteView;
 import org.thoughtcrime.securesms.components.SharedContactView;
 import org.thoughtcrime.securesms.components.emoji.EmojiTextView;
+import org.thoughtcrime.securesms.components.emoji.parsing.EmojiParser;
 import org.thoughtcrime.securesms.components.mention.MentionAnnotation;
 import org.thoughtcrime.securesms.contactshare.Contact;
 import org.thoughtcrime.securesms.database.AttachmentDatabase;
@@ -92,7 +90,6 @@ import org.thoughtcrime.securesms.jobs.MmsDownloadJob;
 import org.thoughtcrime.securesms.jobs.MmsSendJob;
 import org.thoughtcrime.securesms.jobs.SmsSendJob;
 import org.thoughtcrime.securesms.linkpreview.LinkPreview;
-import org.thoughtcrime.securesms.linkpreview.LinkPreviewUtil;
 import org.thoughtcrime.securesms.mms.GlideRequests;
 import org.thoughtcrime.securesms.mms.ImageSlide;
 import org.thoughtcrime.securesms.mms.PartAuthority;
@@ -545,8 +542,15 @@ public final class ConversationItem extends RelativeLayout implements BindableCo
     }
   }
 
+  private boolean isDisplayBodyEmpty(@NonNull MessageRecord messageRecord) {
+    if (conversationMessage != null && conversationMessage.getMessageRecord() == messageRecord) {
+      return conversationMessage.isDisplayBodyEmpty(getContext());
+    }
+    return TextUtils.isEmpty(messageRecord.getDisplayBody(getContext()));
+  }
+
   private boolean isCaptionlessMms(MessageRecord messageRecord) {
-    return TextUtils.isEmpty(messageRecord.getDisplayBody(getContext())) && messageRecord.isMms() && ((MmsMessageRecord) messageRecord).getSlideDeck().getTextSlide() == null;
+    return isDisplayBodyEmpty(messageRecord) && messageRecord.isMms() && ((MmsMessageRecord) messageRecord).getSlideDeck().getTextSlide() == null;
   }
 
   private boolean hasAudio(MessageRecord messageRecord) {
@@ -651,10 +655,29 @@ public final class ConversationItem extends RelativeLayout implements BindableCo
     } else if (isCaptionlessMms(messageRecord)) {
       bodyText.setVisibility(View.GONE);
     } else {
-      Spannable styledText = conversationMessage.getDisplayBody(getContext());
-      if (messageRequestAccepted) {
-        linkifyMessageBody(styledText, batchSelected.isEmpty());
+      PrecomputedMessageBody    precomputedBody = conversationMessage.getPrecomputedBody();
+      EmojiParser.CandidateList emojiCandidates = null;
+      Spannable                 styledText;
+
+      if (precomputedBody != null) {
+        styledText      = precomputedBody.getLinkifiedBody();
+        emojiCandidates = precomputedBody.getEmojiCandidates();
+
+        if (!messageRequestAccepted || !batchSelected.isEmpty()) {
+          removeLinks(styledText);
+        }
+
+        if (messageRequestAccepted) {
+          setClickableSpans(styledText);
+        }
+      } else {
+        styledText = conversationMessage.getDisplayBody(getContext());
+
+        if (messageRequestAccepted) {
+          linkifyMessageBody(styledText, batchSelected.isEmpty());
+        }
       }
+
       styledText = SearchUtil.getHighlightedSpan(locale, () -> new BackgroundColorSpan(Color.YELLOW), styledText, searchQuery);
       styledText = SearchUtil.getHighlightedSpan(locale, () -> new ForegroundColorSpan(Color.BLACK), styledText, searchQuery);
 
@@ -670,7 +693,11 @@ public final class ConversationItem extends RelativeLayout implements BindableCo
         bodyText.setMentionBackgroundTint(ContextCompat.getColor(context, R.color.transparent_black_40));
       }
 
-      bodyText.setText(StringUtil.trim(styledText));
+      if (emojiCandidates != null) {
+        bodyText.setText(styledText, emojiCandidates);
+      } else {
+        bodyText.setText(StringUtil.trim(styledText));
+      }
       bodyText.setVisibility(View.VISIBLE);
     }
   }
@@ -854,7 +881,7 @@ public final class ConversationItem extends RelativeLayout implements BindableCo
       mediaThumbnailStub.get().setDownloadClickListener(downloadClickListener);
       mediaThumbnailStub.get().setOnLongClickListener(passthroughClickListener);
       mediaThumbnailStub.get().setOnClickListener(passthroughClickListener);
-      mediaThumbnailStub.get().showShade(TextUtils.isEmpty(messageRecord.getDisplayBody(getContext())) && !hasExtraText(messageRecord));
+      mediaThumbnailStub.get().showShade(isDisplayBodyEmpty(messageRecord) && !hasExtraText(messageRecord));
       mediaThumbnailStub.get().setConversationColor(messageRecord.isOutgoing() ? getDefaultBubbleColor(hasWallpaper)
                                                                                : messageRecord.getRecipient().getColor().toConversationColor(context));
       mediaThumbnailStub.get().setBorderless(false);
@@ -921,7 +948,7 @@ public final class ConversationItem extends RelativeLayout implements BindableCo
       }
     }
 
-    if (!TextUtils.isEmpty(current.getDisplayBody(getContext()))) {
+    if (!isDisplayBodyEmpty(current)) {
       bottomLeft  = 0;
       bottomRight = 0;
     }
@@ -945,7 +972,7 @@ public final class ConversationItem extends RelativeLayout implements BindableCo
   }
 
   private void setSharedContactCorners(@NonNull MessageRecord current, @NonNull Optional<MessageRecord> previous, @NonNull Optional<MessageRecord> next, boolean isGroupThread) {
-    if (TextUtils.isEmpty(messageRecord.getDisplayBody(getContext()))){
+    if (isDisplayBodyEmpty(messageRecord)) {
       if (isSingularMessage(current, previous, next, isGroupThread) || isEndOfMessageCluster(current, next, isGroupThread)) {
           sharedContactStub.get().setSingularStyle();
       } else if (current.isOutgoing()) {
@@ -990,22 +1017,21 @@ public final class ConversationItem extends RelativeLayout implements BindableCo
   private void linkifyMessageBody(@NonNull Spannable messageBody,
                                   boolean shouldLinkifyAllLinks)
   {
-    int     linkPattern = Linkify.WEB_URLS | Linkify.EMAIL_ADDRESSES | Linkify.PHONE_NUMBERS;
-    boolean hasLinks    = Linkify.addLinks(messageBody, shouldLinkifyAllLinks ? linkPattern : 0);
+    if (shouldLinkifyAllLinks) {
+      PrecomputedMessageBody.addLegalLinks(messageBody);
+    }
 
-    if (hasLinks) {
-      Stream.of(messageBody.getSpans(0, messageBody.length(), URLSpan.class))
-            .filterNot(url -> LinkPreviewUtil.isLegalUrl(url.getURL()))
-            .forEach(messageBody::removeSpan);
+    setClickableSpans(messageBody);
+  }
 
-      URLSpan[] urlSpans = messageBody.getSpans(0, messageBody.length(), URLSpan.class);
+  private void setClickableSpans(@NonNull Spannable messageBody) {
+    URLSpan[] urlSpans = messageBody.getSpans(0, messageBody.length(), URLSpan.class);
 
-      for (URLSpan urlSpan : urlSpans) {
-        int     start = messageBody.getSpanStart(urlSpan);
-        int     end   = messageBody.getSpanEnd(urlSpan);
-        URLSpan span  = new InterceptableLongClickCopyLinkSpan(urlSpan.getURL(), urlClickListener);
-        messageBody.setSpan(span, start, end, Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
-      }
+    for (URLSpan urlSpan : urlSpans) {
+      int     start = messageBody.getSpanStart(urlSpan);
+      int     end   = messageBody.getSpanEnd(urlSpan);
+      URLSpan span  = new InterceptableLongClickCopyLinkSpan(urlSpan.getURL(), urlClickListener);
+      messageBody.setSpan(span, start, end, Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
     }
 
     List<Annotation> mentionAnnotations = MentionAnnotation.getMentionAnnotations(messageBody);
@@ -1014,6 +1040,12 @@ public final class ConversationItem extends RelativeLayout implements BindableCo
     }
   }
 
+  private static void removeLinks(@NonNull Spannable messageBody) {
+    for (URLSpan urlSpan : messageBody.getSpans(0, messageBody.length(), URLSpan.class)) {
+      messageBody.removeSpan(urlSpan);
+    }
+  }
+
   private void setStatusIcons(MessageRecord messageRecord, boolean hasWallpaper) {
     bodyText.setCompoundDrawablesWithIntrinsicBounds(0, 0, messageRecord.isKeyExchange() ? R.drawable.ic_menu_login : 0, 0);
 
@@ -1152,9 +1184,9 @@ public final class ConversationItem extends RelativeLayout implements BindableCo
   private ConversationItemFooter getActiveFooter(@NonNull MessageRecord messageRecord) {
     if (hasNoBubble(messageRecord)) {
       return stickerFooter;
-    } else if (hasSharedContact(messageRecord) && TextUtils.isEmpty(messageRecord.getDisplayBody(getContext()))) {
+    } else if (hasSharedContact(messageRecord) && isDisplayBodyEmpty(messageRecord)) {
       return sharedContactStub.get().getFooter();
-    } else if (hasOnlyThumbnail(messageRecord) && TextUtils.isEmpty(messageRecord.getDisplayBody(getContext()))) {
+    } else if (hasOnlyThumbnail(messageRecord) && isDisplayBodyEmpty(messageRecord)) {
       return mediaThumbnailStub.get().getFooter();
     } else {
       return footer;
@@ -2,6 +2,7 @@ package org.thoughtcrime.securesms.conversation;
 
 import android.content.Context;
 import android.text.SpannableString;
+import android.text.TextUtils;
 
 import androidx.annotation.AnyThread;
 import androidx.annotation.NonNull;
@@ -24,9 +25,10 @@ import java.util.List;
  * for various presentations.
  */
 public class ConversationMessage {
-  @NonNull  private final MessageRecord   messageRecord;
-  @NonNull  private final List<Mention>   mentions;
-  @Nullable private final SpannableString body;
+  @NonNull  private final MessageRecord          messageRecord;
+  @NonNull  private final List<Mention>          mentions;
+  @Nullable private final SpannableString        body;
+  @Nullable private final PrecomputedMessageBody precomputedBody;
 
   private ConversationMessage(@NonNull MessageRecord messageRecord) {
     this(messageRecord, null, null);
@@ -35,6 +37,18 @@ public class ConversationMessage {
   private ConversationMessage(@NonNull MessageRecord messageRecord,
                               @Nullable CharSequence body,
                               @Nullable List<Mention> mentions)
+  {
+    this(null, messageRecord, body, mentions);
+  }
+
+  /**
+   * @param context If present, the rendering of the body is precomputed, so this must only be
+   *                provided from a background thread.
+   */
+  private ConversationMessage(@Nullable Context context,
+                              @NonNull MessageRecord messageRecord,
+                              @Nullable CharSequence body,
+                              @Nullable List<Mention> mentions)
   {
     this.messageRecord = messageRecord;
     this.body          = body != null ? SpannableString.valueOf(body) : null;
@@ -43,6 +57,8 @@ public class ConversationMessage {
     if (!this.mentions.isEmpty() && this.body != null) {
       MentionAnnotation.setMentionAnnotations(this.body, this.mentions);
     }
+
+    this.precomputedBody = context != null ? PrecomputedMessageBody.create(context, getUnprecomputedDisplayBody(context)) : null;
   }
 
   public @NonNull MessageRecord getMessageRecord() {
@@ -74,6 +90,28 @@ public class ConversationMessage {
   }
 
   public @NonNull SpannableString getDisplayBody(Context context) {
+    if (precomputedBody != null) {
+      return precomputedBody.getDisplayBody();
+    }
+    return getUnprecomputedDisplayBody(context);
+  }
+
+  public boolean isDisplayBodyEmpty(@NonNull Context context) {
+    if (precomputedBody != null) {
+      return precomputedBody.isDisplayBodyEmpty();
+    }
+    return TextUtils.isEmpty(getUnprecomputedDisplayBody(context));
+  }
+
+  /**
+   * @return The rendering work for the body that was done ahead of time, or null if this message
+   *         was created on the main thread and nothing was precomputed.
+   */
+  @Nullable PrecomputedMessageBody getPrecomputedBody() {
+    return precomputedBody;
+  }
+
+  private @NonNull SpannableString getUnprecomputedDisplayBody(@NonNull Context context) {
     if (mentions.isEmpty() || body == null) {
       return messageRecord.getDisplayBody(context);
     }
@@ -112,7 +150,8 @@ public class ConversationMessage {
 
     /**
      * Creates a {@link ConversationMessage} wrapping the provided MessageRecord and will update and modify the provided
-     * mentions from placeholder to actual. This method may perform database operations to resolve mentions to display names.
+     * mentions from placeholder to actual. This method may perform database operations to resolve mentions to display names,
+     * and precomputes the rendering of the body.
      *
      * @param mentions List of placeholder mentions to be used to update the body in the provided MessageRecord.
      */
@@ -120,15 +159,16 @@ public class ConversationMessage {
     public static @NonNull ConversationMessage createWithUnresolvedData(@NonNull Context context, @NonNull MessageRecord messageRecord, @Nullable List<Mention> mentions) {
       if (messageRecord.isMms() && mentions != null && !mentions.isEmpty()) {
         MentionUtil.UpdatedBodyAndMentions updated = MentionUtil.updateBodyAndMentionsWithDisplayNames(context, messageRecord, mentions);
-        return new ConversationMessage(messageRecord, updated.getBody(), updated.getMentions());
+        return new ConversationMessage(context, messageRecord, updated.getBody(), updated.getMentions());
       }
-      return createWithResolvedData(messageRecord);
+      return new ConversationMessage(context, messageRecord, null, null);
     }
 
     /**
      * Creates a {@link ConversationMessage} wrapping the provided MessageRecord, and will query for potential mentions. If mentions
      * are found, the body of the provided message will be updated and modified to match actual mentions. This will perform
-     * database operations to query for mentions and then to resolve mentions to display names.
+     * database operations to query for mentions and then to resolve mentions to display names, and precomputes the rendering
+     * of the body.
      */
     @WorkerThread
     public static @NonNull ConversationMessage createWithUnresolvedData(@NonNull Context context, @NonNull MessageRecord messageRecord) {
@@ -136,10 +176,10 @@ public class ConversationMessage {
         List<Mention> mentions = DatabaseFactory.getMentionDatabase(context).getMentionsForMessage(messageRecord.getId());
         if (!mentions.isEmpty()) {
           MentionUtil.UpdatedBodyAndMentions updated = MentionUtil.updateBodyAndMentionsWithDisplayNames(context, messageRecord, mentions);
-          return new ConversationMessage(messageRecord, updated.getBody(), updated.getMentions());
+          return new ConversationMessage(context, messageRecord, updated.getBody(), updated.getMentions());
         }
       }
-      return createWithResolvedData(messageRecord);
+      return new ConversationMessage(context, messageRecord, null, null);
     }
   }
 }
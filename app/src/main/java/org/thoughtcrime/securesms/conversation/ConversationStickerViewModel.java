@@ -55,6 +55,10 @@ class ConversationStickerViewModel extends ViewModel {
     return stickersAvailable;
   }
 
+  void onKeyboardShown() {
+    repository.warmUp();
+  }
+
   void onInputTextUpdated(@NonNull String text) {
     if (TextUtils.isEmpty(text) || text.length() > EmojiUtil.MAX_EMOJI_LENGTH) {
       stickers.setValue(CursorList.emptyList());
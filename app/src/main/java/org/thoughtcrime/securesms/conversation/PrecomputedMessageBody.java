@@ -0,0 +1,99 @@
+package org.thoughtcrime.securesms.conversation;
+
+import android.content.Context;
+import android.text.Spannable;
+import android.text.SpannableString;
+import android.text.style.URLSpan;
+import android.text.util.Linkify;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.WorkerThread;
+
+import org.thoughtcrime.securesms.components.emoji.EmojiUtil;
+import org.thoughtcrime.securesms.components.emoji.parsing.EmojiParser;
+import org.thoughtcrime.securesms.linkpreview.LinkPreviewUtil;
+import org.thoughtcrime.securesms.util.StringUtil;
+
+/**
+ * The parts of rendering a message body that don't depend on the view it's shown in, computed
+ * ahead of time on a background thread so that binding only has to apply them.
+ */
+final class PrecomputedMessageBody {
+
+  private static final int LINK_PATTERN = Linkify.WEB_URLS | Linkify.EMAIL_ADDRESSES | Linkify.PHONE_NUMBERS;
+
+  private final SpannableString           displayBody;
+  private final SpannableString           linkifiedBody;
+  private final EmojiParser.CandidateList emojiCandidates;
+
+  private PrecomputedMessageBody(@NonNull SpannableString displayBody,
+                                 @NonNull SpannableString linkifiedBody,
+                                 @Nullable EmojiParser.CandidateList emojiCandidates)
+  {
+    this.displayBody     = displayBody;
+    this.linkifiedBody   = linkifiedBody;
+    this.emojiCandidates = emojiCandidates;
+  }
+
+  @WorkerThread
+  static @NonNull PrecomputedMessageBody create(@NonNull Context context, @NonNull SpannableString displayBody) {
+    SpannableString linkifiedBody = new SpannableString(StringUtil.trim(displayBody));
+
+    addLegalLinks(linkifiedBody);
+
+    return new PrecomputedMessageBody(displayBody,
+                                      linkifiedBody,
+                                      EmojiUtil.getCandidates(context, linkifiedBody));
+  }
+
+  /**
+   * Adds {@link URLSpan}s for every web URL, email address and phone number in the text, skipping
+   * any URLs we don't consider safe to show as links.
+   *
+   * @return True if any links were added.
+   */
+  static boolean addLegalLinks(@NonNull Spannable text) {
+    if (!Linkify.addLinks(text, LINK_PATTERN)) {
+      return false;
+    }
+
+    boolean hasLegalLinks = false;
+
+    for (URLSpan urlSpan : text.getSpans(0, text.length(), URLSpan.class)) {
+      if (LinkPreviewUtil.isLegalUrl(urlSpan.getURL())) {
+        hasLegalLinks = true;
+      } else {
+        text.removeSpan(urlSpan);
+      }
+    }
+
+    return hasLegalLinks;
+  }
+
+  /**
+   * @return A copy of the full display body, safe to modify.
+   */
+  @NonNull SpannableString getDisplayBody() {
+    return new SpannableString(displayBody);
+  }
+
+  boolean isDisplayBodyEmpty() {
+    return displayBody.length() == 0;
+  }
+
+  /**
+   * @return A copy of the display body with surrounding whitespace trimmed and {@link URLSpan}s
+   *         already applied, safe to modify.
+   */
+  @NonNull SpannableString getLinkifiedBody() {
+    return new SpannableString(linkifiedBody);
+  }
+
+  /**
+   * @return Emoji candidates for the text returned by {@link #getLinkifiedBody()}.
+   */
+  @Nullable EmojiParser.CandidateList getEmojiCandidates() {
+    return emojiCandidates;
+  }
+}
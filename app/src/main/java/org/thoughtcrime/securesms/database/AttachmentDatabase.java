@@ -58,8 +58,9 @@ import org.thoughtcrime.securesms.util.CursorUtil;
 import org.thoughtcrime.securesms.util.FileUtils;
 import org.thoughtcrime.securesms.util.JsonUtils;
 import org.thoughtcrime.securesms.util.MediaUtil;
-import org.thoughtcrime.securesms.util.SetUtil;
+import org.thoughtcrime.securesms.util.SqlUtil;
 import org.thoughtcrime.securesms.util.StorageUtil;
+import org.thoughtcrime.securesms.util.Util;
 import org.thoughtcrime.securesms.video.EncryptedMediaDataSource;
 import org.whispersystems.libsignal.util.guava.Optional;
 import org.whispersystems.signalservice.internal.util.JsonUtil;
@@ -71,6 +72,8 @@ import java.io.OutputStream;
 import java.security.DigestInputStream;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
@@ -80,6 +83,7 @@ import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.TimeUnit;
 
 public class AttachmentDatabase extends Database {
   
@@ -118,6 +122,8 @@ public class AttachmentDatabase extends Database {
           static final String DISPLAY_ORDER          = "display_order";
           static final String UPLOAD_TIMESTAMP       = "upload_timestamp";
           static final String CDN_NUMBER             = "cdn_number";
+          static final String THREAD_ID              = "thread_id";
+          static final String MEDIA_KIND             = "media_kind";
 
   public  static final String DIRECTORY              = "parts";
 
@@ -178,7 +184,13 @@ public class AttachmentDatabase extends Database {
                                                                                   TRANSFER_FILE          + " TEXT DEFAULT NULL, " +
                                                                                   DISPLAY_ORDER          + " INTEGER DEFAULT 0, " +
                                                                                   UPLOAD_TIMESTAMP       + " INTEGER DEFAULT 0, " +
-                                                                                  CDN_NUMBER             + " INTEGER DEFAULT 0);";
+                                                                                  CDN_NUMBER             + " INTEGER DEFAULT 0, " +
+                                                                                  THREAD_ID              + " INTEGER DEFAULT NULL, " +
+                                                                                  MEDIA_KIND             + " INTEGER DEFAULT 0);";
+
+  private static final long   ABANDONED_FILE_MIN_AGE = TimeUnit.HOURS.toMillis(1);
+  private static final String PROGRESS_FILE_SUFFIX   = ".progress";
+  private static final String TEMP_FILE_SUFFIX       = ".tmp";
 
   public static final String[] CREATE_INDEXS = {
     "CREATE INDEX IF NOT EXISTS part_mms_id_index ON " + TABLE_NAME + " (" + MMS_ID + ");",
@@ -441,28 +453,74 @@ public class AttachmentDatabase extends Database {
     db.delete(TABLE_NAME, where, null);
   }
 
-  public void deleteAbandonedAttachmentFiles() {
-    Set<String> filesOnDisk = new HashSet<>();
-    Set<String> filesInDb   = new HashSet<>();
+  /**
+   * Starts a sweep for attachment files that are no longer referenced by the database, beginning
+   * with the first file whose name sorts after {@code startAfter}. The attachment directory is
+   * listed and sorted once for the whole sweep, as are the files referenced by stickers and by
+   * in-progress transfers, and the returned sweeper then works through the listing a page at a time.
+   */
+  public @NonNull AbandonedFileSweeper newAbandonedFileSweeper(@NonNull String startAfter) {
+    File     attachmentDirectory = context.getDir(DIRECTORY, Context.MODE_PRIVATE);
+    String[] fileNames           = attachmentDirectory.list();
 
-    File attachmentDirectory = context.getDir(DIRECTORY, Context.MODE_PRIVATE);
-    for (File file : attachmentDirectory.listFiles()) {
-      filesOnDisk.add(file.getAbsolutePath());
+    if (fileNames == null) {
+      fileNames = new String[0];
     }
 
-    try (Cursor cursor = databaseHelper.getReadableDatabase().query(true, TABLE_NAME, new String[] { DATA }, null, null, null, null, null, null)) {
-      while (cursor != null && cursor.moveToNext()) {
-        filesInDb.add(CursorUtil.requireString(cursor, DATA));
+    Arrays.sort(fileNames);
+
+    int start = Arrays.binarySearch(fileNames, startAfter);
+    start = start >= 0 ? start + 1 : -(start + 1);
+
+    Set<String> alwaysReferenced = new HashSet<>(DatabaseFactory.getStickerDatabase(context).getAllStickerFiles());
+    alwaysReferenced.addAll(getTransferFiles());
+
+    return new AbandonedFileSweeper(attachmentDirectory, fileNames, start, alwaysReferenced);
+  }
+
+  private @NonNull Set<String> getReferencedFiles(@NonNull Collection<String> paths) {
+    SQLiteDatabase db         = databaseHelper.getReadableDatabase();
+    Set<String>    referenced = new HashSet<>();
+
+    for (List<String> chunk : Util.chunk(new ArrayList<>(paths), 500)) {
+      SqlUtil.Query query = SqlUtil.buildCollectionQuery(DATA, chunk);
+
+      try (Cursor cursor = db.query(true, TABLE_NAME, new String[] { DATA }, query.getWhere(), query.getWhereArgs(), null, null, null, null)) {
+        while (cursor != null && cursor.moveToNext()) {
+          referenced.add(CursorUtil.requireString(cursor, DATA));
+        }
       }
     }
 
-    filesInDb.addAll(DatabaseFactory.getStickerDatabase(context).getAllStickerFiles());
+    return referenced;
+  }
 
-    Set<String> onDiskButNotInDatabase = SetUtil.difference(filesOnDisk, filesInDb);
+  private @NonNull Set<String> getTransferFiles() {
+    SQLiteDatabase db    = databaseHelper.getReadableDatabase();
+    Set<String>    files = new HashSet<>();
 
-    for (String filePath : onDiskButNotInDatabase) {
-      //noinspection ResultOfMethodCallIgnored
-      new File(filePath).delete();
+    try (Cursor cursor = db.query(true, TABLE_NAME, new String[] { TRANSFER_FILE }, TRANSFER_FILE + " NOT NULL", null, null, null, null, null)) {
+      while (cursor != null && cursor.moveToNext()) {
+        files.add(CursorUtil.requireString(cursor, TRANSFER_FILE));
+      }
+    }
+
+    return files;
+  }
+
+  /**
+   * @return The file that a progress or temporary file was written alongside, or the path itself if
+   *         it isn't one of those.
+   */
+  private static @NonNull String getOwningFile(@NonNull String path) {
+    while (true) {
+      if (path.endsWith(TEMP_FILE_SUFFIX)) {
+        path = path.substring(0, path.length() - TEMP_FILE_SUFFIX.length());
+      } else if (path.endsWith(PROGRESS_FILE_SUFFIX)) {
+        path = path.substring(0, path.length() - PROGRESS_FILE_SUFFIX.length());
+      } else {
+        return path;
+      }
     }
   }
 
@@ -1386,6 +1444,109 @@ public class AttachmentDatabase extends Database {
     }
   }
 
+  /**
+   * Works through a single sorted listing of the attachment directory. A file is deleted if no
+   * attachment, sticker or in-progress transfer references it. Progress and temporary files are
+   * judged by the file they were written alongside, so they're kept exactly as long as it is.
+   *
+   * Files modified within {@link #ABANDONED_FILE_MIN_AGE} are skipped, since they may belong to an
+   * attachment that is still being written.
+   */
+  public final class AbandonedFileSweeper {
+    private final File        directory;
+    private final String[]    fileNames;
+    private final Set<String> alwaysReferenced;
+
+    private int position;
+
+    private AbandonedFileSweeper(@NonNull File directory, @NonNull String[] fileNames, int position, @NonNull Set<String> alwaysReferenced) {
+      this.directory        = directory;
+      this.fileNames        = fileNames;
+      this.position         = position;
+      this.alwaysReferenced = alwaysReferenced;
+    }
+
+    public boolean hasNext() {
+      return position < fileNames.length;
+    }
+
+    /**
+     * Checks the next {@code maxFiles} files in the listing, deleting those that aren't referenced.
+     */
+    public @NonNull AbandonedFileSweep sweepNext(int maxFiles) {
+      int                 end        = Math.min(fileNames.length, position + maxFiles);
+      Map<String, String> candidates = new HashMap<>();
+      long                maxModTime = System.currentTimeMillis() - ABANDONED_FILE_MIN_AGE;
+
+      for (int i = position; i < end; i++) {
+        File file = new File(directory, fileNames[i]);
+
+        if (file.isFile() && file.lastModified() < maxModTime) {
+          candidates.put(file.getAbsolutePath(), getOwningFile(file.getAbsolutePath()));
+        }
+      }
+
+      Set<String> referenced   = getReferencedFiles(new HashSet<>(candidates.values()));
+      int         deletedCount = 0;
+      long        deletedBytes = 0;
+
+      for (Map.Entry<String, String> candidate : candidates.entrySet()) {
+        String owner = candidate.getValue();
+
+        if (!referenced.contains(owner) && !alwaysReferenced.contains(owner)) {
+          File file   = new File(candidate.getKey());
+          long length = file.length();
+
+          if (file.delete()) {
+            deletedCount++;
+            deletedBytes += length;
+          }
+        }
+      }
+
+      int    checked    = end - position;
+      String nextCursor = end < fileNames.length ? fileNames[end - 1] : null;
+
+      position = end;
+
+      return new AbandonedFileSweep(nextCursor, checked, deletedCount, deletedBytes);
+    }
+  }
+
+  public static final class AbandonedFileSweep {
+    private final String nextCursor;
+    private final int    filesChecked;
+    private final int    filesDeleted;
+    private final long   bytesReclaimed;
+
+    private AbandonedFileSweep(@Nullable String nextCursor, int filesChecked, int filesDeleted, long bytesReclaimed) {
+      this.nextCursor     = nextCursor;
+      this.filesChecked   = filesChecked;
+      this.filesDeleted   = filesDeleted;
+      this.bytesReclaimed = bytesReclaimed;
+    }
+
+    /**
+     * @return The name to pass as {@code startAfter} on the next pass, or null if the end of the
+     *         directory was reached.
+     */
+    public @Nullable String getNextCursor() {
+      return nextCursor;
+    }
+
+    public int getFilesChecked() {
+      return filesChecked;
+    }
+
+    public int getFilesDeleted() {
+      return filesDeleted;
+    }
+
+    public long getBytesReclaimed() {
+      return bytesReclaimed;
+    }
+  }
+
   public static final class TransformProperties {
 
     @JsonProperty private final boolean skipTransform;
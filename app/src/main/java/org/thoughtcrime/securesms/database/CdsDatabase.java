@@ -0,0 +1,128 @@
+package org.thoughtcrime.securesms.database;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import org.thoughtcrime.securesms.database.helpers.SQLCipherOpenHelper;
+import org.thoughtcrime.securesms.util.CursorUtil;
+import org.thoughtcrime.securesms.util.SqlUtil;
+
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * Remembers when each phone number was last checked against the contact discovery service, and
+ * what the result was. This lets directory refreshes only query numbers that are new or stale.
+ */
+public class CdsDatabase extends Database {
+
+  public static final String TABLE_NAME = "cds";
+
+  private static final String ID           = "_id";
+  private static final String E164         = "e164";
+  private static final String LAST_CHECKED = "last_checked";
+  private static final String REGISTERED   = "registered";
+  private static final String UUID         = "uuid";
+
+  public static final String CREATE_TABLE = "CREATE TABLE " + TABLE_NAME + " (" + ID           + " INTEGER PRIMARY KEY AUTOINCREMENT, " +
+                                                                                  E164         + " TEXT NOT NULL UNIQUE ON CONFLICT REPLACE, " +
+                                                                                  LAST_CHECKED + " INTEGER DEFAULT 0, " +
+                                                                                  REGISTERED   + " INTEGER DEFAULT 0, " +
+                                                                                  UUID         + " TEXT DEFAULT NULL)";
+
+  public CdsDatabase(Context context, SQLCipherOpenHelper databaseHelper) {
+    super(context, databaseHelper);
+  }
+
+  /**
+   * @return The subset of {@code numbers} that have either never been checked, or were last checked
+   *         before {@code checkedBefore}.
+   */
+  public @NonNull Set<String> getStaleNumbers(@NonNull Set<String> numbers, long checkedBefore) {
+    SQLiteDatabase db    = databaseHelper.getReadableDatabase();
+    Set<String>    stale = new HashSet<>(numbers);
+
+    try (Cursor cursor = db.query(TABLE_NAME, new String[] { E164 }, LAST_CHECKED + " >= ?", SqlUtil.buildArgs(checkedBefore), null, null, null)) {
+      while (cursor != null && cursor.moveToNext()) {
+        stale.remove(CursorUtil.requireString(cursor, E164));
+      }
+    }
+
+    return stale;
+  }
+
+  /**
+   * Records the result of a discovery request for every number that was checked. This should only
+   * happen once the results have been applied to recipients, since numbers that are recorded here
+   * aren't checked again for a while.
+   *
+   * @param registered   Numbers that were found to be registered, mapped to their UUID if known.
+   * @param unregistered Numbers that were checked and found to be unregistered.
+   * @param noResult     Numbers that were checked but have no result of their own, such as numbers
+   *                     the service rewrote or ignored. Any result they already have is kept.
+   */
+  public void updateResults(@NonNull Map<String, UUID> registered, @NonNull Collection<String> unregistered, @NonNull Collection<String> noResult, long timestamp) {
+    SQLiteDatabase db = databaseHelper.getWritableDatabase();
+
+    db.beginTransaction();
+    try {
+      for (Map.Entry<String, UUID> entry : registered.entrySet()) {
+        insertResult(db, entry.getKey(), toResult(entry.getValue()), timestamp);
+      }
+
+      for (String e164 : unregistered) {
+        insertResult(db, e164, new Result(false, null), timestamp);
+      }
+
+      for (String e164 : noResult) {
+        ContentValues values = new ContentValues(1);
+        values.put(LAST_CHECKED, timestamp);
+
+        if (db.update(TABLE_NAME, values, E164 + " = ?", SqlUtil.buildArgs(e164)) == 0) {
+          values.put(E164, e164);
+          values.putNull(REGISTERED);
+          db.insert(TABLE_NAME, null, values);
+        }
+      }
+
+      db.setTransactionSuccessful();
+    } finally {
+      db.endTransaction();
+    }
+  }
+
+  public void clearAll() {
+    databaseHelper.getWritableDatabase().delete(TABLE_NAME, null, null);
+  }
+
+  private static @NonNull Result toResult(@Nullable UUID uuid) {
+    return new Result(true, uuid != null ? uuid.toString() : null);
+  }
+
+  private static void insertResult(@NonNull SQLiteDatabase db, @NonNull String e164, @NonNull Result result, long timestamp) {
+    ContentValues values = new ContentValues(4);
+    values.put(E164, e164);
+    values.put(LAST_CHECKED, timestamp);
+    values.put(REGISTERED, result.registered ? 1 : 0);
+    values.put(UUID, result.uuid);
+
+    db.insert(TABLE_NAME, null, values);
+  }
+
+  private static final class Result {
+    private final boolean registered;
+    private final String  uuid;
+
+    private Result(boolean registered, @Nullable String uuid) {
+      this.registered = registered;
+      this.uuid       = uuid;
+    }
+  }
+}
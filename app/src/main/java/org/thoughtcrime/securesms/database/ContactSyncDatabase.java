@@ -0,0 +1,76 @@
+package org.thoughtcrime.securesms.database;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+
+import androidx.annotation.NonNull;
+
+import org.thoughtcrime.securesms.database.helpers.SQLCipherOpenHelper;
+import org.thoughtcrime.securesms.recipients.RecipientId;
+import org.thoughtcrime.securesms.util.CursorUtil;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Remembers a fingerprint of each contact as it was last sent to linked devices, so that contact
+ * syncs can send only the contacts that have changed since.
+ */
+public class ContactSyncDatabase extends Database {
+
+  public static final String TABLE_NAME = "contact_sync";
+
+  private static final String ID           = "_id";
+  private static final String RECIPIENT_ID = "recipient_id";
+  private static final String FINGERPRINT  = "fingerprint";
+
+  public static final String CREATE_TABLE = "CREATE TABLE " + TABLE_NAME + " (" + ID           + " INTEGER PRIMARY KEY AUTOINCREMENT, " +
+                                                                                  RECIPIENT_ID + " INTEGER NOT NULL UNIQUE ON CONFLICT REPLACE, " +
+                                                                                  FINGERPRINT  + " BLOB NOT NULL)";
+
+  public ContactSyncDatabase(Context context, SQLCipherOpenHelper databaseHelper) {
+    super(context, databaseHelper);
+  }
+
+  public @NonNull Map<RecipientId, byte[]> getFingerprints() {
+    Map<RecipientId, byte[]> fingerprints = new HashMap<>();
+
+    try (Cursor cursor = databaseHelper.getReadableDatabase().query(TABLE_NAME, new String[] { RECIPIENT_ID, FINGERPRINT }, null, null, null, null, null)) {
+      while (cursor != null && cursor.moveToNext()) {
+        fingerprints.put(RecipientId.from(CursorUtil.requireLong(cursor, RECIPIENT_ID)), CursorUtil.requireBlob(cursor, FINGERPRINT));
+      }
+    }
+
+    return fingerprints;
+  }
+
+  /**
+   * Records the fingerprints of contacts that were just sent.
+   *
+   * @param replaceAll True if the sync was complete, in which case any contact that wasn't included
+   *                   is forgotten.
+   */
+  public void setFingerprints(@NonNull Map<RecipientId, byte[]> fingerprints, boolean replaceAll) {
+    SQLiteDatabase db = databaseHelper.getWritableDatabase();
+
+    db.beginTransaction();
+    try {
+      if (replaceAll) {
+        db.delete(TABLE_NAME, null, null);
+      }
+
+      for (Map.Entry<RecipientId, byte[]> entry : fingerprints.entrySet()) {
+        ContentValues values = new ContentValues(2);
+        values.put(RECIPIENT_ID, entry.getKey().toLong());
+        values.put(FINGERPRINT, entry.getValue());
+
+        db.insert(TABLE_NAME, null, values);
+      }
+
+      db.setTransactionSuccessful();
+    } finally {
+      db.endTransaction();
+    }
+  }
+}
@@ -19,6 +19,8 @@ package org.thoughtcrime.securesms.database;
 import android.content.Context;
 
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
 
 import net.sqlcipher.database.SQLiteDatabase;
 
@@ -31,6 +33,7 @@ import org.thoughtcrime.securesms.crypto.MasterSecret;
 import org.thoughtcrime.securesms.database.helpers.ClassicOpenHelper;
 import org.thoughtcrime.securesms.database.helpers.SQLCipherMigrationHelper;
 import org.thoughtcrime.securesms.database.helpers.SQLCipherOpenHelper;
+import org.thoughtcrime.securesms.dependencies.ApplicationDependencies;
 import org.thoughtcrime.securesms.migrations.LegacyMigrationJob;
 import org.thoughtcrime.securesms.util.SqlUtil;
 import org.thoughtcrime.securesms.util.TextSecurePreferences;
@@ -41,6 +44,8 @@ public class DatabaseFactory {
 
   private static volatile DatabaseFactory instance;
 
+  private static DatabaseFactory replacedInstance;
+
   private final SQLCipherOpenHelper     databaseHelper;
   private final SmsDatabase             sms;
   private final MmsDatabase             mms;
@@ -63,6 +68,9 @@ public class DatabaseFactory {
   private final StorageKeyDatabase      storageKeyDatabase;
   private final RemappedRecordsDatabase remappedRecordsDatabase;
   private final MentionDatabase         mentionDatabase;
+  private final CdsDatabase             cdsDatabase;
+  private final ContactSyncDatabase     contactSyncDatabase;
+  private final PendingReceiptDatabase  pendingReceiptDatabase;
 
   public static DatabaseFactory getInstance(Context context) {
     if (instance == null) {
@@ -75,6 +83,48 @@ public class DatabaseFactory {
     return instance;
   }
 
+  /**
+   * Swaps in databases backed by a new, empty file with the given name, so that instrumented tests
+   * and benchmarks don't touch the app's real data. Must be undone with
+   * {@link #restoreAfterTesting(Context, String)}.
+   */
+  @VisibleForTesting
+  public static void replaceForTesting(@NonNull Context context, @NonNull String databaseName) {
+    synchronized (lock) {
+      if (replacedInstance != null) {
+        throw new IllegalStateException("Already replaced!");
+      }
+
+      context.deleteDatabase(databaseName);
+
+      replacedInstance = getInstance(context);
+      instance         = new DatabaseFactory(context.getApplicationContext(), databaseName);
+    }
+
+    ApplicationDependencies.getRecipientCache().clear();
+  }
+
+  /**
+   * Closes and deletes the database swapped in by {@link #replaceForTesting(Context, String)}, and
+   * puts the real one back.
+   */
+  @VisibleForTesting
+  public static void restoreAfterTesting(@NonNull Context context, @NonNull String databaseName) {
+    synchronized (lock) {
+      if (replacedInstance == null) {
+        throw new IllegalStateException("Not replaced!");
+      }
+
+      instance.databaseHelper.close();
+      context.deleteDatabase(databaseName);
+
+      instance         = replacedInstance;
+      replacedInstance = null;
+    }
+
+    ApplicationDependencies.getRecipientCache().clear();
+  }
+
   public static MmsSmsDatabase getMmsSmsDatabase(Context context) {
     return getInstance(context).mmsSmsDatabase;
   }
@@ -165,6 +215,18 @@ public class DatabaseFactory {
     return getInstance(context).mentionDatabase;
   }
 
+  public static CdsDatabase getCdsDatabase(Context context) {
+    return getInstance(context).cdsDatabase;
+  }
+
+  public static ContactSyncDatabase getContactSyncDatabase(Context context) {
+    return getInstance(context).contactSyncDatabase;
+  }
+
+  public static PendingReceiptDatabase getPendingReceiptDatabase(Context context) {
+    return getInstance(context).pendingReceiptDatabase;
+  }
+
   public static SQLiteDatabase getBackupDatabase(Context context) {
     return getInstance(context).databaseHelper.getReadableDatabase().getSqlCipherDatabase();
   }
@@ -190,12 +252,17 @@ public class DatabaseFactory {
   }
 
   private DatabaseFactory(@NonNull Context context) {
+    this(context, null);
+  }
+
+  private DatabaseFactory(@NonNull Context context, @Nullable String databaseName) {
     SQLiteDatabase.loadLibs(context);
 
     DatabaseSecret   databaseSecret   = DatabaseSecretProvider.getOrCreateDatabaseSecret(context);
     AttachmentSecret attachmentSecret = AttachmentSecretProvider.getInstance(context).getOrCreateAttachmentSecret();
 
-    this.databaseHelper          = new SQLCipherOpenHelper(context, databaseSecret);
+    this.databaseHelper          = databaseName != null ? new SQLCipherOpenHelper(context, databaseSecret, databaseName)
+                                                        : new SQLCipherOpenHelper(context, databaseSecret);
     this.sms                     = new SmsDatabase(context, databaseHelper);
     this.mms                     = new MmsDatabase(context, databaseHelper);
     this.attachments             = new AttachmentDatabase(context, databaseHelper, attachmentSecret);
@@ -217,6 +284,9 @@ public class DatabaseFactory {
     this.storageKeyDatabase      = new StorageKeyDatabase(context, databaseHelper);
     this.remappedRecordsDatabase = new RemappedRecordsDatabase(context, databaseHelper);
     this.mentionDatabase         = new MentionDatabase(context, databaseHelper);
+    this.cdsDatabase             = new CdsDatabase(context, databaseHelper);
+    this.contactSyncDatabase     = new ContactSyncDatabase(context, databaseHelper);
+    this.pendingReceiptDatabase  = new PendingReceiptDatabase(context, databaseHelper);
   }
 
   public void onApplicationLevelUpgrade(@NonNull Context context, @NonNull MasterSecret masterSecret,
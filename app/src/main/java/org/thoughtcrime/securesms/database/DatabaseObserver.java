@@ -1,62 +1,111 @@
 package org.thoughtcrime.securesms.database;
 
 import android.app.Application;
-import android.database.ContentObserver;
-import android.database.Cursor;
+import android.net.Uri;
 
 import androidx.annotation.NonNull;
+import androidx.annotation.VisibleForTesting;
 
-import org.signal.core.util.concurrent.SignalExecutors;
-import org.thoughtcrime.securesms.util.concurrent.SerialExecutor;
-
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
-import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Allows listening to database changes to varying degrees of specificity.
  *
  * A replacement for the observer system in {@link Database}. We should move to this over time.
+ *
+ * Notifications are coalesced before they reach observers. A notification made inside a
+ * transaction waits until that transaction ends, and that includes the matching content resolver
+ * notification. After that, the first change is delivered right
+ * away, and anything that follows within the debounce window is gathered up. Each thread and the
+ * conversation list is notified at most once when the window closes, either after a quiet period
+ * of the debounce window or once the maximum latency has passed.
  */
 public final class DatabaseObserver {
 
+  private static final long DEFAULT_DEBOUNCE_MS    = 100;
+  private static final long DEFAULT_MAX_LATENCY_MS = 500;
+
   private final Application application;
-  private final Executor    executor;
+  private final Scheduler   scheduler;
+  private final Clock       clock;
+  private final long        debounceMs;
+  private final long        maxLatencyMs;
 
   private final Set<Observer>            conversationListObservers;
   private final Map<Long, Set<Observer>> conversationObservers;
   private final Map<Long, Set<Observer>> verboseConversationObservers;
 
+  private final ThreadLocal<PendingNotifications> transactionNotifications;
+  private final AtomicLong                        requestedNotifications;
+  private final AtomicLong                        suppressedNotifications;
+  private final AtomicLong                        deliveries;
+
+  private PendingNotifications pendingNotifications;
+  private boolean              deliveryScheduled;
+  private long                 firstPendingTime;
+  private long                 lastPendingTime;
+  private long                 lastDeliveryTime;
+
   public DatabaseObserver(Application application) {
+    this(application,
+         new ExecutorScheduler(Executors.newSingleThreadScheduledExecutor(r -> new Thread(r, "signal-DatabaseObserver"))),
+         System::currentTimeMillis,
+         DEFAULT_DEBOUNCE_MS,
+         DEFAULT_MAX_LATENCY_MS);
+  }
+
+  /**
+   * @param scheduler    Runs every delivery and observer change, one at a time.
+   * @param debounceMs   How long the observers have to go without a change before gathered up
+   *                     notifications are delivered.
+   * @param maxLatencyMs The longest a notification is held back, however busy the database is.
+   */
+  @VisibleForTesting
+  DatabaseObserver(Application application, Scheduler scheduler, Clock clock, long debounceMs, long maxLatencyMs) {
     this.application                  = application;
-    this.executor                     = new SerialExecutor(SignalExecutors.BOUNDED);
+    this.scheduler                    = scheduler;
+    this.clock                        = clock;
+    this.debounceMs                   = debounceMs;
+    this.maxLatencyMs                 = maxLatencyMs;
     this.conversationListObservers    = new HashSet<>();
     this.conversationObservers        = new HashMap<>();
     this.verboseConversationObservers = new HashMap<>();
+    this.transactionNotifications     = new ThreadLocal<>();
+    this.requestedNotifications       = new AtomicLong();
+    this.suppressedNotifications      = new AtomicLong();
+    this.deliveries                   = new AtomicLong();
+    this.pendingNotifications         = new PendingNotifications();
   }
 
   public void registerConversationListObserver(@NonNull Observer listener) {
-    executor.execute(() -> {
+    scheduler.execute(() -> {
       conversationListObservers.add(listener);
     });
   }
 
   public void registerConversationObserver(long threadId, @NonNull Observer listener) {
-    executor.execute(() -> {
+    scheduler.execute(() -> {
       registerMapped(conversationObservers, threadId, listener);
     });
   }
 
   public void registerVerboseConversationObserver(long threadId, @NonNull Observer listener) {
-    executor.execute(() -> {
+    scheduler.execute(() -> {
       registerMapped(verboseConversationObservers, threadId, listener);
     });
   }
 
   public void unregisterObserver(@NonNull Observer listener) {
-    executor.execute(() -> {
+    scheduler.execute(() -> {
       conversationListObservers.remove(listener);
       unregisterMapped(conversationObservers, listener);
       unregisterMapped(verboseConversationObservers, listener);
@@ -64,45 +113,157 @@ public final class DatabaseObserver {
   }
 
   public void notifyConversationListeners(Set<Long> threadIds) {
-    executor.execute(() -> {
-      for (long threadId : threadIds) {
-        notifyMapped(conversationObservers, threadId);
-        notifyMapped(verboseConversationObservers, threadId);
+    enqueue(PendingNotifications.forConversations(threadIds));
+  }
+
+  public void notifyConversationListeners(long threadId) {
+    enqueue(PendingNotifications.forConversations(Collections.singleton(threadId)));
+  }
+
+  public void notifyVerboseConversationListeners(long threadId) {
+    enqueue(PendingNotifications.forVerboseConversation(threadId));
+  }
+
+  public void notifyConversationListListeners() {
+    enqueue(PendingNotifications.forConversationList());
+  }
+
+  /**
+   * @return How many notifications have been requested of this observer.
+   */
+  public long getRequestedNotificationCount() {
+    return requestedNotifications.get();
+  }
+
+  /**
+   * @return How many requested notifications were dropped because an identical one was already
+   *         waiting to be delivered.
+   */
+  public long getSuppressedNotificationCount() {
+    return suppressedNotifications.get();
+  }
+
+  /**
+   * @return How many times gathered up notifications have been handed to observers.
+   */
+  public long getDeliveryCount() {
+    return deliveries.get();
+  }
+
+  /**
+   * Holds on to notifications made while this thread is in a transaction, and queues them up in a
+   * single batch once it ends.
+   */
+  private void enqueue(@NonNull PendingNotifications notifications) {
+    requestedNotifications.addAndGet(notifications.size());
+
+    PendingNotifications deferred = transactionNotifications.get();
+
+    if (deferred != null) {
+      suppressedNotifications.addAndGet(deferred.merge(notifications));
+      return;
+    }
+
+    transactionNotifications.set(notifications);
+
+    SQLiteDatabase.runPostTransaction(() -> {
+      PendingNotifications released = transactionNotifications.get();
+      transactionNotifications.remove();
+
+      if (released != null) {
+        notifyContentResolver(released);
+        schedule(released);
       }
     });
+  }
 
-    for (long threadId : threadIds) {
+  /**
+   * Content resolver observers aren't coalesced here, but still shouldn't hear about a change
+   * before it's committed.
+   */
+  private void notifyContentResolver(@NonNull PendingNotifications notifications) {
+    for (long threadId : notifications.conversations) {
       application.getContentResolver().notifyChange(DatabaseContentProviders.Conversation.getUriForThread(threadId), null);
       application.getContentResolver().notifyChange(DatabaseContentProviders.Conversation.getVerboseUriForThread(threadId), null);
     }
+
+    for (long threadId : notifications.verboseConversations) {
+      if (!notifications.conversations.contains(threadId)) {
+        application.getContentResolver().notifyChange(DatabaseContentProviders.Conversation.getVerboseUriForThread(threadId), null);
+      }
+    }
+
+    if (notifications.conversationList) {
+      application.getContentResolver().notifyChange(DatabaseContentProviders.ConversationList.CONTENT_URI, null);
+    }
   }
 
-  public void notifyConversationListeners(long threadId) {
-    executor.execute(() -> {
-      notifyMapped(conversationObservers, threadId);
-      notifyMapped(verboseConversationObservers, threadId);
-    });
+  private synchronized void schedule(@NonNull PendingNotifications notifications) {
+    long now = clock.currentTimeMillis();
+
+    suppressedNotifications.addAndGet(pendingNotifications.merge(notifications));
+    lastPendingTime = now;
+
+    if (deliveryScheduled) {
+      return;
+    }
 
-    application.getContentResolver().notifyChange(DatabaseContentProviders.Conversation.getUriForThread(threadId), null);
-    application.getContentResolver().notifyChange(DatabaseContentProviders.Conversation.getVerboseUriForThread(threadId), null);
+    deliveryScheduled = true;
+    firstPendingTime  = now;
+
+    if (now - lastDeliveryTime >= debounceMs) {
+      scheduler.execute(this::deliver);
+    } else {
+      scheduler.schedule(this::deliverWhenQuiet, debounceMs);
+    }
   }
 
-  public void notifyVerboseConversationListeners(long threadId) {
-    executor.execute(() -> {
-      notifyMapped(verboseConversationObservers, threadId);
-    });
+  private void deliverWhenQuiet() {
+    synchronized (this) {
+      long now      = clock.currentTimeMillis();
+      long quietAt  = lastPendingTime + debounceMs;
+      long deadline = firstPendingTime + maxLatencyMs;
+
+      if (now < quietAt && now < deadline) {
+        scheduler.schedule(this::deliverWhenQuiet, Math.min(quietAt, deadline) - now);
+        return;
+      }
+    }
 
-    application.getContentResolver().notifyChange(DatabaseContentProviders.Conversation.getVerboseUriForThread(threadId), null);
+    deliver();
   }
 
-  public void notifyConversationListListeners() {
-    executor.execute(() -> {
+  /**
+   * Always run on the scheduler, which is also the only place the observer collections are touched.
+   */
+  private void deliver() {
+    PendingNotifications notifications;
+
+    synchronized (this) {
+      notifications        = pendingNotifications;
+      pendingNotifications = new PendingNotifications();
+      deliveryScheduled    = false;
+      lastDeliveryTime     = clock.currentTimeMillis();
+    }
+
+    for (long threadId : notifications.conversations) {
+      notifyMapped(conversationObservers, threadId);
+      notifyMapped(verboseConversationObservers, threadId);
+    }
+
+    for (long threadId : notifications.verboseConversations) {
+      if (!notifications.conversations.contains(threadId)) {
+        notifyMapped(verboseConversationObservers, threadId);
+      }
+    }
+
+    if (notifications.conversationList) {
       for (Observer listener : conversationListObservers) {
         listener.onChanged();
       }
-    });
+    }
 
-    application.getContentResolver().notifyChange(DatabaseContentProviders.ConversationList.CONTENT_URI, null);
+    deliveries.incrementAndGet();
   }
 
   private <K> void registerMapped(@NonNull Map<K, Set<Observer>> map, @NonNull K key, @NonNull Observer listener) {
@@ -132,6 +293,86 @@ public final class DatabaseObserver {
     }
   }
 
+  private static final class PendingNotifications {
+    private final Set<Long> conversations        = new HashSet<>();
+    private final Set<Long> verboseConversations = new HashSet<>();
+    private       boolean   conversationList;
+
+    static @NonNull PendingNotifications forConversations(@NonNull Collection<Long> threadIds) {
+      PendingNotifications notifications = new PendingNotifications();
+      notifications.conversations.addAll(threadIds);
+      return notifications;
+    }
+
+    static @NonNull PendingNotifications forVerboseConversation(long threadId) {
+      PendingNotifications notifications = new PendingNotifications();
+      notifications.verboseConversations.add(threadId);
+      return notifications;
+    }
+
+    static @NonNull PendingNotifications forConversationList() {
+      PendingNotifications notifications = new PendingNotifications();
+      notifications.conversationList = true;
+      return notifications;
+    }
+
+    int size() {
+      return conversations.size() + verboseConversations.size() + (conversationList ? 1 : 0);
+    }
+
+    /**
+     * @return How many of the other's notifications were already pending here.
+     */
+    int merge(@NonNull PendingNotifications other) {
+      int duplicates = 0;
+
+      for (long threadId : other.conversations) {
+        if (!conversations.add(threadId)) duplicates++;
+      }
+
+      for (long threadId : other.verboseConversations) {
+        if (!verboseConversations.add(threadId)) duplicates++;
+      }
+
+      if (other.conversationList) {
+        if (conversationList) duplicates++;
+        conversationList = true;
+      }
+
+      return duplicates;
+    }
+  }
+
+  @VisibleForTesting
+  interface Scheduler {
+    void execute(@NonNull Runnable task);
+
+    void schedule(@NonNull Runnable task, long delayMs);
+  }
+
+  @VisibleForTesting
+  interface Clock {
+    long currentTimeMillis();
+  }
+
+  private static final class ExecutorScheduler implements Scheduler {
+    private final ScheduledExecutorService executor;
+
+    private ExecutorScheduler(@NonNull ScheduledExecutorService executor) {
+      this.executor = executor;
+    }
+
+    @Override
+    public void execute(@NonNull Runnable task) {
+      executor.execute(task);
+    }
+
+    @Override
+    public void schedule(@NonNull Runnable task, long delayMs) {
+      executor.schedule(task, delayMs, TimeUnit.MILLISECONDS);
+    }
+  }
+
   public interface Observer {
     /**
      * Called when the relevant data changes. Executed on a serial executor, so don't do any
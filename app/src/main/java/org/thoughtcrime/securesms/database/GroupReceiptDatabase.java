@@ -8,23 +8,39 @@ import android.database.Cursor;
 import androidx.annotation.NonNull;
 
 import org.thoughtcrime.securesms.database.helpers.SQLCipherOpenHelper;
+import org.thoughtcrime.securesms.database.model.PackedGroupReceipts;
 import org.thoughtcrime.securesms.recipients.RecipientId;
+import org.thoughtcrime.securesms.util.CursorUtil;
+import org.thoughtcrime.securesms.util.SqlUtil;
 import org.whispersystems.libsignal.util.Pair;
 
+import java.util.ArrayList;
 import java.util.Collection;
-import java.util.LinkedList;
+import java.util.HashMap;
 import java.util.List;
-
+import java.util.Map;
+
+/**
+ * Stores the per-member receipt state of outgoing group messages.
+ *
+ * Each message gets a single row holding a reference to a shared member list, plus packed status
+ * and timestamp arrays (see {@link PackedGroupReceipts}). Messages sent to the same group share
+ * the same member list row.
+ */
 public class GroupReceiptDatabase extends Database {
 
   public  static final String TABLE_NAME = "group_receipts";
 
-  private static final String ID           = "_id";
-  public  static final String MMS_ID       = "mms_id";
-          static final String RECIPIENT_ID = "address";
-  private static final String STATUS       = "status";
-  private static final String TIMESTAMP    = "timestamp";
-  private static final String UNIDENTIFIED = "unidentified";
+  private static final String ID             = "_id";
+  public  static final String MMS_ID         = "mms_id";
+  private static final String MEMBER_LIST_ID = "member_list_id";
+  private static final String BASE_TIMESTAMP = "base_timestamp";
+  private static final String STATUSES       = "statuses";
+  private static final String TIMESTAMPS     = "timestamps";
+
+  public  static final String MEMBERS_TABLE_NAME = "group_receipt_members";
+
+  private static final String MEMBERS = "members";
 
   public static final int STATUS_UNKNOWN     = -1;
   public static final int STATUS_UNDELIVERED = 0;
@@ -32,13 +48,25 @@ public class GroupReceiptDatabase extends Database {
   public static final int STATUS_READ        = 2;
   public static final int STATUS_VIEWED      = 3;
 
-  public static final String CREATE_TABLE = "CREATE TABLE " + TABLE_NAME + " (" + ID + " INTEGER PRIMARY KEY, "                          +
-      MMS_ID + " INTEGER, " + RECIPIENT_ID + " INTEGER, " + STATUS + " INTEGER, " + TIMESTAMP + " INTEGER, " + UNIDENTIFIED + " INTEGER DEFAULT 0);";
+  public static final String CREATE_TABLE = "CREATE TABLE " + TABLE_NAME + " (" + ID             + " INTEGER PRIMARY KEY, " +
+                                                                                  MMS_ID         + " INTEGER UNIQUE ON CONFLICT REPLACE, " +
+                                                                                  MEMBER_LIST_ID + " INTEGER, " +
+                                                                                  BASE_TIMESTAMP + " INTEGER DEFAULT 0, " +
+                                                                                  STATUSES       + " BLOB, " +
+                                                                                  TIMESTAMPS     + " BLOB);";
+
+  public static final String CREATE_MEMBERS_TABLE = "CREATE TABLE " + MEMBERS_TABLE_NAME + " (" + ID      + " INTEGER PRIMARY KEY, " +
+                                                                                                  MEMBERS + " TEXT NOT NULL UNIQUE);";
 
   public static final String[] CREATE_INDEXES = {
-      "CREATE INDEX IF NOT EXISTS group_receipt_mms_id_index ON " + TABLE_NAME + " (" + MMS_ID + ");",
+      "CREATE INDEX IF NOT EXISTS group_receipt_member_list_index ON " + TABLE_NAME + " (" + MEMBER_LIST_ID + ");",
   };
 
+  private static final String RECEIPT_QUERY = "SELECT " + TABLE_NAME + "." + MEMBER_LIST_ID + ", " + BASE_TIMESTAMP + ", " + STATUSES + ", " + TIMESTAMPS + ", " + MEMBERS +
+                                              " FROM " + TABLE_NAME +
+                                              " INNER JOIN " + MEMBERS_TABLE_NAME + " ON " + TABLE_NAME + "." + MEMBER_LIST_ID + " = " + MEMBERS_TABLE_NAME + "." + ID +
+                                              " WHERE " + MMS_ID + " = ?";
+
   public GroupReceiptDatabase(Context context, SQLCipherOpenHelper databaseHelper) {
     super(context, databaseHelper);
   }
@@ -48,15 +76,21 @@ public class GroupReceiptDatabase extends Database {
 
     db.beginTransaction();
     try {
+      StoredReceipts stored  = getStoredReceipts(db, mmsId);
+      boolean        changed = false;
+
       for (RecipientId recipientId : recipientIds) {
-        ContentValues values = new ContentValues(4);
-        values.put(MMS_ID, mmsId);
-        values.put(RECIPIENT_ID, recipientId.serialize());
-        values.put(STATUS, status);
-        values.put(TIMESTAMP, timestamp);
+        changed |= stored.receipts.add(recipientId.toLong(), status, timestamp, false);
+      }
+
+      if (stored.baseTimestamp == 0) {
+        stored.baseTimestamp = timestamp;
+      }
 
-        db.insert(TABLE_NAME, null, values);
+      if (changed) {
+        writeReceipts(db, mmsId, stored, true);
       }
+
       db.setTransactionSuccessful();
     } finally {
       db.endTransaction();
@@ -64,27 +98,40 @@ public class GroupReceiptDatabase extends Database {
   }
 
   public void update(@NonNull RecipientId recipientId, long mmsId, int status, long timestamp) {
-    SQLiteDatabase db     = databaseHelper.getWritableDatabase();
-    ContentValues  values = new ContentValues(2);
-    values.put(STATUS, status);
-    values.put(TIMESTAMP, timestamp);
+    SQLiteDatabase db = databaseHelper.getWritableDatabase();
+
+    db.beginTransaction();
+    try {
+      StoredReceipts stored = getStoredReceipts(db, mmsId);
+      int            index  = stored.receipts.indexOf(recipientId.toLong());
+
+      if (index >= 0 && stored.receipts.update(index, status, timestamp)) {
+        writeReceipts(db, mmsId, stored, false);
+      }
 
-    db.update(TABLE_NAME, values, MMS_ID + " = ? AND " + RECIPIENT_ID + " = ? AND " + STATUS + " < ?",
-              new String[] {String.valueOf(mmsId), recipientId.serialize(), String.valueOf(status)});
+      db.setTransactionSuccessful();
+    } finally {
+      db.endTransaction();
+    }
   }
 
   public void setUnidentified(Collection<Pair<RecipientId, Boolean>> results, long mmsId) {
-    SQLiteDatabase db  = databaseHelper.getWritableDatabase();
+    SQLiteDatabase db = databaseHelper.getWritableDatabase();
 
     db.beginTransaction();
     try {
-      String query = MMS_ID + " = ? AND " + RECIPIENT_ID + " = ?";
+      StoredReceipts stored = getStoredReceipts(db, mmsId);
 
       for (Pair<RecipientId, Boolean> result : results) {
-        ContentValues values = new ContentValues(1);
-        values.put(UNIDENTIFIED, result.second() ? 1 : 0);
+        int index = stored.receipts.indexOf(result.first().toLong());
+
+        if (index >= 0) {
+          stored.receipts.setUnidentified(index, result.second());
+        }
+      }
 
-        db.update(TABLE_NAME, values, query, new String[]{ String.valueOf(mmsId), result.first().serialize()});
+      if (stored.receipts.size() > 0) {
+        writeReceipts(db, mmsId, stored, false);
       }
 
       db.setTransactionSuccessful();
@@ -94,21 +141,66 @@ public class GroupReceiptDatabase extends Database {
   }
 
   public @NonNull List<GroupReceiptInfo> getGroupReceiptInfo(long mmsId) {
-    SQLiteDatabase         db      = databaseHelper.getReadableDatabase();
-    List<GroupReceiptInfo> results = new LinkedList<>();
-
-    try (Cursor cursor = db.query(TABLE_NAME, null, MMS_ID + " = ?", new String[] {String.valueOf(mmsId)}, null, null, null)) {
-      while (cursor != null && cursor.moveToNext()) {
-        results.add(new GroupReceiptInfo(RecipientId.from(cursor.getLong(cursor.getColumnIndexOrThrow(RECIPIENT_ID))),
-                                         cursor.getInt(cursor.getColumnIndexOrThrow(STATUS)),
-                                         cursor.getLong(cursor.getColumnIndexOrThrow(TIMESTAMP)),
-                                         cursor.getInt(cursor.getColumnIndexOrThrow(UNIDENTIFIED)) == 1));
-      }
+    PackedGroupReceipts    receipts = getStoredReceipts(databaseHelper.getReadableDatabase(), mmsId).receipts;
+    List<GroupReceiptInfo> results  = new ArrayList<>(receipts.size());
+
+    for (int i = 0; i < receipts.size(); i++) {
+      results.add(new GroupReceiptInfo(RecipientId.from(receipts.getMember(i)),
+                                       receipts.getStatus(i),
+                                       receipts.getTimestamp(i),
+                                       receipts.isUnidentified(i)));
     }
 
     return results;
   }
 
+  /**
+   * Replaces one recipient with another in every member list, such as after a recipient merge.
+   * Member positions are preserved, so the packed receipt arrays remain valid.
+   */
+  void remapRecipient(@NonNull RecipientId from, @NonNull RecipientId to) {
+    SQLiteDatabase    db          = databaseHelper.getWritableDatabase();
+    String            query       = MEMBERS + " LIKE ?";
+    String[]          args        = SqlUtil.buildArgs("%," + from.toLong() + ",%");
+    Map<Long, String> memberLists = new HashMap<>();
+
+    db.beginTransaction();
+    try {
+      try (Cursor cursor = db.query(MEMBERS_TABLE_NAME, new String[] { ID, MEMBERS }, query, args, null, null, null)) {
+        while (cursor != null && cursor.moveToNext()) {
+          memberLists.put(CursorUtil.requireLong(cursor, ID), CursorUtil.requireString(cursor, MEMBERS));
+        }
+      }
+
+      for (Map.Entry<Long, String> entry : memberLists.entrySet()) {
+        long   memberListId = entry.getKey();
+        long[] members      = PackedGroupReceipts.decodeMembers(entry.getValue());
+
+        if (!PackedGroupReceipts.replaceMember(members, from.toLong(), to.toLong())) {
+          continue;
+        }
+
+        String encoded  = PackedGroupReceipts.encodeMembers(members);
+        long   existing = getMemberListId(db, encoded);
+
+        if (existing == -1) {
+          ContentValues values = new ContentValues(1);
+          values.put(MEMBERS, encoded);
+          db.update(MEMBERS_TABLE_NAME, values, ID_WHERE, SqlUtil.buildArgs(memberListId));
+        } else {
+          ContentValues values = new ContentValues(1);
+          values.put(MEMBER_LIST_ID, existing);
+          db.update(TABLE_NAME, values, MEMBER_LIST_ID + " = ?", SqlUtil.buildArgs(memberListId));
+          db.delete(MEMBERS_TABLE_NAME, ID_WHERE, SqlUtil.buildArgs(memberListId));
+        }
+      }
+
+      db.setTransactionSuccessful();
+    } finally {
+      db.endTransaction();
+    }
+  }
+
   void deleteRowsForMessage(long mmsId) {
     SQLiteDatabase db = databaseHelper.getWritableDatabase();
     db.delete(TABLE_NAME, MMS_ID + " = ?", new String[] {String.valueOf(mmsId)});
@@ -117,11 +209,89 @@ public class GroupReceiptDatabase extends Database {
   void deleteAbandonedRows() {
     SQLiteDatabase db = databaseHelper.getWritableDatabase();
     db.delete(TABLE_NAME, MMS_ID + " NOT IN (SELECT " + MmsDatabase.ID + " FROM " + MmsDatabase.TABLE_NAME + ")", null);
+    db.delete(MEMBERS_TABLE_NAME, ID + " NOT IN (SELECT " + MEMBER_LIST_ID + " FROM " + TABLE_NAME + ")", null);
   }
 
   void deleteAllRows() {
     SQLiteDatabase db = databaseHelper.getWritableDatabase();
     db.delete(TABLE_NAME, null, null);
+    db.delete(MEMBERS_TABLE_NAME, null, null);
+  }
+
+  private @NonNull StoredReceipts getStoredReceipts(@NonNull SQLiteDatabase db, long mmsId) {
+    try (Cursor cursor = db.rawQuery(RECEIPT_QUERY, SqlUtil.buildArgs(mmsId))) {
+      if (cursor != null && cursor.moveToFirst()) {
+        long baseTimestamp = CursorUtil.requireLong(cursor, BASE_TIMESTAMP);
+
+        return new StoredReceipts(PackedGroupReceipts.decode(CursorUtil.requireString(cursor, MEMBERS),
+                                                             CursorUtil.requireBlob(cursor, STATUSES),
+                                                             CursorUtil.requireBlob(cursor, TIMESTAMPS),
+                                                             baseTimestamp),
+                                  CursorUtil.requireLong(cursor, MEMBER_LIST_ID),
+                                  baseTimestamp);
+      }
+    }
+
+    return new StoredReceipts(new PackedGroupReceipts(), -1, 0);
+  }
+
+  /**
+   * @param membersChanged If true, the member list is looked up (or inserted) again. Otherwise the
+   *                       existing member list reference is kept.
+   */
+  private void writeReceipts(@NonNull SQLiteDatabase db, long mmsId, @NonNull StoredReceipts stored, boolean membersChanged) {
+    if (!membersChanged && stored.memberListId != -1) {
+      ContentValues values = new ContentValues(2);
+      values.put(STATUSES, stored.receipts.encodeStatuses());
+      values.put(TIMESTAMPS, stored.receipts.encodeTimestamps(stored.baseTimestamp));
+
+      db.update(TABLE_NAME, values, MMS_ID + " = ?", SqlUtil.buildArgs(mmsId));
+      return;
+    }
+
+    ContentValues values = new ContentValues(5);
+    values.put(MMS_ID, mmsId);
+    values.put(MEMBER_LIST_ID, getOrInsertMemberList(db, PackedGroupReceipts.encodeMembers(stored.receipts.getMembers())));
+    values.put(BASE_TIMESTAMP, stored.baseTimestamp);
+    values.put(STATUSES, stored.receipts.encodeStatuses());
+    values.put(TIMESTAMPS, stored.receipts.encodeTimestamps(stored.baseTimestamp));
+
+    db.insert(TABLE_NAME, null, values);
+  }
+
+  private static long getOrInsertMemberList(@NonNull SQLiteDatabase db, @NonNull String encodedMembers) {
+    long existing = getMemberListId(db, encodedMembers);
+
+    if (existing != -1) {
+      return existing;
+    }
+
+    ContentValues values = new ContentValues(1);
+    values.put(MEMBERS, encodedMembers);
+
+    return db.insert(MEMBERS_TABLE_NAME, null, values);
+  }
+
+  private static long getMemberListId(@NonNull SQLiteDatabase db, @NonNull String encodedMembers) {
+    try (Cursor cursor = db.query(MEMBERS_TABLE_NAME, new String[] { ID }, MEMBERS + " = ?", SqlUtil.buildArgs(encodedMembers), null, null, null)) {
+      if (cursor != null && cursor.moveToFirst()) {
+        return CursorUtil.requireLong(cursor, ID);
+      }
+    }
+
+    return -1;
+  }
+
+  private static final class StoredReceipts {
+    private final PackedGroupReceipts receipts;
+    private final long                memberListId;
+    private       long                baseTimestamp;
+
+    private StoredReceipts(@NonNull PackedGroupReceipts receipts, long memberListId, long baseTimestamp) {
+      this.receipts      = receipts;
+      this.memberListId  = memberListId;
+      this.baseTimestamp = baseTimestamp;
+    }
   }
 
   public static class GroupReceiptInfo {
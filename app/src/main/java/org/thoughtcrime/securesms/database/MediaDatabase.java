@@ -9,6 +9,7 @@ import androidx.annotation.Nullable;
 
 import org.thoughtcrime.securesms.attachments.DatabaseAttachment;
 import org.thoughtcrime.securesms.database.helpers.SQLCipherOpenHelper;
+import org.thoughtcrime.securesms.database.loaders.MediaLoader;
 import org.thoughtcrime.securesms.recipients.RecipientId;
 import org.thoughtcrime.securesms.util.MediaUtil;
 
@@ -19,7 +20,64 @@ public class MediaDatabase extends Database {
     public  static final int    ALL_THREADS         = -1;
     private static final String THREAD_RECIPIENT_ID = "THREAD_RECIPIENT_ID";
 
-    private static final String BASE_MEDIA_QUERY = "SELECT " + AttachmentDatabase.TABLE_NAME + "." + AttachmentDatabase.ROW_ID + " AS " + AttachmentDatabase.ROW_ID + ", "
+    public  static final String STORAGE_TABLE_NAME  = "media_storage";
+    private static final String STORAGE_KIND        = "kind";
+    private static final String STORAGE_SIZE        = "size";
+
+    /**
+     * Which media overview tab an attachment shows up under, kept in {@link AttachmentDatabase#MEDIA_KIND}.
+     */
+    private static final int KIND_NONE     = 0;
+    private static final int KIND_GALLERY  = 1;
+    private static final int KIND_AUDIO    = 2;
+    private static final int KIND_DOCUMENT = 3;
+
+    /**
+     * Which part of the storage breakdown an attachment counts towards, mirroring
+     * {@link MediaUtil#getSlideTypeFromContentType(String)}.
+     */
+    private static final int STORAGE_NONE     = 0;
+    private static final int STORAGE_PHOTO    = 1;
+    private static final int STORAGE_VIDEO    = 2;
+    private static final int STORAGE_AUDIO    = 3;
+    private static final int STORAGE_DOCUMENT = 4;
+
+    public static final String CREATE_TABLE = "CREATE TABLE " + STORAGE_TABLE_NAME + " (" + STORAGE_KIND + " INTEGER PRIMARY KEY, " +
+                                                                                         STORAGE_SIZE + " INTEGER DEFAULT 0);";
+
+    public static final String[] CREATE_INDEXES = {
+      "CREATE INDEX IF NOT EXISTS part_thread_media_index ON " + AttachmentDatabase.TABLE_NAME + " (" + AttachmentDatabase.THREAD_ID + ", " + AttachmentDatabase.MEDIA_KIND + ", " + AttachmentDatabase.MMS_ID + ", " + AttachmentDatabase.DISPLAY_ORDER + ");"
+    };
+
+    /**
+     * Keeps the thread and media kind on each attachment up to date, so the media overview can be
+     * served from an index on the attachment table alone, and keeps a running total of storage used
+     * per kind. Files shared by several attachments only count once, against whichever attachment
+     * referenced them first.
+     */
+    public static final String[] CREATE_TRIGGERS = {
+      "CREATE TRIGGER part_media_ai AFTER INSERT ON " + AttachmentDatabase.TABLE_NAME + " BEGIN\n" +
+          "  " + updateMediaColumns("new") + "\n" +
+          "END;",
+      "CREATE TRIGGER part_media_au AFTER UPDATE OF " + AttachmentDatabase.MMS_ID + ", " + AttachmentDatabase.CONTENT_TYPE + " ON " + AttachmentDatabase.TABLE_NAME + " BEGIN\n" +
+          "  " + updateMediaColumns("new") + "\n" +
+          "END;",
+      "CREATE TRIGGER mms_media_thread_au AFTER UPDATE OF " + MmsDatabase.THREAD_ID + " ON " + MmsDatabase.TABLE_NAME + " BEGIN\n" +
+          "  UPDATE " + AttachmentDatabase.TABLE_NAME + " SET " + AttachmentDatabase.THREAD_ID + " = new." + MmsDatabase.THREAD_ID + " WHERE " + AttachmentDatabase.MMS_ID + " = new." + MmsDatabase.ID + ";\n" +
+          "END;",
+      "CREATE TRIGGER part_storage_ai AFTER INSERT ON " + AttachmentDatabase.TABLE_NAME + " BEGIN\n" +
+          "  " + addStorage("new") + "\n" +
+          "END;",
+      "CREATE TRIGGER part_storage_au AFTER UPDATE OF " + AttachmentDatabase.DATA + ", " + AttachmentDatabase.SIZE + ", " + AttachmentDatabase.CONTENT_TYPE + ", " + AttachmentDatabase.STICKER_PACK_ID + " ON " + AttachmentDatabase.TABLE_NAME + " BEGIN\n" +
+          "  " + removeStorage("old") + "\n" +
+          "  " + addStorage("new") + "\n" +
+          "END;",
+      "CREATE TRIGGER part_storage_ad AFTER DELETE ON " + AttachmentDatabase.TABLE_NAME + " BEGIN\n" +
+          "  " + removeStorage("old") + "\n" +
+          "END;"
+    };
+
+    private static final String MEDIA_COLUMNS = AttachmentDatabase.TABLE_NAME + "." + AttachmentDatabase.ROW_ID + " AS " + AttachmentDatabase.ROW_ID + ", "
         + AttachmentDatabase.TABLE_NAME + "." + AttachmentDatabase.CONTENT_TYPE + ", "
         + AttachmentDatabase.TABLE_NAME + "." + AttachmentDatabase.UNIQUE_ID + ", "
         + AttachmentDatabase.TABLE_NAME + "." + AttachmentDatabase.MMS_ID + ", "
@@ -53,34 +111,25 @@ public class MediaDatabase extends Database {
         + MmsDatabase.TABLE_NAME + "." + MmsDatabase.DATE_SERVER + ", "
         + MmsDatabase.TABLE_NAME + "." + MmsDatabase.THREAD_ID + ", "
         + MmsDatabase.TABLE_NAME + "." + MmsDatabase.RECIPIENT_ID + ", "
-        + ThreadDatabase.TABLE_NAME + "." + ThreadDatabase.RECIPIENT_ID + " as " + THREAD_RECIPIENT_ID + " "
+        + ThreadDatabase.TABLE_NAME + "." + ThreadDatabase.RECIPIENT_ID + " as " + THREAD_RECIPIENT_ID;
+
+    private static final String LAYOUT_COLUMNS = MmsDatabase.TABLE_NAME + "." + MmsDatabase.MESSAGE_BOX + ", "
+        + MmsDatabase.TABLE_NAME + "." + MmsDatabase.DATE_SENT + ", "
+        + MmsDatabase.TABLE_NAME + "." + MmsDatabase.DATE_RECEIVED + ", "
+        + AttachmentDatabase.TABLE_NAME + "." + AttachmentDatabase.SIZE;
+
+    private static final String BASE_MEDIA_QUERY = "SELECT %s "
         + "FROM " + AttachmentDatabase.TABLE_NAME + " LEFT JOIN " + MmsDatabase.TABLE_NAME
         + " ON " + AttachmentDatabase.TABLE_NAME + "." + AttachmentDatabase.MMS_ID + " = " + MmsDatabase.TABLE_NAME + "." + MmsDatabase.ID + " "
         + "LEFT JOIN " + ThreadDatabase.TABLE_NAME
-        + " ON " + ThreadDatabase.TABLE_NAME + "." + ThreadDatabase.ID + " = " + MmsDatabase.TABLE_NAME + "." + MmsDatabase.THREAD_ID + " "
-        + "WHERE " + AttachmentDatabase.MMS_ID + " IN (SELECT " + MmsSmsColumns.ID
-        + " FROM " + MmsDatabase.TABLE_NAME
-        + " WHERE " + MmsDatabase.THREAD_ID + " __EQUALITY__ ?) AND (%s) AND "
+        + " ON " + ThreadDatabase.TABLE_NAME + "." + ThreadDatabase.ID + " = " + AttachmentDatabase.TABLE_NAME + "." + AttachmentDatabase.THREAD_ID + " "
+        + "WHERE " + AttachmentDatabase.TABLE_NAME + "." + AttachmentDatabase.THREAD_ID + " __EQUALITY__ ? AND "
+        + AttachmentDatabase.TABLE_NAME + "." + AttachmentDatabase.MEDIA_KIND + " IN (%s) AND "
         + MmsDatabase.VIEW_ONCE + " = 0 AND "
         + AttachmentDatabase.DATA + " IS NOT NULL AND "
         + "(" + AttachmentDatabase.QUOTE + " = 0 OR (" + AttachmentDatabase.QUOTE + " = 1 AND " + AttachmentDatabase.DATA_HASH + " IS NULL)) AND "
         + AttachmentDatabase.STICKER_PACK_ID + " IS NULL ";
 
-   private static final String UNIQUE_MEDIA_QUERY = "SELECT "
-        + "MAX(" + AttachmentDatabase.SIZE + ") as " + AttachmentDatabase.SIZE + ", "
-        + AttachmentDatabase.CONTENT_TYPE + " "
-        + "FROM " + AttachmentDatabase.TABLE_NAME + " "
-        + "WHERE " + AttachmentDatabase.STICKER_PACK_ID + " IS NULL "
-        + "GROUP BY " + AttachmentDatabase.DATA;
-
-  private static final String GALLERY_MEDIA_QUERY  = String.format(BASE_MEDIA_QUERY, AttachmentDatabase.CONTENT_TYPE + " LIKE 'image/%' OR " + AttachmentDatabase.CONTENT_TYPE + " LIKE 'video/%'");
-  private static final String AUDIO_MEDIA_QUERY    = String.format(BASE_MEDIA_QUERY, AttachmentDatabase.CONTENT_TYPE + " LIKE 'audio/%'");
-  private static final String ALL_MEDIA_QUERY      = String.format(BASE_MEDIA_QUERY, AttachmentDatabase.CONTENT_TYPE + " NOT LIKE 'text/x-signal-plain'");
-  private static final String DOCUMENT_MEDIA_QUERY = String.format(BASE_MEDIA_QUERY, AttachmentDatabase.CONTENT_TYPE + " NOT LIKE 'image/%' AND " +
-                                                                                     AttachmentDatabase.CONTENT_TYPE + " NOT LIKE 'video/%' AND " +
-                                                                                     AttachmentDatabase.CONTENT_TYPE + " NOT LIKE 'audio/%' AND " +
-                                                                                     AttachmentDatabase.CONTENT_TYPE + " NOT LIKE 'text/x-signal-plain'");
-
   MediaDatabase(Context context, SQLCipherOpenHelper databaseHelper) {
     super(context, databaseHelper);
   }
@@ -90,10 +139,7 @@ public class MediaDatabase extends Database {
   }
 
   public @NonNull Cursor getGalleryMediaForThread(long threadId, @NonNull Sorting sorting, boolean listenToAllThreads) {
-    SQLiteDatabase database = databaseHelper.getReadableDatabase();
-    String         query    = sorting.applyToQuery(applyEqualityOperator(threadId, GALLERY_MEDIA_QUERY));
-    String[]       args     = {threadId + ""};
-    Cursor         cursor   = database.rawQuery(query, args);
+    Cursor cursor = queryMedia(MEDIA_COLUMNS, threadId, MediaLoader.MediaType.GALLERY, sorting, "");
     if (listenToAllThreads) {
       setNotifyConversationListeners(cursor);
     } else {
@@ -103,36 +149,69 @@ public class MediaDatabase extends Database {
   }
 
   public @NonNull Cursor getDocumentMediaForThread(long threadId, @NonNull Sorting sorting) {
-    SQLiteDatabase database = databaseHelper.getReadableDatabase();
-    String         query    = sorting.applyToQuery(applyEqualityOperator(threadId, DOCUMENT_MEDIA_QUERY));
-    String[]       args     = {threadId + ""};
-    Cursor         cursor   = database.rawQuery(query, args);
-    setNotifyConversationListeners(cursor, threadId);
-    return cursor;
+    return getMediaForThread(threadId, MediaLoader.MediaType.DOCUMENT, sorting);
   }
 
   public @NonNull Cursor getAudioMediaForThread(long threadId, @NonNull Sorting sorting) {
-    SQLiteDatabase database = databaseHelper.getReadableDatabase();
-    String         query    = sorting.applyToQuery(applyEqualityOperator(threadId, AUDIO_MEDIA_QUERY));
-    String[]       args     = {threadId + ""};
-    Cursor         cursor   = database.rawQuery(query, args);
-    setNotifyConversationListeners(cursor, threadId);
-    return cursor;
+    return getMediaForThread(threadId, MediaLoader.MediaType.AUDIO, sorting);
   }
 
   public @NonNull Cursor getAllMediaForThread(long threadId, @NonNull Sorting sorting) {
-    SQLiteDatabase database = databaseHelper.getReadableDatabase();
-    String         query    = sorting.applyToQuery(applyEqualityOperator(threadId, ALL_MEDIA_QUERY));
-    String[]       args     = {threadId + ""};
-    Cursor         cursor   = database.rawQuery(query, args);
+    return getMediaForThread(threadId, MediaLoader.MediaType.ALL, sorting);
+  }
+
+  public @NonNull Cursor getMediaForThread(long threadId, @NonNull MediaLoader.MediaType mediaType, @NonNull Sorting sorting) {
+    Cursor cursor = queryMedia(MEDIA_COLUMNS, threadId, mediaType, sorting, "");
     setNotifyConversationListeners(cursor, threadId);
     return cursor;
   }
 
+  /**
+   * A single page of {@link #getMediaForThread(long, MediaLoader.MediaType, Sorting)}.
+   */
+  public @NonNull Cursor getMediaForThread(long threadId, @NonNull MediaLoader.MediaType mediaType, @NonNull Sorting sorting, long offset, long limit) {
+    return queryMedia(MEDIA_COLUMNS, threadId, mediaType, sorting, " LIMIT " + limit + " OFFSET " + offset);
+  }
+
+  /**
+   * Walks the same rows as {@link #getMediaForThread(long, MediaLoader.MediaType, Sorting)}, reading
+   * only the date and size of each, so the overview can be grouped without loading every record.
+   */
+  public void readMediaLayout(long threadId, @NonNull MediaLoader.MediaType mediaType, @NonNull Sorting sorting, @NonNull LayoutReader reader) {
+    try (Cursor cursor = queryMedia(LAYOUT_COLUMNS, threadId, mediaType, sorting, "")) {
+      int position = 0;
+
+      while (cursor.moveToNext()) {
+        long box  = cursor.getLong(0);
+        long date = MmsDatabase.Types.isPushType(box) ? cursor.getLong(1) : cursor.getLong(2);
+
+        reader.onRow(position++, date, cursor.getLong(3));
+      }
+    }
+  }
+
+  private @NonNull Cursor queryMedia(@NonNull String columns, long threadId, @NonNull MediaLoader.MediaType mediaType, @NonNull Sorting sorting, @NonNull String limit) {
+    SQLiteDatabase database = databaseHelper.getPooledReadableDatabase();
+    String         query    = sorting.applyToQuery(applyEqualityOperator(threadId, String.format(BASE_MEDIA_QUERY, columns, getMediaKinds(mediaType)))) + limit;
+    String[]       args     = {threadId + ""};
+
+    return database.rawQuery(query, args);
+  }
+
   private static String applyEqualityOperator(long threadId, String query) {
     return query.replace("__EQUALITY__", threadId == ALL_THREADS ? "!=" : "=");
   }
 
+  private static String getMediaKinds(@NonNull MediaLoader.MediaType mediaType) {
+    switch (mediaType) {
+      case GALLERY : return String.valueOf(KIND_GALLERY);
+      case AUDIO   : return String.valueOf(KIND_AUDIO);
+      case DOCUMENT: return String.valueOf(KIND_DOCUMENT);
+      case ALL     : return KIND_GALLERY + ", " + KIND_AUDIO + ", " + KIND_DOCUMENT;
+      default      : throw new AssertionError();
+    }
+  }
+
   public void subscribeToMediaChanges(@NonNull ContentObserver observer) {
     registerAttachmentListeners(observer);
   }
@@ -145,28 +224,21 @@ public class MediaDatabase extends Database {
     StorageBreakdown storageBreakdown = new StorageBreakdown();
     SQLiteDatabase   database         = databaseHelper.getReadableDatabase();
 
-    try (Cursor cursor = database.rawQuery(UNIQUE_MEDIA_QUERY, new String[0])) {
-      int sizeColumn        = cursor.getColumnIndexOrThrow(AttachmentDatabase.SIZE);
-      int contentTypeColumn = cursor.getColumnIndexOrThrow(AttachmentDatabase.CONTENT_TYPE);
-
+    try (Cursor cursor = database.query(STORAGE_TABLE_NAME, new String[] { STORAGE_KIND, STORAGE_SIZE }, null, null, null, null, null)) {
       while (cursor.moveToNext()) {
-        int    size = cursor.getInt(sizeColumn);
-        String type = cursor.getString(contentTypeColumn);
+        long size = cursor.getLong(1);
 
-        switch (MediaUtil.getSlideTypeFromContentType(type)) {
-          case GIF:
-          case IMAGE:
-          case MMS:
+        switch (cursor.getInt(0)) {
+          case STORAGE_PHOTO:
             storageBreakdown.photoSize += size;
             break;
-          case VIDEO:
+          case STORAGE_VIDEO:
             storageBreakdown.videoSize += size;
             break;
-          case AUDIO:
+          case STORAGE_AUDIO:
             storageBreakdown.audioSize += size;
             break;
-          case LONG_TEXT:
-          case DOCUMENT:
+          case STORAGE_DOCUMENT:
             storageBreakdown.documentSize += size;
             break;
           default:
@@ -178,6 +250,59 @@ public class MediaDatabase extends Database {
     return storageBreakdown;
   }
 
+  private static String updateMediaColumns(@NonNull String row) {
+    return "UPDATE " + AttachmentDatabase.TABLE_NAME + " SET " +
+           AttachmentDatabase.THREAD_ID + " = (SELECT " + MmsDatabase.THREAD_ID + " FROM " + MmsDatabase.TABLE_NAME + " WHERE " + MmsDatabase.ID + " = " + row + "." + AttachmentDatabase.MMS_ID + "), " +
+           AttachmentDatabase.MEDIA_KIND + " = " + getMediaKind(row + "." + AttachmentDatabase.CONTENT_TYPE) + " " +
+           "WHERE " + AttachmentDatabase.ROW_ID + " = " + row + "." + AttachmentDatabase.ROW_ID + ";";
+  }
+
+  private static String addStorage(@NonNull String row) {
+    String kind = getStorageKind(row + "." + AttachmentDatabase.CONTENT_TYPE);
+
+    return "INSERT OR IGNORE INTO " + STORAGE_TABLE_NAME + " (" + STORAGE_KIND + ", " + STORAGE_SIZE + ") VALUES (" + kind + ", 0);\n" +
+           "  UPDATE " + STORAGE_TABLE_NAME + " SET " + STORAGE_SIZE + " = " + STORAGE_SIZE + " + IFNULL(" + row + "." + AttachmentDatabase.SIZE + ", 0) " +
+           "WHERE " + STORAGE_KIND + " = " + kind + " AND " + countsTowardsStorage(row) + ";";
+  }
+
+  private static String removeStorage(@NonNull String row) {
+    return "UPDATE " + STORAGE_TABLE_NAME + " SET " + STORAGE_SIZE + " = " + STORAGE_SIZE + " - IFNULL(" + row + "." + AttachmentDatabase.SIZE + ", 0) " +
+           "WHERE " + STORAGE_KIND + " = " + getStorageKind(row + "." + AttachmentDatabase.CONTENT_TYPE) + " AND " + countsTowardsStorage(row) + ";";
+  }
+
+  /**
+   * An attachment's file counts towards storage if it's on disk, isn't a sticker, and no other
+   * attachment references the same file.
+   */
+  private static String countsTowardsStorage(@NonNull String row) {
+    return row + "." + AttachmentDatabase.DATA + " IS NOT NULL AND " +
+           row + "." + AttachmentDatabase.STICKER_PACK_ID + " IS NULL AND " +
+           "NOT EXISTS (SELECT 1 FROM " + AttachmentDatabase.TABLE_NAME + " WHERE " + AttachmentDatabase.DATA + " = " + row + "." + AttachmentDatabase.DATA + " AND " + AttachmentDatabase.ROW_ID + " != " + row + "." + AttachmentDatabase.ROW_ID + ")";
+  }
+
+  private static String getMediaKind(@NonNull String contentType) {
+    return "CASE" +
+           " WHEN " + contentType + " IS NULL THEN " + KIND_NONE +
+           " WHEN " + contentType + " LIKE 'image/%' OR " + contentType + " LIKE 'video/%' THEN " + KIND_GALLERY +
+           " WHEN " + contentType + " LIKE 'audio/%' THEN " + KIND_AUDIO +
+           " WHEN " + contentType + " LIKE '" + MediaUtil.LONG_TEXT + "' THEN " + KIND_NONE +
+           " ELSE " + KIND_DOCUMENT + " END";
+  }
+
+  private static String getStorageKind(@NonNull String contentType) {
+    return "CASE" +
+           " WHEN " + contentType + " LIKE 'image/%' THEN " + STORAGE_PHOTO +
+           " WHEN " + contentType + " LIKE 'video/%' THEN " + STORAGE_VIDEO +
+           " WHEN " + contentType + " LIKE 'audio/%' THEN " + STORAGE_AUDIO +
+           " WHEN " + contentType + " = 'application/mms' THEN " + STORAGE_PHOTO +
+           " WHEN " + contentType + " = '" + MediaUtil.VIEW_ONCE + "' THEN " + STORAGE_NONE +
+           " ELSE " + STORAGE_DOCUMENT + " END";
+  }
+
+  public interface LayoutReader {
+    void onRow(int position, long date, long size);
+  }
+
   public static class MediaRecord {
 
     private final DatabaseAttachment attachment;
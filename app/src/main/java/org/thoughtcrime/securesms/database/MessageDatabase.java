@@ -46,9 +46,12 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Locale;
+import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
 
@@ -56,6 +59,10 @@ public abstract class MessageDatabase extends Database implements MmsSmsColumns
 
   private static final String TAG = MessageDatabase.class.getSimpleName();
 
+  public static final String EXPIRES_AT = "expires_at";
+
+  static final String EXPIRES_AT_EXPRESSION = "(" + EXPIRE_STARTED + " + " + EXPIRES_IN + ")";
+
   public MessageDatabase(Context context, SQLCipherOpenHelper databaseHelper) {
     super(context, databaseHelper);
   }
@@ -76,7 +83,6 @@ public abstract class MessageDatabase extends Database implements MmsSmsColumns
   abstract int getMessageCountForThreadSummary(long threadId);
   public abstract Optional<MmsNotificationInfo> getNotification(long messageId);
 
-  public abstract Cursor getExpirationStartedMessages();
   public abstract SmsMessageRecord getSmsMessage(long messageId) throws NoSuchMessageException;
   public abstract Reader getMessages(Collection<Long> messageIds);
   public abstract Cursor getMessageCursor(long messageId);
@@ -118,7 +124,7 @@ public abstract class MessageDatabase extends Database implements MmsSmsColumns
   public abstract void markDownloadState(long messageId, long state);
   public abstract void markIncomingNotificationReceived(long threadId);
 
-  public abstract boolean incrementReceiptCount(SyncMessageId messageId, long timestamp, @NonNull ReceiptType receiptType);
+  abstract boolean incrementReceiptCount(SyncMessageId messageId, long timestamp, @NonNull ReceiptType receiptType, @NonNull ReceiptThreadUpdates threadUpdates);
   public abstract List<Pair<Long, Long>> setTimestampRead(SyncMessageId messageId, long proposedExpireStarted);
   public abstract List<MarkedMessageInfo> setEntireThreadRead(long threadId);
   public abstract List<MarkedMessageInfo> setMessagesReadSince(long threadId, long timestamp);
@@ -158,8 +164,16 @@ public abstract class MessageDatabase extends Database implements MmsSmsColumns
   public abstract void insertGroupV1MigrationEvents(@NonNull RecipientId recipientId, long threadId, @NonNull GroupMigrationMembershipChange membershipChange);
 
   public abstract boolean deleteMessage(long messageId);
+
+  /**
+   * Deletes the provided messages without updating their threads or notifying listeners. Callers
+   * are expected to be in a transaction and to do both once for the whole batch.
+   *
+   * @return The IDs of the threads the deleted messages belonged to.
+   */
+  abstract @NonNull Set<Long> deleteMessagesWithoutThreadUpdate(@NonNull Collection<Long> messageIds);
   abstract void deleteThread(long threadId);
-  abstract void deleteMessagesInThreadBeforeDate(long threadId, long date);
+  abstract int deleteMessagesInThreadBeforeDate(long threadId, long date);
   abstract void deleteThreads(@NonNull Set<Long> threadIds);
   abstract void deleteAllThreads();
   abstract void deleteAbandonedMessages();
@@ -174,6 +188,38 @@ public abstract class MessageDatabase extends Database implements MmsSmsColumns
 
   public abstract void ensureMigration();
 
+  /**
+   * Returns the ID and expiration time (as {@link #EXPIRES_AT}) of messages whose expiration timer
+   * has started, ordered by expiration time. Only messages expiring at or after
+   * {@code minExpiresAt} are returned, so callers can page through them without ever loading the
+   * full set.
+   */
+  public @NonNull Cursor getExpirationStartedMessages(long minExpiresAt, int limit) {
+    SQLiteDatabase db         = databaseHelper.getReadableDatabase();
+    String[]       projection = new String[] { ID, EXPIRES_AT_EXPRESSION + " AS " + EXPIRES_AT };
+    String         where      = EXPIRE_STARTED + " > 0 AND " + EXPIRES_AT_EXPRESSION + " >= ?";
+    String[]       args       = SqlUtil.buildArgs(minExpiresAt);
+
+    return db.query(getTableName(), projection, where, args, null, null, EXPIRES_AT_EXPRESSION + " ASC", String.valueOf(limit));
+  }
+
+  final @NonNull Set<Long> getThreadIdsForMessages(@NonNull Collection<Long> messageIds) {
+    SQLiteDatabase db        = databaseHelper.getReadableDatabase();
+    Set<Long>      threadIds = new HashSet<>();
+
+    for (List<Long> chunk : Util.chunk(new ArrayList<>(messageIds), 900)) {
+      SqlUtil.Query query = SqlUtil.buildCollectionQuery(ID, chunk);
+
+      try (Cursor cursor = db.query(getTableName(), new String[] { THREAD_ID }, query.getWhere(), query.getWhereArgs(), THREAD_ID, null, null)) {
+        while (cursor != null && cursor.moveToNext()) {
+          threadIds.add(cursor.getLong(0));
+        }
+      }
+    }
+
+    return threadIds;
+  }
+
   final @NonNull String getOutgoingTypeClause() {
     List<String> segments = new ArrayList<>(Types.OUTGOING_MESSAGE_TYPES.length);
     for (long outgoingMessageType : Types.OUTGOING_MESSAGE_TYPES) {
@@ -572,6 +618,30 @@ public abstract class MessageDatabase extends Database implements MmsSmsColumns
     return -1;
   }
 
+  /**
+   * Collects the threads touched by a batch of receipts, so that each one is only recomputed and
+   * notified once no matter how many receipts it received.
+   */
+  static final class ReceiptThreadUpdates {
+
+    /** Thread ID -> whether a non-verbose notification is required. */
+    private final Map<Long, Boolean> threads = new LinkedHashMap<>();
+
+    void add(long threadId, boolean isFirstIncrement) {
+      Boolean existing = threads.get(threadId);
+      threads.put(threadId, isFirstIncrement || (existing != null && existing));
+    }
+
+    @NonNull Set<Long> getThreadIds() {
+      return threads.keySet();
+    }
+
+    boolean requiresFullNotification(long threadId) {
+      Boolean value = threads.get(threadId);
+      return value != null && value;
+    }
+  }
+
   protected enum ReceiptType {
     READ(READ_RECEIPT_COUNT, GroupReceiptDatabase.STATUS_READ),
     DELIVERY(DELIVERY_RECEIPT_COUNT, GroupReceiptDatabase.STATUS_DELIVERED),
@@ -194,7 +194,8 @@ public class MmsDatabase extends MessageDatabase {
     "CREATE INDEX IF NOT EXISTS mms_date_sent_index ON " + TABLE_NAME + " (" + DATE_SENT + ");",
     "CREATE INDEX IF NOT EXISTS mms_date_server_index ON " + TABLE_NAME + " (" + DATE_SERVER + ");",
     "CREATE INDEX IF NOT EXISTS mms_thread_date_index ON " + TABLE_NAME + " (" + THREAD_ID + ", " + DATE_RECEIVED + ");",
-    "CREATE INDEX IF NOT EXISTS mms_reactions_unread_index ON " + TABLE_NAME + " (" + REACTIONS_UNREAD + ");"
+    "CREATE INDEX IF NOT EXISTS mms_reactions_unread_index ON " + TABLE_NAME + " (" + REACTIONS_UNREAD + ");",
+    "CREATE INDEX IF NOT EXISTS mms_expires_at_index ON " + TABLE_NAME + " " + EXPIRES_AT_EXPRESSION + " WHERE " + EXPIRE_STARTED + " > 0;"
   };
 
   private static final String[] MMS_PROJECTION = new String[] {
@@ -282,12 +283,6 @@ public class MmsDatabase extends MessageDatabase {
     return getMessageCountForThread(threadId);
   }
 
-  @Override
-  public Cursor getExpirationStartedMessages() {
-    String where = EXPIRE_STARTED + " > 0";
-    return rawQuery(where, null);
-  }
-
   @Override
   public SmsMessageRecord getSmsMessage(long messageId) {
     throw new UnsupportedOperationException();
@@ -619,7 +614,7 @@ public class MmsDatabase extends MessageDatabase {
   }
 
   @Override
-  public boolean incrementReceiptCount(SyncMessageId messageId, long timestamp, @NonNull ReceiptType receiptType) {
+  boolean incrementReceiptCount(SyncMessageId messageId, long timestamp, @NonNull ReceiptType receiptType, @NonNull ReceiptThreadUpdates threadUpdates) {
     SQLiteDatabase database = databaseHelper.getWritableDatabase();
     boolean        found    = false;
 
@@ -645,13 +640,7 @@ public class MmsDatabase extends MessageDatabase {
                              new String[] {String.valueOf(id)});
 
             DatabaseFactory.getGroupReceiptDatabase(context).update(ourRecipientId, id, status, timestamp);
-            DatabaseFactory.getThreadDatabase(context).update(threadId, false);
-
-            if (isFirstIncrement) {
-              notifyConversationListeners(threadId);
-            } else {
-              notifyVerboseConversationListeners(threadId);
-            }
+            threadUpdates.add(threadId, isFirstIncrement);
           }
         }
       }
@@ -756,7 +745,7 @@ public class MmsDatabase extends MessageDatabase {
                    " WHERE " + ID + " = ?", new String[] {id + ""});
 
     if (threadId.isPresent()) {
-      DatabaseFactory.getThreadDatabase(context).update(threadId.get(), false);
+      DatabaseFactory.getThreadDatabase(context).updateForChangedMessage(threadId.get(), id, true);
     }
   }
 
@@ -821,7 +810,7 @@ public class MmsDatabase extends MessageDatabase {
     DatabaseFactory.getMentionDatabase(context).deleteMentionsForMessage(messageId);
 
     long threadId = getThreadIdForMessage(messageId);
-    DatabaseFactory.getThreadDatabase(context).update(threadId, false);
+    DatabaseFactory.getThreadDatabase(context).updateForChangedMessage(threadId, messageId, true);
     notifyConversationListeners(threadId);
   }
 
@@ -1307,7 +1296,6 @@ public class MmsDatabase extends MessageDatabase {
 
     if (!Types.isExpirationTimerUpdate(mailbox)) {
       DatabaseFactory.getThreadDatabase(context).incrementUnread(threadId, 1);
-      DatabaseFactory.getThreadDatabase(context).update(threadId, true);
     }
 
     notifyConversationListeners(threadId);
@@ -1535,9 +1523,11 @@ public class MmsDatabase extends MessageDatabase {
     contentValues.put(PART_COUNT, allAttachments.size());
     contentValues.put(MENTIONS_SELF, mentionsSelf ? 1 : 0);
 
+    long messageId = -1;
+
     db.beginTransaction();
     try {
-      long messageId = db.insert(TABLE_NAME, null, contentValues);
+      messageId = db.insert(TABLE_NAME, null, contentValues);
 
       mentionDatabase.insert(threadId, messageId, mentions);
 
@@ -1579,7 +1569,7 @@ public class MmsDatabase extends MessageDatabase {
       }
 
       notifyConversationListeners(contentValues.getAsLong(THREAD_ID));
-      DatabaseFactory.getThreadDatabase(context).update(contentValues.getAsLong(THREAD_ID), true);
+      DatabaseFactory.getThreadDatabase(context).updateForInsertedMessage(contentValues.getAsLong(THREAD_ID), messageId, true, true);
     }
   }
 
@@ -1599,13 +1589,37 @@ public class MmsDatabase extends MessageDatabase {
 
     SQLiteDatabase database = databaseHelper.getWritableDatabase();
     database.delete(TABLE_NAME, ID_WHERE, new String[] {messageId+""});
-    boolean threadDeleted = DatabaseFactory.getThreadDatabase(context).update(threadId, false);
+    boolean threadDeleted = DatabaseFactory.getThreadDatabase(context).updateForDeletedMessage(threadId, messageId, true);
     notifyConversationListeners(threadId);
     notifyStickerListeners();
     notifyStickerPackListeners();
     return threadDeleted;
   }
 
+  @Override
+  @NonNull Set<Long> deleteMessagesWithoutThreadUpdate(@NonNull Collection<Long> messageIds) {
+    Log.d(TAG, "deleteMessagesWithoutThreadUpdate(count: " + messageIds.size() + ")");
+
+    SQLiteDatabase       db                   = databaseHelper.getWritableDatabase();
+    AttachmentDatabase   attachmentDatabase   = DatabaseFactory.getAttachmentDatabase(context);
+    GroupReceiptDatabase groupReceiptDatabase = DatabaseFactory.getGroupReceiptDatabase(context);
+    MentionDatabase      mentionDatabase      = DatabaseFactory.getMentionDatabase(context);
+    Set<Long>            threadIds            = getThreadIdsForMessages(messageIds);
+
+    for (long messageId : messageIds) {
+      attachmentDatabase.deleteAttachmentsForMessage(messageId);
+      groupReceiptDatabase.deleteRowsForMessage(messageId);
+      mentionDatabase.deleteMentionsForMessage(messageId);
+    }
+
+    for (List<Long> chunk : Util.chunk(new ArrayList<>(messageIds), 900)) {
+      SqlUtil.Query query = SqlUtil.buildCollectionQuery(ID, chunk);
+      db.delete(TABLE_NAME, query.getWhere(), query.getWhereArgs());
+    }
+
+    return threadIds;
+  }
+
   @Override
   public void deleteThread(long threadId) {
     Log.d(TAG, "deleteThread(" + threadId + ")");
@@ -1720,11 +1734,11 @@ public class MmsDatabase extends MessageDatabase {
   }
 
   @Override
-  void deleteMessagesInThreadBeforeDate(long threadId, long date) {
+  int deleteMessagesInThreadBeforeDate(long threadId, long date) {
     SQLiteDatabase db    = databaseHelper.getWritableDatabase();
     String         where = THREAD_ID + " = ? AND " + DATE_RECEIVED + " < " + date;
 
-    db.delete(TABLE_NAME, where, SqlUtil.buildArgs(threadId));
+    return db.delete(TABLE_NAME, where, SqlUtil.buildArgs(threadId));
   }
 
   @Override
@@ -33,6 +33,8 @@ import org.thoughtcrime.securesms.database.model.MessageRecord;
 import org.thoughtcrime.securesms.recipients.Recipient;
 import org.thoughtcrime.securesms.recipients.RecipientId;
 import org.thoughtcrime.securesms.util.CursorUtil;
+import org.thoughtcrime.securesms.util.SqlUtil;
+import org.thoughtcrime.securesms.util.Util;
 import org.whispersystems.libsignal.util.Pair;
 
 import java.io.Closeable;
@@ -184,7 +186,7 @@ public class MmsSmsDatabase extends Database {
     String selection = MmsSmsColumns.THREAD_ID + " = " + threadId;
     String limitStr  = limit > 0 || offset > 0 ? offset + ", " + limit : null;
 
-    Cursor cursor = queryTables(PROJECTION, selection, order, limitStr);
+    Cursor cursor = queryTables(databaseHelper.getPooledReadableDatabase(), PROJECTION, selection, order, limitStr);
     setNotifyConversationListeners(cursor, threadId);
 
     return cursor;
@@ -320,102 +322,88 @@ public class MmsSmsDatabase extends Database {
   }
 
   public void incrementDeliveryReceiptCounts(@NonNull List<SyncMessageId> syncMessageIds, long timestamp) {
-    SQLiteDatabase db = databaseHelper.getWritableDatabase();
-
-    db.beginTransaction();
-    try {
-      for (SyncMessageId id : syncMessageIds) {
-        incrementDeliveryReceiptCount(id, timestamp);
-      }
-      db.setTransactionSuccessful();
-    } finally {
-      db.endTransaction();
-    }
+    incrementReceiptCounts(toPendingReceipts(syncMessageIds, timestamp, MessageDatabase.ReceiptType.DELIVERY));
   }
 
   public void incrementDeliveryReceiptCount(SyncMessageId syncMessageId, long timestamp) {
-    SQLiteDatabase db = databaseHelper.getWritableDatabase();
-
-    db.beginTransaction();
-    try {
-      DatabaseFactory.getSmsDatabase(context).incrementReceiptCount(syncMessageId, timestamp, MessageDatabase.ReceiptType.DELIVERY);
-      DatabaseFactory.getMmsDatabase(context).incrementReceiptCount(syncMessageId, timestamp, MessageDatabase.ReceiptType.DELIVERY);
-      db.setTransactionSuccessful();
-    } finally {
-      db.endTransaction();
-    }
+    incrementDeliveryReceiptCounts(Collections.singletonList(syncMessageId), timestamp);
   }
 
   /**
    * @return A list of ID's that were not updated.
    */
   public @NonNull Collection<SyncMessageId> incrementReadReceiptCounts(@NonNull List<SyncMessageId> syncMessageIds, long timestamp) {
-    SQLiteDatabase      db        = databaseHelper.getWritableDatabase();
-    List<SyncMessageId> unhandled = new LinkedList<>();
-
-    db.beginTransaction();
-    try {
-      for (SyncMessageId id : syncMessageIds) {
-        boolean handled = incrementReadReceiptCount(id, timestamp);
-
-        if (!handled) {
-          unhandled.add(id);
-        }
-      }
-
-      db.setTransactionSuccessful();
-    } finally {
-      db.endTransaction();
-    }
-
-    return unhandled;
+    return Stream.of(incrementReceiptCounts(toPendingReceipts(syncMessageIds, timestamp, MessageDatabase.ReceiptType.READ)))
+                 .map(PendingReceipt::getSyncMessageId)
+                 .toList();
   }
 
   public boolean incrementReadReceiptCount(SyncMessageId syncMessageId, long timestamp) {
-    SQLiteDatabase db = databaseHelper.getWritableDatabase();
-
-    db.beginTransaction();
-    try {
-      boolean handled = false;
-
-      handled |= DatabaseFactory.getSmsDatabase(context).incrementReceiptCount(syncMessageId, timestamp, MessageDatabase.ReceiptType.READ);
-      handled |= DatabaseFactory.getMmsDatabase(context).incrementReceiptCount(syncMessageId, timestamp, MessageDatabase.ReceiptType.READ);
-
-      db.setTransactionSuccessful();
-
-      return handled;
-    } finally {
-      db.endTransaction();
-    }
+    return incrementReadReceiptCounts(Collections.singletonList(syncMessageId), timestamp).isEmpty();
   }
 
   /**
    * @return A list of ID's that were not updated.
    */
   public @NonNull Collection<SyncMessageId> incrementViewedReceiptCounts(@NonNull List<SyncMessageId> syncMessageIds, long timestamp) {
-    SQLiteDatabase      db        = databaseHelper.getWritableDatabase();
-    List<SyncMessageId> unhandled = new LinkedList<>();
+    return Stream.of(incrementReceiptCounts(toPendingReceipts(syncMessageIds, timestamp, MessageDatabase.ReceiptType.VIEWED)))
+                 .map(PendingReceipt::getSyncMessageId)
+                 .toList();
+  }
+
+  public boolean incrementViewedReceiptCount(SyncMessageId syncMessageId, long timestamp) {
+    return incrementViewedReceiptCounts(Collections.singletonList(syncMessageId), timestamp).isEmpty();
+  }
+
+  /**
+   * Applies a batch of receipts in a single transaction. Each affected thread is recomputed and
+   * notified once, regardless of how many of the receipts touched it.
+   *
+   * @return The receipts that did not match any message.
+   */
+  @NonNull List<PendingReceipt> incrementReceiptCounts(@NonNull List<PendingReceipt> receipts) {
+    SQLiteDatabase                       db             = databaseHelper.getWritableDatabase();
+    MessageDatabase                      smsDatabase    = DatabaseFactory.getSmsDatabase(context);
+    MessageDatabase                      mmsDatabase    = DatabaseFactory.getMmsDatabase(context);
+    ThreadDatabase                       threadDatabase = DatabaseFactory.getThreadDatabase(context);
+    MessageDatabase.ReceiptThreadUpdates threadUpdates  = new MessageDatabase.ReceiptThreadUpdates();
+    List<PendingReceipt>                 unhandled      = new LinkedList<>();
 
     db.beginTransaction();
     try {
-      for (SyncMessageId id : syncMessageIds) {
-        boolean handled = incrementViewedReceiptCount(id, timestamp);
+      for (PendingReceipt receipt : receipts) {
+        boolean handled = false;
+
+        handled |= smsDatabase.incrementReceiptCount(receipt.syncMessageId, receipt.timestamp, receipt.receiptType, threadUpdates);
+        handled |= mmsDatabase.incrementReceiptCount(receipt.syncMessageId, receipt.timestamp, receipt.receiptType, threadUpdates);
 
         if (!handled) {
-          unhandled.add(id);
+          unhandled.add(receipt);
         }
       }
 
+      for (long threadId : threadUpdates.getThreadIds()) {
+        threadDatabase.refreshSnippet(threadId);
+      }
+
       db.setTransactionSuccessful();
     } finally {
       db.endTransaction();
     }
 
+    for (long threadId : threadUpdates.getThreadIds()) {
+      if (threadUpdates.requiresFullNotification(threadId)) {
+        notifyConversationListeners(threadId);
+      } else {
+        notifyVerboseConversationListeners(threadId);
+      }
+    }
+
     return unhandled;
   }
 
-  public boolean incrementViewedReceiptCount(SyncMessageId syncMessageId, long timestamp) {
-    return DatabaseFactory.getMmsDatabase(context).incrementReceiptCount(syncMessageId, timestamp, MessageDatabase.ReceiptType.VIEWED);
+  private static @NonNull List<PendingReceipt> toPendingReceipts(@NonNull List<SyncMessageId> syncMessageIds, long timestamp, @NonNull MessageDatabase.ReceiptType receiptType) {
+    return Stream.of(syncMessageIds).map(id -> new PendingReceipt(id, timestamp, receiptType)).toList();
   }
 
   public int getQuotedMessagePosition(long threadId, long quoteId, @NonNull RecipientId recipientId) {
@@ -508,10 +496,119 @@ public class MmsSmsDatabase extends Database {
     DatabaseFactory.getMmsDatabase(context).setNotifiedTimestamp(timestamp, mmsIds);
   }
 
-  public void deleteMessagesInThreadBeforeDate(long threadId, long trimBeforeDate) {
+  /**
+   * @return The number of messages that were deleted.
+   */
+  public int deleteMessagesInThreadBeforeDate(long threadId, long trimBeforeDate) {
     Log.d(TAG, "deleteMessagesInThreadBeforeData(" + threadId + ", " + trimBeforeDate + ")");
-    DatabaseFactory.getSmsDatabase(context).deleteMessagesInThreadBeforeDate(threadId, trimBeforeDate);
-    DatabaseFactory.getMmsDatabase(context).deleteMessagesInThreadBeforeDate(threadId, trimBeforeDate);
+    int deleted = DatabaseFactory.getSmsDatabase(context).deleteMessagesInThreadBeforeDate(threadId, trimBeforeDate);
+    deleted    += DatabaseFactory.getMmsDatabase(context).deleteMessagesInThreadBeforeDate(threadId, trimBeforeDate);
+    return deleted;
+  }
+
+  /**
+   * @return The IDs of every thread that either has a message received before {@code trimBeforeDate}
+   *         or has more than {@code length} messages, in ascending order. Either constraint can be
+   *         disabled by passing {@link ThreadDatabase#NO_TRIM_BEFORE_DATE_SET} or
+   *         {@link ThreadDatabase#NO_TRIM_MESSAGE_COUNT_SET}.
+   */
+  @NonNull List<Long> getThreadIdsToTrim(int length, long trimBeforeDate) {
+    SQLiteDatabase db    = databaseHelper.getReadableDatabase();
+    List<String>   parts = new LinkedList<>();
+
+    if (trimBeforeDate != ThreadDatabase.NO_TRIM_BEFORE_DATE_SET) {
+      parts.add("SELECT DISTINCT " + MmsSmsColumns.THREAD_ID + " FROM " + SmsDatabase.TABLE_NAME + " WHERE " + SmsDatabase.DATE_RECEIVED + " < " + trimBeforeDate);
+      parts.add("SELECT DISTINCT " + MmsSmsColumns.THREAD_ID + " FROM " + MmsDatabase.TABLE_NAME + " WHERE " + MmsDatabase.DATE_RECEIVED + " < " + trimBeforeDate);
+    }
+
+    if (length != ThreadDatabase.NO_TRIM_MESSAGE_COUNT_SET) {
+      parts.add("SELECT " + MmsSmsColumns.THREAD_ID + " FROM (" +
+                  "SELECT " + MmsSmsColumns.THREAD_ID + " FROM " + SmsDatabase.TABLE_NAME + " UNION ALL " +
+                  "SELECT " + MmsSmsColumns.THREAD_ID + " FROM " + MmsDatabase.TABLE_NAME +
+                ") GROUP BY " + MmsSmsColumns.THREAD_ID + " HAVING COUNT(*) > " + length);
+    }
+
+    List<Long> threadIds = new LinkedList<>();
+
+    if (parts.isEmpty()) {
+      return threadIds;
+    }
+
+    String query = Util.join(parts, " UNION ") + " ORDER BY " + MmsSmsColumns.THREAD_ID + " ASC";
+
+    try (Cursor cursor = db.rawQuery(query, null)) {
+      while (cursor != null && cursor.moveToNext()) {
+        threadIds.add(cursor.getLong(0));
+      }
+    }
+
+    return threadIds;
+  }
+
+  /**
+   * @return The received date of the {@code length}th most recent message in the thread, or
+   *         {@link ThreadDatabase#NO_TRIM_BEFORE_DATE_SET} if the thread has no more than
+   *         {@code length} messages.
+   */
+  long getTrimBeforeDateForLength(long threadId, int length) {
+    if (length <= 0) {
+      return ThreadDatabase.NO_TRIM_BEFORE_DATE_SET;
+    }
+
+    SQLiteDatabase db    = databaseHelper.getReadableDatabase();
+    String         query = "SELECT " + MmsSmsColumns.NORMALIZED_DATE_RECEIVED + " FROM (" +
+                             "SELECT " + SmsDatabase.DATE_RECEIVED + " AS " + MmsSmsColumns.NORMALIZED_DATE_RECEIVED + " FROM " + SmsDatabase.TABLE_NAME + " WHERE " + MmsSmsColumns.THREAD_ID + " = ? UNION ALL " +
+                             "SELECT " + MmsDatabase.DATE_RECEIVED + " AS " + MmsSmsColumns.NORMALIZED_DATE_RECEIVED + " FROM " + MmsDatabase.TABLE_NAME + " WHERE " + MmsSmsColumns.THREAD_ID + " = ?" +
+                           ") ORDER BY " + MmsSmsColumns.NORMALIZED_DATE_RECEIVED + " DESC LIMIT 1 OFFSET " + (length - 1);
+
+    try (Cursor cursor = db.rawQuery(query, SqlUtil.buildArgs(threadId, threadId))) {
+      if (cursor != null && cursor.moveToFirst()) {
+        return cursor.getLong(0);
+      }
+    }
+
+    return ThreadDatabase.NO_TRIM_BEFORE_DATE_SET;
+  }
+
+  /**
+   * Deletes the provided SMS and MMS messages in a single transaction, updating each affected thread
+   * exactly once and notifying conversation listeners once per thread.
+   */
+  public void deleteMessages(@NonNull Collection<Long> smsIds, @NonNull Collection<Long> mmsIds) {
+    Log.d(TAG, "deleteMessages(sms: " + smsIds.size() + ", mms: " + mmsIds.size() + ")");
+
+    SQLiteDatabase db        = databaseHelper.getWritableDatabase();
+    Set<Long>      threadIds = new HashSet<>();
+
+    db.beginTransaction();
+    try {
+      if (!smsIds.isEmpty()) {
+        threadIds.addAll(DatabaseFactory.getSmsDatabase(context).deleteMessagesWithoutThreadUpdate(smsIds));
+      }
+
+      if (!mmsIds.isEmpty()) {
+        threadIds.addAll(DatabaseFactory.getMmsDatabase(context).deleteMessagesWithoutThreadUpdate(mmsIds));
+      }
+
+      ThreadDatabase threadDatabase = DatabaseFactory.getThreadDatabase(context);
+
+      for (long threadId : threadIds) {
+        threadDatabase.update(threadId, false);
+      }
+
+      db.setTransactionSuccessful();
+    } finally {
+      db.endTransaction();
+    }
+
+    if (!threadIds.isEmpty()) {
+      notifyConversationListeners(threadIds);
+    }
+
+    if (!mmsIds.isEmpty()) {
+      notifyStickerListeners();
+      notifyStickerPackListeners();
+    }
   }
 
   public void deleteAbandonedMessages() {
@@ -521,6 +618,10 @@ public class MmsSmsDatabase extends Database {
   }
 
   private Cursor queryTables(String[] projection, String selection, String order, String limit) {
+    return queryTables(databaseHelper.getReadableDatabase(), projection, selection, order, limit);
+  }
+
+  private Cursor queryTables(@NonNull SQLiteDatabase db, String[] projection, String selection, String order, String limit) {
     String[] mmsProjection = {MmsDatabase.DATE_SENT + " AS " + MmsSmsColumns.NORMALIZED_DATE_SENT,
                               MmsDatabase.DATE_RECEIVED + " AS " + MmsSmsColumns.NORMALIZED_DATE_RECEIVED,
                               MmsDatabase.TABLE_NAME + "." + MmsDatabase.ID + " AS " + MmsSmsColumns.ID,
@@ -718,7 +819,6 @@ public class MmsSmsDatabase extends Database {
     @SuppressWarnings("deprecation")
     String query      = outerQueryBuilder.buildQuery(projection, null, null, null, null, null, null);
 
-    SQLiteDatabase db = databaseHelper.getReadableDatabase();
     return db.rawQuery(query, null);
   }
 
@@ -772,4 +872,31 @@ public class MmsSmsDatabase extends Database {
       cursor.close();
     }
   }
+
+  /**
+   * A receipt that has yet to be applied to the message it references.
+   */
+  static final class PendingReceipt {
+    private final SyncMessageId               syncMessageId;
+    private final long                        timestamp;
+    private final MessageDatabase.ReceiptType receiptType;
+
+    PendingReceipt(@NonNull SyncMessageId syncMessageId, long timestamp, @NonNull MessageDatabase.ReceiptType receiptType) {
+      this.syncMessageId = syncMessageId;
+      this.timestamp     = timestamp;
+      this.receiptType   = receiptType;
+    }
+
+    @NonNull SyncMessageId getSyncMessageId() {
+      return syncMessageId;
+    }
+
+    long getTimestamp() {
+      return timestamp;
+    }
+
+    @NonNull MessageDatabase.ReceiptType getReceiptType() {
+      return receiptType;
+    }
+  }
 }
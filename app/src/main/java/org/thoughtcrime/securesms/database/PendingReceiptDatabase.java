@@ -0,0 +1,139 @@
+package org.thoughtcrime.securesms.database;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+
+import androidx.annotation.NonNull;
+
+import org.thoughtcrime.securesms.database.MessageDatabase.SyncMessageId;
+import org.thoughtcrime.securesms.database.MmsSmsDatabase.PendingReceipt;
+import org.thoughtcrime.securesms.database.helpers.SQLCipherOpenHelper;
+import org.thoughtcrime.securesms.recipients.RecipientId;
+import org.thoughtcrime.securesms.util.CursorUtil;
+import org.thoughtcrime.securesms.util.SqlUtil;
+import org.thoughtcrime.securesms.util.Util;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Receipts that have been received, but not yet applied to the messages they're for. They're
+ * written here while the envelope that carried them is processed, so they survive the envelope
+ * being acknowledged, and are applied in batches by the {@link ReceiptAggregator}.
+ */
+public class PendingReceiptDatabase extends Database implements ReceiptAggregator.Storage {
+
+  public static final String TABLE_NAME = "pending_receipt";
+
+  private static final String ID                = "_id";
+  private static final String RECIPIENT_ID      = "recipient_id";
+  private static final String MESSAGE_TIMESTAMP = "message_timestamp";
+  private static final String RECEIPT_TIMESTAMP = "receipt_timestamp";
+  private static final String TYPE              = "type";
+
+  private static final int TYPE_DELIVERY = 1;
+  private static final int TYPE_READ     = 2;
+  private static final int TYPE_VIEWED   = 3;
+
+  public static final String CREATE_TABLE = "CREATE TABLE " + TABLE_NAME + " (" + ID                + " INTEGER PRIMARY KEY AUTOINCREMENT, " +
+                                                                                  RECIPIENT_ID      + " INTEGER NOT NULL, " +
+                                                                                  MESSAGE_TIMESTAMP + " INTEGER NOT NULL, " +
+                                                                                  RECEIPT_TIMESTAMP + " INTEGER NOT NULL, " +
+                                                                                  TYPE              + " INTEGER NOT NULL)";
+
+  private static final int MAX_DELETE_ARGS = 500;
+
+  public PendingReceiptDatabase(Context context, SQLCipherOpenHelper databaseHelper) {
+    super(context, databaseHelper);
+  }
+
+  @Override
+  public @NonNull List<Long> insert(@NonNull List<PendingReceipt> receipts) {
+    SQLiteDatabase db  = databaseHelper.getWritableDatabase();
+    List<Long>     ids = new ArrayList<>(receipts.size());
+
+    db.beginTransaction();
+    try {
+      for (PendingReceipt receipt : receipts) {
+        ContentValues values = new ContentValues(4);
+        values.put(RECIPIENT_ID, receipt.getSyncMessageId().getRecipientId().toLong());
+        values.put(MESSAGE_TIMESTAMP, receipt.getSyncMessageId().getTimetamp());
+        values.put(RECEIPT_TIMESTAMP, receipt.getTimestamp());
+        values.put(TYPE, serializeType(receipt.getReceiptType()));
+
+        ids.add(db.insert(TABLE_NAME, null, values));
+      }
+
+      db.setTransactionSuccessful();
+    } finally {
+      db.endTransaction();
+    }
+
+    return ids;
+  }
+
+  @Override
+  public @NonNull Map<Long, PendingReceipt> getAll() {
+    SQLiteDatabase            db       = databaseHelper.getReadableDatabase();
+    Map<Long, PendingReceipt> receipts = new LinkedHashMap<>();
+
+    try (Cursor cursor = db.query(TABLE_NAME, null, null, null, null, null, ID + " ASC")) {
+      while (cursor != null && cursor.moveToNext()) {
+        SyncMessageId syncMessageId = new SyncMessageId(RecipientId.from(CursorUtil.requireLong(cursor, RECIPIENT_ID)),
+                                                        CursorUtil.requireLong(cursor, MESSAGE_TIMESTAMP));
+
+        receipts.put(CursorUtil.requireLong(cursor, ID),
+                     new PendingReceipt(syncMessageId,
+                                        CursorUtil.requireLong(cursor, RECEIPT_TIMESTAMP),
+                                        deserializeType(CursorUtil.requireInt(cursor, TYPE))));
+      }
+    }
+
+    return receipts;
+  }
+
+  @Override
+  public void delete(@NonNull Collection<Long> ids) {
+    SQLiteDatabase db = databaseHelper.getWritableDatabase();
+
+    for (List<Long> chunk : Util.chunk(new ArrayList<>(ids), MAX_DELETE_ARGS)) {
+      SqlUtil.Query query = SqlUtil.buildCollectionQuery(ID, chunk);
+      db.delete(TABLE_NAME, query.getWhere(), query.getWhereArgs());
+    }
+  }
+
+  @Override
+  public void runInTransaction(@NonNull Runnable runnable) {
+    SQLiteDatabase db = databaseHelper.getWritableDatabase();
+
+    db.beginTransaction();
+    try {
+      runnable.run();
+      db.setTransactionSuccessful();
+    } finally {
+      db.endTransaction();
+    }
+  }
+
+  private static int serializeType(@NonNull MessageDatabase.ReceiptType receiptType) {
+    switch (receiptType) {
+      case DELIVERY: return TYPE_DELIVERY;
+      case READ:     return TYPE_READ;
+      case VIEWED:   return TYPE_VIEWED;
+      default:       throw new AssertionError("Unknown receipt type: " + receiptType);
+    }
+  }
+
+  private static @NonNull MessageDatabase.ReceiptType deserializeType(int type) {
+    switch (type) {
+      case TYPE_DELIVERY: return MessageDatabase.ReceiptType.DELIVERY;
+      case TYPE_READ:     return MessageDatabase.ReceiptType.READ;
+      case TYPE_VIEWED:   return MessageDatabase.ReceiptType.VIEWED;
+      default:            throw new AssertionError("Unknown receipt type: " + type);
+    }
+  }
+}
@@ -0,0 +1,285 @@
+package org.thoughtcrime.securesms.database;
+
+import android.content.Context;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
+import androidx.annotation.WorkerThread;
+
+import org.signal.core.util.logging.Log;
+import org.thoughtcrime.securesms.database.MessageDatabase.SyncMessageId;
+import org.thoughtcrime.securesms.database.MmsSmsDatabase.PendingReceipt;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Gathers up incoming receipts across envelopes and applies them in batches.
+ *
+ * A receipt applied on its own recomputes its thread and notifies every observer, so a message to a
+ * large group can cause hundreds of thread recomputes as the delivery receipts trickle in, one per
+ * envelope. Instead, receipts are written to the {@link PendingReceiptDatabase} as each envelope is
+ * processed, which makes them durable before the envelope is acknowledged. Everything written within
+ * {@link #WINDOW_MS} of the first of them is then applied in a single batch, which recomputes and
+ * notifies each affected thread once.
+ *
+ * Receipts left over from a previous process are applied shortly after this is created.
+ */
+public final class ReceiptAggregator {
+
+  private static final String TAG = Log.tag(ReceiptAggregator.class);
+
+  /** How long receipts are gathered up before they're applied. */
+  private static final long WINDOW_MS = 250;
+
+  /** How long to wait before trying again after a batch failed to apply. */
+  private static final long RETRY_DELAY_MS = 5_000;
+
+  private final Storage   storage;
+  private final Applier   applier;
+  private final Scheduler scheduler;
+
+  private final Map<Long, UnhandledListener> unhandledListeners = new HashMap<>();
+
+  private boolean drainScheduled;
+
+  public ReceiptAggregator(@NonNull Context context) {
+    this(DatabaseFactory.getPendingReceiptDatabase(context),
+         receipts -> DatabaseFactory.getMmsSmsDatabase(context).incrementReceiptCounts(receipts),
+         new ExecutorScheduler(Executors.newSingleThreadScheduledExecutor(r -> new Thread(r, "signal-ReceiptAggregator"))));
+  }
+
+  @VisibleForTesting
+  ReceiptAggregator(@NonNull Storage storage, @NonNull Applier applier, @NonNull Scheduler scheduler) {
+    this.storage   = storage;
+    this.applier   = applier;
+    this.scheduler = scheduler;
+
+    scheduleDrain(WINDOW_MS);
+  }
+
+  /**
+   * Writes the receipts found while processing an envelope, to be applied with the next batch. Must
+   * be called before the envelope is acknowledged.
+   */
+  @WorkerThread
+  public void enqueue(@NonNull Batch batch) {
+    if (batch.receipts.isEmpty()) {
+      return;
+    }
+
+    List<PendingReceipt> receipts = new ArrayList<>(batch.receipts.size());
+
+    for (BufferedReceipt receipt : batch.receipts) {
+      receipts.add(receipt.receipt);
+    }
+
+    storage.runInTransaction(() -> {
+      List<Long> ids = storage.insert(receipts);
+
+      synchronized (unhandledListeners) {
+        for (int i = 0; i < ids.size(); i++) {
+          UnhandledListener listener = batch.receipts.get(i).unhandledListener;
+
+          if (listener != null) {
+            unhandledListeners.put(ids.get(i), listener);
+          }
+        }
+      }
+    });
+
+    scheduleDrain(WINDOW_MS);
+  }
+
+  private synchronized void scheduleDrain(long delayMs) {
+    if (drainScheduled) {
+      return;
+    }
+
+    drainScheduled = true;
+    scheduler.schedule(this::drain, delayMs);
+  }
+
+  /**
+   * Applies every stored receipt in a single batch. Applying them and deleting them happen in the
+   * same transaction, so a receipt is never applied twice. Listeners are registered in the same
+   * transaction as their receipts are stored, so they're always in place by the time a drain can
+   * see those receipts.
+   */
+  private void drain() {
+    synchronized (this) {
+      drainScheduled = false;
+    }
+
+    Set<Long>                 applied   = new HashSet<>();
+    Map<Long, PendingReceipt> unhandled = new HashMap<>();
+
+    try {
+      storage.runInTransaction(() -> {
+        Map<Long, PendingReceipt> stored = storage.getAll();
+        Map<PendingReceipt, Long> ids    = new IdentityHashMap<>(stored.size());
+
+        if (stored.isEmpty()) {
+          return;
+        }
+
+        for (Map.Entry<Long, PendingReceipt> entry : stored.entrySet()) {
+          ids.put(entry.getValue(), entry.getKey());
+        }
+
+        for (PendingReceipt receipt : applier.apply(new ArrayList<>(stored.values()))) {
+          unhandled.put(ids.get(receipt), receipt);
+        }
+
+        storage.delete(stored.keySet());
+        applied.addAll(stored.keySet());
+      });
+    } catch (RuntimeException e) {
+      Log.w(TAG, "Failed to apply receipts. Trying again in " + RETRY_DELAY_MS + " ms.", e);
+      scheduleDrain(RETRY_DELAY_MS);
+      return;
+    }
+
+    if (applied.isEmpty()) {
+      return;
+    }
+
+    Log.d(TAG, "Applied " + applied.size() + " receipts. " + unhandled.size() + " unhandled.");
+
+    notifyUnhandled(applied, unhandled);
+  }
+
+  private void notifyUnhandled(@NonNull Set<Long> applied, @NonNull Map<Long, PendingReceipt> unhandled) {
+    Map<UnhandledListener, List<SyncMessageId>> unhandledByListener = new IdentityHashMap<>();
+
+    synchronized (unhandledListeners) {
+      for (Map.Entry<Long, PendingReceipt> entry : unhandled.entrySet()) {
+        UnhandledListener listener = unhandledListeners.get(entry.getKey());
+
+        if (listener != null) {
+          List<SyncMessageId> ids = unhandledByListener.get(listener);
+
+          if (ids == null) {
+            ids = new LinkedList<>();
+            unhandledByListener.put(listener, ids);
+          }
+
+          ids.add(entry.getValue().getSyncMessageId());
+        }
+      }
+
+      unhandledListeners.keySet().removeAll(applied);
+    }
+
+    for (Map.Entry<UnhandledListener, List<SyncMessageId>> entry : unhandledByListener.entrySet()) {
+      entry.getKey().onUnhandled(entry.getValue());
+    }
+  }
+
+  /**
+   * The receipts found while processing a single envelope. Nothing is written until the batch is
+   * handed to {@link #enqueue(Batch)}, so a batch from processing that failed can just be dropped.
+   */
+  public static final class Batch {
+    private final List<BufferedReceipt> receipts = new ArrayList<>();
+
+    public void addDeliveryReceipts(@NonNull List<SyncMessageId> ids, long timestamp) {
+      add(ids, timestamp, MessageDatabase.ReceiptType.DELIVERY, null);
+    }
+
+    /**
+     * @param unhandledListener Called once the batch has been applied, with any receipts that did
+     *                          not match a message.
+     */
+    public void addReadReceipts(@NonNull List<SyncMessageId> ids, long timestamp, @NonNull UnhandledListener unhandledListener) {
+      add(ids, timestamp, MessageDatabase.ReceiptType.READ, unhandledListener);
+    }
+
+    /**
+     * @param unhandledListener Called once the batch has been applied, with any receipts that did
+     *                          not match a message.
+     */
+    public void addViewedReceipts(@NonNull List<SyncMessageId> ids, long timestamp, @NonNull UnhandledListener unhandledListener) {
+      add(ids, timestamp, MessageDatabase.ReceiptType.VIEWED, unhandledListener);
+    }
+
+    private void add(@NonNull List<SyncMessageId> ids, long timestamp, @NonNull MessageDatabase.ReceiptType receiptType, @Nullable UnhandledListener unhandledListener) {
+      for (SyncMessageId id : ids) {
+        receipts.add(new BufferedReceipt(new PendingReceipt(id, timestamp, receiptType), unhandledListener));
+      }
+    }
+  }
+
+  public interface UnhandledListener {
+    void onUnhandled(@NonNull List<SyncMessageId> unhandled);
+  }
+
+  /**
+   * Where receipts wait between being received and being applied.
+   */
+  @VisibleForTesting
+  interface Storage {
+    /**
+     * @return The ID each receipt was stored with, in the same order.
+     */
+    @NonNull List<Long> insert(@NonNull List<PendingReceipt> receipts);
+
+    /**
+     * @return Every stored receipt by ID, oldest first.
+     */
+    @NonNull Map<Long, PendingReceipt> getAll();
+
+    void delete(@NonNull Collection<Long> ids);
+
+    void runInTransaction(@NonNull Runnable runnable);
+  }
+
+  @VisibleForTesting
+  interface Applier {
+    /**
+     * Applies the receipts, recomputing each affected thread once.
+     *
+     * @return The receipts that did not match any message.
+     */
+    @NonNull List<PendingReceipt> apply(@NonNull List<PendingReceipt> receipts);
+  }
+
+  @VisibleForTesting
+  interface Scheduler {
+    void schedule(@NonNull Runnable task, long delayMs);
+  }
+
+  private static final class ExecutorScheduler implements Scheduler {
+    private final ScheduledExecutorService executor;
+
+    private ExecutorScheduler(@NonNull ScheduledExecutorService executor) {
+      this.executor = executor;
+    }
+
+    @Override
+    public void schedule(@NonNull Runnable task, long delayMs) {
+      executor.schedule(task, delayMs, TimeUnit.MILLISECONDS);
+    }
+  }
+
+  private static final class BufferedReceipt {
+    private final PendingReceipt    receipt;
+    private final UnhandledListener unhandledListener;
+
+    private BufferedReceipt(@NonNull PendingReceipt receipt, @Nullable UnhandledListener unhandledListener) {
+      this.receipt           = receipt;
+      this.unhandledListener = unhandledListener;
+    }
+  }
+}
@@ -767,6 +767,32 @@ public class RecipientDatabase extends Database {
     return null;
   }
 
+  /**
+   * Bulk version of {@link #getByStorageId(byte[])}.
+   *
+   * @return Settings for each storage ID that has a matching recipient, keyed by the base64-encoded
+   *         storage ID.
+   */
+  public @NonNull Map<String, RecipientSettings> getByStorageIds(@NonNull Collection<byte[]> storageIds) {
+    List<String> encodedIds = new ArrayList<>(storageIds.size());
+
+    for (byte[] storageId : storageIds) {
+      encodedIds.add(Base64.encodeBytes(storageId));
+    }
+
+    Map<String, RecipientSettings> results = new HashMap<>(storageIds.size());
+
+    for (List<String> chunk : Util.chunk(encodedIds, 900)) {
+      SqlUtil.Query query = SqlUtil.buildCollectionQuery(TABLE_NAME + "." + STORAGE_SERVICE_ID, chunk);
+
+      for (RecipientSettings settings : getRecipientSettingsForSync(query.getWhere(), query.getWhereArgs())) {
+        results.put(Base64.encodeBytes(settings.getStorageId()), settings);
+      }
+    }
+
+    return results;
+  }
+
   public void markNeedsSync(@NonNull Collection<RecipientId> recipientIds) {
     SQLiteDatabase db = databaseHelper.getWritableDatabase();
 
@@ -2215,6 +2241,27 @@ public class RecipientDatabase extends Database {
     return uuidMap;
   }
 
+  /**
+   * Looks up or inserts a recipient for each of the provided numbers inside a single transaction.
+   */
+  public @NonNull Set<RecipientId> bulkGetOrInsertFromE164(@NonNull Collection<String> e164s) {
+    SQLiteDatabase   db  = databaseHelper.getWritableDatabase();
+    Set<RecipientId> ids = new HashSet<>(e164s.size());
+
+    db.beginTransaction();
+    try {
+      for (String e164 : e164s) {
+        ids.add(getOrInsertFromE164(e164));
+      }
+
+      db.setTransactionSuccessful();
+    } finally {
+      db.endTransaction();
+    }
+
+    return ids;
+  }
+
   public @NonNull List<RecipientId> getUninvitedRecipientsForInsights() {
     SQLiteDatabase    db      = databaseHelper.getReadableDatabase();
     List<RecipientId> results = new LinkedList<>();
@@ -2242,6 +2289,43 @@ public class RecipientDatabase extends Database {
     return results;
   }
 
+  /**
+   * @param registered   Numbers that were found to be registered, mapped to their UUID if known.
+   * @param unregistered Numbers that were found to be unregistered.
+   * @return The numbers whose recipient doesn't already match the result, including numbers that
+   *         have no recipient yet.
+   */
+  public @NonNull Set<String> getNumbersWithChangedRegistration(@NonNull Map<String, UUID> registered, @NonNull Collection<String> unregistered) {
+    SQLiteDatabase db      = databaseHelper.getReadableDatabase();
+    Set<String>    changed = new HashSet<>(registered.keySet());
+
+    changed.addAll(unregistered);
+
+    for (List<String> chunk : Util.chunk(new ArrayList<>(changed), 500)) {
+      SqlUtil.Query query = SqlUtil.buildCollectionQuery(PHONE, chunk);
+
+      try (Cursor cursor = db.query(TABLE_NAME, new String[] { PHONE, UUID, REGISTERED }, query.getWhere(), query.getWhereArgs(), null, null, null)) {
+        while (cursor != null && cursor.moveToNext()) {
+          String e164            = CursorUtil.requireString(cursor, PHONE);
+          String uuid            = CursorUtil.requireString(cursor, UUID);
+          int    registeredState = CursorUtil.requireInt(cursor, REGISTERED);
+
+          if (registered.containsKey(e164)) {
+            UUID expectedUuid = registered.get(e164);
+
+            if (registeredState == RegisteredState.REGISTERED.getId() && (expectedUuid == null || expectedUuid.toString().equals(uuid))) {
+              changed.remove(e164);
+            }
+          } else if (registeredState == RegisteredState.NOT_REGISTERED.getId()) {
+            changed.remove(e164);
+          }
+        }
+      }
+    }
+
+    return changed;
+  }
+
   public List<RecipientId> getSystemContacts() {
     SQLiteDatabase    db      = databaseHelper.getReadableDatabase();
     List<RecipientId> results = new LinkedList<>();
@@ -2474,6 +2558,21 @@ public class RecipientDatabase extends Database {
                  .toList();
   }
 
+  /**
+   * Runs the provided writes in a single transaction, e.g. to apply a batch of fetched profiles
+   * with one commit instead of one per field per recipient.
+   */
+  public void runInTransaction(@NonNull Runnable writes) {
+    SQLiteDatabase db = databaseHelper.getWritableDatabase();
+    db.beginTransaction();
+    try {
+      writes.run();
+      db.setTransactionSuccessful();
+    } finally {
+      db.endTransaction();
+    }
+  }
+
   public void markProfilesFetched(@NonNull Collection<RecipientId> ids, long time) {
     SQLiteDatabase db = databaseHelper.getWritableDatabase();
     db.beginTransaction();
@@ -2747,9 +2846,7 @@ public class RecipientDatabase extends Database {
     db.delete(IdentityDatabase.TABLE_NAME, IdentityDatabase.RECIPIENT_ID + " = ?", SqlUtil.buildArgs(byE164));
 
     // Group Receipts
-    ContentValues groupReceiptValues = new ContentValues();
-    groupReceiptValues.put(GroupReceiptDatabase.RECIPIENT_ID, byUuid.serialize());
-    db.update(GroupReceiptDatabase.TABLE_NAME, groupReceiptValues, GroupReceiptDatabase.RECIPIENT_ID + " = ?", SqlUtil.buildArgs(byE164));
+    DatabaseFactory.getGroupReceiptDatabase(context).remapRecipient(byE164, byUuid);
 
     // Groups
     GroupDatabase groupDatabase = DatabaseFactory.getGroupDatabase(context);
@@ -3,6 +3,8 @@ package org.thoughtcrime.securesms.database;
 
 import android.content.ContentValues;
 
+import androidx.annotation.NonNull;
+
 import net.sqlcipher.Cursor;
 import net.sqlcipher.SQLException;
 import net.sqlcipher.database.SQLiteQueryStats;
@@ -12,7 +14,9 @@ import net.sqlcipher.database.SQLiteTransactionListener;
 import org.signal.core.util.tracing.Tracer;
 import org.thoughtcrime.securesms.dependencies.ApplicationDependencies;
 
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 
@@ -30,21 +34,48 @@ public class SQLiteDatabase {
   public static final int CONFLICT_REPLACE  = 5;
   public static final int CONFLICT_NONE     = 0;
 
-  private static final String KEY_QUERY  = "query";
-  private static final String KEY_TABLE  = "table";
-  private static final String KEY_THREAD = "thread";
-  private static final String NAME_LOCK  = "LOCK";
+  private static final String KEY_QUERY      = "query";
+  private static final String KEY_TABLE      = "table";
+  private static final String KEY_THREAD     = "thread";
+  private static final String KEY_CONNECTION = "connection";
+  private static final String KEY_CONTENDED  = "contended";
+  private static final String NAME_LOCK      = "LOCK";
+  private static final String WRITER         = "writer";
+
+  private static final ThreadLocal<Integer>        TRANSACTION_DEPTH      = new ThreadLocal<>();
+  private static final ThreadLocal<List<Runnable>> POST_TRANSACTION_TASKS = new ThreadLocal<>();
 
   private final net.sqlcipher.database.SQLiteDatabase wrapped;
+  private final String                                connectionName;
   private final Tracer                                tracer;
 
   public SQLiteDatabase(net.sqlcipher.database.SQLiteDatabase wrapped) {
-    this.wrapped = wrapped;
-    this.tracer  = Tracer.getInstance();
+    this(wrapped, WRITER);
+  }
+
+  /**
+   * @param connectionName Identifies which connection a traced call ran on, to tell the writer apart
+   *                       from the pooled readers.
+   */
+  public SQLiteDatabase(net.sqlcipher.database.SQLiteDatabase wrapped, String connectionName) {
+    this.wrapped        = wrapped;
+    this.connectionName = connectionName;
+    this.tracer         = Tracer.getInstance();
   }
 
+  /**
+   * Marks the lock as contended when another thread already holds this connection, meaning we're
+   * about to wait on it.
+   */
   private void traceLockStart() {
-    tracer.start(NAME_LOCK, Tracer.TrackId.DB_LOCK, KEY_THREAD, Thread.currentThread().getName());
+    Map<String, String> params = new HashMap<>();
+    params.put(KEY_THREAD, Thread.currentThread().getName());
+
+    if (wrapped.isDbLockedByOtherThreads()) {
+      params.put(KEY_CONTENDED, "true");
+    }
+
+    tracer.start(NAME_LOCK, Tracer.TrackId.DB_LOCK, params);
   }
 
   private void traceLockEnd() {
@@ -81,12 +112,16 @@ public class SQLiteDatabase {
     }
 
     Map<String, String> params = new HashMap<>();
+    params.put(KEY_CONNECTION, connectionName);
     if (query != null) {
       params.put(KEY_QUERY, query);
     }
     if (table != null) {
       params.put(KEY_TABLE, table);
     }
+    if (!locked && wrapped.isDbLockedByOtherThreads()) {
+      params.put(KEY_CONTENDED, "true");
+    }
 
     tracer.start(methodName, params);
     E result = returnable.run();
@@ -99,6 +134,55 @@ public class SQLiteDatabase {
     return result;
   }
 
+  /**
+   * Runs the task once the outermost transaction this thread opened through this class ends, or
+   * right away if it has none open. Lets work that follows a write, like change notifications, wait
+   * until the write is visible to other connections, and only happen once per transaction.
+   *
+   * The task runs whether or not the transaction was successful.
+   */
+  public static void runPostTransaction(@NonNull Runnable task) {
+    if (getTransactionDepth() == 0) {
+      task.run();
+      return;
+    }
+
+    List<Runnable> tasks = POST_TRANSACTION_TASKS.get();
+
+    if (tasks == null) {
+      tasks = new ArrayList<>();
+      POST_TRANSACTION_TASKS.set(tasks);
+    }
+
+    tasks.add(task);
+  }
+
+  private static int getTransactionDepth() {
+    Integer depth = TRANSACTION_DEPTH.get();
+    return depth != null ? depth : 0;
+  }
+
+  private static void onTransactionStarted() {
+    TRANSACTION_DEPTH.set(getTransactionDepth() + 1);
+  }
+
+  private static void onTransactionEnded() {
+    int depth = Math.max(0, getTransactionDepth() - 1);
+
+    TRANSACTION_DEPTH.set(depth);
+
+    if (depth == 0) {
+      List<Runnable> tasks = POST_TRANSACTION_TASKS.get();
+      POST_TRANSACTION_TASKS.remove();
+
+      if (tasks != null) {
+        for (Runnable task : tasks) {
+          task.run();
+        }
+      }
+    }
+  }
+
   public net.sqlcipher.database.SQLiteDatabase getSqlCipherDatabase() {
     return wrapped;
   }
@@ -115,11 +199,16 @@ public class SQLiteDatabase {
   public void beginTransaction() {
     traceLockStart();
     trace("beginTransaction()", wrapped::beginTransaction);
+    onTransactionStarted();
   }
 
   public void endTransaction() {
-    trace("endTransaction()", wrapped::endTransaction);
-    traceLockEnd();
+    try {
+      trace("endTransaction()", wrapped::endTransaction);
+    } finally {
+      traceLockEnd();
+      onTransactionEnded();
+    }
   }
 
   public void setTransactionSuccessful() {
@@ -225,14 +314,17 @@ public class SQLiteDatabase {
 
   public void beginTransactionWithListener(SQLiteTransactionListener transactionListener) {
     wrapped.beginTransactionWithListener(transactionListener);
+    onTransactionStarted();
   }
 
   public void beginTransactionNonExclusive() {
     wrapped.beginTransactionNonExclusive();
+    onTransactionStarted();
   }
 
   public void beginTransactionWithListenerNonExclusive(SQLiteTransactionListener transactionListener) {
     wrapped.beginTransactionWithListenerNonExclusive(transactionListener);
+    onTransactionStarted();
   }
 
   public boolean inTransaction() {
@@ -126,7 +126,7 @@ public class SearchDatabase extends Database {
   }
 
   public Cursor queryMessages(@NonNull String query) {
-    SQLiteDatabase db                  = databaseHelper.getReadableDatabase();
+    SQLiteDatabase db                  = databaseHelper.getPooledReadableDatabase();
     String         fullTextSearchQuery = createFullTextSearchQuery(query);
 
     if (TextUtils.isEmpty(fullTextSearchQuery)) {
@@ -141,7 +141,7 @@ public class SearchDatabase extends Database {
   }
 
   public Cursor queryMessages(@NonNull String query, long threadId) {
-    SQLiteDatabase db                  = databaseHelper.getReadableDatabase();
+    SQLiteDatabase db                  = databaseHelper.getPooledReadableDatabase();
     String         fullTextSearchQuery = createFullTextSearchQuery(query);
 
     if (TextUtils.isEmpty(fullTextSearchQuery)) {
@@ -132,7 +132,8 @@ public class SmsDatabase extends MessageDatabase {
     "CREATE INDEX IF NOT EXISTS sms_date_sent_index ON " + TABLE_NAME + " (" + DATE_SENT + ");",
     "CREATE INDEX IF NOT EXISTS sms_date_server_index ON " + TABLE_NAME + " (" + DATE_SERVER + ");",
     "CREATE INDEX IF NOT EXISTS sms_thread_date_index ON " + TABLE_NAME + " (" + THREAD_ID + ", " + DATE_RECEIVED + ");",
-    "CREATE INDEX IF NOT EXISTS sms_reactions_unread_index ON " + TABLE_NAME + " (" + REACTIONS_UNREAD + ");"
+    "CREATE INDEX IF NOT EXISTS sms_reactions_unread_index ON " + TABLE_NAME + " (" + REACTIONS_UNREAD + ");",
+    "CREATE INDEX IF NOT EXISTS sms_expires_at_index ON " + TABLE_NAME + " " + EXPIRES_AT_EXPRESSION + " WHERE " + EXPIRE_STARTED + " > 0;"
   };
 
   private static final String[] MESSAGE_PROJECTION = new String[] {
@@ -186,7 +187,7 @@ public class SmsDatabase extends MessageDatabase {
 
     long threadId = getThreadIdForMessage(id);
 
-    DatabaseFactory.getThreadDatabase(context).update(threadId, false);
+    DatabaseFactory.getThreadDatabase(context).updateForChangedMessage(threadId, id, false);
     notifyConversationListeners(threadId);
   }
 
@@ -386,7 +387,7 @@ public class SmsDatabase extends MessageDatabase {
 
     long threadId = getThreadIdForMessage(id);
 
-    DatabaseFactory.getThreadDatabase(context).update(threadId, false);
+    DatabaseFactory.getThreadDatabase(context).updateForChangedMessage(threadId, id, false);
     notifyConversationListeners(threadId);
   }
 
@@ -448,7 +449,7 @@ public class SmsDatabase extends MessageDatabase {
     db.update(TABLE_NAME, contentValues, ID_WHERE, new String[] {id+""});
 
     long threadId = getThreadIdForMessage(id);
-    DatabaseFactory.getThreadDatabase(context).update(threadId, false);
+    DatabaseFactory.getThreadDatabase(context).updateForChangedMessage(threadId, id, false);
     notifyConversationListeners(threadId);
   }
 
@@ -468,7 +469,7 @@ public class SmsDatabase extends MessageDatabase {
   }
 
   @Override
-  public boolean incrementReceiptCount(SyncMessageId messageId, long timestamp, @NonNull ReceiptType receiptType) {
+  boolean incrementReceiptCount(SyncMessageId messageId, long timestamp, @NonNull ReceiptType receiptType, @NonNull ReceiptThreadUpdates threadUpdates) {
     if (receiptType == ReceiptType.VIEWED) {
       return false;
     }
@@ -495,13 +496,7 @@ public class SmsDatabase extends MessageDatabase {
                              ID + " = ?",
                              new String[] {String.valueOf(cursor.getLong(cursor.getColumnIndexOrThrow(ID)))});
 
-            DatabaseFactory.getThreadDatabase(context).update(threadId, false);
-
-            if (isFirstIncrement) {
-              notifyConversationListeners(threadId);
-            } else {
-              notifyVerboseConversationListeners(threadId);
-            }
+            threadUpdates.add(threadId, isFirstIncrement);
 
             foundMessage = true;
           }
@@ -874,7 +869,7 @@ public class SmsDatabase extends MessageDatabase {
     SQLiteDatabase db = databaseHelper.getWritableDatabase();
     long messageId    = db.insert(TABLE_NAME, null, values);
 
-    DatabaseFactory.getThreadDatabase(context).update(threadId, true);
+    DatabaseFactory.getThreadDatabase(context).updateForInsertedMessage(threadId, messageId, false, true);
     if (unread) {
       DatabaseFactory.getThreadDatabase(context).incrementUnread(threadId, 1);
     }
@@ -941,6 +936,7 @@ public class SmsDatabase extends MessageDatabase {
 
               db.insert(TABLE_NAME, null, values);
 
+              threadDatabase.updateForSilentMessage(threadId);
               notifyConversationListeners(threadId);
             });
 
@@ -991,6 +987,7 @@ public class SmsDatabase extends MessageDatabase {
     }
 
     databaseHelper.getWritableDatabase().insert(TABLE_NAME, null, values);
+    DatabaseFactory.getThreadDatabase(context).updateForSilentMessage(threadId);
   }
 
   @Override
@@ -1080,7 +1077,9 @@ public class SmsDatabase extends MessageDatabase {
       }
 
       if (!silent) {
-        DatabaseFactory.getThreadDatabase(context).update(threadId, true);
+        DatabaseFactory.getThreadDatabase(context).updateForInsertedMessage(threadId, messageId, false, true);
+      } else {
+        DatabaseFactory.getThreadDatabase(context).updateForSilentMessage(threadId);
       }
 
       if (message.getSubscriptionId() != -1) {
@@ -1123,7 +1122,7 @@ public class SmsDatabase extends MessageDatabase {
     long messageId = db.insert(TABLE_NAME, null, values);
 
     DatabaseFactory.getThreadDatabase(context).incrementUnread(threadId, 1);
-    DatabaseFactory.getThreadDatabase(context).update(threadId, true);
+    DatabaseFactory.getThreadDatabase(context).updateForInsertedMessage(threadId, messageId, false, true);
 
     notifyConversationListeners(threadId);
 
@@ -1169,8 +1168,10 @@ public class SmsDatabase extends MessageDatabase {
     }
 
     if (!message.isIdentityVerified() && !message.isIdentityDefault()) {
-      DatabaseFactory.getThreadDatabase(context).update(threadId, true);
+      DatabaseFactory.getThreadDatabase(context).updateForInsertedMessage(threadId, messageId, false, true);
       DatabaseFactory.getThreadDatabase(context).setLastSeen(threadId);
+    } else {
+      DatabaseFactory.getThreadDatabase(context).updateForSilentMessage(threadId);
     }
 
     DatabaseFactory.getThreadDatabase(context).setHasSent(threadId, true);
@@ -1184,13 +1185,6 @@ public class SmsDatabase extends MessageDatabase {
     return messageId;
   }
 
-  @Override
-  public Cursor getExpirationStartedMessages() {
-    String         where = EXPIRE_STARTED + " > 0";
-    SQLiteDatabase db    = databaseHelper.getReadableDatabase();
-    return db.query(TABLE_NAME, MESSAGE_PROJECTION, where, null, null, null, null);
-  }
-
   @Override
   public SmsMessageRecord getSmsMessage(long messageId) throws NoSuchMessageException {
     SQLiteDatabase db     = databaseHelper.getReadableDatabase();
@@ -1226,12 +1220,27 @@ public class SmsDatabase extends MessageDatabase {
 
     db.delete(TABLE_NAME, ID_WHERE, new String[] {messageId+""});
 
-    boolean threadDeleted = DatabaseFactory.getThreadDatabase(context).update(threadId, false, true);
+    boolean threadDeleted = DatabaseFactory.getThreadDatabase(context).updateForDeletedMessage(threadId, messageId, false);
 
     notifyConversationListeners(threadId);
     return threadDeleted;
   }
 
+  @Override
+  @NonNull Set<Long> deleteMessagesWithoutThreadUpdate(@NonNull Collection<Long> messageIds) {
+    Log.d(TAG, "deleteMessagesWithoutThreadUpdate(count: " + messageIds.size() + ")");
+
+    SQLiteDatabase db        = databaseHelper.getWritableDatabase();
+    Set<Long>      threadIds = getThreadIdsForMessages(messageIds);
+
+    for (List<Long> chunk : Util.chunk(new ArrayList<>(messageIds), 900)) {
+      SqlUtil.Query query = SqlUtil.buildCollectionQuery(ID, chunk);
+      db.delete(TABLE_NAME, query.getWhere(), query.getWhereArgs());
+    }
+
+    return threadIds;
+  }
+
   @Override
   public void ensureMigration() {
     databaseHelper.getWritableDatabase();
@@ -1263,11 +1272,11 @@ public class SmsDatabase extends MessageDatabase {
   }
 
   @Override
-  void deleteMessagesInThreadBeforeDate(long threadId, long date) {
+  int deleteMessagesInThreadBeforeDate(long threadId, long date) {
     SQLiteDatabase db    = databaseHelper.getWritableDatabase();
     String         where = THREAD_ID + " = ? AND " + DATE_RECEIVED + " < " + date;
 
-    db.delete(TABLE_NAME, where, SqlUtil.buildArgs(threadId));
+    return db.delete(TABLE_NAME, where, SqlUtil.buildArgs(threadId));
   }
 
   @Override
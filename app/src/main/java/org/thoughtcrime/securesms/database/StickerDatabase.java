@@ -12,6 +12,7 @@ import androidx.annotation.Nullable;
 import org.greenrobot.eventbus.EventBus;
 import org.signal.core.util.StreamUtil;
 import org.signal.core.util.logging.Log;
+import org.thoughtcrime.securesms.components.emoji.EmojiUtil;
 import org.thoughtcrime.securesms.crypto.AttachmentSecret;
 import org.thoughtcrime.securesms.crypto.ModernDecryptingPartInputStream;
 import org.thoughtcrime.securesms.crypto.ModernEncryptingPartOutputStream;
@@ -72,9 +73,32 @@ public class StickerDatabase extends Database {
                                                                                   FILE_RANDOM  + " BLOB, " +
                                                                                   "UNIQUE(" + PACK_ID + ", " + STICKER_ID + ", " + COVER + ") ON CONFLICT IGNORE)";
 
+  /**
+   * Maps the search key of each emoji a sticker is tagged with, see {@link EmojiUtil#getSearchKey(String)},
+   * to the sticker, so that suggestions are a single indexed lookup. Cover stickers aren't mapped,
+   * as they're never suggested.
+   */
+  public  static final String EMOJI_TABLE_NAME  = "sticker_emoji";
+  private static final String EMOJI_KEY         = "emoji";
+  private static final String EMOJI_STICKER_ROW = "sticker_row_id";
+
+  public static final String CREATE_EMOJI_TABLE = "CREATE TABLE " + EMOJI_TABLE_NAME + " (" + EMOJI_KEY         + " TEXT NOT NULL, " +
+                                                                                              EMOJI_STICKER_ROW + " INTEGER NOT NULL, " +
+                                                                                              "UNIQUE(" + EMOJI_KEY + ", " + EMOJI_STICKER_ROW + ") ON CONFLICT IGNORE)";
+
   public static final String[] CREATE_INDEXES = {
       "CREATE INDEX IF NOT EXISTS sticker_pack_id_index ON " + TABLE_NAME + " (" + PACK_ID + ");",
-      "CREATE INDEX IF NOT EXISTS sticker_sticker_id_index ON " + TABLE_NAME + " (" + STICKER_ID + ");"
+      "CREATE INDEX IF NOT EXISTS sticker_sticker_id_index ON " + TABLE_NAME + " (" + STICKER_ID + ");",
+      "CREATE INDEX IF NOT EXISTS sticker_emoji_sticker_row_index ON " + EMOJI_TABLE_NAME + " (" + EMOJI_STICKER_ROW + ");"
+  };
+
+  /**
+   * Stickers are removed from a number of places, so the emoji mapping is cleaned up alongside them here.
+   */
+  public static final String[] CREATE_TRIGGERS = {
+      "CREATE TRIGGER sticker_emoji_ad AFTER DELETE ON " + TABLE_NAME + " BEGIN\n" +
+      "  DELETE FROM " + EMOJI_TABLE_NAME + " WHERE " + EMOJI_STICKER_ROW + " = old." + _ID + ";\n" +
+      "END;"
   };
 
   public static final String DIRECTORY = "stickers";
@@ -103,12 +127,30 @@ public class StickerDatabase extends Database {
     contentValues.put(FILE_LENGTH, fileInfo.getLength());
     contentValues.put(FILE_RANDOM, fileInfo.getRandom());
 
-    long id = databaseHelper.getWritableDatabase().insert(TABLE_NAME, null, contentValues);
-    if (id == -1) {
-      String   selection = PACK_ID + " = ? AND " + STICKER_ID + " = ? AND " + COVER + " = ?";
-      String[] args      = SqlUtil.buildArgs(sticker.getPackId(), sticker.getStickerId(), (sticker.isCover() ? 1 : 0));
+    SQLiteDatabase db = databaseHelper.getWritableDatabase();
+    long           id;
 
-      id = databaseHelper.getWritableDatabase().update(TABLE_NAME, contentValues, selection, args);
+    db.beginTransaction();
+    try {
+      id = db.insert(TABLE_NAME, null, contentValues);
+
+      long rowId = id;
+
+      if (id == -1) {
+        String   selection = PACK_ID + " = ? AND " + STICKER_ID + " = ? AND " + COVER + " = ?";
+        String[] args      = SqlUtil.buildArgs(sticker.getPackId(), sticker.getStickerId(), (sticker.isCover() ? 1 : 0));
+
+        id    = db.update(TABLE_NAME, contentValues, selection, args);
+        rowId = getStickerRowId(db, selection, args);
+      }
+
+      if (!sticker.isCover() && rowId > 0) {
+        updateEmojiMapping(db, rowId, sticker.getEmoji());
+      }
+
+      db.setTransactionSuccessful();
+    } finally {
+      db.endTransaction();
     }
 
     if (id > 0) {
@@ -151,11 +193,15 @@ public class StickerDatabase extends Database {
     return cursor;
   }
 
-  public @Nullable Cursor getStickersByEmoji(@NonNull String emoji) {
-    String   selection = EMOJI + " LIKE ? AND " + COVER + " = ?";
-    String[] args      = new String[] { "%"+emoji+"%", "0" };
+  /**
+   * @param searchKey The search key of an emoji, see {@link EmojiUtil#getSearchKey(String)}.
+   */
+  public @Nullable Cursor getStickersByEmoji(@NonNull String searchKey) {
+    String query = "SELECT " + TABLE_NAME + ".* FROM " + EMOJI_TABLE_NAME +
+                   " INNER JOIN " + TABLE_NAME + " ON " + TABLE_NAME + "." + _ID + " = " + EMOJI_TABLE_NAME + "." + EMOJI_STICKER_ROW +
+                   " WHERE " + EMOJI_TABLE_NAME + "." + EMOJI_KEY + " = ?";
 
-    Cursor cursor = databaseHelper.getReadableDatabase().query(TABLE_NAME, null, selection, args, null, null, null);
+    Cursor cursor = databaseHelper.getReadableDatabase().rawQuery(query, new String[] { searchKey });
     setNotifyStickerListeners(cursor);
 
     return cursor;
@@ -353,6 +399,56 @@ public class StickerDatabase extends Database {
     }
   }
 
+  private static long getStickerRowId(@NonNull SQLiteDatabase db, @NonNull String selection, @NonNull String[] args) {
+    try (Cursor cursor = db.query(TABLE_NAME, new String[] { _ID }, selection, args, null, null, null, "1")) {
+      return cursor != null && cursor.moveToFirst() ? cursor.getLong(0) : -1;
+    }
+  }
+
+  /**
+   * Rebuilds the emoji index for every installed sticker from the raw emoji it's tagged with, for
+   * when the emoji data behind the search keys has changed.
+   *
+   * @return The number of stickers indexed.
+   */
+  public int rebuildEmojiIndex() {
+    SQLiteDatabase db    = databaseHelper.getWritableDatabase();
+    int            count = 0;
+
+    db.beginTransaction();
+    try {
+      db.delete(EMOJI_TABLE_NAME, null, null);
+
+      try (Cursor cursor = db.query(TABLE_NAME, new String[] { _ID, EMOJI }, COVER + " = ?", SqlUtil.buildArgs(0), null, null, null)) {
+        while (cursor != null && cursor.moveToNext()) {
+          insertEmojiMapping(db, CursorUtil.requireLong(cursor, _ID), CursorUtil.requireString(cursor, EMOJI));
+          count++;
+        }
+      }
+
+      db.setTransactionSuccessful();
+    } finally {
+      db.endTransaction();
+    }
+
+    return count;
+  }
+
+  private void updateEmojiMapping(@NonNull SQLiteDatabase db, long rowId, @NonNull String emoji) {
+    db.delete(EMOJI_TABLE_NAME, EMOJI_STICKER_ROW + " = ?", SqlUtil.buildArgs(rowId));
+    insertEmojiMapping(db, rowId, emoji);
+  }
+
+  private void insertEmojiMapping(@NonNull SQLiteDatabase db, long rowId, @NonNull String emoji) {
+    for (String key : EmojiUtil.getSearchKeys(context, emoji)) {
+      ContentValues values = new ContentValues(2);
+      values.put(EMOJI_KEY, key);
+      values.put(EMOJI_STICKER_ROW, rowId);
+
+      db.insert(EMOJI_TABLE_NAME, null, values);
+    }
+  }
+
   private FileInfo saveStickerImage(@NonNull InputStream inputStream) throws IOException {
     File                       partsDirectory = context.getDir(DIRECTORY, Context.MODE_PRIVATE);
     File                       file           = File.createTempFile("sticker", ".mms", partsDirectory);
@@ -9,13 +9,17 @@ import androidx.annotation.Nullable;
 
 import org.thoughtcrime.securesms.database.helpers.SQLCipherOpenHelper;
 import org.thoughtcrime.securesms.util.Base64;
+import org.thoughtcrime.securesms.util.SqlUtil;
+import org.thoughtcrime.securesms.util.Util;
 import org.whispersystems.signalservice.api.storage.SignalStorageRecord;
 import org.whispersystems.signalservice.api.storage.StorageId;
 
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 /**
  * A list of storage keys whose types we do not currently have syncing logic for. We need to
@@ -72,6 +76,41 @@ public class StorageKeyDatabase extends Database {
     }
   }
 
+  /**
+   * Bulk version of {@link #getById(byte[])}.
+   *
+   * @return Records for each ID that is present, keyed by the base64-encoded ID.
+   */
+  public @NonNull Map<String, SignalStorageRecord> getByIds(@NonNull Collection<byte[]> rawIds) {
+    List<String> encodedIds = new ArrayList<>(rawIds.size());
+
+    for (byte[] rawId : rawIds) {
+      encodedIds.add(Base64.encodeBytes(rawId));
+    }
+
+    SQLiteDatabase                   db      = databaseHelper.getReadableDatabase();
+    Map<String, SignalStorageRecord> results = new HashMap<>(rawIds.size());
+
+    for (List<String> chunk : Util.chunk(encodedIds, 900)) {
+      SqlUtil.Query query = SqlUtil.buildCollectionQuery(STORAGE_ID, chunk);
+
+      try (Cursor cursor = db.query(TABLE_NAME, new String[] { TYPE, STORAGE_ID }, query.getWhere(), query.getWhereArgs(), null, null, null)) {
+        while (cursor != null && cursor.moveToNext()) {
+          String keyEncoded = cursor.getString(cursor.getColumnIndexOrThrow(STORAGE_ID));
+          int    type       = cursor.getInt(cursor.getColumnIndexOrThrow(TYPE));
+
+          try {
+            results.put(keyEncoded, SignalStorageRecord.forUnknown(StorageId.forType(Base64.decode(keyEncoded), type)));
+          } catch (IOException e) {
+            throw new AssertionError(e);
+          }
+        }
+      }
+    }
+
+    return results;
+  }
+
   public void applyStorageSyncUpdates(@NonNull Collection<SignalStorageRecord> inserts,
                                       @NonNull Collection<SignalStorageRecord> deletes)
   {
@@ -25,6 +25,7 @@ import android.net.Uri;
 
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
+import androidx.annotation.WorkerThread;
 
 import com.annimon.stream.Stream;
 import com.fasterxml.jackson.annotation.JsonProperty;
@@ -84,6 +85,8 @@ public class ThreadDatabase extends Database {
   public static final long NO_TRIM_BEFORE_DATE_SET   = 0;
   public static final int  NO_TRIM_MESSAGE_COUNT_SET = Integer.MAX_VALUE;
 
+  private static final int TRIM_BATCH_SIZE = 50;
+
   public  static final String TABLE_NAME             = "thread";
   public  static final String ID                     = "_id";
   public  static final String DATE                   = "date";
@@ -108,6 +111,9 @@ public class ThreadDatabase extends Database {
   public  static final String HAS_SENT               = "has_sent";
   private static final String LAST_SCROLLED          = "last_scrolled";
           static final String PINNED                 = "pinned";
+  private static final String SNIPPET_MESSAGE_ID     = "snippet_message_id";
+  private static final String SNIPPET_MMS            = "snippet_mms";
+  private static final String SNIPPET_DATE_RECEIVED  = "snippet_date_received";
 
   public static final String CREATE_TABLE = "CREATE TABLE " + TABLE_NAME + " (" + ID                     + " INTEGER PRIMARY KEY, " +
                                                                                   DATE                   + " INTEGER DEFAULT 0, " +
@@ -131,7 +137,10 @@ public class ThreadDatabase extends Database {
                                                                                   READ_RECEIPT_COUNT     + " INTEGER DEFAULT 0, " +
                                                                                   UNREAD_COUNT           + " INTEGER DEFAULT 0, " +
                                                                                   LAST_SCROLLED          + " INTEGER DEFAULT 0, " +
-                                                                                  PINNED                 + " INTEGER DEFAULT 0);";
+                                                                                  PINNED                 + " INTEGER DEFAULT 0, " +
+                                                                                  SNIPPET_MESSAGE_ID     + " INTEGER DEFAULT 0, " +
+                                                                                  SNIPPET_MMS            + " INTEGER DEFAULT 0, " +
+                                                                                  SNIPPET_DATE_RECEIVED  + " INTEGER DEFAULT 0);";
 
   public static final String[] CREATE_INDEXS = {
     "CREATE INDEX IF NOT EXISTS thread_recipient_ids_index ON " + TABLE_NAME + " (" + RECIPIENT_ID + ");",
@@ -179,10 +188,19 @@ public class ThreadDatabase extends Database {
     return db.insert(TABLE_NAME, null, contentValues);
   }
 
+  private void updateThread(long threadId, long count, @NonNull MessageRecord record, boolean unarchive) {
+    updateThread(threadId, count, ThreadBodyUtil.getFormattedBodyFor(context, record), getAttachmentUriFor(record),
+                 getContentTypeFor(record), getExtrasFor(record),
+                 record.getTimestamp(), record.getDeliveryStatus(), record.getDeliveryReceiptCount(),
+                 record.getType(), unarchive, record.getExpiresIn(), record.getReadReceiptCount(),
+                 record.getId(), record.isMms(), record.getDateReceived());
+  }
+
   private void updateThread(long threadId, long count, String body, @Nullable Uri attachment,
                             @Nullable String contentType, @Nullable Extra extra,
                             long date, int status, int deliveryReceiptCount, long type, boolean unarchive,
-                            long expiresIn, int readReceiptCount)
+                            long expiresIn, int readReceiptCount,
+                            long snippetMessageId, boolean snippetMms, long snippetDateReceived)
   {
     String extraSerialized = null;
 
@@ -206,6 +224,9 @@ public class ThreadDatabase extends Database {
     contentValues.put(DELIVERY_RECEIPT_COUNT, deliveryReceiptCount);
     contentValues.put(READ_RECEIPT_COUNT, readReceiptCount);
     contentValues.put(EXPIRES_IN, expiresIn);
+    contentValues.put(SNIPPET_MESSAGE_ID, snippetMessageId);
+    contentValues.put(SNIPPET_MMS, snippetMms ? 1 : 0);
+    contentValues.put(SNIPPET_DATE_RECEIVED, snippetDateReceived);
 
     if (unarchive) {
       contentValues.put(ARCHIVED, 0);
@@ -240,47 +261,99 @@ public class ThreadDatabase extends Database {
     notifyConversationListListeners();
   }
 
-  public void trimAllThreads(int length, long trimBeforeDate) {
+  public boolean trimAllThreads(int length, long trimBeforeDate) {
+    return trimAllThreads(length, trimBeforeDate, null);
+  }
+
+  /**
+   * Trims every thread down to {@code length} messages and/or removes messages received before
+   * {@code trimBeforeDate}. Candidate threads are found with a single set-based query, and are
+   * then trimmed in small batches, each in its own transaction, so that the database lock is never
+   * held for long.
+   *
+   * @return True if any messages were removed, in which case their files may now be abandoned.
+   */
+  public boolean trimAllThreads(int length, long trimBeforeDate, @Nullable TrimProgressListener listener) {
     if (length == NO_TRIM_MESSAGE_COUNT_SET && trimBeforeDate == NO_TRIM_BEFORE_DATE_SET) {
-      return;
+      return false;
     }
 
-    SQLiteDatabase       db                   = databaseHelper.getWritableDatabase();
-    AttachmentDatabase   attachmentDatabase   = DatabaseFactory.getAttachmentDatabase(context);
-    GroupReceiptDatabase groupReceiptDatabase = DatabaseFactory.getGroupReceiptDatabase(context);
-    MmsSmsDatabase       mmsSmsDatabase       = DatabaseFactory.getMmsSmsDatabase(context);
-    MentionDatabase      mentionDatabase      = DatabaseFactory.getMentionDatabase(context);
+    SQLiteDatabase db        = databaseHelper.getWritableDatabase();
+    List<Long>     threadIds = DatabaseFactory.getMmsSmsDatabase(context).getThreadIdsToTrim(length, trimBeforeDate);
+    Set<Long>      trimmed   = new HashSet<>();
+    int            completed = 0;
 
-    try (Cursor cursor = databaseHelper.getReadableDatabase().query(TABLE_NAME, new String[] { ID }, null, null, null, null, null)) {
-      while (cursor != null && cursor.moveToNext()) {
-        trimThreadInternal(CursorUtil.requireLong(cursor, ID), length, trimBeforeDate);
+    Log.i(TAG, "Trimming " + threadIds.size() + " threads with length: " + length + " before: " + trimBeforeDate);
+
+    for (List<Long> batch : Util.chunk(threadIds, TRIM_BATCH_SIZE)) {
+      Set<Long> trimmedInBatch = new HashSet<>();
+
+      db.beginTransaction();
+      try {
+        for (long threadId : batch) {
+          if (trimThreadInternal(threadId, length, trimBeforeDate)) {
+            trimmedInBatch.add(threadId);
+          }
+        }
+        db.setTransactionSuccessful();
+      } finally {
+        db.endTransaction();
+      }
+
+      if (!trimmedInBatch.isEmpty()) {
+        notifyConversationListeners(trimmedInBatch);
+        trimmed.addAll(trimmedInBatch);
+      }
+
+      completed += batch.size();
+
+      if (listener != null) {
+        listener.onProgress(completed, threadIds.size());
       }
     }
 
-    db.beginTransaction();
+    Log.i(TAG, "Trimmed " + trimmed.size() + " of " + threadIds.size() + " candidate threads.");
+
+    if (!trimmed.isEmpty()) {
+      deleteAbandonedRecords();
+    }
 
+    return !trimmed.isEmpty();
+  }
+
+  /**
+   * @return True if any messages were removed, in which case their files may now be abandoned.
+   */
+  public boolean trimThread(long threadId, int length, long trimBeforeDate) {
+    if (length == NO_TRIM_MESSAGE_COUNT_SET && trimBeforeDate == NO_TRIM_BEFORE_DATE_SET) {
+      return false;
+    }
+
+    SQLiteDatabase db = databaseHelper.getWritableDatabase();
+    boolean        trimmed;
+
+    db.beginTransaction();
     try {
-      mmsSmsDatabase.deleteAbandonedMessages();
-      attachmentDatabase.trimAllAbandonedAttachments();
-      groupReceiptDatabase.deleteAbandonedRows();
-      mentionDatabase.deleteAbandonedMentions();
-      attachmentDatabase.deleteAbandonedAttachmentFiles();
+      trimmed = trimThreadInternal(threadId, length, trimBeforeDate);
       db.setTransactionSuccessful();
     } finally {
       db.endTransaction();
     }
 
+    if (trimmed) {
+      notifyConversationListeners(threadId);
+      deleteAbandonedRecords();
+    }
 
-    notifyAttachmentListeners();
-    notifyStickerListeners();
-    notifyStickerPackListeners();
+    return trimmed;
   }
 
-  public void trimThread(long threadId, int length, long trimBeforeDate) {
-    if (length == NO_TRIM_MESSAGE_COUNT_SET && trimBeforeDate == NO_TRIM_BEFORE_DATE_SET) {
-      return;
-    }
-
+  /**
+   * Cleans up everything that referenced now-deleted messages. Each step is a single set-based
+   * statement run in its own transaction. Files left unreferenced are deleted separately, by
+   * {@link org.thoughtcrime.securesms.jobs.AttachmentFileCleanupJob}.
+   */
+  private void deleteAbandonedRecords() {
     SQLiteDatabase       db                   = databaseHelper.getWritableDatabase();
     AttachmentDatabase   attachmentDatabase   = DatabaseFactory.getAttachmentDatabase(context);
     GroupReceiptDatabase groupReceiptDatabase = DatabaseFactory.getGroupReceiptDatabase(context);
@@ -288,47 +361,52 @@ public class ThreadDatabase extends Database {
     MentionDatabase      mentionDatabase      = DatabaseFactory.getMentionDatabase(context);
 
     db.beginTransaction();
-
     try {
-      trimThreadInternal(threadId, length, trimBeforeDate);
       mmsSmsDatabase.deleteAbandonedMessages();
+      db.setTransactionSuccessful();
+    } finally {
+      db.endTransaction();
+    }
+
+    db.beginTransaction();
+    try {
       attachmentDatabase.trimAllAbandonedAttachments();
       groupReceiptDatabase.deleteAbandonedRows();
       mentionDatabase.deleteAbandonedMentions();
-      attachmentDatabase.deleteAbandonedAttachmentFiles();
       db.setTransactionSuccessful();
     } finally {
       db.endTransaction();
     }
 
-
     notifyAttachmentListeners();
     notifyStickerListeners();
     notifyStickerPackListeners();
   }
 
-  private void trimThreadInternal(long threadId, int length, long trimBeforeDate) {
+  /**
+   * @return True if any messages were deleted from the thread.
+   */
+  private boolean trimThreadInternal(long threadId, int length, long trimBeforeDate) {
     if (length == NO_TRIM_MESSAGE_COUNT_SET && trimBeforeDate == NO_TRIM_BEFORE_DATE_SET) {
-      return;
+      return false;
     }
 
+    MmsSmsDatabase mmsSmsDatabase = DatabaseFactory.getMmsSmsDatabase(context);
+
     if (length != NO_TRIM_MESSAGE_COUNT_SET) {
-      try (Cursor cursor = DatabaseFactory.getMmsSmsDatabase(context).getConversation(threadId)) {
-        if (cursor != null && length > 0 && cursor.getCount() > length) {
-          cursor.moveToPosition(length - 1);
-          trimBeforeDate = Math.max(trimBeforeDate, cursor.getLong(cursor.getColumnIndexOrThrow(MmsSmsColumns.NORMALIZED_DATE_RECEIVED)));
-        }
-      }
+      trimBeforeDate = Math.max(trimBeforeDate, mmsSmsDatabase.getTrimBeforeDateForLength(threadId, length));
     }
 
     if (trimBeforeDate != NO_TRIM_BEFORE_DATE_SET) {
       Log.i(TAG, "Trimming thread: " + threadId + " before: " + trimBeforeDate);
 
-      DatabaseFactory.getMmsSmsDatabase(context).deleteMessagesInThreadBeforeDate(threadId, trimBeforeDate);
-
-      update(threadId, false);
-      notifyConversationListeners(threadId);
+      if (mmsSmsDatabase.deleteMessagesInThreadBeforeDate(threadId, trimBeforeDate) > 0) {
+        update(threadId, false);
+        return true;
+      }
     }
+
+    return false;
   }
 
   public List<MarkedMessageInfo> setAllThreadsRead() {
@@ -693,7 +771,7 @@ public class ThreadDatabase extends Database {
   }
 
   public Cursor getUnarchivedConversationList(boolean pinned, long offset, long limit) {
-    SQLiteDatabase db          = databaseHelper.getReadableDatabase();
+    SQLiteDatabase db          = databaseHelper.getPooledReadableDatabase();
     String         pinnedWhere = PINNED + (pinned ? " != 0" : " = 0");
     String         where       = ARCHIVED + " = 0 AND " + MESSAGE_COUNT + " != 0 AND " + pinnedWhere;
 
@@ -713,7 +791,7 @@ public class ThreadDatabase extends Database {
   }
 
   private Cursor getConversationList(@NonNull String archived, long offset, long limit) {
-    SQLiteDatabase db     = databaseHelper.getReadableDatabase();
+    SQLiteDatabase db     = databaseHelper.getPooledReadableDatabase();
     String         query  = createQuery(ARCHIVED + " = ? AND " + MESSAGE_COUNT + " != 0", offset, limit, false);
     Cursor         cursor = db.rawQuery(query, new String[]{archived});
 
@@ -723,7 +801,7 @@ public class ThreadDatabase extends Database {
   }
 
   public int getArchivedConversationListCount() {
-    SQLiteDatabase db      = databaseHelper.getReadableDatabase();
+    SQLiteDatabase db      = databaseHelper.getPooledReadableDatabase();
     String[]       columns = new String[] { "COUNT(*)" };
     String         query   = ARCHIVED + " = ? AND " + MESSAGE_COUNT + " != 0";
     String[]       args    = new String[] {"1"};
@@ -738,7 +816,7 @@ public class ThreadDatabase extends Database {
   }
 
   public int getPinnedConversationListCount() {
-    SQLiteDatabase db      = databaseHelper.getReadableDatabase();
+    SQLiteDatabase db      = databaseHelper.getPooledReadableDatabase();
     String[]       columns = new String[] { "COUNT(*)" };
     String         query   = ARCHIVED + " = 0 AND " + PINNED + " != 0 AND " + MESSAGE_COUNT + " != 0";
 
@@ -752,7 +830,7 @@ public class ThreadDatabase extends Database {
   }
 
   public int getUnarchivedConversationListCount() {
-    SQLiteDatabase db      = databaseHelper.getReadableDatabase();
+    SQLiteDatabase db      = databaseHelper.getPooledReadableDatabase();
     String[]       columns = new String[] { "COUNT(*)" };
     String         query   = ARCHIVED + " = 0 AND " + MESSAGE_COUNT + " != 0";
 
@@ -1258,10 +1336,7 @@ public class ThreadDatabase extends Database {
       MessageRecord record;
 
       if (reader != null && (record = reader.getNext()) != null) {
-        updateThread(threadId, count, ThreadBodyUtil.getFormattedBodyFor(context, record), getAttachmentUriFor(record),
-                     getContentTypeFor(record), getExtrasFor(record),
-                     record.getTimestamp(), record.getDeliveryStatus(), record.getDeliveryReceiptCount(),
-                     record.getType(), unarchive, record.getExpiresIn(), record.getReadReceiptCount());
+        updateThread(threadId, count, record, unarchive);
         notifyConversationListListeners();
         return false;
       } else {
@@ -1274,6 +1349,234 @@ public class ThreadDatabase extends Database {
     }
   }
 
+  /**
+   * Updates the thread after a single message was inserted into it. Unlike {@link #update(long, boolean)},
+   * this doesn't recount the conversation or search it for the newest message: the count is bumped
+   * by one, and the snippet is only replaced if the new message is at least as new as the current
+   * one. Falls back to a full update if the thread's summary isn't known yet.
+   *
+   * The summary is read and rewritten within one transaction, so concurrent updates to the same
+   * thread can't lose each other's changes.
+   */
+  public void updateForInsertedMessage(long threadId, long messageId, boolean mms, boolean unarchive) {
+    SQLiteDatabase db = databaseHelper.getWritableDatabase();
+
+    db.beginTransaction();
+    try {
+      ThreadSummary summary = getThreadSummary(threadId);
+      MessageRecord record  = summary != null && summary.isComplete() ? getMessageRecordOrNull(messageId, mms) : null;
+
+      if (record == null) {
+        update(threadId, unarchive);
+      } else if (!isSilentType(record.getType()) && record.getDateReceived() >= summary.snippetDateReceived) {
+        updateThread(threadId, summary.count + 1, record, unarchive);
+      } else {
+        updateMessageCount(threadId, summary.count + 1, unarchive);
+      }
+
+      db.setTransactionSuccessful();
+    } finally {
+      db.endTransaction();
+    }
+  }
+
+  /**
+   * Accounts for a message that was inserted without updating the thread's snippet, e.g. a profile
+   * change or other silent event. Only bumps the count of threads that are already visible, so the
+   * silent message doesn't surface an otherwise empty thread.
+   */
+  public void updateForSilentMessage(long threadId) {
+    SQLiteDatabase db = databaseHelper.getWritableDatabase();
+    db.execSQL("UPDATE " + TABLE_NAME + " SET " + MESSAGE_COUNT + " = " + MESSAGE_COUNT + " + 1 WHERE " + ID + " = ? AND " + MESSAGE_COUNT + " > 0",
+               SqlUtil.buildArgs(threadId));
+  }
+
+  /**
+   * Updates the thread after a single message was deleted from it. The count is decremented, and
+   * the thread is only rebuilt in full if the deleted message was its snippet or the last message.
+   *
+   * @return True if the thread was deleted because it has no messages left.
+   */
+  public boolean updateForDeletedMessage(long threadId, long messageId, boolean mms) {
+    SQLiteDatabase db = databaseHelper.getWritableDatabase();
+
+    db.beginTransaction();
+    try {
+      ThreadSummary summary = getThreadSummary(threadId);
+      boolean       deleted;
+
+      if (summary == null || !summary.isComplete() || summary.count <= 1 || summary.isSnippet(messageId, mms)) {
+        deleted = update(threadId, false, true);
+      } else {
+        updateMessageCount(threadId, summary.count - 1, false);
+        deleted = false;
+      }
+
+      db.setTransactionSuccessful();
+      return deleted;
+    } finally {
+      db.endTransaction();
+    }
+  }
+
+  /**
+   * Updates the thread after a message in it changed in place, e.g. its status, body or receipts.
+   * Only the snippet can be affected, so nothing happens unless that message is the snippet.
+   */
+  public void updateForChangedMessage(long threadId, long messageId, boolean mms) {
+    SQLiteDatabase db = databaseHelper.getWritableDatabase();
+
+    db.beginTransaction();
+    try {
+      ThreadSummary summary = getThreadSummary(threadId);
+
+      if (summary == null || !summary.isComplete()) {
+        update(threadId, false);
+      } else if (summary.isSnippet(messageId, mms)) {
+        refreshSnippet(threadId, summary);
+      }
+
+      db.setTransactionSuccessful();
+    } finally {
+      db.endTransaction();
+    }
+  }
+
+  /**
+   * Re-reads the thread's current snippet message and rewrites the snippet, leaving the count
+   * alone. Used when some message in the thread changed, but which one isn't known.
+   */
+  public void refreshSnippet(long threadId) {
+    SQLiteDatabase db = databaseHelper.getWritableDatabase();
+
+    db.beginTransaction();
+    try {
+      ThreadSummary summary = getThreadSummary(threadId);
+
+      if (summary == null || !summary.isComplete()) {
+        update(threadId, false);
+      } else {
+        refreshSnippet(threadId, summary);
+      }
+
+      db.setTransactionSuccessful();
+    } finally {
+      db.endTransaction();
+    }
+  }
+
+  private void refreshSnippet(long threadId, @NonNull ThreadSummary summary) {
+    MessageRecord record = getMessageRecordOrNull(summary.snippetMessageId, summary.snippetMms);
+
+    if (record != null) {
+      updateThread(threadId, summary.count, record, false);
+    } else {
+      update(threadId, false);
+    }
+  }
+
+  /**
+   * Compares the incrementally maintained count and snippet of every thread with a full
+   * recomputation, and rebuilds the ones that drifted.
+   *
+   * @return The number of threads that had to be repaired.
+   */
+  @WorkerThread
+  public int verifyThreadSummaries() {
+    List<Long> threadIds = new LinkedList<>();
+
+    try (Cursor cursor = databaseHelper.getReadableDatabase().query(TABLE_NAME, new String[] { ID }, MESSAGE_COUNT + " > 0", null, null, null, null)) {
+      while (cursor.moveToNext()) {
+        threadIds.add(CursorUtil.requireLong(cursor, ID));
+      }
+    }
+
+    int repaired = 0;
+
+    for (long threadId : threadIds) {
+      if (!verifyThreadSummary(threadId)) {
+        repaired++;
+      }
+    }
+
+    Log.i(TAG, "Verified " + threadIds.size() + " thread summaries, repaired " + repaired + ".");
+    return repaired;
+  }
+
+  /**
+   * Checks a single thread, see {@link #verifyThreadSummaries()}.
+   *
+   * @return True if the thread was consistent, false if it had to be repaired.
+   */
+  @WorkerThread
+  public boolean verifyThreadSummary(long threadId) {
+    MmsSmsDatabase mmsSmsDatabase = DatabaseFactory.getMmsSmsDatabase(context);
+    ThreadSummary  summary        = getThreadSummary(threadId);
+
+    if (summary == null) {
+      return true;
+    }
+
+    long expectedCount       = mmsSmsDatabase.getConversationCountForThreadSummary(threadId);
+    long expectedSnippetDate = -1;
+
+    try (MmsSmsDatabase.Reader reader = mmsSmsDatabase.readerFor(mmsSmsDatabase.getConversationSnippet(threadId))) {
+      MessageRecord record = reader.getNext();
+
+      if (record != null) {
+        expectedSnippetDate = record.getDateReceived();
+      }
+    }
+
+    if (summary.count == expectedCount && summary.snippetDateReceived == expectedSnippetDate) {
+      return true;
+    }
+
+    Log.w(TAG, "Thread " + threadId + " summary drifted. count: " + summary.count + " vs " + expectedCount +
+               ", snippet date: " + summary.snippetDateReceived + " vs " + expectedSnippetDate);
+
+    update(threadId, false);
+    return false;
+  }
+
+  private void updateMessageCount(long threadId, long count, boolean unarchive) {
+    ContentValues contentValues = new ContentValues(3);
+    contentValues.put(MESSAGE_COUNT, count);
+    contentValues.put(LAST_SCROLLED, 0);
+
+    if (unarchive) {
+      contentValues.put(ARCHIVED, 0);
+    }
+
+    databaseHelper.getWritableDatabase().update(TABLE_NAME, contentValues, ID_WHERE, SqlUtil.buildArgs(threadId));
+    notifyConversationListListeners();
+  }
+
+  private @Nullable ThreadSummary getThreadSummary(long threadId) {
+    String[] projection = new String[] { MESSAGE_COUNT, SNIPPET_MESSAGE_ID, SNIPPET_MMS, SNIPPET_DATE_RECEIVED };
+
+    try (Cursor cursor = databaseHelper.getReadableDatabase().query(TABLE_NAME, projection, ID_WHERE, SqlUtil.buildArgs(threadId), null, null, null)) {
+      if (cursor != null && cursor.moveToFirst()) {
+        return new ThreadSummary(CursorUtil.requireLong(cursor, MESSAGE_COUNT),
+                                 CursorUtil.requireLong(cursor, SNIPPET_MESSAGE_ID),
+                                 CursorUtil.requireBoolean(cursor, SNIPPET_MMS),
+                                 CursorUtil.requireLong(cursor, SNIPPET_DATE_RECEIVED));
+      }
+    }
+
+    return null;
+  }
+
+  private @Nullable MessageRecord getMessageRecordOrNull(long messageId, boolean mms) {
+    MessageDatabase database = mms ? DatabaseFactory.getMmsDatabase(context) : DatabaseFactory.getSmsDatabase(context);
+
+    try {
+      return database.getMessageRecord(messageId);
+    } catch (NoSuchMessageException e) {
+      return null;
+    }
+  }
+
   public @NonNull ThreadRecord getThreadRecordFor(@NonNull Recipient recipient) {
     return Objects.requireNonNull(getThreadRecord(getThreadIdFor(recipient)));
   }
@@ -1490,6 +1793,10 @@ public class ThreadDatabase extends Database {
     return new Reader(cursor);
   }
 
+  public interface TrimProgressListener {
+    void onProgress(int completedThreads, int totalThreads);
+  }
+
   public static class DistributionTypes {
     public static final int DEFAULT      = 2;
     public static final int BROADCAST    = 1;
@@ -1763,4 +2070,33 @@ public class ThreadDatabase extends Database {
       this.neededMerge      = neededMerge;
     }
   }
+
+  /**
+   * The parts of a thread row needed to maintain it incrementally.
+   */
+  private static final class ThreadSummary {
+    private final long    count;
+    private final long    snippetMessageId;
+    private final boolean snippetMms;
+    private final long    snippetDateReceived;
+
+    private ThreadSummary(long count, long snippetMessageId, boolean snippetMms, long snippetDateReceived) {
+      this.count               = count;
+      this.snippetMessageId    = snippetMessageId;
+      this.snippetMms          = snippetMms;
+      this.snippetDateReceived = snippetDateReceived;
+    }
+
+    /**
+     * False for empty threads, and for threads last written before the snippet message was
+     * tracked, which need one full update first.
+     */
+    boolean isComplete() {
+      return count > 0 && snippetMessageId > 0;
+    }
+
+    boolean isSnippet(long messageId, boolean mms) {
+      return snippetMessageId == messageId && snippetMms == mms;
+    }
+  }
 }
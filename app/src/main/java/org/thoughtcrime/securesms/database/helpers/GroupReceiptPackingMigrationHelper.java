@@ -0,0 +1,106 @@
+package org.thoughtcrime.securesms.database.helpers;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+
+import androidx.annotation.NonNull;
+
+import net.sqlcipher.database.SQLiteDatabase;
+
+import org.signal.core.util.logging.Log;
+import org.thoughtcrime.securesms.database.model.PackedGroupReceipts;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Converts the legacy one-row-per-member group receipts table into one packed row per message,
+ * with member lists shared between messages.
+ */
+public final class GroupReceiptPackingMigrationHelper {
+
+  private static final String TAG = Log.tag(GroupReceiptPackingMigrationHelper.class);
+
+  private GroupReceiptPackingMigrationHelper() {}
+
+  public static void execute(@NonNull SQLiteDatabase db) {
+    Log.i(TAG, "Beginning migration.");
+
+    long startTime = System.currentTimeMillis();
+
+    db.execSQL("CREATE TABLE group_receipt_members (_id INTEGER PRIMARY KEY, members TEXT NOT NULL UNIQUE)");
+    db.execSQL("CREATE TABLE group_receipts_packed (_id INTEGER PRIMARY KEY, " +
+                                                   "mms_id INTEGER UNIQUE ON CONFLICT REPLACE, " +
+                                                   "member_list_id INTEGER, " +
+                                                   "base_timestamp INTEGER DEFAULT 0, " +
+                                                   "statuses BLOB, " +
+                                                   "timestamps BLOB)");
+
+    Map<String, Long>   memberLists   = new HashMap<>();
+    PackedGroupReceipts receipts      = null;
+    long                currentMmsId  = -1;
+    long                baseTimestamp = 0;
+    int                 messageCount  = 0;
+
+    try (Cursor cursor = db.rawQuery("SELECT mms_id, address, status, timestamp, unidentified FROM group_receipts ORDER BY mms_id, _id", null)) {
+      while (cursor != null && cursor.moveToNext()) {
+        long    mmsId        = cursor.getLong(cursor.getColumnIndexOrThrow("mms_id"));
+        long    recipientId  = cursor.getLong(cursor.getColumnIndexOrThrow("address"));
+        int     status       = cursor.getInt(cursor.getColumnIndexOrThrow("status"));
+        long    timestamp    = cursor.getLong(cursor.getColumnIndexOrThrow("timestamp"));
+        boolean unidentified = cursor.getInt(cursor.getColumnIndexOrThrow("unidentified")) == 1;
+
+        if (receipts == null || mmsId != currentMmsId) {
+          if (receipts != null) {
+            insertPacked(db, memberLists, currentMmsId, receipts, baseTimestamp);
+            messageCount++;
+          }
+
+          receipts      = new PackedGroupReceipts();
+          currentMmsId  = mmsId;
+          baseTimestamp = timestamp;
+        }
+
+        receipts.add(recipientId, status, timestamp, unidentified);
+      }
+    }
+
+    if (receipts != null) {
+      insertPacked(db, memberLists, currentMmsId, receipts, baseTimestamp);
+      messageCount++;
+    }
+
+    db.execSQL("DROP TABLE group_receipts");
+    db.execSQL("ALTER TABLE group_receipts_packed RENAME TO group_receipts");
+    db.execSQL("CREATE INDEX IF NOT EXISTS group_receipt_member_list_index ON group_receipts (member_list_id)");
+
+    Log.i(TAG, "Packed receipts for " + messageCount + " messages into " + memberLists.size() + " member lists. Took " + (System.currentTimeMillis() - startTime) + " ms.");
+  }
+
+  private static void insertPacked(@NonNull SQLiteDatabase db,
+                                   @NonNull Map<String, Long> memberLists,
+                                   long mmsId,
+                                   @NonNull PackedGroupReceipts receipts,
+                                   long baseTimestamp)
+  {
+    String encodedMembers = PackedGroupReceipts.encodeMembers(receipts.getMembers());
+    Long   memberListId   = memberLists.get(encodedMembers);
+
+    if (memberListId == null) {
+      ContentValues values = new ContentValues(1);
+      values.put("members", encodedMembers);
+
+      memberListId = db.insert("group_receipt_members", null, values);
+      memberLists.put(encodedMembers, memberListId);
+    }
+
+    ContentValues values = new ContentValues(5);
+    values.put("mms_id", mmsId);
+    values.put("member_list_id", memberListId);
+    values.put("base_timestamp", baseTimestamp);
+    values.put("statuses", receipts.encodeStatuses());
+    values.put("timestamps", receipts.encodeTimestamps(baseTimestamp));
+
+    db.insert("group_receipts_packed", null, values);
+  }
+}
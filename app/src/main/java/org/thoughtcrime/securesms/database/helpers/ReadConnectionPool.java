@@ -0,0 +1,100 @@
+package org.thoughtcrime.securesms.database.helpers;
+
+import androidx.annotation.NonNull;
+
+import net.sqlcipher.database.SQLiteDatabase;
+
+import org.signal.core.util.logging.Log;
+import org.thoughtcrime.securesms.crypto.DatabaseSecret;
+import org.thoughtcrime.securesms.database.SqlCipherDatabaseHook;
+
+import java.io.File;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A small set of extra connections to the main database that are only used for reads. With the
+ * database in WAL mode these can run alongside the single writer connection, so paging through a
+ * conversation or searching doesn't have to wait behind a burst of incoming messages.
+ *
+ * Connections are handed out rather than checked out, since the cursors they produce outlive the
+ * call that created them. An idle connection is preferred, and when every connection is busy we
+ * fall back to round-robin; SQLCipher serializes access per connection, so readers that land on the
+ * same one just take turns.
+ *
+ * The connections are opened read-write with {@code query_only} set, rather than with
+ * {@link SQLiteDatabase#OPEN_READONLY}, so that they can always attach to the WAL's shared memory.
+ */
+final class ReadConnectionPool {
+
+  private static final String TAG = Log.tag(ReadConnectionPool.class);
+
+  private final File             databaseFile;
+  private final DatabaseSecret   databaseSecret;
+  private final SQLiteDatabase[] connections;
+  private final String[]         names;
+  private final AtomicInteger    next;
+
+  private boolean closed;
+
+  ReadConnectionPool(@NonNull File databaseFile, @NonNull DatabaseSecret databaseSecret, int size) {
+    this.databaseFile   = databaseFile;
+    this.databaseSecret = databaseSecret;
+    this.connections    = new SQLiteDatabase[size];
+    this.names          = new String[size];
+    this.next           = new AtomicInteger();
+
+    for (int i = 0; i < size; i++) {
+      names[i] = "reader-" + i;
+    }
+  }
+
+  @NonNull org.thoughtcrime.securesms.database.SQLiteDatabase get() {
+    int start = Math.abs(next.getAndIncrement() % connections.length);
+
+    for (int i = 0; i < connections.length; i++) {
+      int            index      = (start + i) % connections.length;
+      SQLiteDatabase connection = getConnection(index);
+
+      if (!connection.isDbLockedByOtherThreads()) {
+        return new org.thoughtcrime.securesms.database.SQLiteDatabase(connection, names[index]);
+      }
+    }
+
+    return new org.thoughtcrime.securesms.database.SQLiteDatabase(getConnection(start), names[start]);
+  }
+
+  synchronized void close() {
+    for (int i = 0; i < connections.length; i++) {
+      if (connections[i] != null) {
+        connections[i].close();
+        connections[i] = null;
+      }
+    }
+
+    closed = true;
+  }
+
+  private synchronized @NonNull SQLiteDatabase getConnection(int index) {
+    if (closed) {
+      throw new IllegalStateException("Read pool has been closed!");
+    }
+
+    if (connections[index] == null) {
+      connections[index] = open();
+      Log.i(TAG, "Opened " + names[index]);
+    }
+
+    return connections[index];
+  }
+
+  private @NonNull SQLiteDatabase open() {
+    SQLiteDatabase connection = SQLiteDatabase.openDatabase(databaseFile.getPath(),
+                                                            databaseSecret.asString(),
+                                                            null,
+                                                            SQLiteDatabase.OPEN_READWRITE,
+                                                            new SqlCipherDatabaseHook());
+    connection.rawExecSQL("PRAGMA query_only = ON;");
+
+    return connection;
+  }
+}
@@ -13,6 +13,7 @@ import android.preference.PreferenceManager;
 import android.text.TextUtils;
 
 import androidx.annotation.NonNull;
+import androidx.annotation.VisibleForTesting;
 
 import com.annimon.stream.Stream;
 import com.bumptech.glide.Glide;
@@ -26,16 +27,20 @@ import org.thoughtcrime.securesms.contacts.avatars.ContactColorsLegacy;
 import org.thoughtcrime.securesms.crypto.DatabaseSecret;
 import org.thoughtcrime.securesms.crypto.MasterSecret;
 import org.thoughtcrime.securesms.database.AttachmentDatabase;
+import org.thoughtcrime.securesms.database.CdsDatabase;
+import org.thoughtcrime.securesms.database.ContactSyncDatabase;
 import org.thoughtcrime.securesms.database.DraftDatabase;
 import org.thoughtcrime.securesms.database.GroupDatabase;
 import org.thoughtcrime.securesms.database.GroupReceiptDatabase;
 import org.thoughtcrime.securesms.database.IdentityDatabase;
 import org.thoughtcrime.securesms.database.JobDatabase;
 import org.thoughtcrime.securesms.database.KeyValueDatabase;
+import org.thoughtcrime.securesms.database.MediaDatabase;
 import org.thoughtcrime.securesms.database.MegaphoneDatabase;
 import org.thoughtcrime.securesms.database.MentionDatabase;
 import org.thoughtcrime.securesms.database.MmsDatabase;
 import org.thoughtcrime.securesms.database.OneTimePreKeyDatabase;
+import org.thoughtcrime.securesms.database.PendingReceiptDatabase;
 import org.thoughtcrime.securesms.database.PushDatabase;
 import org.thoughtcrime.securesms.database.RecipientDatabase;
 import org.thoughtcrime.securesms.database.RemappedRecordsDatabase;
@@ -171,18 +176,39 @@ public class SQLCipherOpenHelper extends SQLiteOpenHelper implements SignalDatab
   private static final int LAST_RESET_SESSION_TIME          = 87;
   private static final int WALLPAPER                        = 88;
   private static final int ABOUT                            = 89;
-
-  private static final int    DATABASE_VERSION = 89;
+  private static final int EXPIRES_AT_INDEXES               = 90;
+  private static final int CDS_HISTORY                      = 91;
+  private static final int PACKED_GROUP_RECEIPTS            = 92;
+  private static final int CONTACT_SYNC_FINGERPRINTS        = 93;
+  private static final int THREAD_SNIPPET_SOURCE            = 94;
+  private static final int MEDIA_KIND                       = 95;
+  private static final int STICKER_EMOJI_INDEX              = 96;
+  private static final int PENDING_RECEIPTS                 = 97;
+
+  private static final int    DATABASE_VERSION = 97;
   private static final String DATABASE_NAME    = "signal.db";
 
-  private final Context        context;
-  private final DatabaseSecret databaseSecret;
+  private static final int  READ_POOL_SIZE           = 3;
+  private static final int  WAL_AUTOCHECKPOINT_PAGES = 2000;
+  private static final long WAL_SIZE_LIMIT_BYTES     = 16 * 1024 * 1024;
+
+  private final Context            context;
+  private final DatabaseSecret     databaseSecret;
+  private final ReadConnectionPool readPool;
+
+  private volatile boolean walEnabled;
 
   public SQLCipherOpenHelper(@NonNull Context context, @NonNull DatabaseSecret databaseSecret) {
-    super(context, DATABASE_NAME, null, DATABASE_VERSION, new SqlCipherDatabaseHook());
+    this(context, databaseSecret, DATABASE_NAME);
+  }
+
+  @VisibleForTesting
+  public SQLCipherOpenHelper(@NonNull Context context, @NonNull DatabaseSecret databaseSecret, @NonNull String databaseName) {
+    super(context, databaseName, null, DATABASE_VERSION, new SqlCipherDatabaseHook());
 
     this.context        = context.getApplicationContext();
     this.databaseSecret = databaseSecret;
+    this.readPool       = new ReadConnectionPool(context.getDatabasePath(databaseName), databaseSecret, READ_POOL_SIZE);
   }
 
   @Override
@@ -197,12 +223,18 @@ public class SQLCipherOpenHelper extends SQLiteOpenHelper implements SignalDatab
     db.execSQL(GroupDatabase.CREATE_TABLE);
     db.execSQL(RecipientDatabase.CREATE_TABLE);
     db.execSQL(GroupReceiptDatabase.CREATE_TABLE);
+    db.execSQL(GroupReceiptDatabase.CREATE_MEMBERS_TABLE);
     db.execSQL(OneTimePreKeyDatabase.CREATE_TABLE);
     db.execSQL(SignedPreKeyDatabase.CREATE_TABLE);
     db.execSQL(SessionDatabase.CREATE_TABLE);
     db.execSQL(StickerDatabase.CREATE_TABLE);
+    db.execSQL(StickerDatabase.CREATE_EMOJI_TABLE);
     db.execSQL(StorageKeyDatabase.CREATE_TABLE);
     db.execSQL(MentionDatabase.CREATE_TABLE);
+    db.execSQL(CdsDatabase.CREATE_TABLE);
+    db.execSQL(ContactSyncDatabase.CREATE_TABLE);
+    db.execSQL(MediaDatabase.CREATE_TABLE);
+    db.execSQL(PendingReceiptDatabase.CREATE_TABLE);
     executeStatements(db, SearchDatabase.CREATE_TABLE);
     executeStatements(db, RemappedRecordsDatabase.CREATE_TABLE);
 
@@ -217,6 +249,9 @@ public class SQLCipherOpenHelper extends SQLiteOpenHelper implements SignalDatab
     executeStatements(db, StickerDatabase.CREATE_INDEXES);
     executeStatements(db, StorageKeyDatabase.CREATE_INDEXES);
     executeStatements(db, MentionDatabase.CREATE_INDEXES);
+    executeStatements(db, MediaDatabase.CREATE_INDEXES);
+    executeStatements(db, MediaDatabase.CREATE_TRIGGERS);
+    executeStatements(db, StickerDatabase.CREATE_TRIGGERS);
 
     if (context.getDatabasePath(ClassicOpenHelper.NAME).exists()) {
       ClassicOpenHelper                      legacyHelper = new ClassicOpenHelper(context);
@@ -1258,6 +1293,76 @@ public class SQLCipherOpenHelper extends SQLiteOpenHelper implements SignalDatab
         db.execSQL("ALTER TABLE recipient ADD COLUMN about_emoji TEXT DEFAULT NULL");
       }
 
+      if (oldVersion < EXPIRES_AT_INDEXES) {
+        db.execSQL("CREATE INDEX IF NOT EXISTS sms_expires_at_index ON sms (expire_started + expires_in) WHERE expire_started > 0");
+        db.execSQL("CREATE INDEX IF NOT EXISTS mms_expires_at_index ON mms (expire_started + expires_in) WHERE expire_started > 0");
+      }
+
+      if (oldVersion < CDS_HISTORY) {
+        db.execSQL("CREATE TABLE cds (_id INTEGER PRIMARY KEY AUTOINCREMENT, " +
+                                     "e164 TEXT NOT NULL UNIQUE ON CONFLICT REPLACE, " +
+                                     "last_checked INTEGER DEFAULT 0, " +
+                                     "registered INTEGER DEFAULT 0, " +
+                                     "uuid TEXT DEFAULT NULL)");
+      }
+
+      if (oldVersion < PACKED_GROUP_RECEIPTS) {
+        GroupReceiptPackingMigrationHelper.execute(db);
+      }
+
+      if (oldVersion < CONTACT_SYNC_FINGERPRINTS) {
+        db.execSQL("CREATE TABLE contact_sync (_id INTEGER PRIMARY KEY AUTOINCREMENT, " +
+                                              "recipient_id INTEGER NOT NULL UNIQUE ON CONFLICT REPLACE, " +
+                                              "fingerprint BLOB NOT NULL)");
+      }
+
+      if (oldVersion < THREAD_SNIPPET_SOURCE) {
+        db.execSQL("ALTER TABLE thread ADD COLUMN snippet_message_id INTEGER DEFAULT 0");
+        db.execSQL("ALTER TABLE thread ADD COLUMN snippet_mms INTEGER DEFAULT 0");
+        db.execSQL("ALTER TABLE thread ADD COLUMN snippet_date_received INTEGER DEFAULT 0");
+      }
+
+      if (oldVersion < MEDIA_KIND) {
+        String mediaKind = "CASE WHEN ct IS NULL THEN 0 " +
+                                "WHEN ct LIKE 'image/%' OR ct LIKE 'video/%' THEN 1 " +
+                                "WHEN ct LIKE 'audio/%' THEN 2 " +
+                                "WHEN ct LIKE 'text/x-signal-plain' THEN 0 " +
+                                "ELSE 3 END";
+
+        String storageKind = "CASE WHEN ct LIKE 'image/%' THEN 1 " +
+                                  "WHEN ct LIKE 'video/%' THEN 2 " +
+                                  "WHEN ct LIKE 'audio/%' THEN 3 " +
+                                  "WHEN ct = 'application/mms' THEN 1 " +
+                                  "WHEN ct = 'application/x-signal-view-once' THEN 0 " +
+                                  "ELSE 4 END";
+
+        db.execSQL("ALTER TABLE part ADD COLUMN thread_id INTEGER DEFAULT NULL");
+        db.execSQL("ALTER TABLE part ADD COLUMN media_kind INTEGER DEFAULT 0");
+        db.execSQL("UPDATE part SET thread_id = (SELECT thread_id FROM mms WHERE mms._id = part.mid), media_kind = " + mediaKind);
+        db.execSQL("CREATE INDEX IF NOT EXISTS part_thread_media_index ON part (thread_id, media_kind, mid, display_order)");
+
+        db.execSQL("CREATE TABLE media_storage (kind INTEGER PRIMARY KEY, size INTEGER DEFAULT 0)");
+        db.execSQL("INSERT INTO media_storage (kind, size) " +
+                   "SELECT kind, SUM(size) FROM (SELECT " + storageKind + " AS kind, IFNULL(MAX(data_size), 0) AS size FROM part WHERE _data IS NOT NULL AND sticker_pack_id IS NULL GROUP BY _data) GROUP BY kind");
+
+        executeStatements(db, MediaDatabase.CREATE_TRIGGERS);
+      }
+
+      if (oldVersion < STICKER_EMOJI_INDEX) {
+        db.execSQL("CREATE TABLE sticker_emoji (emoji TEXT NOT NULL, sticker_row_id INTEGER NOT NULL, UNIQUE(emoji, sticker_row_id) ON CONFLICT IGNORE)");
+        db.execSQL("CREATE INDEX IF NOT EXISTS sticker_emoji_sticker_row_index ON sticker_emoji (sticker_row_id)");
+        db.execSQL("CREATE TRIGGER sticker_emoji_ad AFTER DELETE ON sticker BEGIN\n" +
+                   "  DELETE FROM sticker_emoji WHERE sticker_row_id = old._id;\n" +
+                   "END;");
+
+        // Filled in by StickerEmojiIndexJob rather than here, since the search keys depend on
+        // whatever emoji data the app has at the time, not at the time of this migration.
+      }
+
+      if (oldVersion < PENDING_RECEIPTS) {
+        db.execSQL("CREATE TABLE pending_receipt (_id INTEGER PRIMARY KEY AUTOINCREMENT, recipient_id INTEGER NOT NULL, message_timestamp INTEGER NOT NULL, receipt_timestamp INTEGER NOT NULL, type INTEGER NOT NULL)");
+      }
+
       db.setTransactionSuccessful();
     } finally {
       db.endTransaction();
@@ -1270,6 +1375,41 @@ public class SQLCipherOpenHelper extends SQLiteOpenHelper implements SignalDatab
     Log.i(TAG, "Upgrade complete. Took " + (System.currentTimeMillis() - startTime) + " ms.");
   }
 
+  /**
+   * Switches to WAL so that the connections in the read pool don't block on the writer. The WAL is
+   * allowed to grow a bit past the default before being checkpointed, so a burst of messages is
+   * less likely to stall on one, and is truncated back down afterwards.
+   */
+  @Override
+  public void onOpen(SQLiteDatabase db) {
+    if (db.isReadOnly()) {
+      return;
+    }
+
+    String journalMode = null;
+
+    try (Cursor cursor = db.rawQuery("PRAGMA journal_mode = WAL", null)) {
+      if (cursor != null && cursor.moveToFirst()) {
+        journalMode = cursor.getString(0);
+      }
+    }
+
+    walEnabled = "wal".equalsIgnoreCase(journalMode);
+
+    if (walEnabled) {
+      db.rawExecSQL("PRAGMA wal_autocheckpoint = " + WAL_AUTOCHECKPOINT_PAGES + ";");
+      db.rawExecSQL("PRAGMA journal_size_limit = " + WAL_SIZE_LIMIT_BYTES + ";");
+    } else {
+      Log.w(TAG, "Unable to enable WAL, journal mode is " + journalMode + ". Pooled reads will use the writer.");
+    }
+  }
+
+  @Override
+  public synchronized void close() {
+    readPool.close();
+    super.close();
+  }
+
   public org.thoughtcrime.securesms.database.SQLiteDatabase getReadableDatabase() {
     return new org.thoughtcrime.securesms.database.SQLiteDatabase(getReadableDatabase(databaseSecret.asString()));
   }
@@ -1278,6 +1418,21 @@ public class SQLCipherOpenHelper extends SQLiteOpenHelper implements SignalDatab
     return new org.thoughtcrime.securesms.database.SQLiteDatabase(getWritableDatabase(databaseSecret.asString()));
   }
 
+  /**
+   * For read-heavy queries that shouldn't wait behind writers, like paging a conversation or the
+   * conversation list. Falls back to the writer if WAL couldn't be enabled, or if the calling thread
+   * holds the writer (i.e. is in a transaction) and needs to see its own uncommitted changes.
+   */
+  public org.thoughtcrime.securesms.database.SQLiteDatabase getPooledReadableDatabase() {
+    SQLiteDatabase writer = getWritableDatabase(databaseSecret.asString());
+
+    if (!walEnabled || writer.isDbLockedByCurrentThread()) {
+      return new org.thoughtcrime.securesms.database.SQLiteDatabase(writer);
+    }
+
+    return readPool.get();
+  }
+
   @Override
   public @NonNull SQLiteDatabase getSqlCipherDatabase() {
     return getWritableDatabase().getSqlCipherDatabase();
@@ -2,21 +2,27 @@ package org.thoughtcrime.securesms.database.loaders;
 
 import android.content.Context;
 import android.database.ContentObserver;
-import android.database.Cursor;
 import android.util.SparseArray;
 
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.WorkerThread;
+import androidx.lifecycle.LiveData;
+import androidx.lifecycle.MutableLiveData;
 import androidx.loader.content.AsyncTaskLoader;
 
 import org.signal.core.util.logging.Log;
+import org.signal.paging.PagedData;
+import org.signal.paging.PagingConfig;
 import org.thoughtcrime.securesms.R;
 import org.thoughtcrime.securesms.database.DatabaseFactory;
 import org.thoughtcrime.securesms.database.MediaDatabase;
 import org.thoughtcrime.securesms.util.CalendarDateOnly;
 
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
 import java.util.Calendar;
-import java.util.LinkedList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Locale;
 
@@ -25,6 +31,8 @@ public final class GroupedThreadMediaLoader extends AsyncTaskLoader<GroupedThrea
   @SuppressWarnings("unused")
   private static final String TAG = Log.tag(GroupedThreadMediaLoader.class);
 
+  private static final int PAGE_SIZE = 60;
+
   private final ContentObserver       observer;
   private final MediaLoader.MediaType mediaType;
   private final MediaDatabase.Sorting sorting;
@@ -61,6 +69,10 @@ public final class GroupedThreadMediaLoader extends AsyncTaskLoader<GroupedThrea
     DatabaseFactory.getMediaDatabase(getContext()).unsubscribeToMediaChanges(observer);
   }
 
+  /**
+   * Lays out the sections from the date and size of every item, which is a cheap walk over the
+   * media index, and leaves the records themselves to be paged in as they scroll into view.
+   */
   @Override
   public GroupedThreadMedia loadInBackground() {
     Context        context        = getContext();
@@ -68,25 +80,44 @@ public final class GroupedThreadMediaLoader extends AsyncTaskLoader<GroupedThrea
                                     ? new RoughSizeGroupingMethod(context)
                                     : new DateGroupingMethod(context, CalendarDateOnly.getInstance());
 
-    PopulatedGroupedThreadMedia mediaGrouping = new PopulatedGroupedThreadMedia(groupingMethod);
+    SparseArray<List<Integer>> groups = new SparseArray<>();
+    int[]                      total  = new int[1];
 
     DatabaseFactory.getMediaDatabase(context).subscribeToMediaChanges(observer);
-    try (Cursor cursor = ThreadMediaLoader.createThreadMediaCursor(context, threadId, mediaType, sorting)) {
-      while (cursor != null && cursor.moveToNext()) {
-        mediaGrouping.add(MediaDatabase.MediaRecord.from(context, cursor));
+    DatabaseFactory.getMediaDatabase(context).readMediaLayout(threadId, mediaType, sorting, (position, date, size) -> {
+      int groupNo = groupingMethod.groupFor(date, size);
+
+      List<Integer> positions = groups.get(groupNo);
+      if (positions == null) {
+        positions = new ArrayList<>();
+        groups.put(groupNo, positions);
       }
+
+      positions.add(position);
+      total[0] = position + 1;
+    });
+
+    List<Section> sections = new ArrayList<>(groups.size());
+
+    for (int i = 0; i < groups.size(); i++) {
+      sections.add(new Section(groupingMethod.groupName(groups.keyAt(i)), groups.valueAt(i)));
     }
 
     if (sorting == MediaDatabase.Sorting.Oldest || sorting == MediaDatabase.Sorting.Largest) {
-      return new ReversedGroupedThreadMedia(mediaGrouping);
-    } else {
-      return mediaGrouping;
+      Collections.reverse(sections);
     }
+
+    ThreadMediaDataSource dataSource = new ThreadMediaDataSource(context, threadId, mediaType, sorting, total[0]);
+    PagingConfig          config     = new PagingConfig.Builder().setPageSize(PAGE_SIZE)
+                                                                 .setBufferPages(1)
+                                                                 .build();
+
+    return new PagedGroupedThreadMedia(sections, dataSource, PagedData.create(dataSource, config));
   }
 
   public interface GroupingMethod {
 
-   int groupForRecord(@NonNull MediaDatabase.MediaRecord mediaRecord);
+   int groupFor(long date, long size);
 
    @NonNull String groupName(int groupNo);
   }
@@ -119,9 +150,7 @@ public final class GroupedThreadMediaLoader extends AsyncTaskLoader<GroupedThrea
     }
 
     @Override
-    public int groupForRecord(@NonNull MediaDatabase.MediaRecord mediaRecord) {
-      long date = mediaRecord.getDate();
-
+    public int groupFor(long date, long size) {
       if (date > todayStart)     return TODAY;
       if (date > yesterdayStart) return YESTERDAY;
       if (date > thisWeekStart)  return THIS_WEEK;
@@ -179,9 +208,7 @@ public final class GroupedThreadMediaLoader extends AsyncTaskLoader<GroupedThrea
     }
 
     @Override
-    public int groupForRecord(@NonNull MediaDatabase.MediaRecord mediaRecord) {
-      long size = mediaRecord.getAttachment().getSize();
-
+    public int groupFor(long date, long size) {
       if (size < MB)      return SMALL;
       if (size < 20 * MB) return MEDIUM;
 
@@ -205,14 +232,31 @@ public final class GroupedThreadMediaLoader extends AsyncTaskLoader<GroupedThrea
 
     public abstract int getSectionItemCount(int section);
 
-    public abstract @NonNull MediaDatabase.MediaRecord get(int section, int item);
+    /**
+     * @return The record at the given position, or null if its page hasn't been loaded yet. A page
+     *         that is missing is requested, and {@link #getPages()} updates once it arrives.
+     */
+    public abstract @Nullable MediaDatabase.MediaRecord get(int section, int item);
 
     public abstract @NonNull String getName(int section);
 
+    /**
+     * @return Emits whenever another page of records has been loaded.
+     */
+    public abstract @NonNull LiveData<List<MediaDatabase.MediaRecord>> getPages();
+
+    /**
+     * @return Every record, for operations that apply to all of them regardless of what has been
+     *         paged in.
+     */
+    @WorkerThread
+    public abstract @NonNull List<MediaDatabase.MediaRecord> getAll();
   }
 
   public static class EmptyGroupedThreadMedia extends GroupedThreadMedia {
 
+    private final LiveData<List<MediaDatabase.MediaRecord>> pages = new MutableLiveData<>();
+
     @Override
     public int getSectionCount() {
       return 0;
@@ -224,7 +268,7 @@ public final class GroupedThreadMediaLoader extends AsyncTaskLoader<GroupedThrea
     }
 
     @Override
-    public @NonNull MediaDatabase.MediaRecord get(int section, int item) {
+    public @Nullable MediaDatabase.MediaRecord get(int section, int item) {
       throw new AssertionError();
     }
 
@@ -232,82 +276,77 @@ public final class GroupedThreadMediaLoader extends AsyncTaskLoader<GroupedThrea
     public @NonNull String getName(int section) {
       throw new AssertionError();
     }
+
+    @Override
+    public @NonNull LiveData<List<MediaDatabase.MediaRecord>> getPages() {
+      return pages;
+    }
+
+    @Override
+    public @NonNull List<MediaDatabase.MediaRecord> getAll() {
+      return Collections.emptyList();
+    }
   }
 
-  public static class ReversedGroupedThreadMedia extends GroupedThreadMedia {
+  private static class PagedGroupedThreadMedia extends GroupedThreadMedia {
 
-    private final GroupedThreadMedia decorated;
+    private final List<Section>                        sections;
+    private final ThreadMediaDataSource                dataSource;
+    private final PagedData<MediaDatabase.MediaRecord> pagedData;
 
-    ReversedGroupedThreadMedia(@NonNull GroupedThreadMedia decorated) {
-      this.decorated = decorated;
+    private PagedGroupedThreadMedia(@NonNull List<Section> sections,
+                                    @NonNull ThreadMediaDataSource dataSource,
+                                    @NonNull PagedData<MediaDatabase.MediaRecord> pagedData)
+    {
+      this.sections   = sections;
+      this.dataSource = dataSource;
+      this.pagedData  = pagedData;
     }
 
     @Override
     public int getSectionCount() {
-      return decorated.getSectionCount();
+      return sections.size();
     }
 
     @Override
     public int getSectionItemCount(int section) {
-      return decorated.getSectionItemCount(getReversedSection(section));
+      return sections.get(section).positions.size();
     }
 
     @Override
-    public @NonNull MediaDatabase.MediaRecord get(int section, int item) {
-      return decorated.get(getReversedSection(section), item);
-    }
+    public @Nullable MediaDatabase.MediaRecord get(int section, int item) {
+      int position = sections.get(section).positions.get(item);
 
-    @Override
-    public @NonNull String getName(int section) {
-      return decorated.getName(getReversedSection(section));
-    }
-
-    private int getReversedSection(int section) {
-      return decorated.getSectionCount() - 1 - section;
-    }
-  }
-
-  private static class PopulatedGroupedThreadMedia extends GroupedThreadMedia {
-
-    @NonNull
-    private final GroupingMethod groupingMethod;
-
-    private final SparseArray<List<MediaDatabase.MediaRecord>> records = new SparseArray<>();
-
-    private PopulatedGroupedThreadMedia(@NonNull GroupingMethod groupingMethod) {
-      this.groupingMethod = groupingMethod;
-    }
+      pagedData.getController().onDataNeededAroundIndex(position);
 
-    private void add(@NonNull MediaDatabase.MediaRecord mediaRecord) {
-      int groupNo = groupingMethod.groupForRecord(mediaRecord);
+      List<MediaDatabase.MediaRecord> records = pagedData.getData().getValue();
 
-      List<MediaDatabase.MediaRecord> mediaRecords = records.get(groupNo);
-      if (mediaRecords == null) {
-        mediaRecords = new LinkedList<>();
-        records.put(groupNo, mediaRecords);
-      }
-
-      mediaRecords.add(mediaRecord);
+      return records != null && position < records.size() ? records.get(position) : null;
     }
 
     @Override
-    public int getSectionCount() {
-      return records.size();
+    public @NonNull String getName(int section) {
+      return sections.get(section).name;
     }
 
     @Override
-    public int getSectionItemCount(int section) {
-      return records.get(records.keyAt(section)).size();
+    public @NonNull LiveData<List<MediaDatabase.MediaRecord>> getPages() {
+      return pagedData.getData();
     }
 
     @Override
-    public @NonNull MediaDatabase.MediaRecord get(int section, int item) {
-      return records.get(records.keyAt(section)).get(item);
+    public @NonNull List<MediaDatabase.MediaRecord> getAll() {
+      return dataSource.load(0, dataSource.size(), () -> false);
     }
+  }
 
-    @Override
-    public @NonNull String getName(int section) {
-      return groupingMethod.groupName(records.keyAt(section));
+  private static final class Section {
+    private final String        name;
+    private final List<Integer> positions;
+
+    private Section(@NonNull String name, @NonNull List<Integer> positions) {
+      this.name      = name;
+      this.positions = positions;
     }
   }
 }
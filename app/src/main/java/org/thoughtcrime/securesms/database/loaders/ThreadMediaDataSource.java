@@ -0,0 +1,67 @@
+package org.thoughtcrime.securesms.database.loaders;
+
+import android.content.Context;
+import android.database.Cursor;
+
+import androidx.annotation.NonNull;
+
+import org.signal.core.util.logging.Log;
+import org.signal.paging.PagedDataSource;
+import org.thoughtcrime.securesms.database.DatabaseFactory;
+import org.thoughtcrime.securesms.database.MediaDatabase;
+import org.thoughtcrime.securesms.util.Stopwatch;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Loads the media of a thread a page at a time for the media overview.
+ *
+ * The size is fixed to the number of rows the overview was laid out with, rather than queried
+ * again, so that the sections and the paged list can never disagree. Any change to the media
+ * reloads the overview and with it this data source.
+ */
+class ThreadMediaDataSource implements PagedDataSource<MediaDatabase.MediaRecord> {
+
+  private static final String TAG = Log.tag(ThreadMediaDataSource.class);
+
+  private final Context               context;
+  private final long                  threadId;
+  private final MediaLoader.MediaType mediaType;
+  private final MediaDatabase.Sorting sorting;
+  private final int                   size;
+
+  ThreadMediaDataSource(@NonNull Context context,
+                        long threadId,
+                        @NonNull MediaLoader.MediaType mediaType,
+                        @NonNull MediaDatabase.Sorting sorting,
+                        int size)
+  {
+    this.context   = context;
+    this.threadId  = threadId;
+    this.mediaType = mediaType;
+    this.sorting   = sorting;
+    this.size      = size;
+  }
+
+  @Override
+  public int size() {
+    return size;
+  }
+
+  @Override
+  public @NonNull List<MediaDatabase.MediaRecord> load(int start, int length, @NonNull CancellationSignal cancellationSignal) {
+    Stopwatch                       stopwatch = new Stopwatch("load(" + start + ", " + length + "), thread " + threadId);
+    List<MediaDatabase.MediaRecord> records   = new ArrayList<>(length);
+
+    try (Cursor cursor = DatabaseFactory.getMediaDatabase(context).getMediaForThread(threadId, mediaType, sorting, start, length)) {
+      while (cursor.moveToNext() && !cancellationSignal.isCanceled()) {
+        records.add(MediaDatabase.MediaRecord.from(context, cursor));
+      }
+    }
+
+    stopwatch.stop(TAG);
+
+    return records;
+  }
+}
@@ -0,0 +1,236 @@
+package org.thoughtcrime.securesms.database.model;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The receipt state of every member for a single outgoing group message.
+ *
+ * Rather than a row per member, a message stores a reference to its (shared) member list, one
+ * byte of status per member, and one varint timestamp per member encoded as a delta from a base
+ * timestamp. Positions in the status and timestamp arrays line up with positions in the member
+ * list, so the member list must never be reordered once written.
+ */
+public final class PackedGroupReceipts {
+
+  private static final int UNIDENTIFIED_FLAG = 0x80;
+  private static final int STATUS_MASK       = 0x7F;
+
+  private long[]    members;
+  private int[]     statuses;
+  private long[]    timestamps;
+  private boolean[] unidentified;
+
+  public PackedGroupReceipts() {
+    this(new long[0], new int[0], new long[0], new boolean[0]);
+  }
+
+  private PackedGroupReceipts(long[] members, int[] statuses, long[] timestamps, boolean[] unidentified) {
+    this.members      = members;
+    this.statuses     = statuses;
+    this.timestamps   = timestamps;
+    this.unidentified = unidentified;
+  }
+
+  public static @NonNull PackedGroupReceipts decode(@NonNull String encodedMembers,
+                                                    @Nullable byte[] encodedStatuses,
+                                                    @Nullable byte[] encodedTimestamps,
+                                                    long baseTimestamp)
+  {
+    long[]    members      = decodeMembers(encodedMembers);
+    int[]     statuses     = new int[members.length];
+    long[]    timestamps   = new long[members.length];
+    boolean[] unidentified = new boolean[members.length];
+
+    Arrays.fill(statuses, -1);
+
+    if (encodedStatuses != null) {
+      for (int i = 0; i < members.length && i < encodedStatuses.length; i++) {
+        statuses[i]     = (encodedStatuses[i] & STATUS_MASK) - 1;
+        unidentified[i] = (encodedStatuses[i] & UNIDENTIFIED_FLAG) != 0;
+      }
+    }
+
+    if (encodedTimestamps != null) {
+      int offset = 0;
+
+      for (int i = 0; i < members.length && offset < encodedTimestamps.length; i++) {
+        long value = 0;
+        int  shift = 0;
+        int  b;
+
+        do {
+          b      = encodedTimestamps[offset++];
+          value |= (long) (b & 0x7F) << shift;
+          shift += 7;
+        } while ((b & 0x80) != 0 && offset < encodedTimestamps.length);
+
+        timestamps[i] = baseTimestamp + ((value >>> 1) ^ -(value & 1));
+      }
+    }
+
+    return new PackedGroupReceipts(members, statuses, timestamps, unidentified);
+  }
+
+  /**
+   * Members are encoded as a comma-separated list with leading and trailing commas, so that a
+   * single member can be matched with {@code LIKE '%,id,%'}.
+   */
+  public static @NonNull String encodeMembers(@NonNull long[] members) {
+    StringBuilder builder = new StringBuilder(members.length * 6 + 1).append(',');
+
+    for (long member : members) {
+      builder.append(member).append(',');
+    }
+
+    return builder.toString();
+  }
+
+  public static @NonNull long[] decodeMembers(@NonNull String encoded) {
+    List<Long> members = new ArrayList<>();
+
+    for (String part : encoded.split(",")) {
+      if (!part.isEmpty()) {
+        members.add(Long.parseLong(part));
+      }
+    }
+
+    long[] result = new long[members.size()];
+
+    for (int i = 0; i < result.length; i++) {
+      result[i] = members.get(i);
+    }
+
+    return result;
+  }
+
+  public int size() {
+    return members.length;
+  }
+
+  public int indexOf(long member) {
+    for (int i = 0; i < members.length; i++) {
+      if (members[i] == member) {
+        return i;
+      }
+    }
+
+    return -1;
+  }
+
+  public long getMember(int index) {
+    return members[index];
+  }
+
+  public int getStatus(int index) {
+    return statuses[index];
+  }
+
+  public long getTimestamp(int index) {
+    return timestamps[index];
+  }
+
+  public boolean isUnidentified(int index) {
+    return unidentified[index];
+  }
+
+  public @NonNull long[] getMembers() {
+    return members.clone();
+  }
+
+  /**
+   * Adds a member, unless it is already present.
+   *
+   * @return True if the member was added.
+   */
+  public boolean add(long member, int status, long timestamp, boolean isUnidentified) {
+    if (indexOf(member) >= 0) {
+      return false;
+    }
+
+    int size = members.length;
+
+    members      = Arrays.copyOf(members, size + 1);
+    statuses     = Arrays.copyOf(statuses, size + 1);
+    timestamps   = Arrays.copyOf(timestamps, size + 1);
+    unidentified = Arrays.copyOf(unidentified, size + 1);
+
+    members[size]      = member;
+    statuses[size]     = status;
+    timestamps[size]   = timestamp;
+    unidentified[size] = isUnidentified;
+
+    return true;
+  }
+
+  /**
+   * Updates the status of a member, but only if it moves the status forward.
+   *
+   * @return True if anything changed.
+   */
+  public boolean update(int index, int status, long timestamp) {
+    if (statuses[index] >= status) {
+      return false;
+    }
+
+    statuses[index]   = status;
+    timestamps[index] = timestamp;
+
+    return true;
+  }
+
+  public void setUnidentified(int index, boolean isUnidentified) {
+    unidentified[index] = isUnidentified;
+  }
+
+  /**
+   * Replaces every occurrence of one member with another, leaving positions untouched.
+   *
+   * @return True if anything changed.
+   */
+  public static boolean replaceMember(@NonNull long[] members, long from, long to) {
+    boolean changed = false;
+
+    for (int i = 0; i < members.length; i++) {
+      if (members[i] == from) {
+        members[i] = to;
+        changed    = true;
+      }
+    }
+
+    return changed;
+  }
+
+  public @NonNull byte[] encodeStatuses() {
+    byte[] encoded = new byte[statuses.length];
+
+    for (int i = 0; i < statuses.length; i++) {
+      encoded[i] = (byte) (((statuses[i] + 1) & STATUS_MASK) | (unidentified[i] ? UNIDENTIFIED_FLAG : 0));
+    }
+
+    return encoded;
+  }
+
+  public @NonNull byte[] encodeTimestamps(long baseTimestamp) {
+    ByteArrayOutputStream out = new ByteArrayOutputStream(timestamps.length * 2);
+
+    for (long timestamp : timestamps) {
+      long delta = timestamp - baseTimestamp;
+      long value = (delta << 1) ^ (delta >> 63);
+
+      while ((value & ~0x7FL) != 0) {
+        out.write((int) ((value & 0x7F) | 0x80));
+        value >>>= 7;
+      }
+
+      out.write((int) value);
+    }
+
+    return out.toByteArray();
+  }
+}
@@ -9,6 +9,7 @@ import org.thoughtcrime.securesms.KbsEnclave;
 import org.thoughtcrime.securesms.components.TypingStatusRepository;
 import org.thoughtcrime.securesms.components.TypingStatusSender;
 import org.thoughtcrime.securesms.database.DatabaseObserver;
+import org.thoughtcrime.securesms.database.ReceiptAggregator;
 import org.thoughtcrime.securesms.groups.GroupsV2Authorization;
 import org.thoughtcrime.securesms.groups.GroupsV2AuthorizationMemoryValueCache;
 import org.thoughtcrime.securesms.groups.v2.processing.GroupsV2StateProcessor;
@@ -20,6 +21,7 @@ import org.thoughtcrime.securesms.messages.IncomingMessageObserver;
 import org.thoughtcrime.securesms.messages.IncomingMessageProcessor;
 import org.thoughtcrime.securesms.net.PipeConnectivityListener;
 import org.thoughtcrime.securesms.notifications.MessageNotifier;
+import org.thoughtcrime.securesms.profiles.ProfileFetchScheduler;
 import org.thoughtcrime.securesms.push.SignalServiceNetworkAccess;
 import org.thoughtcrime.securesms.recipients.LiveRecipientCache;
 import org.thoughtcrime.securesms.service.TrimThreadsByDateManager;
@@ -69,6 +71,8 @@ public class ApplicationDependencies {
   private static volatile GroupsV2StateProcessor       groupsV2StateProcessor;
   private static volatile GroupsV2Operations           groupsV2Operations;
   private static volatile EarlyMessageCache            earlyMessageCache;
+  private static volatile ReceiptAggregator            receiptAggregator;
+  private static volatile ProfileFetchScheduler        profileFetchScheduler;
   private static volatile TypingStatusRepository       typingStatusRepository;
   private static volatile TypingStatusSender           typingStatusSender;
   private static volatile DatabaseObserver             databaseObserver;
@@ -312,6 +316,30 @@ public class ApplicationDependencies {
     return earlyMessageCache;
   }
 
+  public static @NonNull ReceiptAggregator getReceiptAggregator() {
+    if (receiptAggregator == null) {
+      synchronized (LOCK) {
+        if (receiptAggregator == null) {
+          receiptAggregator = provider.provideReceiptAggregator();
+        }
+      }
+    }
+
+    return receiptAggregator;
+  }
+
+  public static @NonNull ProfileFetchScheduler getProfileFetchScheduler() {
+    if (profileFetchScheduler == null) {
+      synchronized (LOCK) {
+        if (profileFetchScheduler == null) {
+          profileFetchScheduler = provider.provideProfileFetchScheduler();
+        }
+      }
+    }
+
+    return profileFetchScheduler;
+  }
+
   public static @NonNull MessageNotifier getMessageNotifier() {
     return messageNotifier;
   }
@@ -402,6 +430,8 @@ public class ApplicationDependencies {
     @NonNull FrameRateTracker provideFrameRateTracker();
     @NonNull MegaphoneRepository provideMegaphoneRepository();
     @NonNull EarlyMessageCache provideEarlyMessageCache();
+    @NonNull ReceiptAggregator provideReceiptAggregator();
+    @NonNull ProfileFetchScheduler provideProfileFetchScheduler();
     @NonNull MessageNotifier provideMessageNotifier();
     @NonNull IncomingMessageObserver provideIncomingMessageObserver();
     @NonNull TrimThreadsByDateManager provideTrimThreadsByDateManager();
@@ -14,6 +14,7 @@ import org.thoughtcrime.securesms.crypto.storage.SignalProtocolStoreImpl;
 import org.thoughtcrime.securesms.crypto.DatabaseSessionLock;
 import org.thoughtcrime.securesms.database.DatabaseObserver;
 import org.thoughtcrime.securesms.database.JobDatabase;
+import org.thoughtcrime.securesms.database.ReceiptAggregator;
 import org.thoughtcrime.securesms.jobmanager.JobManager;
 import org.thoughtcrime.securesms.jobmanager.JobMigrator;
 import org.thoughtcrime.securesms.jobmanager.impl.FactoryJobPredicate;
@@ -37,6 +38,7 @@ import org.thoughtcrime.securesms.net.PipeConnectivityListener;
 import org.thoughtcrime.securesms.notifications.DefaultMessageNotifier;
 import org.thoughtcrime.securesms.notifications.MessageNotifier;
 import org.thoughtcrime.securesms.notifications.OptimizedMessageNotifier;
+import org.thoughtcrime.securesms.profiles.ProfileFetchScheduler;
 import org.thoughtcrime.securesms.push.SecurityEventListener;
 import org.thoughtcrime.securesms.push.SignalServiceNetworkAccess;
 import org.thoughtcrime.securesms.recipients.LiveRecipientCache;
@@ -178,6 +180,16 @@ public class ApplicationDependencyProvider implements ApplicationDependencies.Pr
     return new EarlyMessageCache();
   }
 
+  @Override
+  public @NonNull ReceiptAggregator provideReceiptAggregator() {
+    return new ReceiptAggregator(context);
+  }
+
+  @Override
+  public @NonNull ProfileFetchScheduler provideProfileFetchScheduler() {
+    return new ProfileFetchScheduler(context);
+  }
+
   @Override
   public @NonNull MessageNotifier provideMessageNotifier() {
     return new OptimizedMessageNotifier(new DefaultMessageNotifier());
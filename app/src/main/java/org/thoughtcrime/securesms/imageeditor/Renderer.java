@@ -24,4 +24,13 @@ public interface Renderer extends Parcelable {
    * @return true iff hit.
    */
   boolean hitTest(float x, float y);
+
+  /**
+   * @return A counter that moves whenever the persisted state of this renderer changes, so undo
+   *         points can reuse the serialized form of renderers that haven't changed. Renderers whose
+   *         persisted state is fixed at construction can keep the default.
+   */
+  default int getStateVersion() {
+    return 0;
+  }
 }
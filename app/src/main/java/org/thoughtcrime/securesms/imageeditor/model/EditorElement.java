@@ -10,6 +10,8 @@ import androidx.annotation.Nullable;
 import org.thoughtcrime.securesms.imageeditor.Renderer;
 import org.thoughtcrime.securesms.imageeditor.RendererContext;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.Iterator;
@@ -59,6 +61,12 @@ public final class EditorElement implements Parcelable {
   @NonNull
   private AlphaAnimation alphaAnimation = AlphaAnimation.NULL_1;
 
+  private final float[] tempValues = new float[9];
+
+  @Nullable
+  private ElementSnapshot snapshot;
+  private int             snapshotRendererVersion;
+
   public EditorElement(@Nullable Renderer renderer) {
     this(renderer, 0);
   }
@@ -79,6 +87,21 @@ public final class EditorElement implements Parcelable {
     in.readTypedList(children, EditorElement.CREATOR);
   }
 
+  EditorElement(@NonNull ElementSnapshot snapshot) {
+    id       = snapshot.getId();
+    flags    = new EditorFlags(snapshot.getFlags());
+    localMatrix.setValues(snapshot.getLocalMatrix());
+    renderer = snapshot.createRenderer();
+    zOrder   = snapshot.getZOrder();
+
+    for (ElementSnapshot child : snapshot.getChildren()) {
+      children.add(new EditorElement(child));
+    }
+
+    this.snapshot                = snapshot;
+    this.snapshotRendererVersion = renderer != null ? renderer.getStateVersion() : 0;
+  }
+
   UUID getId() {
     return id;
   }
@@ -325,6 +348,57 @@ public final class EditorElement implements Parcelable {
     animationMatrix.stop();
   }
 
+  /**
+   * Captures the persisted state of this element and its children.
+   * <p>
+   * The snapshot is cached, and handed back again for as long as the element's flags, matrix,
+   * renderer and children are unchanged. Checking that is a comparison per element, with no
+   * serialization; a renderer is only serialized again if its state version has moved.
+   */
+  @NonNull ElementSnapshot snapshot() {
+    List<ElementSnapshot> previousChildren = snapshot != null ? snapshot.getChildren() : Collections.emptyList();
+    List<ElementSnapshot> childSnapshots   = null;
+    int                   i                = 0;
+
+    for (EditorElement child : children) {
+      ElementSnapshot childSnapshot = child.snapshot();
+
+      if (childSnapshots == null && (i >= previousChildren.size() || childSnapshot != previousChildren.get(i))) {
+        childSnapshots = new ArrayList<>(previousChildren.subList(0, i));
+      }
+
+      if (childSnapshots != null) {
+        childSnapshots.add(childSnapshot);
+      }
+      i++;
+    }
+
+    if (childSnapshots == null && previousChildren.size() != children.size()) {
+      childSnapshots = new ArrayList<>(previousChildren.subList(0, children.size()));
+    }
+
+    int     rendererVersion   = renderer != null ? renderer.getStateVersion() : 0;
+    boolean rendererUnchanged = snapshot != null && snapshotRendererVersion == rendererVersion;
+
+    localMatrix.getValues(tempValues);
+
+    if (childSnapshots == null && rendererUnchanged && snapshot.hasState(flags.asInt(), tempValues)) {
+      return snapshot;
+    }
+
+    byte[] rendererBytes = rendererUnchanged ? snapshot.getRendererBytes() : ElementSnapshot.marshallRenderer(renderer);
+
+    snapshot                = new ElementSnapshot(id,
+                                                  flags.asInt(),
+                                                  Arrays.copyOf(tempValues, tempValues.length),
+                                                  zOrder,
+                                                  rendererBytes,
+                                                  childSnapshots != null ? childSnapshots : previousChildren);
+    snapshotRendererVersion = rendererVersion;
+
+    return snapshot;
+  }
+
   public static final Creator<EditorElement> CREATOR = new Creator<EditorElement>() {
     @Override
     public EditorElement createFromParcel(Parcel in) {
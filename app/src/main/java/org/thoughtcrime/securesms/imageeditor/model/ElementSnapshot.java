@@ -0,0 +1,148 @@
+package org.thoughtcrime.securesms.imageeditor.model;
+
+import android.os.Parcel;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import org.thoughtcrime.securesms.imageeditor.Renderer;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * An immutable copy of the persisted state of an {@link EditorElement} and its children.
+ * <p>
+ * Snapshots are taken with {@link EditorElement#snapshot()}, which hands back an element's previous
+ * snapshot if nothing about it or its children has changed since. So successive snapshots of a tree
+ * share every unchanged subtree, and only the elements that were edited take up new memory.
+ * <p>
+ * The renderer, usually the bulk of an element, is held serialized, and is only serialized again
+ * when its {@link Renderer#getStateVersion()} moves.
+ */
+final class ElementSnapshot {
+
+  private final UUID                  id;
+  private final int                   flags;
+  private final float[]               localMatrix;
+  private final int                   zOrder;
+  @Nullable
+  private final byte[]                renderer;
+  private final List<ElementSnapshot> children;
+
+  ElementSnapshot(@NonNull UUID id,
+                  int flags,
+                  @NonNull float[] localMatrix,
+                  int zOrder,
+                  @Nullable byte[] renderer,
+                  @NonNull List<ElementSnapshot> children)
+  {
+    this.id          = id;
+    this.flags       = flags;
+    this.localMatrix = localMatrix;
+    this.zOrder      = zOrder;
+    this.renderer    = renderer;
+    this.children    = Collections.unmodifiableList(children);
+  }
+
+  /**
+   * Reads a snapshot from the bytes of a parcelled {@link EditorElement}, as produced by {@link #toBytes()}.
+   */
+  static @NonNull ElementSnapshot fromBytes(@NonNull byte[] bytes) {
+    Parcel parcel = Parcel.obtain();
+    try {
+      parcel.unmarshall(bytes, 0, bytes.length);
+      parcel.setDataPosition(0);
+      EditorElement element = parcel.readParcelable(EditorElement.class.getClassLoader());
+      return element.snapshot();
+    } finally {
+      parcel.recycle();
+    }
+  }
+
+  /**
+   * Serializes in the same format as a parcelled {@link EditorElement}, so that saved state is
+   * unaffected by how the stacks are held in memory.
+   */
+  @NonNull byte[] toBytes() {
+    return ElementStack.getBytes(toElement());
+  }
+
+  /**
+   * @return A new, independent element tree in the state of this snapshot.
+   */
+  @NonNull EditorElement toElement() {
+    return new EditorElement(this);
+  }
+
+  @NonNull UUID getId() {
+    return id;
+  }
+
+  int getFlags() {
+    return flags;
+  }
+
+  @NonNull float[] getLocalMatrix() {
+    return localMatrix;
+  }
+
+  int getZOrder() {
+    return zOrder;
+  }
+
+  @Nullable byte[] getRendererBytes() {
+    return renderer;
+  }
+
+  @NonNull List<ElementSnapshot> getChildren() {
+    return children;
+  }
+
+  boolean hasState(int flags, @NonNull float[] localMatrix) {
+    return this.flags == flags && Arrays.equals(this.localMatrix, localMatrix);
+  }
+
+  @Nullable Renderer createRenderer() {
+    if (renderer == null) return null;
+
+    Parcel parcel = Parcel.obtain();
+    try {
+      parcel.unmarshall(renderer, 0, renderer.length);
+      parcel.setDataPosition(0);
+      return parcel.readParcelable(Renderer.class.getClassLoader());
+    } finally {
+      parcel.recycle();
+    }
+  }
+
+  static @Nullable byte[] marshallRenderer(@Nullable Renderer renderer) {
+    return renderer != null ? ElementStack.getBytes(renderer) : null;
+  }
+
+  /**
+   * Structural equality, which is cheap between snapshots of the same tree as any subtree they
+   * share is the same instance.
+   */
+  @Override
+  public boolean equals(@Nullable Object o) {
+    if (this == o) return true;
+    if (o == null || getClass() != o.getClass()) return false;
+
+    ElementSnapshot other = (ElementSnapshot) o;
+
+    return flags  == other.flags  &&
+           zOrder == other.zOrder &&
+           id.equals(other.id)    &&
+           Arrays.equals(localMatrix, other.localMatrix) &&
+           Arrays.equals(renderer, other.renderer)       &&
+           children.equals(other.children);
+  }
+
+  @Override
+  public int hashCode() {
+    return id.hashCode();
+  }
+}
@@ -6,13 +6,14 @@ import android.os.Parcelable;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 
-import java.util.Arrays;
 import java.util.Stack;
 
 /**
  * Contains a stack of elements for undo and redo stacks.
  * <p>
- * Elements are mutable, so this stack serializes the element and keeps a stack of serialized data.
+ * Elements are mutable, so this stack keeps {@link ElementSnapshot}s of them. Successive snapshots
+ * share the elements that didn't change between them, so each entry only costs as much memory as
+ * the edit it records.
  * <p>
  * The stack has a {@link #limit} and if it exceeds that limit during a push the second to earliest item
  * is removed so that it can always go back to the first state. Effectively collapsing the history for
@@ -20,8 +21,8 @@ import java.util.Stack;
  */
 final class ElementStack implements Parcelable {
 
-  private final int           limit;
-  private final Stack<byte[]> stack = new Stack<>();
+  private final int                    limit;
+  private final Stack<ElementSnapshot> stack = new Stack<>();
 
   ElementStack(int limit) {
     this.limit = limit;
@@ -31,13 +32,13 @@ final class ElementStack implements Parcelable {
     this(in.readInt());
     final int count = in.readInt();
     for (int i = 0; i < count; i++) {
-      stack.add(i, in.createByteArray());
+      stack.add(i, ElementSnapshot.fromBytes(in.createByteArray()));
     }
   }
 
   /**
-   * Pushes an element to the stack iff the element's serialized value is different to any found at
-   * the top of the stack.
+   * Pushes an element to the stack iff the element's state is different to any found at the top of
+   * the stack.
    * <p>
    * Removes the second to earliest item if it is overflowing.
    *
@@ -45,11 +46,11 @@ final class ElementStack implements Parcelable {
    * @return true iff the pushed item was different to the top item.
    */
   boolean tryPush(@NonNull EditorElement element) {
-    byte[]  bytes = getBytes(element);
-    boolean push  = stack.isEmpty() || !Arrays.equals(bytes, stack.peek());
+    ElementSnapshot snapshot = element.snapshot();
+    boolean         push     = stack.isEmpty() || !snapshot.equals(stack.peek());
 
     if (push) {
-      stack.push(bytes);
+      stack.push(snapshot);
       if (stack.size() > limit) {
         stack.remove(1);
       }
@@ -75,27 +76,20 @@ final class ElementStack implements Parcelable {
   @Nullable EditorElement pop(@NonNull EditorElement element) {
     if (stack.empty()) return null;
 
-    byte[] elementBytes = getBytes(element);
-    byte[] stackData    = null;
+    ElementSnapshot current   = element.snapshot();
+    ElementSnapshot stackData = null;
 
     while (!stack.empty() && stackData == null) {
-      byte[] topData = stack.pop();
+      ElementSnapshot topData = stack.pop();
 
-      if (!Arrays.equals(topData, elementBytes)) {
+      if (!topData.equals(current)) {
         stackData = topData;
       }
     }
 
     if (stackData == null) return null;
 
-    Parcel parcel = Parcel.obtain();
-    try {
-      parcel.unmarshall(stackData, 0, stackData.length);
-      parcel.setDataPosition(0);
-      return parcel.readParcelable(EditorElement.class.getClassLoader());
-    } finally {
-      parcel.recycle();
-    }
+    return stackData.toElement();
   }
 
   void clear() {
@@ -125,17 +119,17 @@ final class ElementStack implements Parcelable {
     final int count = stack.size();
     dest.writeInt(count);
     for (int i = 0; i < count; i++) {
-      dest.writeByteArray(stack.get(i));
+      dest.writeByteArray(stack.get(i).toBytes());
     }
   }
 
   boolean stackContainsStateDifferentFrom(@NonNull EditorElement element) {
     if (stack.isEmpty()) return false;
 
-    byte[] currentStateBytes = getBytes(element);
+    ElementSnapshot currentState = element.snapshot();
 
-    for (byte[] item : stack) {
-      if (!Arrays.equals(item, currentStateBytes)) {
+    for (ElementSnapshot item : stack) {
+      if (!item.equals(currentState)) {
         return true;
       }
     }
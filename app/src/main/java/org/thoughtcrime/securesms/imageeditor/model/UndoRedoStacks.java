@@ -6,15 +6,13 @@ import android.os.Parcelable;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 
-import java.util.Arrays;
-
 final class UndoRedoStacks implements Parcelable {
 
   private final ElementStack undoStack;
   private final ElementStack redoStack;
 
-  @NonNull
-  private byte[] unchangedState;
+  @Nullable
+  private ElementSnapshot unchangedState;
 
   UndoRedoStacks(int limit) {
     this(new ElementStack(limit), new ElementStack(limit), null);
@@ -23,7 +21,7 @@ final class UndoRedoStacks implements Parcelable {
   private UndoRedoStacks(ElementStack undoStack, ElementStack redoStack, @Nullable byte[] unchangedState) {
     this.undoStack = undoStack;
     this.redoStack = redoStack;
-    this.unchangedState = unchangedState != null ? unchangedState : new byte[0];
+    this.unchangedState = unchangedState != null && unchangedState.length > 0 ? ElementSnapshot.fromBytes(unchangedState) : null;
   }
 
   public static final Creator<UndoRedoStacks> CREATOR = new Creator<UndoRedoStacks>() {
@@ -46,7 +44,7 @@ final class UndoRedoStacks implements Parcelable {
   public void writeToParcel(Parcel dest, int flags) {
     dest.writeParcelable(undoStack, flags);
     dest.writeParcelable(redoStack, flags);
-    dest.writeByteArray(unchangedState);
+    dest.writeByteArray(unchangedState != null ? unchangedState.toBytes() : new byte[0]);
   }
 
   @Override
@@ -71,11 +69,11 @@ final class UndoRedoStacks implements Parcelable {
   void clear(@NonNull EditorElement element) {
     undoStack.clear();
     redoStack.clear();
-    unchangedState = ElementStack.getBytes(element);
+    unchangedState = element.snapshot();
   }
 
   boolean isChanged(@NonNull EditorElement element) {
-    return !Arrays.equals(ElementStack.getBytes(element), unchangedState);
+    return unchangedState == null || !unchangedState.equals(element.snapshot());
   }
 
   /**
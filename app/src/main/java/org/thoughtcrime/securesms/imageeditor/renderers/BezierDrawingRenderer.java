@@ -52,6 +52,7 @@ public final class BezierDrawingRenderer extends InvalidateableRenderer implemen
     if (this.color != color) {
       this.color = color;
       updatePaint();
+      onStateChanged();
       invalidate();
     }
   }
@@ -60,6 +61,7 @@ public final class BezierDrawingRenderer extends InvalidateableRenderer implemen
     if (this.thickness != thickness) {
       this.thickness = thickness;
       updatePaint();
+      onStateChanged();
       invalidate();
     }
   }
@@ -75,6 +77,7 @@ public final class BezierDrawingRenderer extends InvalidateableRenderer implemen
   public void setFirstPoint(PointF point) {
     bezierLine.reset();
     bezierLine.addPoint(point.x, point.y);
+    onStateChanged();
     invalidate();
   }
 
@@ -84,6 +87,7 @@ public final class BezierDrawingRenderer extends InvalidateableRenderer implemen
     } else {
       bezierLine.addPoint(point.x, point.y);
     }
+    onStateChanged();
     invalidate();
   }
 
@@ -9,11 +9,16 @@ import java.lang.ref.WeakReference;
 
 /**
  * Maintains a weak reference to the an invalidate callback allowing future invalidation without memory leak risk.
+ * <p>
+ * Also keeps the {@link #getStateVersion()} for subclasses, which call {@link #onStateChanged()}
+ * whenever something they write to a parcel changes.
  */
 abstract class InvalidateableRenderer implements Renderer {
 
   private WeakReference<RendererContext.Invalidate> invalidate = new WeakReference<>(null);
 
+  private int stateVersion;
+
   @Override
   public void render(@NonNull RendererContext rendererContext) {
     setInvalidate(rendererContext.invalidate);
@@ -25,6 +30,15 @@ abstract class InvalidateableRenderer implements Renderer {
     }
   }
 
+  @Override
+  public int getStateVersion() {
+    return stateVersion;
+  }
+
+  protected void onStateChanged() {
+    stateVersion++;
+  }
+
   protected void invalidate() {
     RendererContext.Invalidate invalidate = this.invalidate.get();
     if (invalidate != null) {
@@ -81,6 +81,7 @@ public final class MultiLineTextRenderer extends InvalidateableRenderer implemen
     if (!this.text.equals(text)) {
       this.text = text;
       createLinesForText();
+      onStateChanged();
     }
   }
 
@@ -310,6 +311,7 @@ public final class MultiLineTextRenderer extends InvalidateableRenderer implemen
       this.color = color;
       paint.setColor(color);
       selectionPaint.setColor(color);
+      onStateChanged();
       invalidate();
     }
   }
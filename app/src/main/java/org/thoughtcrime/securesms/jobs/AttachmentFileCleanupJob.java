@@ -0,0 +1,105 @@
+package org.thoughtcrime.securesms.jobs;
+
+import androidx.annotation.NonNull;
+
+import org.signal.core.util.logging.Log;
+import org.thoughtcrime.securesms.database.AttachmentDatabase;
+import org.thoughtcrime.securesms.database.DatabaseFactory;
+import org.thoughtcrime.securesms.dependencies.ApplicationDependencies;
+import org.thoughtcrime.securesms.jobmanager.Data;
+import org.thoughtcrime.securesms.jobmanager.Job;
+import org.thoughtcrime.securesms.jobmanager.impl.DecryptionsDrainedConstraint;
+import org.thoughtcrime.securesms.keyvalue.SignalStore;
+
+/**
+ * Incrementally deletes attachment files that are no longer referenced by the database.
+ *
+ * A run works through the attachment directory a page at a time, from a single listing of it. The
+ * position is persisted after every page, so if the job is canceled or the process dies, the next
+ * run picks the sweep up where this one left off.
+ */
+public final class AttachmentFileCleanupJob extends BaseJob {
+
+  public static final String KEY = "AttachmentFileCleanupJob";
+
+  private static final String TAG = Log.tag(AttachmentFileCleanupJob.class);
+
+  private static final int FILES_PER_PAGE = 1000;
+
+  public AttachmentFileCleanupJob() {
+    this(new Job.Parameters.Builder()
+                           .setQueue(KEY)
+                           .setMaxInstancesForQueue(2)
+                           .addConstraint(DecryptionsDrainedConstraint.KEY)
+                           .build());
+  }
+
+  private AttachmentFileCleanupJob(@NonNull Job.Parameters parameters) {
+    super(parameters);
+  }
+
+  @Override
+  public @NonNull Data serialize() {
+    return Data.EMPTY;
+  }
+
+  @Override
+  public @NonNull String getFactoryKey() {
+    return KEY;
+  }
+
+  @Override
+  protected void onRun() {
+    AttachmentDatabase.AbandonedFileSweeper sweeper = DatabaseFactory.getAttachmentDatabase(context).newAbandonedFileSweeper(SignalStore.misc().getAttachmentCleanupCursor());
+
+    int  checked   = 0;
+    int  deleted   = 0;
+    long reclaimed = 0;
+
+    while (sweeper.hasNext()) {
+      if (isCanceled()) {
+        Log.w(TAG, "Canceled after checking " + checked + " files. The next run will pick up from here.");
+        return;
+      }
+
+      AttachmentDatabase.AbandonedFileSweep page = sweeper.sweepNext(FILES_PER_PAGE);
+
+      SignalStore.misc().setAttachmentCleanupCursor(page.getNextCursor() != null ? page.getNextCursor() : "");
+      SignalStore.misc().addAttachmentCleanupBytesReclaimed(page.getBytesReclaimed());
+
+      checked   += page.getFilesChecked();
+      deleted   += page.getFilesDeleted();
+      reclaimed += page.getBytesReclaimed();
+    }
+
+    SignalStore.misc().setAttachmentCleanupCursor("");
+
+    Log.i(TAG, "Checked " + checked + " files, deleted " + deleted + ", reclaimed " + reclaimed + " bytes " +
+               "(" + SignalStore.misc().getAttachmentCleanupBytesReclaimed() + " bytes total).");
+  }
+
+  /**
+   * Resumes a sweep that was cut short, if there is one.
+   */
+  public static void enqueueIfIncomplete() {
+    if (!SignalStore.misc().getAttachmentCleanupCursor().isEmpty()) {
+      ApplicationDependencies.getJobManager().add(new AttachmentFileCleanupJob());
+    }
+  }
+
+  @Override
+  protected boolean onShouldRetry(@NonNull Exception e) {
+    return false;
+  }
+
+  @Override
+  public void onFailure() {
+  }
+
+  public static final class Factory implements Job.Factory<AttachmentFileCleanupJob> {
+    @Override
+    public @NonNull AttachmentFileCleanupJob create(@NonNull Parameters parameters, @NonNull Data data) {
+      return new AttachmentFileCleanupJob(parameters);
+    }
+  }
+}
@@ -0,0 +1,63 @@
+package org.thoughtcrime.securesms.jobs;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
+
+import org.thoughtcrime.securesms.keyvalue.SignalStore;
+
+import java.util.Arrays;
+
+/**
+ * Remembers the digest of the last complete contact sync, so an identical one doesn't have to be
+ * uploaded again.
+ *
+ * Linked devices only hold exactly what that sync sent until a partial sync changes some of it, so
+ * sending any partial sync forgets the digest. Otherwise a contact that was changed by a partial
+ * sync and then changed back would make the next complete sync look identical, and it'd be skipped.
+ */
+final class ContactSyncDigestTracker {
+
+  private final Store store;
+
+  ContactSyncDigestTracker() {
+    this(new Store() {
+      @Override
+      public @Nullable byte[] getLastCompleteDigest() {
+        return SignalStore.misc().getLastContactSyncDigest();
+      }
+
+      @Override
+      public void setLastCompleteDigest(@Nullable byte[] digest) {
+        SignalStore.misc().setLastContactSyncDigest(digest);
+      }
+    });
+  }
+
+  @VisibleForTesting
+  ContactSyncDigestTracker(@NonNull Store store) {
+    this.store = store;
+  }
+
+  /**
+   * @return True if the complete sync can be skipped, because it wasn't forced and one with the
+   *         same digest has already been sent with nothing sent since.
+   */
+  boolean canSkipCompleteSync(@NonNull byte[] digest, boolean forced) {
+    return !forced && Arrays.equals(digest, store.getLastCompleteDigest());
+  }
+
+  void onCompleteSyncSent(@NonNull byte[] digest) {
+    store.setLastCompleteDigest(digest);
+  }
+
+  void onPartialSyncSent() {
+    store.setLastCompleteDigest(null);
+  }
+
+  @VisibleForTesting
+  interface Store {
+    @Nullable byte[] getLastCompleteDigest();
+    void setLastCompleteDigest(@Nullable byte[] digest);
+  }
+}
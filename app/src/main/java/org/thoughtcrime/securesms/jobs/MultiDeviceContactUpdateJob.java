@@ -15,12 +15,14 @@ import org.signal.zkgroup.profiles.ProfileKey;
 import org.thoughtcrime.securesms.ApplicationContext;
 import org.thoughtcrime.securesms.crypto.ProfileKeyUtil;
 import org.thoughtcrime.securesms.crypto.UnidentifiedAccessUtil;
+import org.thoughtcrime.securesms.database.ContactSyncDatabase;
 import org.thoughtcrime.securesms.database.DatabaseFactory;
 import org.thoughtcrime.securesms.database.IdentityDatabase;
 import org.thoughtcrime.securesms.dependencies.ApplicationDependencies;
 import org.thoughtcrime.securesms.jobmanager.Data;
 import org.thoughtcrime.securesms.jobmanager.Job;
 import org.thoughtcrime.securesms.jobmanager.impl.NetworkConstraint;
+import org.thoughtcrime.securesms.keyvalue.SignalStore;
 import org.thoughtcrime.securesms.permissions.Permissions;
 import org.thoughtcrime.securesms.profiles.AvatarHelper;
 import org.thoughtcrime.securesms.providers.BlobProvider;
@@ -44,9 +46,16 @@ import org.whispersystems.signalservice.api.push.exceptions.PushNetworkException
 import org.whispersystems.signalservice.api.util.InvalidNumberException;
 
 import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -58,7 +67,8 @@ public class MultiDeviceContactUpdateJob extends BaseJob {
 
   private static final String TAG = MultiDeviceContactUpdateJob.class.getSimpleName();
 
-  private static final long FULL_SYNC_TIME = TimeUnit.HOURS.toMillis(6);
+  private static final long FULL_SYNC_TIME         = TimeUnit.HOURS.toMillis(6);
+  private static final long COMPLETE_SYNC_INTERVAL = TimeUnit.DAYS.toMillis(1);
 
   private static final String KEY_RECIPIENT  = "recipient";
   private static final String KEY_FORCE_SYNC = "force_sync";
@@ -128,34 +138,35 @@ public class MultiDeviceContactUpdateJob extends BaseJob {
     WriteDetails writeDetails = createTempFile();
 
     try {
-      DeviceContactsOutputStream                out             = new DeviceContactsOutputStream(writeDetails.outputStream);
+      ContactSyncOutputStream                   out             = new ContactSyncOutputStream(writeDetails.outputStream);
       Recipient                                 recipient       = Recipient.resolved(recipientId);
       Optional<IdentityDatabase.IdentityRecord> identityRecord  = DatabaseFactory.getIdentityDatabase(context).getIdentity(recipient.getId());
       Optional<VerifiedMessage>                 verifiedMessage = getVerifiedMessage(recipient, identityRecord);
       Map<RecipientId, Integer>                 inboxPositions  = DatabaseFactory.getThreadDatabase(context).getInboxPositions();
       Set<RecipientId>                          archived        = DatabaseFactory.getThreadDatabase(context).getArchivedRecipients();
 
-      out.write(new DeviceContact(RecipientUtil.toSignalServiceAddress(context, recipient),
-                                  Optional.fromNullable(recipient.getName(context)),
-                                  getAvatar(recipient.getId(), recipient.getContactUri()),
-                                  Optional.fromNullable(recipient.getColor().serialize()),
-                                  verifiedMessage,
-                                  ProfileKeyUtil.profileKeyOptional(recipient.getProfileKey()),
-                                  recipient.isBlocked(),
-                                  recipient.getExpireMessages() > 0 ? Optional.of(recipient.getExpireMessages())
-                                                                    : Optional.absent(),
-                                  Optional.fromNullable(inboxPositions.get(recipientId)),
-                                  archived.contains(recipientId)));
-
+      byte[] serialized = serializeContact(new DeviceContact(RecipientUtil.toSignalServiceAddress(context, recipient),
+                                                             Optional.fromNullable(recipient.getName(context)),
+                                                             getAvatar(recipient.getId(), recipient.getContactUri()),
+                                                             Optional.fromNullable(recipient.getColor().serialize()),
+                                                             verifiedMessage,
+                                                             ProfileKeyUtil.profileKeyOptional(recipient.getProfileKey()),
+                                                             recipient.isBlocked(),
+                                                             recipient.getExpireMessages() > 0 ? Optional.of(recipient.getExpireMessages())
+                                                                                               : Optional.absent(),
+                                                             Optional.fromNullable(inboxPositions.get(recipientId)),
+                                                             archived.contains(recipientId)));
+
+      out.write(serialized);
       out.close();
 
-      long length = BlobProvider.getInstance().calculateFileSize(context, writeDetails.uri);
-
       sendUpdate(ApplicationDependencies.getSignalServiceMessageSender(),
                  BlobProvider.getInstance().getStream(context, writeDetails.uri),
-                 length,
+                 out.getLength(),
                  false);
 
+      DatabaseFactory.getContactSyncDatabase(context).setFingerprints(Collections.singletonMap(recipientId, fingerprint(serialized)), false);
+      new ContactSyncDigestTracker().onPartialSyncSent();
     } catch(InvalidNumberException e) {
       Log.w(TAG, e);
     } finally {
@@ -180,13 +191,23 @@ public class MultiDeviceContactUpdateJob extends BaseJob {
     TextSecurePreferences.setLastFullContactSyncTime(context, System.currentTimeMillis());
     TextSecurePreferences.setNeedsFullContactSync(context, false);
 
+    long                     timeSinceCompleteSync = System.currentTimeMillis() - SignalStore.misc().getLastCompleteContactSyncTime();
+    boolean                  incremental           = !forceSync && timeSinceCompleteSync >= 0 && timeSinceCompleteSync < COMPLETE_SYNC_INTERVAL;
+    ContactSyncDatabase      contactSyncDatabase   = DatabaseFactory.getContactSyncDatabase(context);
+    ContactSyncDigestTracker digestTracker         = new ContactSyncDigestTracker();
+    Map<RecipientId, byte[]> previousFingerprints  = incremental ? contactSyncDatabase.getFingerprints() : Collections.emptyMap();
+    Map<RecipientId, byte[]> sentFingerprints      = new HashMap<>();
+
+    Log.i(TAG, "Generating " + (incremental ? "an incremental" : "a complete") + " contact sync. timeSinceCompleteSync = " + timeSinceCompleteSync + " ms");
+
     WriteDetails writeDetails = createTempFile();
 
     try {
-      DeviceContactsOutputStream out            = new DeviceContactsOutputStream(writeDetails.outputStream);
+      ContactSyncOutputStream    out            = new ContactSyncOutputStream(writeDetails.outputStream);
       List<Recipient>            recipients     = DatabaseFactory.getRecipientDatabase(context).getRecipientsForMultiDeviceSync();
       Map<RecipientId, Integer>  inboxPositions = DatabaseFactory.getThreadDatabase(context).getInboxPositions();
       Set<RecipientId>           archived       = DatabaseFactory.getThreadDatabase(context).getArchivedRecipients();
+      int                        unchanged      = 0;
 
       for (Recipient recipient : recipients) {
         Optional<IdentityDatabase.IdentityRecord> identity      = DatabaseFactory.getIdentityDatabase(context).getIdentity(recipient.getId());
@@ -198,43 +219,70 @@ public class MultiDeviceContactUpdateJob extends BaseJob {
         Optional<Integer>                         expireTimer   = recipient.getExpireMessages() > 0 ? Optional.of(recipient.getExpireMessages()) : Optional.absent();
         Optional<Integer>                         inboxPosition = Optional.fromNullable(inboxPositions.get(recipient.getId()));
 
-        out.write(new DeviceContact(RecipientUtil.toSignalServiceAddress(context, recipient),
-                                    name,
-                                    getAvatar(recipient.getId(), recipient.getContactUri()),
-                                    color,
-                                    verified,
-                                    profileKey,
-                                    blocked,
-                                    expireTimer,
-                                    inboxPosition,
-                                    archived.contains(recipient.getId())));
+        byte[] serialized = serializeContact(new DeviceContact(RecipientUtil.toSignalServiceAddress(context, recipient),
+                                                               name,
+                                                               getAvatar(recipient.getId(), recipient.getContactUri()),
+                                                               color,
+                                                               verified,
+                                                               profileKey,
+                                                               blocked,
+                                                               expireTimer,
+                                                               inboxPosition,
+                                                               archived.contains(recipient.getId())));
+
+        if (!writeIfChanged(out, recipient.getId(), serialized, previousFingerprints, sentFingerprints)) {
+          unchanged++;
+        }
       }
 
-
       Recipient self       = Recipient.self();
       byte[]    profileKey = self.getProfileKey();
 
       if (profileKey != null) {
-        out.write(new DeviceContact(RecipientUtil.toSignalServiceAddress(context, self),
-                                    Optional.absent(),
-                                    Optional.absent(),
-                                    Optional.of(self.getColor().serialize()),
-                                    Optional.absent(),
-                                    ProfileKeyUtil.profileKeyOptionalOrThrow(self.getProfileKey()),
-                                    false,
-                                    self.getExpireMessages() > 0 ? Optional.of(self.getExpireMessages()) : Optional.absent(),
-                                    Optional.fromNullable(inboxPositions.get(self.getId())),
-                                    archived.contains(self.getId())));
+        byte[] serialized = serializeContact(new DeviceContact(RecipientUtil.toSignalServiceAddress(context, self),
+                                                               Optional.absent(),
+                                                               Optional.absent(),
+                                                               Optional.of(self.getColor().serialize()),
+                                                               Optional.absent(),
+                                                               ProfileKeyUtil.profileKeyOptionalOrThrow(self.getProfileKey()),
+                                                               false,
+                                                               self.getExpireMessages() > 0 ? Optional.of(self.getExpireMessages()) : Optional.absent(),
+                                                               Optional.fromNullable(inboxPositions.get(self.getId())),
+                                                               archived.contains(self.getId())));
+
+        if (!writeIfChanged(out, self.getId(), serialized, previousFingerprints, sentFingerprints)) {
+          unchanged++;
+        }
       }
 
       out.close();
 
-      long length = BlobProvider.getInstance().calculateFileSize(context, writeDetails.uri);
+      Log.i(TAG, "Wrote " + sentFingerprints.size() + " contacts (" + out.getLength() + " bytes), skipped " + unchanged + " unchanged.");
+
+      if (incremental && sentFingerprints.isEmpty()) {
+        Log.i(TAG, "No contacts have changed since the last sync. Skipping upload.");
+        return;
+      }
+
+      if (!incremental && digestTracker.canSkipCompleteSync(out.getDigest(), forceSync)) {
+        Log.i(TAG, "Complete contact sync is identical to the last one sent. Skipping upload.");
+        SignalStore.misc().setLastCompleteContactSyncTime(System.currentTimeMillis());
+        return;
+      }
 
       sendUpdate(ApplicationDependencies.getSignalServiceMessageSender(),
                  BlobProvider.getInstance().getStream(context, writeDetails.uri),
-                 length,
-                 true);
+                 out.getLength(),
+                 !incremental);
+
+      contactSyncDatabase.setFingerprints(sentFingerprints, !incremental);
+
+      if (incremental) {
+        digestTracker.onPartialSyncSent();
+      } else {
+        SignalStore.misc().setLastCompleteContactSyncTime(System.currentTimeMillis());
+        digestTracker.onCompleteSyncSent(out.getDigest());
+      }
     } catch(InvalidNumberException e) {
       Log.w(TAG, e);
     } finally {
@@ -242,6 +290,51 @@ public class MultiDeviceContactUpdateJob extends BaseJob {
     }
   }
 
+  /**
+   * Writes a serialized contact unless it's identical to what was last sent for that recipient.
+   *
+   * @return True if the contact was written.
+   */
+  private static boolean writeIfChanged(@NonNull OutputStream out,
+                                        @NonNull RecipientId recipientId,
+                                        @NonNull byte[] serialized,
+                                        @NonNull Map<RecipientId, byte[]> previousFingerprints,
+                                        @NonNull Map<RecipientId, byte[]> sentFingerprints)
+      throws IOException
+  {
+    byte[] fingerprint = fingerprint(serialized);
+
+    if (Arrays.equals(fingerprint, previousFingerprints.get(recipientId))) {
+      return false;
+    }
+
+    out.write(serialized);
+    sentFingerprints.put(recipientId, fingerprint);
+
+    return true;
+  }
+
+  /**
+   * Serializes a single contact, including its avatar, exactly as it will appear in the sync.
+   */
+  private static @NonNull byte[] serializeContact(@NonNull DeviceContact contact) throws IOException {
+    ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+    new DeviceContactsOutputStream(buffer).write(contact);
+    return buffer.toByteArray();
+  }
+
+  private static @NonNull byte[] fingerprint(@NonNull byte[] serialized) {
+    return newDigest().digest(serialized);
+  }
+
+  private static @NonNull MessageDigest newDigest() {
+    try {
+      return MessageDigest.getInstance("SHA-256");
+    } catch (NoSuchAlgorithmException e) {
+      throw new AssertionError(e);
+    }
+  }
+
   @Override
   public boolean onShouldRetry(@NonNull Exception exception) {
     if (exception instanceof PushNetworkException) return true;
@@ -400,6 +493,49 @@ public class MultiDeviceContactUpdateJob extends BaseJob {
     }
   }
 
+  /**
+   * Tracks the length and digest of everything written, so the output doesn't have to be read back.
+   */
+  private static class ContactSyncOutputStream extends FilterOutputStream {
+
+    private final MessageDigest digest = newDigest();
+
+    private long   length;
+    private byte[] result;
+
+    ContactSyncOutputStream(@NonNull OutputStream out) {
+      super(out);
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+      out.write(b);
+      digest.update((byte) b);
+      length++;
+    }
+
+    @Override
+    public void write(@NonNull byte[] buffer, int offset, int count) throws IOException {
+      out.write(buffer, offset, count);
+      digest.update(buffer, offset, count);
+      length += count;
+    }
+
+    long getLength() {
+      return length;
+    }
+
+    /**
+     * Only valid once everything has been written.
+     */
+    @NonNull byte[] getDigest() {
+      if (result == null) {
+        result = digest.digest();
+      }
+      return result;
+    }
+  }
+
   private static class WriteDetails {
     private final Uri          uri;
     private final OutputStream outputStream;
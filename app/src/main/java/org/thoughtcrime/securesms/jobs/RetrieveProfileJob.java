@@ -26,6 +26,7 @@ import org.thoughtcrime.securesms.jobmanager.Job;
 import org.thoughtcrime.securesms.jobmanager.JobManager;
 import org.thoughtcrime.securesms.jobmanager.impl.NetworkConstraint;
 import org.thoughtcrime.securesms.keyvalue.SignalStore;
+import org.thoughtcrime.securesms.profiles.ProfileFetchScheduler;
 import org.thoughtcrime.securesms.profiles.ProfileName;
 import org.thoughtcrime.securesms.recipients.Recipient;
 import org.thoughtcrime.securesms.recipients.RecipientId;
@@ -74,6 +75,8 @@ public class RetrieveProfileJob extends BaseJob {
 
   private static final String KEY_RECIPIENTS = "recipients";
 
+  private static final int PROCESS_BATCH_SIZE = 50;
+
   private final Set<RecipientId> recipientIds;
 
   /**
@@ -237,10 +240,11 @@ public class RetrieveProfileJob extends BaseJob {
 
   @Override
   public void onRun() throws IOException, RetryLaterException {
-    Stopwatch         stopwatch         = new Stopwatch("RetrieveProfile");
-    RecipientDatabase recipientDatabase = DatabaseFactory.getRecipientDatabase(context);
-    Set<RecipientId>  retries           = new HashSet<>();
-    Set<RecipientId>  unregistered      = new HashSet<>();
+    Stopwatch             stopwatch         = new Stopwatch("RetrieveProfile");
+    RecipientDatabase     recipientDatabase = DatabaseFactory.getRecipientDatabase(context);
+    ProfileFetchScheduler scheduler         = ApplicationDependencies.getProfileFetchScheduler();
+    Set<RecipientId>      retries           = new HashSet<>();
+    Set<RecipientId>      unregistered      = new HashSet<>();
 
     RecipientUtil.ensureUuidsAreAvailable(context, Stream.of(Recipient.resolvedList(recipientIds))
                                                          .filter(r -> r.getRegistered() != RecipientDatabase.RegisteredState.NOT_REGISTERED)
@@ -251,7 +255,7 @@ public class RetrieveProfileJob extends BaseJob {
 
     List<Pair<Recipient, ListenableFuture<ProfileAndCredential>>> futures = Stream.of(recipients)
                                                                                   .filter(Recipient::hasServiceIdentifier)
-                                                                                  .map(r -> new Pair<>(r, ProfileUtil.retrieveProfile(context, r, getRequestType(r))))
+                                                                                  .map(r -> new Pair<>(r, scheduler.fetch(r, getRequestType(r))))
                                                                                   .toList();
     stopwatch.split("futures");
 
@@ -282,8 +286,12 @@ public class RetrieveProfileJob extends BaseJob {
                                                                  .toList();
     stopwatch.split("network");
 
-    for (Pair<Recipient, ProfileAndCredential> profile : profiles) {
-      process(profile.first(), profile.second());
+    for (List<Pair<Recipient, ProfileAndCredential>> batch : Util.chunk(profiles, PROCESS_BATCH_SIZE)) {
+      recipientDatabase.runInTransaction(() -> {
+        for (Pair<Recipient, ProfileAndCredential> profile : batch) {
+          process(profile.first(), profile.second());
+        }
+      });
     }
 
     Set<RecipientId> success = SetUtil.difference(recipientIds, retries);
@@ -303,7 +311,7 @@ public class RetrieveProfileJob extends BaseJob {
     stopwatch.split("process");
 
     long keyCount = Stream.of(profiles).map(Pair::first).map(Recipient::getProfileKey).withoutNulls().count();
-    Log.d(TAG, String.format(Locale.US, "Started with %d recipient(s). Found %d profile(s), and had keys for %d of them. Will retry %d.", recipients.size(), profiles.size(), keyCount, retries.size()));
+    Log.d(TAG, String.format(Locale.US, "Started with %d recipient(s). Found %d profile(s), and had keys for %d of them. Will retry %d. Scheduler %s", recipients.size(), profiles.size(), keyCount, retries.size(), scheduler.getStats()));
 
     stopwatch.stop(TAG);
 
@@ -478,6 +486,8 @@ public class RetrieveProfileJob extends BaseJob {
   }
 
   private void clearUsername(Recipient recipient) {
+    if (!recipient.getUsername().isPresent()) return;
+
     DatabaseFactory.getRecipientDatabase(context).setUsername(recipient.getId(), null);
   }
 
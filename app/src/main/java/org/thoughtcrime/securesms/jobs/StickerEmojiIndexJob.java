@@ -0,0 +1,84 @@
+package org.thoughtcrime.securesms.jobs;
+
+import androidx.annotation.NonNull;
+
+import org.signal.core.util.logging.Log;
+import org.thoughtcrime.securesms.database.DatabaseFactory;
+import org.thoughtcrime.securesms.dependencies.ApplicationDependencies;
+import org.thoughtcrime.securesms.jobmanager.Data;
+import org.thoughtcrime.securesms.jobmanager.Job;
+import org.thoughtcrime.securesms.keyvalue.SignalStore;
+
+/**
+ * Rebuilds the sticker emoji index from the raw emoji each sticker is tagged with. The index is
+ * keyed by {@link org.thoughtcrime.securesms.components.emoji.EmojiUtil#getSearchKey(String)},
+ * which depends on the bundled emoji data, so it has to be rebuilt whenever that data changes.
+ */
+public final class StickerEmojiIndexJob extends BaseJob {
+
+  public static final String KEY = "StickerEmojiIndexJob";
+
+  private static final String TAG = Log.tag(StickerEmojiIndexJob.class);
+
+  public StickerEmojiIndexJob() {
+    this(new Job.Parameters.Builder()
+                           .setQueue(KEY)
+                           .setMaxInstancesForQueue(1)
+                           .build());
+  }
+
+  private StickerEmojiIndexJob(@NonNull Job.Parameters parameters) {
+    super(parameters);
+  }
+
+  /**
+   * Rebuilds the index if it was built from different emoji data than the app now has, which
+   * includes it never having been built.
+   */
+  public static void enqueueIfNecessary() {
+    if (!SignalStore.emojiValues().isStickerIndexCurrent()) {
+      ApplicationDependencies.getJobManager().add(new StickerEmojiIndexJob());
+    }
+  }
+
+  @Override
+  public @NonNull Data serialize() {
+    return Data.EMPTY;
+  }
+
+  @Override
+  public @NonNull String getFactoryKey() {
+    return KEY;
+  }
+
+  @Override
+  protected void onRun() {
+    if (SignalStore.emojiValues().isStickerIndexCurrent()) {
+      Log.i(TAG, "Index is already current.");
+      return;
+    }
+
+    long start = System.currentTimeMillis();
+    int  count = DatabaseFactory.getStickerDatabase(context).rebuildEmojiIndex();
+
+    SignalStore.emojiValues().markStickerIndexCurrent();
+
+    Log.i(TAG, "Indexed " + count + " stickers in " + (System.currentTimeMillis() - start) + " ms.");
+  }
+
+  @Override
+  protected boolean onShouldRetry(@NonNull Exception e) {
+    return false;
+  }
+
+  @Override
+  public void onFailure() {
+  }
+
+  public static final class Factory implements Job.Factory<StickerEmojiIndexJob> {
+    @Override
+    public @NonNull StickerEmojiIndexJob create(@NonNull Parameters parameters, @NonNull Data data) {
+      return new StickerEmojiIndexJob(parameters);
+    }
+  }
+}
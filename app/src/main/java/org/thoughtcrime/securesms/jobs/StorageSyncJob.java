@@ -30,6 +30,7 @@ import org.thoughtcrime.securesms.storage.StorageSyncHelper.WriteOperationResult
 import org.thoughtcrime.securesms.storage.StorageSyncModels;
 import org.thoughtcrime.securesms.storage.StorageSyncValidations;
 import org.thoughtcrime.securesms.transport.RetryLaterException;
+import org.thoughtcrime.securesms.util.Base64;
 import org.thoughtcrime.securesms.util.GroupUtil;
 import org.thoughtcrime.securesms.util.TextSecurePreferences;
 import org.thoughtcrime.securesms.util.Util;
@@ -306,6 +307,27 @@ public class StorageSyncJob extends BaseJob {
     RecipientDatabase  recipientDatabase  = DatabaseFactory.getRecipientDatabase(context);
     StorageKeyDatabase storageKeyDatabase = DatabaseFactory.getStorageKeyDatabase(context);
 
+    List<byte[]> recipientIds = new ArrayList<>();
+    List<byte[]> unknownIds   = new ArrayList<>();
+
+    for (StorageId id : ids) {
+      switch (id.getType()) {
+        case ManifestRecord.Identifier.Type.CONTACT_VALUE:
+        case ManifestRecord.Identifier.Type.GROUPV1_VALUE:
+        case ManifestRecord.Identifier.Type.GROUPV2_VALUE:
+          recipientIds.add(id.getRaw());
+          break;
+        case ManifestRecord.Identifier.Type.ACCOUNT_VALUE:
+          break;
+        default:
+          unknownIds.add(id.getRaw());
+          break;
+      }
+    }
+
+    Map<String, RecipientSettings>   recipientSettings = recipientDatabase.getByStorageIds(recipientIds);
+    Map<String, SignalStorageRecord> unknownRecords    = storageKeyDatabase.getByIds(unknownIds);
+
     List<SignalStorageRecord> records = new ArrayList<>(ids.size());
 
     for (StorageId id : ids) {
@@ -313,7 +335,7 @@ public class StorageSyncJob extends BaseJob {
         case ManifestRecord.Identifier.Type.CONTACT_VALUE:
         case ManifestRecord.Identifier.Type.GROUPV1_VALUE:
         case ManifestRecord.Identifier.Type.GROUPV2_VALUE:
-          RecipientSettings settings = recipientDatabase.getByStorageId(id.getRaw());
+          RecipientSettings settings = recipientSettings.get(Base64.encodeBytes(id.getRaw()));
           if (settings != null) {
             if (settings.getGroupType() == RecipientDatabase.GroupType.SIGNAL_V2 && settings.getSyncExtras().getGroupMasterKey() == null) {
               Log.w(TAG, "Missing master key on gv2 recipient");
@@ -331,7 +353,7 @@ public class StorageSyncJob extends BaseJob {
           records.add(StorageSyncHelper.buildAccountRecord(context, self));
           break;
         default:
-          SignalStorageRecord unknown = storageKeyDatabase.getById(id.getRaw());
+          SignalStorageRecord unknown = unknownRecords.get(Base64.encodeBytes(id.getRaw()));
           if (unknown != null) {
             records.add(unknown);
           } else {
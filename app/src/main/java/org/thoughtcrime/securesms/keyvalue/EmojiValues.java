@@ -8,6 +8,8 @@ public class EmojiValues extends SignalStoreValues {
 
   private static final String PREFIX = "emojiPref__";
 
+  private static final String STICKER_INDEX_FINGERPRINT = "emoji.sticker_index_fingerprint";
+
   EmojiValues(@NonNull KeyValueStore store) {
     super(store);
   }
@@ -32,4 +34,16 @@ public class EmojiValues extends SignalStoreValues {
 
     return getString(PREFIX + canonical, emoji);
   }
+
+  /**
+   * Whether the sticker emoji index was built from the current emoji data, see
+   * {@link EmojiUtil#SEARCH_KEY_FINGERPRINT}.
+   */
+  public boolean isStickerIndexCurrent() {
+    return getLong(STICKER_INDEX_FINGERPRINT, Long.MIN_VALUE) == EmojiUtil.SEARCH_KEY_FINGERPRINT;
+  }
+
+  public void markStickerIndexCurrent() {
+    putLong(STICKER_INDEX_FINGERPRINT, EmojiUtil.SEARCH_KEY_FINGERPRINT);
+  }
 }
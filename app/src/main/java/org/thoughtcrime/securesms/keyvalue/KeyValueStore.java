@@ -6,19 +6,23 @@ import android.content.Context;
 import androidx.annotation.AnyThread;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
 import androidx.annotation.WorkerThread;
 
 import org.signal.core.util.concurrent.SignalExecutors;
 import org.signal.core.util.logging.Log;
-import org.thoughtcrime.securesms.database.DatabaseFactory;
 import org.thoughtcrime.securesms.database.KeyValueDatabase;
 import org.thoughtcrime.securesms.util.SignalUncaughtExceptionHandler;
 
 import java.util.Collection;
 import java.util.HashSet;
+import java.util.Locale;
 import java.util.Set;
 import java.util.concurrent.CountDownLatch;
-import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * An replacement for {@link android.content.SharedPreferences} that stores key-value pairs in our
@@ -26,64 +30,87 @@ import java.util.concurrent.ExecutorService;
  *
  * Implemented as a write-through cache that is safe to read and write to on the main thread.
  *
- * Writes are enqueued on a separate executor, but writes are finished up in
- * {@link SignalUncaughtExceptionHandler}, meaning all write should finish barring a native crash
- * or the system killing us unexpectedly (i.e. a force-stop).
+ * Reads never lock: every write publishes a new copy of the data set, so readers always see a
+ * complete, immutable snapshot.
+ *
+ * Writes are enqueued on a separate executor and coalesced there, so a burst of writes to the same
+ * keys lands in the database as a single transaction. Pending writes are flushed after
+ * {@link #FLUSH_DELAY_MS}, as soon as {@link #FLUSH_THRESHOLD} keys are pending, or when someone
+ * calls {@link #blockUntilAllWritesFinished()}. That includes {@link SignalUncaughtExceptionHandler},
+ * meaning all write should finish barring a native crash or the system killing us unexpectedly
+ * (i.e. a force-stop).
+ *
+ * If a flush fails, its keys are put back with whatever is pending and tried again after
+ * {@link #RETRY_DELAY_MS}, so the database eventually catches up with what's in memory.
  */
 public final class KeyValueStore implements KeyValueReader {
 
   private static final String TAG = Log.tag(KeyValueStore.class);
 
-  private final ExecutorService  executor;
-  private final KeyValueDatabase database;
+  private static final long FLUSH_DELAY_MS       = 250;
+  private static final int  FLUSH_THRESHOLD      = 64;
+  private static final long SLOW_FLUSH_THRESHOLD = 100;
+  private static final long RETRY_DELAY_MS       = 1000;
+
+  private final ScheduledExecutorService executor;
+  private final KeyValueDatabase         database;
+  private final ReentrantLock            writeLock;
+  private final WriteStats               stats;
+
+  private volatile KeyValueDataSet dataSet;
 
-  private KeyValueDataSet dataSet;
+  private KeyValueDataSet pendingWrites;
+  private Set<String>     pendingRemoves;
+  private boolean         flushScheduled;
 
   public KeyValueStore(@NonNull Application application) {
-    this.executor = SignalExecutors.newCachedSingleThreadExecutor("signal-KeyValueStore");
-    this.database = KeyValueDatabase.getInstance(application);
+    this(SignalExecutors.newSingleThreadScheduledExecutor("signal-KeyValueStore"), KeyValueDatabase.getInstance(application));
+  }
+
+  @VisibleForTesting
+  KeyValueStore(@NonNull ScheduledExecutorService executor, @NonNull KeyValueDatabase database) {
+    this.executor       = executor;
+    this.database       = database;
+    this.writeLock      = new ReentrantLock();
+    this.stats          = new WriteStats();
+    this.pendingWrites  = new KeyValueDataSet();
+    this.pendingRemoves = new HashSet<>();
   }
 
   @AnyThread
   @Override
-  public synchronized byte[] getBlob(@NonNull String key, byte[] defaultValue) {
-    initializeIfNecessary();
-    return dataSet.getBlob(key, defaultValue);
+  public byte[] getBlob(@NonNull String key, byte[] defaultValue) {
+    return getDataSet().getBlob(key, defaultValue);
   }
 
   @AnyThread
   @Override
-  public synchronized boolean getBoolean(@NonNull String key, boolean defaultValue) {
-    initializeIfNecessary();
-    return dataSet.getBoolean(key, defaultValue);
+  public boolean getBoolean(@NonNull String key, boolean defaultValue) {
+    return getDataSet().getBoolean(key, defaultValue);
   }
 
   @AnyThread
   @Override
-  public synchronized float getFloat(@NonNull String key, float defaultValue) {
-    initializeIfNecessary();
-    return dataSet.getFloat(key, defaultValue);
+  public float getFloat(@NonNull String key, float defaultValue) {
+    return getDataSet().getFloat(key, defaultValue);
   }
 
   @AnyThread
   @Override
-  public synchronized int getInteger(@NonNull String key, int defaultValue) {
-    initializeIfNecessary();
-    return dataSet.getInteger(key, defaultValue);
+  public int getInteger(@NonNull String key, int defaultValue) {
+    return getDataSet().getInteger(key, defaultValue);
   }
 
   @AnyThread
   @Override
-  public synchronized long getLong(@NonNull String key, long defaultValue) {
-    initializeIfNecessary();
-    return dataSet.getLong(key, defaultValue);
+  public long getLong(@NonNull String key, long defaultValue) {
+    return getDataSet().getLong(key, defaultValue);
   }
 
   @AnyThread
   @Override
-  public synchronized String getString(@NonNull String key, String defaultValue) {
-    initializeIfNecessary();
-    return dataSet.getString(key, defaultValue);
+  public String getString(@NonNull String key, String defaultValue) {
+    return getDataSet().getString(key, defaultValue);
   }
 
   /**
@@ -101,23 +128,24 @@ public final class KeyValueStore implements KeyValueReader {
    *         efficient to use the various get* methods instead.
    */
   @AnyThread
-  synchronized @NonNull KeyValueReader beginRead() {
-    initializeIfNecessary();
-
-    KeyValueDataSet copy = new KeyValueDataSet();
-    copy.putAll(dataSet);
-
-    return copy;
+  @NonNull KeyValueReader beginRead() {
+    return getDataSet();
   }
 
   /**
    * Ensures that any pending writes (such as those made via {@link Writer#apply()}) are finished.
    */
   @AnyThread
-  synchronized void blockUntilAllWritesFinished() {
+  void blockUntilAllWritesFinished() {
     CountDownLatch latch = new CountDownLatch(1);
 
-    executor.execute(latch::countDown);
+    executor.execute(() -> {
+      try {
+        flush();
+      } finally {
+        latch.countDown();
+      }
+    });
 
     try {
       latch.await();
@@ -126,19 +154,163 @@ public final class KeyValueStore implements KeyValueReader {
     }
   }
 
+  /**
+   * @return A summary of how writes have been batched so far, for debug logs.
+   */
+  @AnyThread
+  @NonNull String getWriteStats() {
+    return stats.toString();
+  }
+
+  private void write(@NonNull KeyValueDataSet newDataSet, @NonNull Collection<String> removes) {
+    lockForWrite();
+
+    try {
+      KeyValueDataSet updated = new KeyValueDataSet();
+      updated.putAll(getDataSet());
+      updated.putAll(newDataSet);
+      updated.removeAll(removes);
+
+      dataSet = updated;
+
+      pendingWrites.putAll(newDataSet);
+      pendingWrites.removeAll(removes);
+      pendingRemoves.removeAll(newDataSet.getValues().keySet());
+      pendingRemoves.addAll(removes);
+
+      stats.applies.incrementAndGet();
+
+      if (pendingWrites.getValues().size() + pendingRemoves.size() >= FLUSH_THRESHOLD) {
+        executor.execute(this::flush);
+        flushScheduled = true;
+      } else if (!flushScheduled) {
+        executor.schedule(this::flush, FLUSH_DELAY_MS, TimeUnit.MILLISECONDS);
+        flushScheduled = true;
+      }
+    } finally {
+      writeLock.unlock();
+    }
+  }
+
+  /**
+   * Writes out everything that's pending in one transaction. Only ever run on the executor, so
+   * flushes can't reorder.
+   */
+  private void flush() {
+    KeyValueDataSet writes;
+    Set<String>     removes;
+
+    lockForWrite();
+
+    try {
+      flushScheduled = false;
+
+      if (pendingWrites.getValues().isEmpty() && pendingRemoves.isEmpty()) {
+        return;
+      }
+
+      writes         = pendingWrites;
+      removes        = pendingRemoves;
+      pendingWrites  = new KeyValueDataSet();
+      pendingRemoves = new HashSet<>();
+    } finally {
+      writeLock.unlock();
+    }
+
+    long start = System.currentTimeMillis();
+
+    try {
+      database.writeDataSet(writes, removes);
+    } catch (RuntimeException e) {
+      Log.e(TAG, "Failed to flush " + (writes.getValues().size() + removes.size()) + " keys. Trying again in " + RETRY_DELAY_MS + " ms.", e);
+      restorePending(writes, removes);
+      return;
+    }
+
+    long duration = System.currentTimeMillis() - start;
+
+    stats.flushes.incrementAndGet();
+    stats.keysFlushed.addAndGet(writes.getValues().size() + removes.size());
+    stats.flushTime.addAndGet(duration);
+
+    if (duration > SLOW_FLUSH_THRESHOLD) {
+      Log.w(TAG, "Slow flush of " + (writes.getValues().size() + removes.size()) + " keys took " + duration + " ms. " + stats);
+    }
+  }
+
+  /**
+   * Puts the keys from a failed flush back in front of whatever was written since, and schedules
+   * another flush.
+   */
+  private void restorePending(@NonNull KeyValueDataSet writes, @NonNull Set<String> removes) {
+    lockForWrite();
+
+    try {
+      writes.removeAll(pendingRemoves);
+      writes.putAll(pendingWrites);
+      removes.removeAll(pendingWrites.getValues().keySet());
+      removes.addAll(pendingRemoves);
+
+      pendingWrites  = writes;
+      pendingRemoves = removes;
+
+      stats.failedFlushes.incrementAndGet();
+
+      if (!flushScheduled) {
+        executor.schedule(this::flush, RETRY_DELAY_MS, TimeUnit.MILLISECONDS);
+        flushScheduled = true;
+      }
+    } finally {
+      writeLock.unlock();
+    }
+  }
+
+  private void lockForWrite() {
+    if (!writeLock.tryLock()) {
+      stats.contendedLocks.incrementAndGet();
+      writeLock.lock();
+    }
+  }
 
-  private synchronized void write(@NonNull KeyValueDataSet newDataSet, @NonNull Collection<String> removes) {
-    initializeIfNecessary();
+  private @NonNull KeyValueDataSet getDataSet() {
+    KeyValueDataSet current = dataSet;
 
-    dataSet.putAll(newDataSet);
-    dataSet.removeAll(removes);
+    if (current == null) {
+      writeLock.lock();
+      try {
+        if (dataSet == null) {
+          dataSet = database.getDataSet();
+        }
+        current = dataSet;
+      } finally {
+        writeLock.unlock();
+      }
+    }
 
-    executor.execute(() -> database.writeDataSet(newDataSet, removes));
+    return current;
   }
 
-  private void initializeIfNecessary() {
-    if (dataSet != null) return;
-    this.dataSet = database.getDataSet();
+  private static final class WriteStats {
+    private final AtomicLong applies        = new AtomicLong();
+    private final AtomicLong flushes        = new AtomicLong();
+    private final AtomicLong keysFlushed    = new AtomicLong();
+    private final AtomicLong flushTime      = new AtomicLong();
+    private final AtomicLong failedFlushes  = new AtomicLong();
+    private final AtomicLong contendedLocks = new AtomicLong();
+
+    @Override
+    public @NonNull String toString() {
+      long flushCount = flushes.get();
+
+      return String.format(Locale.US,
+                           "applies: %d, flushes: %d, keys flushed: %d, avg flush: %d ms, failed flushes: %d, contended locks: %d",
+                           applies.get(),
+                           flushCount,
+                           keysFlushed.get(),
+                           flushCount > 0 ? flushTime.get() / flushCount : 0,
+                           failedFlushes.get(),
+                           contendedLocks.get());
+    }
   }
 
   class Writer {
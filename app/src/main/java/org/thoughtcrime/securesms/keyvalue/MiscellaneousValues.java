@@ -1,6 +1,7 @@
 package org.thoughtcrime.securesms.keyvalue;
 
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 
 public final class MiscellaneousValues extends SignalStoreValues {
 
@@ -10,6 +11,11 @@ public final class MiscellaneousValues extends SignalStoreValues {
   private static final String LAST_GV1_ROUTINE_MIGRATION_TIME  = "misc.last_gv1_routine_migration_time";
   private static final String USERNAME_SHOW_REMINDER           = "username.show.reminder";
   private static final String CLIENT_DEPRECATED                = "misc.client_deprecated";
+  private static final String ATTACHMENT_CLEANUP_CURSOR        = "misc.attachment_cleanup_cursor";
+  private static final String ATTACHMENT_CLEANUP_RECLAIMED     = "misc.attachment_cleanup_reclaimed";
+  private static final String LAST_FULL_CDS_REFRESH_TIME       = "misc.last_full_cds_refresh_time";
+  private static final String LAST_COMPLETE_CONTACT_SYNC_TIME  = "misc.last_complete_contact_sync_time";
+  private static final String LAST_CONTACT_SYNC_DIGEST         = "misc.last_contact_sync_digest";
 
   MiscellaneousValues(@NonNull KeyValueStore store) {
     super(store);
@@ -67,4 +73,54 @@ public final class MiscellaneousValues extends SignalStoreValues {
   public void clearClientDeprecated() {
     putBoolean(CLIENT_DEPRECATED, false);
   }
+
+  /**
+   * The name of the last attachment file checked by the incremental attachment file cleanup, or an
+   * empty string if the next pass should start from the beginning of the directory.
+   */
+  public @NonNull String getAttachmentCleanupCursor() {
+    return getString(ATTACHMENT_CLEANUP_CURSOR, "");
+  }
+
+  public void setAttachmentCleanupCursor(@NonNull String cursor) {
+    putString(ATTACHMENT_CLEANUP_CURSOR, cursor);
+  }
+
+  public long getAttachmentCleanupBytesReclaimed() {
+    return getLong(ATTACHMENT_CLEANUP_RECLAIMED, 0);
+  }
+
+  public void addAttachmentCleanupBytesReclaimed(long bytes) {
+    putLong(ATTACHMENT_CLEANUP_RECLAIMED, getAttachmentCleanupBytesReclaimed() + bytes);
+  }
+
+  public long getLastFullCdsRefreshTime() {
+    return getLong(LAST_FULL_CDS_REFRESH_TIME, 0);
+  }
+
+  public void setLastFullCdsRefreshTime(long time) {
+    putLong(LAST_FULL_CDS_REFRESH_TIME, time);
+  }
+
+  /**
+   * The last time a contact sync containing every contact was sent to linked devices.
+   */
+  public long getLastCompleteContactSyncTime() {
+    return getLong(LAST_COMPLETE_CONTACT_SYNC_TIME, 0);
+  }
+
+  public void setLastCompleteContactSyncTime(long time) {
+    putLong(LAST_COMPLETE_CONTACT_SYNC_TIME, time);
+  }
+
+  /**
+   * The SHA-256 of the last complete contact sync that was sent, or null if unknown.
+   */
+  public @Nullable byte[] getLastContactSyncDigest() {
+    return getBlob(LAST_CONTACT_SYNC_DIGEST, null);
+  }
+
+  public void setLastContactSyncDigest(@Nullable byte[] digest) {
+    putBlob(LAST_CONTACT_SYNC_DIGEST, digest);
+  }
 }
@@ -150,6 +150,13 @@ public final class SignalStore {
     getStore().blockUntilAllWritesFinished();
   }
 
+  /**
+   * @return A summary of how writes to the store have been batched, for debug logs.
+   */
+  public static @NonNull String getWriteStats() {
+    return getStore().getWriteStats();
+  }
+
   private static @NonNull KeyValueStore getStore() {
     return INSTANCE.store;
   }
@@ -0,0 +1,285 @@
+package org.thoughtcrime.securesms.linkpreview;
+
+import android.content.Context;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
+import androidx.annotation.WorkerThread;
+
+import org.signal.core.util.logging.Log;
+import org.thoughtcrime.securesms.crypto.AttachmentSecret;
+import org.thoughtcrime.securesms.crypto.AttachmentSecretProvider;
+import org.thoughtcrime.securesms.crypto.ModernDecryptingPartInputStream;
+import org.thoughtcrime.securesms.crypto.ModernEncryptingPartOutputStream;
+import org.thoughtcrime.securesms.util.ByteUnit;
+import org.thoughtcrime.securesms.util.Hex;
+import org.thoughtcrime.securesms.util.LRUCache;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Remembers the link previews we've recently built, so that typing, editing or pasting the same
+ * link again doesn't go back to the network.
+ *
+ * Entries are kept in memory and on disk in the cache directory, encrypted with the attachment
+ * secret and named after a hash of their URL, so that neither the links nor their contents are
+ * readable from outside the app. An entry expires {@link #TTL} after it was fetched.
+ */
+final class LinkPreviewCache {
+
+  private static final String TAG = Log.tag(LinkPreviewCache.class);
+
+  @VisibleForTesting
+  static final long TTL = TimeUnit.DAYS.toMillis(1);
+
+  private static final String DIRECTORY          = "link_previews";
+  private static final int    VERSION            = 1;
+  private static final int    MAX_DISK_ENTRIES   = 100;
+  private static final int    MAX_MEMORY_ENTRIES = 20;
+  private static final long   MAX_THUMBNAIL_SIZE = ByteUnit.MEGABYTES.toBytes(2);
+
+  private static volatile LinkPreviewCache instance;
+
+  private final File               directory;
+  private final AttachmentSecret   attachmentSecret;
+  private final Map<String, Entry> memoryCache;
+
+  static @NonNull LinkPreviewCache getInstance(@NonNull Context context) {
+    if (instance == null) {
+      synchronized (LinkPreviewCache.class) {
+        if (instance == null) {
+          instance = new LinkPreviewCache(new File(context.getCacheDir(), DIRECTORY),
+                                          AttachmentSecretProvider.getInstance(context).getOrCreateAttachmentSecret());
+        }
+      }
+    }
+
+    return instance;
+  }
+
+  @VisibleForTesting
+  LinkPreviewCache(@NonNull File directory, @NonNull AttachmentSecret attachmentSecret) {
+    this.directory        = directory;
+    this.attachmentSecret = attachmentSecret;
+    this.memoryCache      = new LRUCache<>(MAX_MEMORY_ENTRIES);
+  }
+
+  /**
+   * @return The preview cached for this URL, or null if there is none or it has expired.
+   */
+  @WorkerThread
+  synchronized @Nullable Entry get(@NonNull String url) {
+    Entry entry = memoryCache.get(url);
+
+    if (entry == null) {
+      entry = read(getFile(url));
+
+      if (entry != null) {
+        memoryCache.put(url, entry);
+      }
+    }
+
+    if (entry != null && entry.isExpired(System.currentTimeMillis())) {
+      remove(url);
+      return null;
+    }
+
+    return entry;
+  }
+
+  @WorkerThread
+  synchronized void put(@NonNull String url, @NonNull Entry entry) {
+    memoryCache.put(url, entry);
+
+    if (!directory.exists() && !directory.mkdirs()) {
+      Log.w(TAG, "Unable to create the cache directory.");
+      return;
+    }
+
+    File file = getFile(url);
+    File temp = new File(directory, file.getName() + ".tmp");
+
+    try (DataOutputStream out = new DataOutputStream(ModernEncryptingPartOutputStream.createFor(attachmentSecret, temp, true).second)) {
+      entry.write(out);
+    } catch (IOException e) {
+      Log.w(TAG, "Failed to write a cache entry.", e);
+      temp.delete();
+      return;
+    }
+
+    if (!temp.renameTo(file)) {
+      Log.w(TAG, "Failed to move a cache entry into place.");
+      temp.delete();
+      return;
+    }
+
+    trim();
+  }
+
+  private void remove(@NonNull String url) {
+    memoryCache.remove(url);
+    getFile(url).delete();
+  }
+
+  private @Nullable Entry read(@NonNull File file) {
+    if (!file.exists()) {
+      return null;
+    }
+
+    try (DataInputStream in = new DataInputStream(ModernDecryptingPartInputStream.createFor(attachmentSecret, file, 0))) {
+      return Entry.read(in);
+    } catch (IOException e) {
+      Log.w(TAG, "Failed to read a cache entry, dropping it.", e);
+      file.delete();
+      return null;
+    }
+  }
+
+  private void trim() {
+    File[] files = directory.listFiles();
+
+    if (files == null || files.length <= MAX_DISK_ENTRIES) {
+      return;
+    }
+
+    Arrays.sort(files, (a, b) -> Long.compare(a.lastModified(), b.lastModified()));
+
+    for (int i = 0; i < files.length - MAX_DISK_ENTRIES; i++) {
+      files[i].delete();
+    }
+  }
+
+  private @NonNull File getFile(@NonNull String url) {
+    try {
+      byte[] hash = MessageDigest.getInstance("SHA-256").digest(url.getBytes("UTF-8"));
+      return new File(directory, Hex.toStringCondensed(hash));
+    } catch (NoSuchAlgorithmException | UnsupportedEncodingException e) {
+      throw new AssertionError(e);
+    }
+  }
+
+  static final class Entry {
+    private final String    title;
+    private final String    description;
+    private final long      date;
+    private final Thumbnail thumbnail;
+    private final long      fetchedAt;
+
+    Entry(@NonNull String title, @NonNull String description, long date, @Nullable Thumbnail thumbnail, long fetchedAt) {
+      this.title       = title;
+      this.description = description;
+      this.date        = date;
+      this.thumbnail   = thumbnail;
+      this.fetchedAt   = fetchedAt;
+    }
+
+    @NonNull String getTitle() {
+      return title;
+    }
+
+    @NonNull String getDescription() {
+      return description;
+    }
+
+    long getDate() {
+      return date;
+    }
+
+    @Nullable Thumbnail getThumbnail() {
+      return thumbnail;
+    }
+
+    boolean isExpired(long now) {
+      return now - fetchedAt > TTL || now < fetchedAt;
+    }
+
+    private void write(@NonNull DataOutputStream out) throws IOException {
+      out.writeInt(VERSION);
+      out.writeLong(fetchedAt);
+      out.writeUTF(title);
+      out.writeUTF(description);
+      out.writeLong(date);
+      out.writeBoolean(thumbnail != null);
+
+      if (thumbnail != null) {
+        out.writeUTF(thumbnail.contentType);
+        out.writeInt(thumbnail.width);
+        out.writeInt(thumbnail.height);
+        out.writeInt(thumbnail.data.length);
+        out.write(thumbnail.data);
+      }
+    }
+
+    private static @NonNull Entry read(@NonNull DataInputStream in) throws IOException {
+      int version = in.readInt();
+
+      if (version != VERSION) {
+        throw new IOException("Unknown version " + version);
+      }
+
+      long      fetchedAt   = in.readLong();
+      String    title       = in.readUTF();
+      String    description = in.readUTF();
+      long      date        = in.readLong();
+      Thumbnail thumbnail   = null;
+
+      if (in.readBoolean()) {
+        String contentType = in.readUTF();
+        int    width       = in.readInt();
+        int    height      = in.readInt();
+        int    length      = in.readInt();
+
+        if (length < 0 || length > MAX_THUMBNAIL_SIZE) {
+          throw new IOException("Bad thumbnail length " + length);
+        }
+
+        byte[] data = new byte[length];
+        in.readFully(data);
+
+        thumbnail = new Thumbnail(data, contentType, width, height);
+      }
+
+      return new Entry(title, description, date, thumbnail, fetchedAt);
+    }
+  }
+
+  static final class Thumbnail {
+    private final byte[] data;
+    private final String contentType;
+    private final int    width;
+    private final int    height;
+
+    Thumbnail(@NonNull byte[] data, @NonNull String contentType, int width, int height) {
+      this.data        = data;
+      this.contentType = contentType;
+      this.width       = width;
+      this.height      = height;
+    }
+
+    @NonNull byte[] getData() {
+      return data;
+    }
+
+    @NonNull String getContentType() {
+      return contentType;
+    }
+
+    int getWidth() {
+      return width;
+    }
+
+    int getHeight() {
+      return height;
+    }
+  }
+}
@@ -7,6 +7,7 @@ import android.net.Uri;
 
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
 import androidx.core.util.Consumer;
 
 import com.bumptech.glide.load.engine.DiskCacheStrategy;
@@ -62,6 +63,7 @@ import okhttp3.Call;
 import okhttp3.OkHttpClient;
 import okhttp3.Request;
 import okhttp3.Response;
+import okhttp3.ResponseBody;
 
 public class LinkPreviewRepository {
 
@@ -72,6 +74,8 @@ public class LinkPreviewRepository {
   private static final long FAILSAFE_MAX_TEXT_SIZE  = ByteUnit.MEGABYTES.toBytes(2);
   private static final long FAILSAFE_MAX_IMAGE_SIZE = ByteUnit.MEGABYTES.toBytes(2);
 
+  private static final int THUMBNAIL_SIZE = 512;
+
   private final OkHttpClient client;
 
   public LinkPreviewRepository() {
@@ -104,31 +108,59 @@ public class LinkPreviewRepository {
     } else if (GroupInviteLinkUrl.isGroupLink(url)) {
       metadataController = fetchGroupLinkPreview(context, url, callback);
     } else {
-      metadataController = fetchMetadata(url, metadata -> {
+      metadataController = fetchCachedOrRemotePreview(LinkPreviewCache.getInstance(context), url, compositeController, callback);
+    }
+
+    compositeController.addController(metadataController);
+    return compositeController;
+  }
+
+  private @NonNull RequestController fetchCachedOrRemotePreview(@NonNull LinkPreviewCache cache,
+                                                               @NonNull String url,
+                                                               @NonNull CompositeRequestController compositeController,
+                                                               @NonNull Callback callback)
+  {
+    SignalExecutors.BOUNDED.execute(() -> {
+      LinkPreviewCache.Entry cached = cache.get(url);
+
+      if (cached != null) {
+        if (!compositeController.isCanceled()) {
+          Log.i(TAG, "Using a cached link preview.");
+          callback.onSuccess(new LinkPreview(url, cached.getTitle(), cached.getDescription(), cached.getDate(), thumbnailToAttachment(cached.getThumbnail())));
+        }
+        return;
+      }
+
+      compositeController.addController(fetchMetadata(url, metadata -> {
         if (metadata.isEmpty()) {
           callback.onError(Error.PREVIEW_NOT_AVAILABLE);
           return;
         }
 
         if (!metadata.getImageUrl().isPresent()) {
+          cache.put(url, new LinkPreviewCache.Entry(metadata.getTitle().or(""), metadata.getDescription().or(""), metadata.getDate(), null, System.currentTimeMillis()));
           callback.onSuccess(new LinkPreview(url, metadata.getTitle().or(""), metadata.getDescription().or(""), metadata.getDate(), Optional.absent()));
           return;
         }
 
-        RequestController imageController = fetchThumbnail(metadata.getImageUrl().get(), attachment -> {
-          if (!metadata.getTitle().isPresent() && !attachment.isPresent()) {
+        RequestController imageController = fetchThumbnail(metadata.getImageUrl().get(), thumbnail -> {
+          if (!metadata.getTitle().isPresent() && !thumbnail.isPresent()) {
             callback.onError(Error.PREVIEW_NOT_AVAILABLE);
-          } else {
-            callback.onSuccess(new LinkPreview(url, metadata.getTitle().or(""), metadata.getDescription().or(""), metadata.getDate(), attachment));
+            return;
+          }
+
+          if (thumbnail.isPresent()) {
+            cache.put(url, new LinkPreviewCache.Entry(metadata.getTitle().or(""), metadata.getDescription().or(""), metadata.getDate(), thumbnail.get(), System.currentTimeMillis()));
           }
+
+          callback.onSuccess(new LinkPreview(url, metadata.getTitle().or(""), metadata.getDescription().or(""), metadata.getDate(), thumbnailToAttachment(thumbnail.orNull())));
         });
 
         compositeController.addController(imageController);
-      });
-    }
+      }));
+    });
 
-    compositeController.addController(metadataController);
-    return compositeController;
+    return () -> Log.i(TAG, "Cancelled link preview lookup.");
   }
 
   private @NonNull RequestController fetchMetadata(@NonNull String url, Consumer<Metadata> callback) {
@@ -145,16 +177,23 @@ public class LinkPreviewRepository {
       public void onResponse(@NonNull Call call, @NonNull Response response) throws IOException {
         if (!response.isSuccessful()) {
           Log.w(TAG, "Non-successful response. Code: " + response.code());
+          response.close();
           callback.accept(Metadata.empty());
           return;
         } else if (response.body() == null) {
           Log.w(TAG, "No response body.");
+          response.close();
           callback.accept(Metadata.empty());
           return;
         }
 
-        String           body        = OkHttpUtil.readAsString(response.body(), FAILSAFE_MAX_TEXT_SIZE);
-        OpenGraph        openGraph   = LinkPreviewUtil.parseOpenGraphFields(body);
+        String head;
+
+        try (ResponseBody body = response.body()) {
+          head = LinkPreviewUtil.readHtmlHead(body, FAILSAFE_MAX_TEXT_SIZE);
+        }
+
+        OpenGraph        openGraph   = LinkPreviewUtil.parseOpenGraphFields(head);
         Optional<String> title       = openGraph.getTitle();
         Optional<String> description = openGraph.getDescription();
         Optional<String> imageUrl    = openGraph.getImageUrl();
@@ -172,23 +211,24 @@ public class LinkPreviewRepository {
     return new CallRequestController(call);
   }
 
-  private @NonNull RequestController fetchThumbnail(@NonNull String imageUrl, @NonNull Consumer<Optional<Attachment>> callback) {
+  private @NonNull RequestController fetchThumbnail(@NonNull String imageUrl, @NonNull Consumer<Optional<LinkPreviewCache.Thumbnail>> callback) {
     Call                  call       = client.newCall(new Request.Builder().url(imageUrl).build());
     CallRequestController controller = new CallRequestController(call);
 
     SignalExecutors.UNBOUNDED.execute(() -> {
-      try {
-        Response response = call.execute();
+      try (Response response = call.execute()) {
         if (!response.isSuccessful() || response.body() == null) {
+          Log.w(TAG, "Failed to fetch the link preview image. Code: " + response.code());
+          callback.accept(Optional.absent());
           return;
         }
 
         InputStream bodyStream = response.body().byteStream();
         controller.setStream(bodyStream);
 
-        byte[]               data      = OkHttpUtil.readAsBytes(bodyStream, FAILSAFE_MAX_IMAGE_SIZE);
-        Bitmap               bitmap    = BitmapFactory.decodeByteArray(data, 0, data.length);
-        Optional<Attachment> thumbnail = bitmapToAttachment(bitmap, Bitmap.CompressFormat.JPEG, MediaUtil.IMAGE_JPEG);
+        byte[]                               data      = OkHttpUtil.readAsBytes(bodyStream, FAILSAFE_MAX_IMAGE_SIZE);
+        Bitmap                               bitmap    = decodeThumbnail(data);
+        Optional<LinkPreviewCache.Thumbnail> thumbnail = bitmapToThumbnail(bitmap, Bitmap.CompressFormat.JPEG, MediaUtil.IMAGE_JPEG);
 
         if (bitmap != null) bitmap.recycle();
 
@@ -319,9 +359,50 @@ public class LinkPreviewRepository {
                                      memberCount);
   }
 
+  /**
+   * Decodes only as many pixels as the preview needs, rather than the full resolution of whatever
+   * image the page links to.
+   */
+  private static @Nullable Bitmap decodeThumbnail(@NonNull byte[] data) {
+    BitmapFactory.Options options = new BitmapFactory.Options();
+
+    options.inJustDecodeBounds = true;
+    BitmapFactory.decodeByteArray(data, 0, data.length, options);
+
+    if (options.outWidth <= 0 || options.outHeight <= 0) {
+      return null;
+    }
+
+    options.inJustDecodeBounds = false;
+    options.inSampleSize       = getSampleSize(options.outWidth, options.outHeight, THUMBNAIL_SIZE);
+
+    return BitmapFactory.decodeByteArray(data, 0, data.length, options);
+  }
+
+  /**
+   * @return The largest power of two we can scale down by while keeping both sides at least targetSize.
+   */
+  @VisibleForTesting
+  static int getSampleSize(int width, int height, int targetSize) {
+    int sampleSize = 1;
+
+    while (width / (sampleSize * 2) >= targetSize && height / (sampleSize * 2) >= targetSize) {
+      sampleSize *= 2;
+    }
+
+    return sampleSize;
+  }
+
   private static Optional<Attachment> bitmapToAttachment(@Nullable Bitmap bitmap,
                                                          @NonNull Bitmap.CompressFormat format,
                                                          @NonNull String contentType)
+  {
+    return thumbnailToAttachment(bitmapToThumbnail(bitmap, format, contentType).orNull());
+  }
+
+  private static Optional<LinkPreviewCache.Thumbnail> bitmapToThumbnail(@Nullable Bitmap bitmap,
+                                                                        @NonNull Bitmap.CompressFormat format,
+                                                                        @NonNull String contentType)
   {
     if (bitmap == null) {
       return Optional.absent();
@@ -331,15 +412,23 @@ public class LinkPreviewRepository {
 
     bitmap.compress(format, 80, baos);
 
-    byte[] bytes = baos.toByteArray();
+    return Optional.of(new LinkPreviewCache.Thumbnail(baos.toByteArray(), contentType, bitmap.getWidth(), bitmap.getHeight()));
+  }
+
+  private static Optional<Attachment> thumbnailToAttachment(@Nullable LinkPreviewCache.Thumbnail thumbnail) {
+    if (thumbnail == null) {
+      return Optional.absent();
+    }
+
+    byte[] bytes = thumbnail.getData();
     Uri    uri   = BlobProvider.getInstance().forData(bytes).createForSingleSessionInMemory();
 
     return Optional.of(new UriAttachment(uri,
-                                         contentType,
+                                         thumbnail.getContentType(),
                                          AttachmentDatabase.TRANSFER_PROGRESS_STARTED,
                                          bytes.length,
-                                         bitmap.getWidth(),
-                                         bitmap.getHeight(),
+                                         thumbnail.getWidth(),
+                                         thumbnail.getHeight(),
                                          null,
                                          null,
                                          false,
@@ -22,6 +22,10 @@ import org.thoughtcrime.securesms.util.Util;
 import org.whispersystems.libsignal.util.guava.Optional;
 import org.whispersystems.signalservice.api.util.OptionalUtil;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
@@ -31,6 +35,10 @@ import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 import okhttp3.HttpUrl;
+import okhttp3.MediaType;
+import okhttp3.ResponseBody;
+
+import static okhttp3.internal.Util.UTF_8;
 
 public final class LinkPreviewUtil {
 
@@ -48,6 +56,8 @@ public final class LinkPreviewUtil {
 
   private static final Set<String> INVALID_TOP_LEVEL_DOMAINS = SetUtil.newHashSet("onion", "i2p");
 
+  private static final byte[] HEAD_END_TAG = { '<', '/', 'h', 'e', 'a', 'd' };
+
   /**
    * @return All whitelisted URLs in the source text.
    */
@@ -98,6 +108,55 @@ public final class LinkPreviewUtil {
     }
   }
 
+  /**
+   * Reads an HTML response up to and including its closing head tag, which is all we need to build
+   * a preview, and never more than sizeLimit bytes. Unlike reading the whole body, pages that are
+   * larger than the limit are not an error: whatever was read by then is returned.
+   */
+  public static @NonNull String readHtmlHead(@NonNull ResponseBody body, long sizeLimit) throws IOException {
+    MediaType contentType = body.contentType();
+    Charset   charset     = contentType != null ? contentType.charset(UTF_8) : UTF_8;
+
+    return readHtmlHead(body.byteStream(), charset != null ? charset : UTF_8, sizeLimit);
+  }
+
+  @VisibleForTesting
+  static @NonNull String readHtmlHead(@NonNull InputStream inputStream, @NonNull Charset charset, long sizeLimit) throws IOException {
+    ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+
+    byte[] buffer      = new byte[8192];
+    long   totalLength = 0;
+    int    matched     = 0;
+
+    while (totalLength < sizeLimit) {
+      int readLength = inputStream.read(buffer, 0, (int) Math.min(buffer.length, sizeLimit - totalLength));
+
+      if (readLength < 0) {
+        break;
+      }
+
+      for (int i = 0; i < readLength; i++) {
+        byte lower = (byte) Character.toLowerCase(buffer[i]);
+
+        if (lower == HEAD_END_TAG[matched]) {
+          matched++;
+        } else {
+          matched = lower == HEAD_END_TAG[0] ? 1 : 0;
+        }
+
+        if (matched == HEAD_END_TAG.length) {
+          outputStream.write(buffer, 0, i + 1);
+          return new String(outputStream.toByteArray(), charset);
+        }
+      }
+
+      outputStream.write(buffer, 0, readLength);
+      totalLength += readLength;
+    }
+
+    return new String(outputStream.toByteArray(), charset);
+  }
+
   public static @NonNull OpenGraph parseOpenGraphFields(@Nullable String html) {
     return parseOpenGraphFields(html, text -> Html.fromHtml(text).toString());
   }
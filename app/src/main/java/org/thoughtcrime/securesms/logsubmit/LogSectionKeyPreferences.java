@@ -24,6 +24,7 @@ final class LogSectionKeyPreferences implements LogSection {
                               .append("Default SMS          : ").append(Util.isDefaultSmsProvider(context)).append("\n")
                               .append("Prefer Contact Photos: ").append(SignalStore.settings().isPreferSystemContactPhotos()).append("\n")
                               .append("Call Bandwidth Mode  : ").append(SignalStore.settings().getCallBandwidthMode()).append("\n")
-                              .append("Client Deprecated    : ").append(SignalStore.misc().isClientDeprecated()).append("\n");
+                              .append("Client Deprecated    : ").append(SignalStore.misc().isClientDeprecated()).append("\n")
+                              .append("Key Value Writes     : ").append(SignalStore.getWriteStats()).append("\n");
   }
 }
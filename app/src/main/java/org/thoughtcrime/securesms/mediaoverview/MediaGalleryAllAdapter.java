@@ -73,10 +73,12 @@ final class MediaGalleryAllAdapter extends StickyHeaderGridAdapter {
   private boolean            showFileSizes;
   private boolean            detailView;
 
-  private static final int AUDIO_DETAIL    = 1;
-  private static final int GALLERY         = 2;
-  private static final int GALLERY_DETAIL  = 3;
-  private static final int DOCUMENT_DETAIL = 4;
+  private static final int AUDIO_DETAIL       = 1;
+  private static final int GALLERY            = 2;
+  private static final int GALLERY_DETAIL     = 3;
+  private static final int DOCUMENT_DETAIL    = 4;
+  private static final int PLACEHOLDER        = 5;
+  private static final int PLACEHOLDER_DETAIL = 6;
 
   void detach(RecyclerView.ViewHolder holder) {
     if (holder instanceof SelectableViewHolder) {
@@ -128,6 +130,10 @@ final class MediaGalleryAllAdapter extends StickyHeaderGridAdapter {
         return new GalleryDetailViewHolder(LayoutInflater.from(context).inflate(R.layout.media_overview_detail_item_media, parent, false));
       case AUDIO_DETAIL:
         return new AudioDetailViewHolder(LayoutInflater.from(context).inflate(R.layout.media_overview_detail_item_audio, parent, false));
+      case PLACEHOLDER:
+        return new PlaceholderViewHolder(LayoutInflater.from(context).inflate(R.layout.media_overview_gallery_item, parent, false));
+      case PLACEHOLDER_DETAIL:
+        return new PlaceholderViewHolder(LayoutInflater.from(context).inflate(R.layout.media_overview_detail_item_document, parent, false));
       default:
         return new DocumentDetailViewHolder(LayoutInflater.from(context).inflate(R.layout.media_overview_detail_item_document, parent, false));
     }
@@ -136,7 +142,12 @@ final class MediaGalleryAllAdapter extends StickyHeaderGridAdapter {
   @Override
   public int getSectionItemViewType(int section, int offset) {
     MediaDatabase.MediaRecord mediaRecord = media.get(section, offset);
-    Slide                     slide       = MediaUtil.getSlideForAttachment(context, mediaRecord.getAttachment());
+
+    if (mediaRecord == null) {
+      return detailView ? PLACEHOLDER_DETAIL : PLACEHOLDER;
+    }
+
+    Slide slide = MediaUtil.getSlideForAttachment(context, mediaRecord.getAttachment());
 
     if (slide.hasAudio())                     return AUDIO_DETAIL;
     if (slide.hasImage() || slide.hasVideo()) return detailView ? GALLERY_DETAIL : GALLERY;
@@ -153,7 +164,12 @@ final class MediaGalleryAllAdapter extends StickyHeaderGridAdapter {
   @Override
   public void onBindItemViewHolder(ItemViewHolder viewHolder, int section, int offset) {
     MediaDatabase.MediaRecord mediaRecord = media.get(section, offset);
-    Slide                     slide       = MediaUtil.getSlideForAttachment(context, mediaRecord.getAttachment());
+
+    if (mediaRecord == null) {
+      return;
+    }
+
+    Slide slide = MediaUtil.getSlideForAttachment(context, mediaRecord.getAttachment());
 
     ((SelectableViewHolder)viewHolder).bind(context, mediaRecord, slide);
   }
@@ -206,14 +222,9 @@ final class MediaGalleryAllAdapter extends StickyHeaderGridAdapter {
     notifyDataSetChanged();
   }
 
-  void selectAllMedia() {
-    int sectionCount = media.getSectionCount();
-    for (int section = 0; section < sectionCount; section++) {
-      int sectionItemCount = media.getSectionItemCount(section);
-      for (int item = 0; item < sectionItemCount; item++) {
-        MediaRecord mediaRecord = media.get(section, item);
-        selected.put(mediaRecord.getAttachment().getAttachmentId(), mediaRecord);
-      }
+  void selectAllMedia(@NonNull Collection<MediaRecord> mediaRecords) {
+    for (MediaRecord mediaRecord : mediaRecords) {
+      selected.put(mediaRecord.getAttachment().getAttachmentId(), mediaRecord);
     }
     this.notifyDataSetChanged();
   }
@@ -269,6 +280,16 @@ final class MediaGalleryAllAdapter extends StickyHeaderGridAdapter {
     }
   }
 
+  /**
+   * Holds the place of an item whose page hasn't been loaded yet.
+   */
+  private static class PlaceholderViewHolder extends ItemViewHolder {
+    PlaceholderViewHolder(@NonNull View itemView) {
+      super(itemView);
+      itemView.setVisibility(View.INVISIBLE);
+    }
+  }
+
   private class GalleryViewHolder extends SelectableViewHolder {
 
     private final ThumbnailView thumbnailView;
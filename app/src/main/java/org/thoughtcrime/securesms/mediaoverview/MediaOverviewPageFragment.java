@@ -43,6 +43,9 @@ import org.thoughtcrime.securesms.mms.PartAuthority;
 import org.thoughtcrime.securesms.util.MediaUtil;
 import org.thoughtcrime.securesms.util.Util;
 import org.thoughtcrime.securesms.util.WindowUtil;
+import org.thoughtcrime.securesms.util.concurrent.SimpleTask;
+
+import java.util.List;
 
 public final class MediaOverviewPageFragment extends Fragment
   implements MediaGalleryAllAdapter.ItemClickListener,
@@ -69,6 +72,9 @@ public final class MediaOverviewPageFragment extends Fragment
   private       GridMode                      gridMode;
   private       VoiceNoteMediaController      voiceNoteMediaController;
 
+  private final Observer<List<MediaDatabase.MediaRecord>>   pagesObserver = pages -> getListAdapter().notifyAllSectionsDataSetChanged();
+  private       GroupedThreadMediaLoader.GroupedThreadMedia media;
+
   public static @NonNull Fragment newInstance(long threadId,
                                               @NonNull MediaLoader.MediaType mediaType,
                                               @NonNull GridMode gridMode)
@@ -114,9 +120,10 @@ public final class MediaOverviewPageFragment extends Fragment
     this.noMedia      = view.findViewById(R.id.no_images);
     this.gridManager  = new StickyHeaderGridLayoutManager(getResources().getInteger(R.integer.media_overview_cols));
 
+    this.media   = new GroupedThreadMediaLoader.EmptyGroupedThreadMedia();
     this.adapter = new MediaGalleryAllAdapter(context,
                                               GlideApp.with(this),
-                                              new GroupedThreadMediaLoader.EmptyGroupedThreadMedia(),
+                                              media,
                                               this,
                                               this,
                                               sorting.isRelatedToFileSize(),
@@ -174,7 +181,7 @@ public final class MediaOverviewPageFragment extends Fragment
 
   @Override
   public void onLoadFinished(@NonNull Loader<GroupedThreadMediaLoader.GroupedThreadMedia> loader, GroupedThreadMediaLoader.GroupedThreadMedia groupedThreadMedia) {
-    ((MediaGalleryAllAdapter) recyclerView.getAdapter()).setMedia(groupedThreadMedia);
+    setMedia(groupedThreadMedia);
     ((MediaGalleryAllAdapter) recyclerView.getAdapter()).notifyAllSectionsDataSetChanged();
 
     noMedia.setVisibility(recyclerView.getAdapter().getItemCount() > 0 ? View.GONE : View.VISIBLE);
@@ -183,7 +190,17 @@ public final class MediaOverviewPageFragment extends Fragment
 
   @Override
   public void onLoaderReset(@NonNull Loader<GroupedThreadMediaLoader.GroupedThreadMedia> cursorLoader) {
-    ((MediaGalleryAllAdapter) recyclerView.getAdapter()).setMedia(new GroupedThreadMediaLoader.EmptyGroupedThreadMedia());
+    media.getPages().removeObserver(pagesObserver);
+    media = new GroupedThreadMediaLoader.EmptyGroupedThreadMedia();
+    getListAdapter().setMedia(media);
+  }
+
+  private void setMedia(@NonNull GroupedThreadMediaLoader.GroupedThreadMedia media) {
+    this.media.getPages().removeObserver(pagesObserver);
+    this.media = media;
+    this.media.getPages().observe(getViewLifecycleOwner(), pagesObserver);
+
+    getListAdapter().setMedia(media);
   }
 
   @Override
@@ -271,8 +288,10 @@ public final class MediaOverviewPageFragment extends Fragment
   }
 
   private void handleSelectAllMedia() {
-    getListAdapter().selectAllMedia();
-    refreshActionModeTitle();
+    SimpleTask.run(getViewLifecycleOwner().getLifecycle(), media::getAll, mediaRecords -> {
+      getListAdapter().selectAllMedia(mediaRecords);
+      refreshActionModeTitle();
+    });
   }
 
   private void refreshActionModeTitle() {
@@ -0,0 +1,806 @@
+package org.thoughtcrime.securesms.mediasend;
+
+import android.content.ContentUris;
+import android.content.Context;
+import android.database.ContentObserver;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Build;
+import android.provider.MediaStore;
+import android.provider.MediaStore.Images;
+import android.provider.MediaStore.Video;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
+import androidx.annotation.WorkerThread;
+
+import org.signal.core.util.logging.Log;
+import org.thoughtcrime.securesms.util.SqlUtil;
+import org.thoughtcrime.securesms.util.Stopwatch;
+import org.thoughtcrime.securesms.util.Util;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * An in-memory index of the media on the device, so the media picker doesn't have to read every
+ * row in {@link MediaStore} each time it's opened.
+ *
+ * The index keeps the bucket and date of every item, along with a running count and newest item
+ * for every bucket. It's built with a single scan the first time it's used. After that it listens
+ * for {@link MediaStore} change notifications, and the next time it's read it only re-reads what
+ * changed: the specific items named in the notifications, or otherwise every row modified since
+ * its watermark. The watermark is the highest {@link MediaStore.MediaColumns#GENERATION_MODIFIED}
+ * seen on API 30+, and the highest {@link MediaStore.MediaColumns#DATE_MODIFIED} before that.
+ *
+ * Deletions don't show up past the watermark, so after reading past it we compare the number of
+ * rows in the collection with the number we hold, and only scan every ID if they differ. Those
+ * scans happen at most once every {@link #MIN_ID_SCAN_INTERVAL_MS}.
+ *
+ * The index is saved to a file after it changes, tagged with {@link MediaStore#getVersion}, so a
+ * new process picks up from the saved watermark instead of scanning everything again.
+ */
+final class MediaIndex {
+
+  private static final String TAG = Log.tag(MediaIndex.class);
+
+  private static final String CAMERA = "Camera";
+
+  /** Beyond this many individually-changed items, we look at everything past the watermark instead. */
+  private static final int MAX_CHANGED_IDS = 500;
+
+  /** Keeps IN (...) selections well under SQLite's limit on arguments. */
+  static final int MAX_QUERY_ARGS = 500;
+
+  /** The shortest time between two scans of every ID in a collection. */
+  static final long MIN_ID_SCAN_INTERVAL_MS = 30_000;
+
+  private static final String SNAPSHOT_FILE    = "media_index";
+  private static final int    SNAPSHOT_VERSION = 1;
+
+  private static volatile MediaIndex instance;
+
+  private final Context             context;
+  private final File                snapshotFile;
+  private final Clock               clock;
+  private final Source              images;
+  private final Source              videos;
+  private final Map<String, Bucket> buckets;
+
+  private boolean built;
+  private boolean restoreAttempted;
+  private String  mediaStoreVersion;
+
+  static @NonNull MediaIndex getInstance(@NonNull Context context) {
+    if (instance == null) {
+      synchronized (MediaIndex.class) {
+        if (instance == null) {
+          instance = new MediaIndex(context.getApplicationContext());
+        }
+      }
+    }
+
+    return instance;
+  }
+
+  private MediaIndex(@NonNull Context context) {
+    this(context, new File(context.getCacheDir(), SNAPSHOT_FILE), System::currentTimeMillis);
+  }
+
+  @VisibleForTesting
+  MediaIndex(@NonNull Context context, @NonNull File snapshotFile, @NonNull Clock clock) {
+    this.context      = context;
+    this.snapshotFile = snapshotFile;
+    this.clock        = clock;
+    this.images       = new Source(Images.Media.EXTERNAL_CONTENT_URI, true);
+    this.videos       = new Source(Video.Media.EXTERNAL_CONTENT_URI, false);
+    this.buckets      = new HashMap<>();
+
+    context.getContentResolver().registerContentObserver(images.contentUri, true, new ChangeObserver(images));
+    context.getContentResolver().registerContentObserver(videos.contentUri, true, new ChangeObserver(videos));
+  }
+
+  /**
+   * @return A summary of every bucket that has media in it, in no particular order.
+   */
+  @WorkerThread
+  synchronized @NonNull List<Folder> getFolders() {
+    sync();
+    updateStaleNewestItems();
+
+    List<Folder> folders = new ArrayList<>(buckets.size());
+
+    for (Bucket bucket : buckets.values()) {
+      folders.add(new Folder(bucket.bucketId, bucket.title, CAMERA.equals(bucket.title), bucket.count, bucket.newest));
+    }
+
+    return folders;
+  }
+
+  /**
+   * @return Every item in the bucket, newest first. Pass {@link Media#ALL_MEDIA_BUCKET_ID} to get
+   *         everything on the device.
+   */
+  @WorkerThread
+  synchronized @NonNull List<Item> getItemsInBucket(@NonNull String bucketId) {
+    sync();
+
+    boolean    allMedia = Media.ALL_MEDIA_BUCKET_ID.equals(bucketId);
+    List<Item> items    = new ArrayList<>(allMedia ? images.items.size() + videos.items.size() : getCount(bucketId));
+
+    for (Source source : new Source[] { images, videos }) {
+      for (Item item : source.items.values()) {
+        if (allMedia || Util.equals(bucketId, item.bucketId)) {
+          items.add(item);
+        }
+      }
+    }
+
+    Collections.sort(items, (o1, o2) -> o1.isNewerThan(o2) ? -1 : o2.isNewerThan(o1) ? 1 : 0);
+
+    return items;
+  }
+
+  @WorkerThread
+  synchronized @Nullable Item getNewestImage() {
+    sync();
+
+    Item newest = null;
+
+    for (Item item : images.items.values()) {
+      if (newest == null || item.isNewerThan(newest)) {
+        newest = item;
+      }
+    }
+
+    return newest;
+  }
+
+  private int getCount(@NonNull String bucketId) {
+    Bucket bucket = buckets.get(bucketId);
+    return bucket != null ? bucket.count : 0;
+  }
+
+  /**
+   * Brings the index up to date with {@link MediaStore}. The first time, it starts from the saved
+   * snapshot if there is one for the current {@link MediaStore} version. It rebuilds from scratch
+   * if there isn't, or if {@link MediaStore} itself was rebuilt, and otherwise only reads what has
+   * changed.
+   */
+  @WorkerThread
+  private void sync() {
+    String version = getMediaStoreVersion();
+
+    if (!restoreAttempted) {
+      restoreAttempted = true;
+      built            = restore(version);
+    }
+
+    if (!built || !Util.equals(version, mediaStoreVersion)) {
+      rebuild();
+
+      built             = true;
+      mediaStoreVersion = version;
+      save();
+      return;
+    }
+
+    boolean imagesChanged = sync(images);
+    boolean videosChanged = sync(videos);
+
+    if (imagesChanged || videosChanged) {
+      save();
+    }
+  }
+
+  private void rebuild() {
+    Stopwatch stopwatch = new Stopwatch("media-index");
+
+    buckets.clear();
+
+    rebuild(images);
+    stopwatch.split("images");
+
+    rebuild(videos);
+    stopwatch.split("videos");
+
+    stopwatch.stop(TAG);
+    Log.i(TAG, "Indexed " + images.items.size() + " images and " + videos.items.size() + " videos in " + buckets.size() + " buckets.");
+  }
+
+  private void rebuild(@NonNull Source source) {
+    source.takeChanges();
+    source.items.clear();
+    source.watermark  = 0;
+    source.lastIdScan = clock.currentTimeMillis();
+
+    try (Cursor cursor = query(source, isNotPending(), null)) {
+      while (cursor != null && cursor.moveToNext()) {
+        put(source, cursor);
+      }
+    }
+  }
+
+  /**
+   * @return True if anything in the index changed.
+   */
+  private boolean sync(@NonNull Source source) {
+    Changes changes = source.takeChanges();
+
+    if (changes.unknown) {
+      return syncSinceWatermark(source);
+    } else if (changes.ids.size() > 0) {
+      return syncIds(source, changes.ids);
+    } else {
+      return false;
+    }
+  }
+
+  /**
+   * Re-reads every row modified since the watermark. Neither a deletion nor a row added with an old
+   * date shows up past the watermark, so if the collection then holds a different number of rows
+   * than we do, every ID is scanned to find them. If the last such scan was too recent, it's put
+   * off to a later sync.
+   */
+  private boolean syncSinceWatermark(@NonNull Source source) {
+    String   selection = isNotPending() + " AND " + getWatermarkColumn() + " >= ?";
+    String[] args      = SqlUtil.buildArgs(source.watermark);
+    long     watermark = source.watermark;
+    int      modified  = 0;
+
+    try (Cursor cursor = query(source, selection, args)) {
+      while (cursor != null && cursor.moveToNext()) {
+        if (put(source, cursor)) {
+          modified++;
+        }
+      }
+    }
+
+    int rowCount = getRowCount(source);
+
+    if (rowCount == source.items.size()) {
+      Log.d(TAG, "Synced " + source.contentUri + " since " + watermark + ". Modified: " + modified);
+      return modified > 0;
+    }
+
+    long now = clock.currentTimeMillis();
+
+    if (now - source.lastIdScan < MIN_ID_SCAN_INTERVAL_MS) {
+      Log.d(TAG, "Synced " + source.contentUri + " since " + watermark + ". Modified: " + modified + ". Holding " + source.items.size() + " of " + rowCount + " rows, but scanned IDs too recently.");
+      source.deferIdScan();
+      return modified > 0;
+    }
+
+    source.lastIdScan = now;
+
+    Set<Long> present = new HashSet<>();
+
+    try (Cursor cursor = context.getContentResolver().query(source.contentUri, new String[] { MediaStore.MediaColumns._ID }, isNotPending(), null, null)) {
+      while (cursor != null && cursor.moveToNext()) {
+        present.add(cursor.getLong(0));
+      }
+    }
+
+    List<Long> removed = new ArrayList<>();
+
+    for (long id : source.items.keySet()) {
+      if (!present.contains(id)) {
+        removed.add(id);
+      }
+    }
+
+    for (long id : removed) {
+      remove(source, id);
+    }
+
+    present.removeAll(source.items.keySet());
+
+    if (present.size() > 0) {
+      syncIds(source, present);
+    }
+
+    Log.d(TAG, "Synced " + source.contentUri + " since " + watermark + " with an ID scan. Removed: " + removed.size() + ", Modified: " + modified + ", Added: " + present.size());
+
+    return modified > 0 || removed.size() > 0 || present.size() > 0;
+  }
+
+  private int getRowCount(@NonNull Source source) {
+    try (Cursor cursor = context.getContentResolver().query(source.contentUri, new String[] { MediaStore.MediaColumns._ID }, isNotPending(), null, null)) {
+      return cursor != null ? cursor.getCount() : 0;
+    }
+  }
+
+  private boolean syncIds(@NonNull Source source, @NonNull Set<Long> ids) {
+    boolean changed = false;
+
+    for (List<Long> chunk : Util.chunk(new ArrayList<>(ids), MAX_QUERY_ARGS)) {
+      SqlUtil.Query query = SqlUtil.buildCollectionQuery(MediaStore.MediaColumns._ID, chunk);
+      Set<Long>     found = new HashSet<>();
+
+      try (Cursor cursor = query(source, isNotPending() + " AND " + query.getWhere(), query.getWhereArgs())) {
+        while (cursor != null && cursor.moveToNext()) {
+          found.add(cursor.getLong(0));
+          changed |= put(source, cursor);
+        }
+      }
+
+      for (long id : chunk) {
+        if (!found.contains(id)) {
+          changed |= remove(source, id);
+        }
+      }
+    }
+
+    return changed;
+  }
+
+  private @Nullable Cursor query(@NonNull Source source, @NonNull String selection, @Nullable String[] args) {
+    String[] projection;
+
+    if (Build.VERSION.SDK_INT >= 30) {
+      projection = new String[] { MediaStore.MediaColumns._ID, Images.Media.BUCKET_ID, Images.Media.BUCKET_DISPLAY_NAME, MediaStore.MediaColumns.DATE_MODIFIED, MediaStore.MediaColumns.GENERATION_MODIFIED };
+    } else {
+      projection = new String[] { MediaStore.MediaColumns._ID, Images.Media.BUCKET_ID, Images.Media.BUCKET_DISPLAY_NAME, MediaStore.MediaColumns.DATE_MODIFIED };
+    }
+
+    return context.getContentResolver().query(source.contentUri, projection, selection, args, null);
+  }
+
+  /**
+   * Adds or replaces the item at the cursor's current row, which must come from {@link #query}.
+   *
+   * @return True if the item is new, or its bucket or date changed.
+   */
+  private boolean put(@NonNull Source source, @NonNull Cursor cursor) {
+    long   id        = cursor.getLong(0);
+    String bucketId  = cursor.getString(1);
+    String title     = cursor.getString(2);
+    long   date      = cursor.getLong(3);
+    long   watermark = Build.VERSION.SDK_INT >= 30 ? cursor.getLong(4) : date;
+
+    source.watermark = Math.max(source.watermark, watermark);
+
+    Item existing = source.items.get(id);
+
+    if (existing != null && existing.date == date && Util.equals(existing.bucketId, bucketId)) {
+      Bucket bucket = buckets.get(bucketId);
+
+      if (bucket == null || Util.equals(bucket.title, title)) {
+        return false;
+      }
+
+      bucket.title = title;
+      return true;
+    }
+
+    remove(source, id);
+    add(source, new Item(source.contentUri, source.isImage, id, bucketId, date), title);
+
+    return true;
+  }
+
+  private void add(@NonNull Source source, @NonNull Item item, @Nullable String title) {
+    Bucket bucket = buckets.get(item.bucketId);
+
+    if (bucket == null) {
+      bucket = new Bucket(item.bucketId);
+      buckets.put(item.bucketId, bucket);
+    }
+
+    source.items.put(item.id, item);
+    bucket.add(item, title);
+  }
+
+  /**
+   * @return True if the item was in the index.
+   */
+  private boolean remove(@NonNull Source source, long id) {
+    Item item = source.items.remove(id);
+
+    if (item == null) {
+      return false;
+    }
+
+    Bucket bucket = buckets.get(item.bucketId);
+
+    if (bucket != null && bucket.remove(item) == 0) {
+      buckets.remove(item.bucketId);
+    }
+
+    return true;
+  }
+
+  /**
+   * Loads the index saved by {@link #save()}, as long as it was saved for the provided
+   * {@link MediaStore} version. Everything that changed since is picked up by reading past the
+   * saved watermarks.
+   *
+   * @return True if the index was loaded.
+   */
+  private boolean restore(@Nullable String version) {
+    if (!snapshotFile.exists()) {
+      return false;
+    }
+
+    Stopwatch stopwatch = new Stopwatch("media-index-restore");
+
+    try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(snapshotFile)))) {
+      if (in.readInt() != SNAPSHOT_VERSION || !Util.equals(readNullableString(in), version)) {
+        Log.i(TAG, "Saved index is for a different version, ignoring it.");
+        return false;
+      }
+
+      int      bucketCount = in.readInt();
+      String[] bucketIds   = new String[bucketCount];
+      String[] titles      = new String[bucketCount];
+
+      for (int i = 0; i < bucketCount; i++) {
+        bucketIds[i] = readNullableString(in);
+        titles[i]    = readNullableString(in);
+      }
+
+      for (Source source : new Source[] { images, videos }) {
+        source.watermark = in.readLong();
+
+        int itemCount = in.readInt();
+
+        for (int i = 0; i < itemCount; i++) {
+          long id     = in.readLong();
+          int  bucket = in.readInt();
+          long date   = in.readLong();
+
+          add(source, new Item(source.contentUri, source.isImage, id, bucketIds[bucket], date), titles[bucket]);
+        }
+      }
+
+      mediaStoreVersion = version;
+
+      stopwatch.stop(TAG);
+      Log.i(TAG, "Restored " + images.items.size() + " images and " + videos.items.size() + " videos in " + buckets.size() + " buckets.");
+      return true;
+    } catch (IOException | RuntimeException e) {
+      Log.w(TAG, "Failed to restore the saved index.", e);
+
+      buckets.clear();
+      images.items.clear();
+      videos.items.clear();
+      images.watermark = 0;
+      videos.watermark = 0;
+
+      return false;
+    }
+  }
+
+  /**
+   * Saves the index, so the next process can start from it instead of scanning everything.
+   */
+  private void save() {
+    File                 temp        = new File(snapshotFile.getPath() + ".tmp");
+    Map<String, Integer> bucketIndex = new HashMap<>(buckets.size());
+
+    try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)))) {
+      out.writeInt(SNAPSHOT_VERSION);
+      writeNullableString(out, mediaStoreVersion);
+
+      out.writeInt(buckets.size());
+
+      for (Bucket bucket : buckets.values()) {
+        bucketIndex.put(bucket.bucketId, bucketIndex.size());
+        writeNullableString(out, bucket.bucketId);
+        writeNullableString(out, bucket.title);
+      }
+
+      for (Source source : new Source[] { images, videos }) {
+        out.writeLong(source.watermark);
+        out.writeInt(source.items.size());
+
+        for (Item item : source.items.values()) {
+          out.writeLong(item.id);
+          out.writeInt(bucketIndex.get(item.bucketId));
+          out.writeLong(item.date);
+        }
+      }
+    } catch (IOException e) {
+      Log.w(TAG, "Failed to save the index.", e);
+      temp.delete();
+      return;
+    }
+
+    if (!temp.renameTo(snapshotFile)) {
+      Log.w(TAG, "Failed to replace the saved index.");
+      temp.delete();
+    }
+  }
+
+  private static void writeNullableString(@NonNull DataOutputStream out, @Nullable String value) throws IOException {
+    out.writeBoolean(value != null);
+
+    if (value != null) {
+      out.writeUTF(value);
+    }
+  }
+
+  private static @Nullable String readNullableString(@NonNull DataInputStream in) throws IOException {
+    return in.readBoolean() ? in.readUTF() : null;
+  }
+
+  /**
+   * When a bucket's newest item is removed, finding the next newest one means looking at the whole
+   * bucket, so that's put off until someone asks, and done for every bucket in a single pass.
+   */
+  private void updateStaleNewestItems() {
+    Map<String, Bucket> stale = new HashMap<>();
+
+    for (Bucket bucket : buckets.values()) {
+      if (bucket.newestStale) {
+        stale.put(bucket.bucketId, bucket);
+      }
+    }
+
+    if (stale.isEmpty()) {
+      return;
+    }
+
+    for (Source source : new Source[] { images, videos }) {
+      for (Item item : source.items.values()) {
+        Bucket bucket = stale.get(item.bucketId);
+
+        if (bucket != null && (bucket.newest == null || item.isNewerThan(bucket.newest))) {
+          bucket.newest = item;
+        }
+      }
+    }
+
+    for (Bucket bucket : stale.values()) {
+      bucket.newestStale = false;
+    }
+  }
+
+  private @Nullable String getMediaStoreVersion() {
+    return Build.VERSION.SDK_INT >= 29 ? MediaStore.getVersion(context) : null;
+  }
+
+  private static @NonNull String getWatermarkColumn() {
+    return Build.VERSION.SDK_INT >= 30 ? MediaStore.MediaColumns.GENERATION_MODIFIED : MediaStore.MediaColumns.DATE_MODIFIED;
+  }
+
+  /**
+   * @return The ID of the single item in the collection that the URI points to, or -1 if it
+   *         doesn't point to one.
+   */
+  static long getItemId(@NonNull Uri contentUri, @Nullable Uri uri) {
+    if (uri == null || uri.getLastPathSegment() == null || !uri.toString().startsWith(contentUri.toString() + "/")) {
+      return -1;
+    }
+
+    try {
+      return ContentUris.parseId(uri);
+    } catch (NumberFormatException | UnsupportedOperationException e) {
+      return -1;
+    }
+  }
+
+  static @NonNull String isNotPending() {
+    return Build.VERSION.SDK_INT <= 28 ? Images.Media.DATA + " NOT NULL" : MediaStore.MediaColumns.IS_PENDING + " != 1";
+  }
+
+  /**
+   * One of the {@link MediaStore} collections we index, along with the changes we've been told
+   * about since it was last synced.
+   */
+  private static final class Source {
+    private final Uri             contentUri;
+    private final boolean         isImage;
+    private final Map<Long, Item> items;
+
+    private long watermark;
+
+    /** Starts far enough back that the first sync after a restore can scan IDs right away. */
+    private long lastIdScan = -MIN_ID_SCAN_INTERVAL_MS;
+
+    private Set<Long> changedIds     = new HashSet<>();
+    private boolean   changedUnknown = true;
+
+    private Source(@NonNull Uri contentUri, boolean isImage) {
+      this.contentUri = contentUri;
+      this.isImage    = isImage;
+      this.items      = new HashMap<>();
+    }
+
+    synchronized void onChange(@Nullable Uri uri) {
+      if (changedUnknown) {
+        return;
+      }
+
+      long id = getItemId(contentUri, uri);
+
+      if (id < 0 || changedIds.size() >= MAX_CHANGED_IDS) {
+        changedIds     = new HashSet<>();
+        changedUnknown = true;
+      } else {
+        changedIds.add(id);
+      }
+    }
+
+    /**
+     * Makes sure the next sync looks past the watermark again, so that it can scan IDs then.
+     */
+    synchronized void deferIdScan() {
+      changedIds     = new HashSet<>();
+      changedUnknown = true;
+    }
+
+    synchronized @NonNull Changes takeChanges() {
+      Changes changes = new Changes(changedIds, changedUnknown);
+
+      changedIds     = new HashSet<>();
+      changedUnknown = false;
+
+      return changes;
+    }
+  }
+
+  @VisibleForTesting
+  interface Clock {
+    long currentTimeMillis();
+  }
+
+  private static final class Changes {
+    private final Set<Long> ids;
+    private final boolean   unknown;
+
+    private Changes(@NonNull Set<Long> ids, boolean unknown) {
+      this.ids     = ids;
+      this.unknown = unknown;
+    }
+  }
+
+  private static final class ChangeObserver extends ContentObserver {
+    private final Source source;
+
+    private ChangeObserver(@NonNull Source source) {
+      super(null);
+      this.source = source;
+    }
+
+    @Override
+    public void onChange(boolean selfChange) {
+      onChange(selfChange, null);
+    }
+
+    @Override
+    public void onChange(boolean selfChange, @Nullable Uri uri) {
+      source.onChange(uri);
+    }
+  }
+
+  private static final class Bucket {
+    private final String bucketId;
+
+    private String  title;
+    private int     count;
+    private Item    newest;
+    private boolean newestStale;
+
+    private Bucket(@Nullable String bucketId) {
+      this.bucketId = bucketId;
+    }
+
+    void add(@NonNull Item item, @Nullable String title) {
+      this.title = title;
+      this.count++;
+
+      if (!newestStale && (newest == null || item.isNewerThan(newest))) {
+        newest = item;
+      }
+    }
+
+    /**
+     * @return The number of items left in the bucket.
+     */
+    int remove(@NonNull Item item) {
+      count--;
+
+      if (newest == item) {
+        newest      = null;
+        newestStale = true;
+      }
+
+      return count;
+    }
+  }
+
+  static final class Item {
+    private final Uri     contentUri;
+    private final boolean isImage;
+    private final long    id;
+    private final String  bucketId;
+    private final long    date;
+
+    private Item(@NonNull Uri contentUri, boolean isImage, long id, @Nullable String bucketId, long date) {
+      this.contentUri = contentUri;
+      this.isImage    = isImage;
+      this.id         = id;
+      this.bucketId   = bucketId;
+      this.date       = date;
+    }
+
+    @NonNull Uri getContentUri() {
+      return contentUri;
+    }
+
+    @NonNull Uri getUri() {
+      return ContentUris.withAppendedId(contentUri, id);
+    }
+
+    boolean isImage() {
+      return isImage;
+    }
+
+    long getId() {
+      return id;
+    }
+
+    @Nullable String getBucketId() {
+      return bucketId;
+    }
+
+    long getDate() {
+      return date;
+    }
+
+    boolean isNewerThan(@NonNull Item other) {
+      return date > other.date || (date == other.date && id > other.id);
+    }
+  }
+
+  static final class Folder {
+    private final String  bucketId;
+    private final String  title;
+    private final boolean camera;
+    private final int     count;
+    private final Item    newest;
+
+    private Folder(@Nullable String bucketId, @Nullable String title, boolean camera, int count, @Nullable Item newest) {
+      this.bucketId = bucketId;
+      this.title    = title;
+      this.camera   = camera;
+      this.count    = count;
+      this.newest   = newest;
+    }
+
+    @Nullable String getBucketId() {
+      return bucketId;
+    }
+
+    @Nullable String getTitle() {
+      return title;
+    }
+
+    boolean isCamera() {
+      return camera;
+    }
+
+    int getCount() {
+      return count;
+    }
+
+    @Nullable Item getNewest() {
+      return newest;
+    }
+  }
+}
@@ -5,7 +5,6 @@ import android.content.ContentUris;
 import android.content.Context;
 import android.database.Cursor;
 import android.net.Uri;
-import android.os.Build;
 import android.provider.MediaStore;
 import android.provider.MediaStore.Images;
 import android.provider.MediaStore.Video;
@@ -13,7 +12,6 @@ import android.provider.OpenableColumns;
 import android.util.Pair;
 
 import androidx.annotation.NonNull;
-import androidx.annotation.Nullable;
 import androidx.annotation.WorkerThread;
 
 import com.annimon.stream.Stream;
@@ -23,6 +21,7 @@ import org.signal.core.util.logging.Log;
 import org.thoughtcrime.securesms.R;
 import org.thoughtcrime.securesms.mms.PartAuthority;
 import org.thoughtcrime.securesms.util.MediaUtil;
+import org.thoughtcrime.securesms.util.SqlUtil;
 import org.thoughtcrime.securesms.util.StorageUtil;
 import org.thoughtcrime.securesms.util.Util;
 import org.whispersystems.libsignal.util.guava.Optional;
@@ -32,7 +31,6 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.LinkedHashMap;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 
@@ -41,8 +39,9 @@ import java.util.Map;
  */
 public class MediaRepository {
 
-  private static final String TAG    = Log.tag(MediaRepository.class);
-  private static final String CAMERA = "Camera";
+  private static final String TAG = Log.tag(MediaRepository.class);
+
+  private static final int FIRST_PAGE_SIZE = 100;
 
   /**
    * Retrieves a list of folders that contain media.
@@ -58,7 +57,9 @@ public class MediaRepository {
   }
 
   /**
-   * Retrieves a list of media items (images and videos) that are present int he specified bucket.
+   * Retrieves a list of media items (images and videos) that are present int he specified bucket,
+   * newest first. The bucket is loaded a page at a time, so the callback may be called several
+   * times with a growing list before it's called with the full one.
    */
   public void getMediaInBucket(@NonNull Context context, @NonNull String bucketId, @NonNull Callback<List<Media>> callback) {
     if (!StorageUtil.canReadFromMediaStore()) {
@@ -67,7 +68,7 @@ public class MediaRepository {
       return;
     }
 
-    SignalExecutors.BOUNDED.execute(() -> callback.onComplete(getMediaInBucket(context, bucketId)));
+    SignalExecutors.BOUNDED.execute(() -> loadMediaInBucket(context, bucketId, callback));
   }
 
   /**
@@ -110,112 +111,126 @@ public class MediaRepository {
 
   @WorkerThread
   private @NonNull List<MediaFolder> getFolders(@NonNull Context context) {
-    FolderResult imageFolders       = getFolders(context, Images.Media.EXTERNAL_CONTENT_URI);
-    FolderResult videoFolders       = getFolders(context, Video.Media.EXTERNAL_CONTENT_URI);
-    Map<String, FolderData> folders = new HashMap<>(imageFolders.getFolderData());
+    List<MediaIndex.Folder> folders = Stream.of(MediaIndex.getInstance(context).getFolders())
+                                            .filter(folder -> folder.getBucketId() != null && folder.getNewest() != null)
+                                            .toList();
 
-    for (Map.Entry<String, FolderData> entry : videoFolders.getFolderData().entrySet()) {
-      if (folders.containsKey(entry.getKey())) {
-        folders.get(entry.getKey()).incrementCount(entry.getValue().getCount());
-      } else {
-        folders.put(entry.getKey(), entry.getValue());
+    MediaIndex.Folder cameraFolder = null;
+    MediaIndex.Item   newest       = null;
+
+    for (MediaIndex.Folder folder : folders) {
+      if (folder.isCamera() && (cameraFolder == null || folder.getCount() > cameraFolder.getCount())) {
+        cameraFolder = folder;
       }
-    }
 
-    String            cameraBucketId = imageFolders.getCameraBucketId() != null ? imageFolders.getCameraBucketId() : videoFolders.getCameraBucketId();
-    FolderData        cameraFolder   = cameraBucketId != null ? folders.remove(cameraBucketId) : null;
-    List<MediaFolder> mediaFolders   = Stream.of(folders.values()).map(folder -> new MediaFolder(folder.getThumbnail(),
-                                                                                                 folder.getTitle(),
-                                                                                                 folder.getCount(),
-                                                                                                 folder.getBucketId(),
-                                                                                                 MediaFolder.FolderType.NORMAL))
-                                                                  .filter(folder -> folder.getTitle() != null)
-                                                                  .sorted((o1, o2) -> o1.getTitle().toLowerCase().compareTo(o2.getTitle().toLowerCase()))
-                                                                  .toList();
+      if (newest == null || folder.getNewest().isNewerThan(newest)) {
+        newest = folder.getNewest();
+      }
+    }
 
-    Uri allMediaThumbnail = imageFolders.getThumbnailTimestamp() > videoFolders.getThumbnailTimestamp() ? imageFolders.getThumbnail() : videoFolders.getThumbnail();
+    MediaIndex.Folder camera       = cameraFolder;
+    List<MediaFolder> mediaFolders = Stream.of(folders).filter(folder -> folder != camera && folder.getTitle() != null)
+                                                       .map(folder -> new MediaFolder(folder.getNewest().getUri(),
+                                                                                      localizeTitle(context, folder),
+                                                                                      folder.getCount(),
+                                                                                      folder.getBucketId(),
+                                                                                      MediaFolder.FolderType.NORMAL))
+                                                       .sorted((o1, o2) -> o1.getTitle().toLowerCase().compareTo(o2.getTitle().toLowerCase()))
+                                                       .toList();
 
-    if (allMediaThumbnail != null) {
+    if (newest != null) {
       int allMediaCount = Stream.of(mediaFolders).reduce(0, (count, folder) -> count + folder.getItemCount());
 
-      if (cameraFolder != null) {
-        allMediaCount += cameraFolder.getCount();
+      if (camera != null) {
+        allMediaCount += camera.getCount();
       }
 
-      mediaFolders.add(0, new MediaFolder(allMediaThumbnail, context.getString(R.string.MediaRepository_all_media), allMediaCount, Media.ALL_MEDIA_BUCKET_ID, MediaFolder.FolderType.NORMAL));
+      mediaFolders.add(0, new MediaFolder(newest.getUri(), context.getString(R.string.MediaRepository_all_media), allMediaCount, Media.ALL_MEDIA_BUCKET_ID, MediaFolder.FolderType.NORMAL));
     }
 
-    if (cameraFolder != null) {
-      mediaFolders.add(0, new MediaFolder(cameraFolder.getThumbnail(), cameraFolder.getTitle(), cameraFolder.getCount(), cameraFolder.getBucketId(), MediaFolder.FolderType.CAMERA));
+    if (camera != null) {
+      mediaFolders.add(0, new MediaFolder(camera.getNewest().getUri(), localizeTitle(context, camera), camera.getCount(), camera.getBucketId(), MediaFolder.FolderType.CAMERA));
     }
 
     return mediaFolders;
   }
 
+  private @NonNull String localizeTitle(@NonNull Context context, @NonNull MediaIndex.Folder folder) {
+    if (folder.isCamera()) {
+      return context.getString(R.string.MediaRepository__camera);
+    } else {
+      return folder.getTitle();
+    }
+  }
+
+  /**
+   * Reads the bucket's contents in pages, in the order the index has them in. The first, smaller
+   * page is handed over right away, and after that the list is handed over each time it has at
+   * least doubled, so copying it doesn't add up to more than the size of the bucket.
+   */
   @WorkerThread
-  private @NonNull FolderResult getFolders(@NonNull Context context, @NonNull Uri contentUri) {
-    String                  cameraBucketId     = null;
-    Uri                     globalThumbnail    = null;
-    long                    thumbnailTimestamp = 0;
-    Map<String, FolderData> folders            = new HashMap<>();
+  private void loadMediaInBucket(@NonNull Context context, @NonNull String bucketId, @NonNull Callback<List<Media>> callback) {
+    List<MediaIndex.Item> items        = MediaIndex.getInstance(context).getItemsInBucket(bucketId);
+    List<Media>           media        = new ArrayList<>(items.size());
+    int                   nextDelivery = FIRST_PAGE_SIZE;
+    int                   position     = 0;
 
-    String[] projection = new String[] { Images.Media._ID, Images.Media.BUCKET_ID, Images.Media.BUCKET_DISPLAY_NAME, Images.Media.DATE_MODIFIED };
-    String   selection  = isNotPending();
-    String   sortBy     = Images.Media.BUCKET_DISPLAY_NAME + " COLLATE NOCASE ASC, " + Images.Media.DATE_MODIFIED + " DESC";
+    while (position < items.size()) {
+      int end = Math.min(items.size(), position + (position == 0 ? FIRST_PAGE_SIZE : MediaIndex.MAX_QUERY_ARGS));
 
-    try (Cursor cursor = context.getContentResolver().query(contentUri, projection, selection, null, sortBy)) {
-      while (cursor != null && cursor.moveToNext()) {
-        long       rowId     = cursor.getLong(cursor.getColumnIndexOrThrow(projection[0]));
-        Uri        thumbnail = ContentUris.withAppendedId(contentUri, rowId);
-        String     bucketId  = cursor.getString(cursor.getColumnIndexOrThrow(projection[1]));
-        String     title     = cursor.getString(cursor.getColumnIndexOrThrow(projection[2]));
-        long       timestamp = cursor.getLong(cursor.getColumnIndexOrThrow(projection[3]));
-        FolderData folder    = Util.getOrDefault(folders, bucketId, new FolderData(thumbnail, localizeTitle(context, title), bucketId));
-
-        folder.incrementCount();
-        folders.put(bucketId, folder);
-
-        if (cameraBucketId == null && CAMERA.equals(title)) {
-          cameraBucketId = bucketId;
-        }
+      media.addAll(getMedia(context, bucketId, items.subList(position, end)));
+      position = end;
 
-        if (timestamp > thumbnailTimestamp) {
-          globalThumbnail    = thumbnail;
-          thumbnailTimestamp = timestamp;
-        }
+      if (media.size() >= nextDelivery && position < items.size()) {
+        callback.onComplete(new ArrayList<>(media));
+        nextDelivery = media.size() * 2;
       }
     }
 
-    return new FolderResult(cameraBucketId, globalThumbnail, thumbnailTimestamp, folders);
+    callback.onComplete(media);
   }
 
-  private @NonNull String localizeTitle(@NonNull Context context, @NonNull String title) {
-    if (CAMERA.equals(title)) {
-      return context.getString(R.string.MediaRepository__camera);
-    } else {
-      return title;
+  /**
+   * @return The media for each of the given items that still exists, in the same order.
+   */
+  @WorkerThread
+  private @NonNull List<Media> getMedia(@NonNull Context context, @NonNull String bucketId, @NonNull List<MediaIndex.Item> items) {
+    List<Long> imageIds = new ArrayList<>();
+    List<Long> videoIds = new ArrayList<>();
+
+    for (MediaIndex.Item item : items) {
+      if (item.isImage()) {
+        imageIds.add(item.getId());
+      } else {
+        videoIds.add(item.getId());
+      }
     }
-  }
 
-  @WorkerThread
-  private @NonNull List<Media> getMediaInBucket(@NonNull Context context, @NonNull String bucketId) {
-    List<Media> images = getMediaInBucket(context, bucketId, Images.Media.EXTERNAL_CONTENT_URI, true);
-    List<Media> videos = getMediaInBucket(context, bucketId, Video.Media.EXTERNAL_CONTENT_URI, false);
-    List<Media> media  = new ArrayList<>(images.size() + videos.size());
+    Map<Long, Media> images = getMedia(context, bucketId, Images.Media.EXTERNAL_CONTENT_URI, true, imageIds);
+    Map<Long, Media> videos = getMedia(context, bucketId, Video.Media.EXTERNAL_CONTENT_URI, false, videoIds);
+    List<Media>      media  = new ArrayList<>(items.size());
 
-    media.addAll(images);
-    media.addAll(videos);
-    Collections.sort(media, (o1, o2) -> Long.compare(o2.getDate(), o1.getDate()));
+    for (MediaIndex.Item item : items) {
+      Media found = item.isImage() ? images.get(item.getId()) : videos.get(item.getId());
+
+      if (found != null) {
+        media.add(found);
+      }
+    }
 
     return media;
   }
 
   @WorkerThread
-  private @NonNull List<Media> getMediaInBucket(@NonNull Context context, @NonNull String bucketId, @NonNull Uri contentUri, boolean isImage) {
-    List<Media> media         = new LinkedList<>();
-    String      selection     = Images.Media.BUCKET_ID + " = ? AND " + isNotPending();
-    String[]    selectionArgs = new String[] { bucketId };
-    String      sortBy        = Images.Media.DATE_MODIFIED + " DESC";
+  private @NonNull Map<Long, Media> getMedia(@NonNull Context context, @NonNull String bucketId, @NonNull Uri contentUri, boolean isImage, @NonNull List<Long> ids) {
+    Map<Long, Media> media = new HashMap<>(ids.size());
+
+    if (ids.isEmpty()) {
+      return media;
+    }
+
+    SqlUtil.Query query     = SqlUtil.buildCollectionQuery(Images.Media._ID, ids);
+    String        selection = query.getWhere() + " AND " + MediaIndex.isNotPending();
 
     String[] projection;
 
@@ -225,12 +240,7 @@ public class MediaRepository {
       projection = new String[]{Images.Media._ID, Images.Media.MIME_TYPE, Images.Media.DATE_MODIFIED, Images.Media.WIDTH, Images.Media.HEIGHT, Images.Media.SIZE, Video.Media.DURATION};
     }
 
-    if (Media.ALL_MEDIA_BUCKET_ID.equals(bucketId)) {
-      selection     = isNotPending();
-      selectionArgs = null;
-    }
-
-    try (Cursor cursor = context.getContentResolver().query(contentUri, projection, selection, selectionArgs, sortBy)) {
+    try (Cursor cursor = context.getContentResolver().query(contentUri, projection, selection, query.getWhereArgs(), null)) {
       while (cursor != null && cursor.moveToNext()) {
         long   rowId       = cursor.getLong(cursor.getColumnIndexOrThrow(projection[0]));
         Uri    uri         = ContentUris.withAppendedId(contentUri, rowId);
@@ -242,23 +252,23 @@ public class MediaRepository {
         long   size        = cursor.getLong(cursor.getColumnIndexOrThrow(Images.Media.SIZE));
         long   duration    = !isImage ? cursor.getInt(cursor.getColumnIndexOrThrow(Video.Media.DURATION)) : 0;
 
-        media.add(new Media(uri, mimetype, date, width, height, size, duration, false, Optional.of(bucketId), Optional.absent(), Optional.absent()));
+        media.put(rowId, new Media(uri, mimetype, date, width, height, size, duration, false, Optional.of(bucketId), Optional.absent(), Optional.absent()));
       }
     }
 
     return media;
   }
 
-  private @NonNull String isNotPending() {
-    return Build.VERSION.SDK_INT <= 28 ? Images.Media.DATA + " NOT NULL" : MediaStore.MediaColumns.IS_PENDING + " != 1";
-  }
-
   @WorkerThread
   private List<Media> getPopulatedMedia(@NonNull Context context, @NonNull List<Media> media) {
+    Map<Uri, Media> fromMediaStore = getMediaStorePopulatedMedia(context, media);
+
     return Stream.of(media).map(m -> {
       try {
         if (isPopulated(m)) {
           return m;
+        } else if (fromMediaStore.containsKey(m.getUri())) {
+          return fromMediaStore.get(m.getUri());
         } else if (PartAuthority.isLocalUri(m.getUri())) {
           return getLocallyPopulatedMedia(context, m);
         } else {
@@ -288,9 +298,63 @@ public class MediaRepository {
     return updatedMedia;
   }
 
+  /**
+   * Fills in whatever {@link MediaStore} already knows about unpopulated items that came from it,
+   * with one query per collection rather than one per item.
+   *
+   * @return The media that this was able to populate, keyed by URI.
+   */
+  @WorkerThread
+  private @NonNull Map<Uri, Media> getMediaStorePopulatedMedia(@NonNull Context context, @NonNull List<Media> media) {
+    Map<Uri, Media> populated = new HashMap<>();
+
+    for (Uri contentUri : new Uri[] { Images.Media.EXTERNAL_CONTENT_URI, Video.Media.EXTERNAL_CONTENT_URI }) {
+      boolean          isImage     = contentUri.equals(Images.Media.EXTERNAL_CONTENT_URI);
+      Map<Long, Media> unpopulated = new HashMap<>();
+
+      for (Media m : media) {
+        long id = MediaIndex.getItemId(contentUri, m.getUri());
+
+        if (id >= 0 && !isPopulated(m)) {
+          unpopulated.put(id, m);
+        }
+      }
+
+      for (List<Long> chunk : Util.chunk(new ArrayList<>(unpopulated.keySet()), MediaIndex.MAX_QUERY_ARGS)) {
+        SqlUtil.Query query      = SqlUtil.buildCollectionQuery(Images.Media._ID, chunk);
+        String[]      projection = isImage ? new String[] { Images.Media._ID, Images.Media.ORIENTATION, Images.Media.WIDTH, Images.Media.HEIGHT, Images.Media.SIZE }
+                                           : new String[] { Images.Media._ID, Images.Media.WIDTH, Images.Media.HEIGHT, Images.Media.SIZE };
+
+        try (Cursor cursor = context.getContentResolver().query(contentUri, projection, query.getWhere(), query.getWhereArgs(), null)) {
+          while (cursor != null && cursor.moveToNext()) {
+            Media m           = unpopulated.get(cursor.getLong(cursor.getColumnIndexOrThrow(Images.Media._ID)));
+            int   orientation = isImage ? cursor.getInt(cursor.getColumnIndexOrThrow(Images.Media.ORIENTATION)) : 0;
+            int   width       = m.getWidth() > 0 ? m.getWidth() : cursor.getInt(cursor.getColumnIndexOrThrow(getWidthColumn(orientation)));
+            int   height      = m.getHeight() > 0 ? m.getHeight() : cursor.getInt(cursor.getColumnIndexOrThrow(getHeightColumn(orientation)));
+            long  size        = m.getSize() > 0 ? m.getSize() : cursor.getLong(cursor.getColumnIndexOrThrow(Images.Media.SIZE));
+
+            Media result = new Media(m.getUri(), m.getMimeType(), m.getDate(), width, height, size, 0, m.isBorderless(), m.getBucketId(), m.getCaption(), Optional.absent());
+
+            if (isPopulated(result)) {
+              populated.put(m.getUri(), result);
+            }
+          }
+        }
+      }
+    }
+
+    return populated;
+  }
+
   @WorkerThread
   private Optional<Media> getMostRecentItem(@NonNull Context context) {
-    List<Media> media = getMediaInBucket(context, Media.ALL_MEDIA_BUCKET_ID, Images.Media.EXTERNAL_CONTENT_URI, true);
+    MediaIndex.Item newest = MediaIndex.getInstance(context).getNewestImage();
+
+    if (newest == null) {
+      return Optional.absent();
+    }
+
+    List<Media> media = getMedia(context, Media.ALL_MEDIA_BUCKET_ID, Collections.singletonList(newest));
     return media.size() > 0 ? Optional.of(media.get(0)) : Optional.absent();
   }
 
@@ -361,78 +425,6 @@ public class MediaRepository {
     return new Media(media.getUri(), media.getMimeType(), media.getDate(), width, height, size, 0, media.isBorderless(), media.getBucketId(), media.getCaption(), Optional.absent());
   }
 
-  private static class FolderResult {
-    private final String                  cameraBucketId;
-    private final Uri                     thumbnail;
-    private final long                    thumbnailTimestamp;
-    private final Map<String, FolderData> folderData;
-
-    private FolderResult(@Nullable String cameraBucketId,
-                         @Nullable Uri thumbnail,
-                         long thumbnailTimestamp,
-                         @NonNull Map<String, FolderData> folderData)
-    {
-      this.cameraBucketId     = cameraBucketId;
-      this.thumbnail          = thumbnail;
-      this.thumbnailTimestamp = thumbnailTimestamp;
-      this.folderData         = folderData;
-    }
-
-    @Nullable String getCameraBucketId() {
-      return cameraBucketId;
-    }
-
-    @Nullable Uri getThumbnail() {
-      return thumbnail;
-    }
-
-    long getThumbnailTimestamp() {
-      return thumbnailTimestamp;
-    }
-
-    @NonNull Map<String, FolderData> getFolderData() {
-      return folderData;
-    }
-  }
-
-  private static class FolderData {
-    private final Uri    thumbnail;
-    private final String title;
-    private final String bucketId;
-
-    private int count;
-
-    private FolderData(Uri thumbnail, String title, String bucketId) {
-      this.thumbnail = thumbnail;
-      this.title     = title;
-      this.bucketId  = bucketId;
-    }
-
-    Uri getThumbnail() {
-      return thumbnail;
-    }
-
-    String getTitle() {
-      return title;
-    }
-
-    String getBucketId() {
-      return bucketId;
-    }
-
-    int getCount() {
-      return count;
-    }
-
-    void incrementCount() {
-      incrementCount(1);
-    }
-
-    void incrementCount(int amount) {
-      count += amount;
-    }
-  }
-
   public interface Callback<E> {
     void onComplete(@NonNull E result);
   }
@@ -12,8 +12,8 @@ import org.thoughtcrime.securesms.crypto.IdentityKeyUtil;
 import org.thoughtcrime.securesms.database.DatabaseFactory;
 import org.thoughtcrime.securesms.database.GroupDatabase;
 import org.thoughtcrime.securesms.database.MessageDatabase.SyncMessageId;
-import org.thoughtcrime.securesms.database.MmsSmsDatabase;
 import org.thoughtcrime.securesms.database.PushDatabase;
+import org.thoughtcrime.securesms.database.ReceiptAggregator;
 import org.thoughtcrime.securesms.dependencies.ApplicationDependencies;
 import org.thoughtcrime.securesms.groups.BadGroupIdException;
 import org.thoughtcrime.securesms.groups.GroupChangeBusyException;
@@ -36,6 +36,7 @@ import org.whispersystems.signalservice.api.messages.SignalServiceGroupContext;
 
 import java.io.Closeable;
 import java.io.IOException;
+import java.util.Collections;
 import java.util.concurrent.locks.ReentrantLock;
 
 /**
@@ -70,12 +71,10 @@ public class IncomingMessageProcessor {
   public class Processor implements Closeable {
 
     private final Context           context;
-    private final MmsSmsDatabase    mmsSmsDatabase;
     private final JobManager        jobManager;
 
     private Processor(@NonNull Context context) {
       this.context           = context;
-      this.mmsSmsDatabase    = DatabaseFactory.getMmsSmsDatabase(context);
       this.jobManager        = ApplicationDependencies.getJobManager();
     }
 
@@ -171,8 +170,11 @@ public class IncomingMessageProcessor {
 
     private void processReceipt(@NonNull SignalServiceEnvelope envelope) {
       Log.i(TAG, "Received server receipt for " + envelope.getTimestamp());
-      mmsSmsDatabase.incrementDeliveryReceiptCount(new SyncMessageId(Recipient.externalHighTrustPush(context, envelope.getSourceAddress()).getId(), envelope.getTimestamp()),
-                                                   System.currentTimeMillis());
+      ReceiptAggregator.Batch receipts = new ReceiptAggregator.Batch();
+
+      receipts.addDeliveryReceipts(Collections.singletonList(new SyncMessageId(Recipient.externalHighTrustPush(context, envelope.getSourceAddress()).getId(), envelope.getTimestamp())),
+                                   System.currentTimeMillis());
+      ApplicationDependencies.getReceiptAggregator().enqueue(receipts);
     }
 
     private boolean needsToEnqueueDecryption() {
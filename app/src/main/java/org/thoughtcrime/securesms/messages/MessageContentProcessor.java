@@ -34,6 +34,7 @@ import org.thoughtcrime.securesms.database.MessageDatabase;
 import org.thoughtcrime.securesms.database.MessageDatabase.InsertResult;
 import org.thoughtcrime.securesms.database.MessageDatabase.SyncMessageId;
 import org.thoughtcrime.securesms.database.MmsSmsDatabase;
+import org.thoughtcrime.securesms.database.ReceiptAggregator;
 import org.thoughtcrime.securesms.database.RecipientDatabase;
 import org.thoughtcrime.securesms.database.StickerDatabase;
 import org.thoughtcrime.securesms.database.ThreadDatabase;
@@ -133,7 +134,6 @@ import org.whispersystems.signalservice.api.push.SignalServiceAddress;
 import java.io.IOException;
 import java.security.SecureRandom;
 import java.util.ArrayList;
-import java.util.Collection;
 import java.util.Collections;
 import java.util.LinkedList;
 import java.util.List;
@@ -150,6 +150,8 @@ public final class MessageContentProcessor {
 
   private final Context context;
 
+  private ReceiptAggregator.Batch receipts;
+
   public MessageContentProcessor(@NonNull Context context) {
     this.context = context;
   }
@@ -160,9 +162,28 @@ public final class MessageContentProcessor {
    *
    * This is super-stateful, and it's recommended that this be run in a transaction so that no
    * intermediate results are persisted to the database if the app were to crash.
+   *
+   * Any receipts in the content are stored before this returns, so they're persisted by the time
+   * the envelope is acknowledged. They're applied shortly after, batched with the receipts from
+   * other envelopes.
    */
   public void process(MessageState messageState, @Nullable SignalServiceContent content, @Nullable ExceptionMetadata exceptionMetadata, long timestamp, long smsMessageId)
       throws IOException, GroupChangeBusyException
+  {
+    ReceiptAggregator.Batch outerReceipts = receipts;
+
+    receipts = new ReceiptAggregator.Batch();
+
+    try {
+      processInternal(messageState, content, exceptionMetadata, timestamp, smsMessageId);
+      ApplicationDependencies.getReceiptAggregator().enqueue(receipts);
+    } finally {
+      receipts = outerReceipts;
+    }
+  }
+
+  private void processInternal(MessageState messageState, @Nullable SignalServiceContent content, @Nullable ExceptionMetadata exceptionMetadata, long timestamp, long smsMessageId)
+      throws IOException, GroupChangeBusyException
   {
     Optional<Long> optionalSmsMessageId = smsMessageId > 0 ? Optional.of(smsMessageId) : Optional.absent();
 
@@ -1434,13 +1455,12 @@ public final class MessageContentProcessor {
     List<SyncMessageId>       ids       = Stream.of(message.getTimestamps())
                                                 .map(t -> new SyncMessageId(sender.getId(), t))
                                                 .toList();
-    Collection<SyncMessageId> unhandled = DatabaseFactory.getMmsSmsDatabase(context)
-                                                         .incrementViewedReceiptCounts(ids, content.getTimestamp());
-
-    for (SyncMessageId id : unhandled) {
-      warn(String.valueOf(content.getTimestamp()), "[handleViewedReceipt] Could not find matching message! timestamp: " + id.getTimetamp() + "  author: " + sender.getId());
-      ApplicationDependencies.getEarlyMessageCache().store(sender.getId(), id.getTimetamp(), content);
-    }
+    receipts.addViewedReceipts(ids, content.getTimestamp(), unhandled -> {
+      for (SyncMessageId id : unhandled) {
+        warn(String.valueOf(content.getTimestamp()), "[handleViewedReceipt] Could not find matching message! timestamp: " + id.getTimetamp() + "  author: " + sender.getId());
+        ApplicationDependencies.getEarlyMessageCache().store(sender.getId(), id.getTimetamp(), content);
+      }
+    });
   }
 
   @SuppressLint("DefaultLocale")
@@ -1454,7 +1474,7 @@ public final class MessageContentProcessor {
                                         .map(t -> new SyncMessageId(sender.getId(), t))
                                         .toList();
 
-    DatabaseFactory.getMmsSmsDatabase(context).incrementDeliveryReceiptCounts(ids, System.currentTimeMillis());
+    receipts.addDeliveryReceipts(ids, System.currentTimeMillis());
   }
 
   @SuppressLint("DefaultLocale")
@@ -1473,12 +1493,12 @@ public final class MessageContentProcessor {
                                         .map(t -> new SyncMessageId(sender.getId(), t))
                                         .toList();
 
-    Collection<SyncMessageId> unhandled = DatabaseFactory.getMmsSmsDatabase(context).incrementReadReceiptCounts(ids, content.getTimestamp());
-
-    for (SyncMessageId id : unhandled) {
-      warn(String.valueOf(content.getTimestamp()), "[handleReadReceipt] Could not find matching message! timestamp: " + id.getTimetamp() + "  author: " + sender.getId());
-      ApplicationDependencies.getEarlyMessageCache().store(sender.getId(), id.getTimetamp(), content);
-    }
+    receipts.addReadReceipts(ids, content.getTimestamp(), unhandled -> {
+      for (SyncMessageId id : unhandled) {
+        warn(String.valueOf(content.getTimestamp()), "[handleReadReceipt] Could not find matching message! timestamp: " + id.getTimetamp() + "  author: " + sender.getId());
+        ApplicationDependencies.getEarlyMessageCache().store(sender.getId(), id.getTimetamp(), content);
+      }
+    });
   }
 
   private void handleTypingMessage(@NonNull SignalServiceContent content,
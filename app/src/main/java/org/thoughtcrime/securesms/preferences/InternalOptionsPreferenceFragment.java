@@ -11,6 +11,7 @@ import org.signal.core.util.logging.Log;
 import org.thoughtcrime.securesms.ApplicationPreferencesActivity;
 import org.thoughtcrime.securesms.R;
 import org.thoughtcrime.securesms.components.SwitchPreferenceCompat;
+import org.thoughtcrime.securesms.database.DatabaseFactory;
 import org.thoughtcrime.securesms.dependencies.ApplicationDependencies;
 import org.thoughtcrime.securesms.jobs.RefreshAttributesJob;
 import org.thoughtcrime.securesms.jobs.RefreshOwnProfileJob;
@@ -20,6 +21,7 @@ import org.thoughtcrime.securesms.jobs.StorageForcePushJob;
 import org.thoughtcrime.securesms.keyvalue.InternalValues;
 import org.thoughtcrime.securesms.keyvalue.SignalStore;
 import org.thoughtcrime.securesms.util.ConversationUtil;
+import org.thoughtcrime.securesms.util.concurrent.SimpleTask;
 
 public class InternalOptionsPreferenceFragment extends CorrectedPreferenceFragment {
   private static final String TAG = Log.tag(InternalOptionsPreferenceFragment.class);
@@ -76,6 +78,13 @@ public class InternalOptionsPreferenceFragment extends CorrectedPreferenceFragme
       Toast.makeText(getContext(), "Deleted all dynamic shortcuts.", Toast.LENGTH_SHORT).show();
       return true;
     });
+
+    findPreference("pref_verify_thread_summaries").setOnPreferenceClickListener(preference -> {
+      SimpleTask.run(getLifecycle(),
+                     () -> DatabaseFactory.getThreadDatabase(ApplicationDependencies.getApplication()).verifyThreadSummaries(),
+                     repaired -> Toast.makeText(getContext(), "Repaired " + repaired + " thread(s).", Toast.LENGTH_SHORT).show());
+      return true;
+    });
   }
 
   private void initializeSwitchPreference(@NonNull PreferenceDataStore preferenceDataStore,
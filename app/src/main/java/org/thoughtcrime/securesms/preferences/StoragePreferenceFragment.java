@@ -27,6 +27,7 @@ import org.thoughtcrime.securesms.components.settings.SingleSelectSetting;
 import org.thoughtcrime.securesms.database.DatabaseFactory;
 import org.thoughtcrime.securesms.database.ThreadDatabase;
 import org.thoughtcrime.securesms.dependencies.ApplicationDependencies;
+import org.thoughtcrime.securesms.jobs.AttachmentFileCleanupJob;
 import org.thoughtcrime.securesms.keyvalue.KeepMessagesDuration;
 import org.thoughtcrime.securesms.keyvalue.SettingsValues;
 import org.thoughtcrime.securesms.keyvalue.SignalStore;
@@ -288,7 +289,11 @@ public class StoragePreferenceFragment extends ListSummaryPreferenceFragment {
         long trimBeforeDate = keepMessagesDuration != KeepMessagesDuration.FOREVER ? System.currentTimeMillis() - keepMessagesDuration.getDuration()
                                                                                    : ThreadDatabase.NO_TRIM_BEFORE_DATE_SET;
 
-        SignalExecutors.BOUNDED.execute(() -> DatabaseFactory.getThreadDatabase(ApplicationDependencies.getApplication()).trimAllThreads(length, trimBeforeDate));
+        SignalExecutors.BOUNDED.execute(() -> {
+          if (DatabaseFactory.getThreadDatabase(ApplicationDependencies.getApplication()).trimAllThreads(length, trimBeforeDate)) {
+            ApplicationDependencies.getJobManager().add(new AttachmentFileCleanupJob());
+          }
+        });
       }
     }
   }
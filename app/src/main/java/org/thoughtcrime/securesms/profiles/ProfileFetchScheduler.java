@@ -0,0 +1,193 @@
+package org.thoughtcrime.securesms.profiles;
+
+import android.content.Context;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.VisibleForTesting;
+import androidx.annotation.WorkerThread;
+
+import org.signal.core.util.logging.Log;
+
+import org.thoughtcrime.securesms.recipients.Recipient;
+import org.thoughtcrime.securesms.recipients.RecipientId;
+import org.thoughtcrime.securesms.util.ProfileUtil;
+import org.thoughtcrime.securesms.util.TokenBucket;
+import org.whispersystems.signalservice.api.profiles.ProfileAndCredential;
+import org.whispersystems.signalservice.api.profiles.SignalServiceProfile;
+import org.whispersystems.signalservice.api.push.exceptions.PushNetworkException;
+import org.whispersystems.signalservice.internal.util.concurrent.ListenableFuture;
+import org.whispersystems.signalservice.internal.util.concurrent.SettableFuture;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Funnels every profile fetch made by {@link org.thoughtcrime.securesms.jobs.RetrieveProfileJob}
+ * through one place, so that the many overlapping jobs scheduled when joining a large group or
+ * during a routine refresh don't each go to the network for the same people.
+ *
+ * - A fetch for a recipient that already has one in flight shares the existing request.
+ * - At most {@link #MAX_CONCURRENT} fetches are outstanding at once.
+ * - New fetches are started at a sustained rate of one per {@link #REFILL_INTERVAL_MS}, with
+ *   bursts of up to {@link #BURST}.
+ * - A fetch that can't get past those limits within {@link #ACQUIRE_TIMEOUT_MS} fails with a
+ *   {@link PushNetworkException}, so the job retries later rather than waiting indefinitely.
+ */
+public final class ProfileFetchScheduler {
+
+  private static final String TAG = Log.tag(ProfileFetchScheduler.class);
+
+  private static final int  MAX_CONCURRENT     = 10;
+  private static final int  BURST              = 25;
+  private static final long REFILL_INTERVAL_MS = 100;
+  private static final long ACQUIRE_TIMEOUT_MS = TimeUnit.SECONDS.toMillis(10);
+
+  private final Fetcher                    fetcher;
+  private final Semaphore                  concurrency;
+  private final TokenBucket                rateLimiter;
+  private final long                       acquireTimeoutMs;
+  private final Map<RecipientId, InFlight> inFlight  = new HashMap<>();
+  private final AtomicLong                 requested = new AtomicLong();
+  private final AtomicLong                 coalesced = new AtomicLong();
+
+  public ProfileFetchScheduler(@NonNull Context context) {
+    this((recipient, requestType) -> ProfileUtil.retrieveProfile(context.getApplicationContext(), recipient, requestType),
+         MAX_CONCURRENT,
+         new TokenBucket(BURST, REFILL_INTERVAL_MS),
+         ACQUIRE_TIMEOUT_MS);
+  }
+
+  @VisibleForTesting
+  ProfileFetchScheduler(@NonNull Fetcher fetcher, int maxConcurrent, @NonNull TokenBucket rateLimiter, long acquireTimeoutMs) {
+    this.fetcher          = fetcher;
+    this.concurrency      = new Semaphore(maxConcurrent);
+    this.rateLimiter      = rateLimiter;
+    this.acquireTimeoutMs = acquireTimeoutMs;
+  }
+
+  /**
+   * Fetches the profile of the provided recipient, or joins a fetch that is already in flight for
+   * them. Blocks while the concurrency or rate limits are exhausted, for up to
+   * {@link #ACQUIRE_TIMEOUT_MS}.
+   */
+  @WorkerThread
+  public @NonNull ListenableFuture<ProfileAndCredential> fetch(@NonNull Recipient recipient,
+                                                               @NonNull SignalServiceProfile.RequestType requestType)
+  {
+    SettableFuture<ProfileAndCredential> future;
+
+    requested.incrementAndGet();
+
+    synchronized (inFlight) {
+      InFlight existing = inFlight.get(recipient.getId());
+
+      if (existing != null && existing.satisfies(requestType)) {
+        coalesced.incrementAndGet();
+        return existing.future;
+      }
+
+      future = new SettableFuture<>();
+      inFlight.put(recipient.getId(), new InFlight(requestType, future));
+    }
+
+    try {
+      if (!concurrency.tryAcquire(acquireTimeoutMs, TimeUnit.MILLISECONDS)) {
+        Log.w(TAG, "Timed out waiting for a free fetch slot.");
+        fail(recipient.getId(), future, new PushNetworkException("Timed out waiting for a free fetch slot."));
+        return future;
+      }
+    } catch (InterruptedException e) {
+      fail(recipient.getId(), future, new PushNetworkException(e));
+      return future;
+    }
+
+    ListenableFuture<ProfileAndCredential> request;
+
+    try {
+      if (!rateLimiter.acquire(acquireTimeoutMs)) {
+        Log.w(TAG, "Timed out waiting for the rate limit.");
+        concurrency.release();
+        fail(recipient.getId(), future, new PushNetworkException("Timed out waiting for the rate limit."));
+        return future;
+      }
+
+      request = fetcher.fetch(recipient, requestType);
+    } catch (InterruptedException e) {
+      concurrency.release();
+      fail(recipient.getId(), future, new PushNetworkException(e));
+      return future;
+    } catch (RuntimeException e) {
+      Log.w(TAG, "Failed to start a profile fetch.", e);
+      concurrency.release();
+      fail(recipient.getId(), future, e);
+      return future;
+    }
+
+    request.addListener(new ListenableFuture.Listener<ProfileAndCredential>() {
+      @Override
+      public void onSuccess(ProfileAndCredential result) {
+        concurrency.release();
+        complete(recipient.getId(), future);
+        future.set(result);
+      }
+
+      @Override
+      public void onFailure(ExecutionException e) {
+        concurrency.release();
+        fail(recipient.getId(), future, e.getCause());
+      }
+    });
+
+    return future;
+  }
+
+  /**
+   * @return Fetches requested so far, and how many of those were served by a request already in
+   *         flight rather than a new one.
+   */
+  public @NonNull String getStats() {
+    return "requested: " + requested.get() + ", coalesced: " + coalesced.get();
+  }
+
+  private void complete(@NonNull RecipientId recipientId, @NonNull SettableFuture<ProfileAndCredential> future) {
+    synchronized (inFlight) {
+      InFlight current = inFlight.get(recipientId);
+
+      if (current != null && current.future == future) {
+        inFlight.remove(recipientId);
+      }
+    }
+  }
+
+  private void fail(@NonNull RecipientId recipientId, @NonNull SettableFuture<ProfileAndCredential> future, @NonNull Throwable cause) {
+    complete(recipientId, future);
+    future.setException(cause);
+  }
+
+  @VisibleForTesting
+  interface Fetcher {
+    @NonNull ListenableFuture<ProfileAndCredential> fetch(@NonNull Recipient recipient, @NonNull SignalServiceProfile.RequestType requestType);
+  }
+
+  private static final class InFlight {
+    private final SignalServiceProfile.RequestType     requestType;
+    private final SettableFuture<ProfileAndCredential> future;
+
+    private InFlight(@NonNull SignalServiceProfile.RequestType requestType, @NonNull SettableFuture<ProfileAndCredential> future) {
+      this.requestType = requestType;
+      this.future      = future;
+    }
+
+    /**
+     * A fetch that also asked for a credential answers a plain profile request too, but not the
+     * other way around.
+     */
+    boolean satisfies(@NonNull SignalServiceProfile.RequestType requested) {
+      return requestType == requested || requestType == SignalServiceProfile.RequestType.PROFILE_AND_CREDENTIAL;
+    }
+  }
+}
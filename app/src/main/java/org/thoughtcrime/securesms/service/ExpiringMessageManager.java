@@ -1,23 +1,38 @@
 package org.thoughtcrime.securesms.service;
 
 import android.content.Context;
+import android.database.Cursor;
+
+import androidx.annotation.NonNull;
 
 import org.signal.core.util.logging.Log;
 import org.thoughtcrime.securesms.database.DatabaseFactory;
 import org.thoughtcrime.securesms.database.MessageDatabase;
-import org.thoughtcrime.securesms.database.MmsDatabase;
-import org.thoughtcrime.securesms.database.SmsDatabase;
-import org.thoughtcrime.securesms.database.model.MessageRecord;
+import org.thoughtcrime.securesms.database.MmsSmsColumns;
+import org.thoughtcrime.securesms.util.CursorUtil;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Comparator;
+import java.util.List;
 import java.util.TreeSet;
 import java.util.concurrent.Executor;
 import java.util.concurrent.Executors;
 
+/**
+ * Deletes disappearing messages when their timers run out.
+ *
+ * Only the (id, isMms, expiresAt) triple of each message is kept in memory. Messages are paged in
+ * from the database in expiration order as needed, and everything that is due on a given tick is
+ * deleted together in a single transaction.
+ */
 public class ExpiringMessageManager {
 
   private static final String TAG = ExpiringMessageManager.class.getSimpleName();
 
+  private static final int LOAD_PAGE_SIZE    = 500;
+  private static final int DELETE_BATCH_SIZE = 500;
+
   private final TreeSet<ExpiringMessageReference> expiringMessageReferences = new TreeSet<>(new ExpiringMessageComparator());
   private final Executor                          executor                  = Executors.newSingleThreadExecutor();
 
@@ -25,12 +40,17 @@ public class ExpiringMessageManager {
   private final MessageDatabase mmsDatabase;
   private final Context         context;
 
+  /**
+   * Every message in the database that expires at or before this time is guaranteed to be in
+   * {@link #expiringMessageReferences}. Guarded by {@link #expiringMessageReferences}.
+   */
+  private long loadedUntil;
+
   public ExpiringMessageManager(Context context) {
     this.context     = context.getApplicationContext();
     this.smsDatabase = DatabaseFactory.getSmsDatabase(context);
     this.mmsDatabase = DatabaseFactory.getMmsDatabase(context);
 
-    executor.execute(new LoadTask());
     executor.execute(new ProcessTask());
   }
 
@@ -53,62 +73,117 @@ public class ExpiringMessageManager {
     }
   }
 
-  private class LoadTask implements Runnable {
+  @SuppressWarnings("InfiniteLoopStatement")
+  private class ProcessTask implements Runnable {
     public void run() {
-      SmsDatabase.Reader smsReader = SmsDatabase.readerFor(smsDatabase.getExpirationStartedMessages());
-      MmsDatabase.Reader mmsReader = MmsDatabase.readerFor(mmsDatabase.getExpirationStartedMessages());
+      while (true) {
+        if (needsLoad()) {
+          loadNextPage();
+        }
 
-      MessageRecord messageRecord;
+        List<ExpiringMessageReference> expired = awaitExpired();
+
+        if (!expired.isEmpty()) {
+          deleteExpired(expired);
+        }
+      }
+    }
 
-      while ((messageRecord = smsReader.getNext()) != null) {
-        expiringMessageReferences.add(new ExpiringMessageReference(messageRecord.getId(),
-                                                                   messageRecord.isMms(),
-                                                                   messageRecord.getExpireStarted() + messageRecord.getExpiresIn()));
+    private boolean needsLoad() {
+      synchronized (expiringMessageReferences) {
+        return loadedUntil != Long.MAX_VALUE &&
+               (expiringMessageReferences.isEmpty() || expiringMessageReferences.first().expiresAtMillis > loadedUntil);
       }
+    }
 
-      while ((messageRecord = mmsReader.getNext()) != null) {
-        expiringMessageReferences.add(new ExpiringMessageReference(messageRecord.getId(),
-                                                                   messageRecord.isMms(),
-                                                                   messageRecord.getExpireStarted() + messageRecord.getExpiresIn()));
+    private void loadNextPage() {
+      long                           minExpiresAt = getLoadedUntil();
+      List<ExpiringMessageReference> loaded       = new ArrayList<>(LOAD_PAGE_SIZE * 2);
+      long                           smsHorizon   = loadPage(smsDatabase, false, minExpiresAt, loaded);
+      long                           mmsHorizon   = loadPage(mmsDatabase, true, minExpiresAt, loaded);
+
+      synchronized (expiringMessageReferences) {
+        expiringMessageReferences.addAll(loaded);
+        loadedUntil = Math.min(smsHorizon, mmsHorizon);
       }
 
-      smsReader.close();
-      mmsReader.close();
+      Log.d(TAG, "Loaded " + loaded.size() + " expiring messages.");
     }
-  }
 
-  @SuppressWarnings("InfiniteLoopStatement")
-  private class ProcessTask implements Runnable {
-    public void run() {
-      while (true) {
-        ExpiringMessageReference expiredMessage = null;
+    /**
+     * @return The latest expiration time for which this table is fully loaded.
+     */
+    private long loadPage(@NonNull MessageDatabase database, boolean mms, long minExpiresAt, @NonNull List<ExpiringMessageReference> out) {
+      int  count         = 0;
+      long lastExpiresAt = minExpiresAt;
+
+      try (Cursor cursor = database.getExpirationStartedMessages(minExpiresAt, LOAD_PAGE_SIZE)) {
+        while (cursor != null && cursor.moveToNext()) {
+          long id        = CursorUtil.requireLong(cursor, MmsSmsColumns.ID);
+          long expiresAt = CursorUtil.requireLong(cursor, MessageDatabase.EXPIRES_AT);
+
+          out.add(new ExpiringMessageReference(id, mms, expiresAt));
+          lastExpiresAt = expiresAt;
+          count++;
+        }
+      }
 
-        synchronized (expiringMessageReferences) {
-          try {
-            while (expiringMessageReferences.isEmpty()) expiringMessageReferences.wait();
+      return count < LOAD_PAGE_SIZE ? Long.MAX_VALUE : lastExpiresAt;
+    }
 
-            ExpiringMessageReference nextReference = expiringMessageReferences.first();
-            long                     waitTime      = nextReference.expiresAtMillis - System.currentTimeMillis();
+    private @NonNull List<ExpiringMessageReference> awaitExpired() {
+      synchronized (expiringMessageReferences) {
+        try {
+          while (expiringMessageReferences.isEmpty() && loadedUntil == Long.MAX_VALUE) {
+            expiringMessageReferences.wait();
+          }
 
-            if (waitTime > 0) {
-              ExpirationListener.setAlarm(context, waitTime);
-              expiringMessageReferences.wait(waitTime);
-            } else {
-              expiredMessage = nextReference;
-              expiringMessageReferences.remove(nextReference);
-            }
+          if (expiringMessageReferences.isEmpty()) {
+            return Collections.emptyList();
+          }
 
-          } catch (InterruptedException e) {
-            Log.w(TAG, e);
+          List<ExpiringMessageReference> expired = new ArrayList<>();
+          long                           now     = System.currentTimeMillis();
+
+          while (!expiringMessageReferences.isEmpty()                       &&
+                 expiringMessageReferences.first().expiresAtMillis <= now &&
+                 expired.size() < DELETE_BATCH_SIZE)
+          {
+            expired.add(expiringMessageReferences.pollFirst());
+          }
+
+          if (expired.isEmpty() && !needsLoad()) {
+            long waitTime = expiringMessageReferences.first().expiresAtMillis - now;
+
+            ExpirationListener.setAlarm(context, waitTime);
+            expiringMessageReferences.wait(waitTime);
           }
-        }
 
-        if (expiredMessage != null) {
-          if (expiredMessage.mms) mmsDatabase.deleteMessage(expiredMessage.id);
-          else                    smsDatabase.deleteMessage(expiredMessage.id);
+          return expired;
+        } catch (InterruptedException e) {
+          Log.w(TAG, e);
+          return Collections.emptyList();
         }
       }
     }
+
+    private void deleteExpired(@NonNull List<ExpiringMessageReference> expired) {
+      List<Long> smsIds = new ArrayList<>(expired.size());
+      List<Long> mmsIds = new ArrayList<>(expired.size());
+
+      for (ExpiringMessageReference reference : expired) {
+        if (reference.mms) mmsIds.add(reference.id);
+        else               smsIds.add(reference.id);
+      }
+
+      DatabaseFactory.getMmsSmsDatabase(context).deleteMessages(smsIds, mmsIds);
+    }
+
+    private long getLoadedUntil() {
+      synchronized (expiringMessageReferences) {
+        return loadedUntil;
+      }
+    }
   }
 
   private static class ExpiringMessageReference {
@@ -13,6 +13,7 @@ import org.thoughtcrime.securesms.database.DatabaseFactory;
 import org.thoughtcrime.securesms.database.MmsSmsDatabase;
 import org.thoughtcrime.securesms.database.ThreadDatabase;
 import org.thoughtcrime.securesms.dependencies.ApplicationDependencies;
+import org.thoughtcrime.securesms.jobs.AttachmentFileCleanupJob;
 import org.thoughtcrime.securesms.keyvalue.KeepMessagesDuration;
 import org.thoughtcrime.securesms.keyvalue.SignalStore;
 
@@ -66,7 +67,11 @@ public class TrimThreadsByDateManager extends TimedEventManager<TrimThreadsByDat
                                                                                : ThreadDatabase.NO_TRIM_BEFORE_DATE_SET;
 
     Log.i(TAG, "Trimming all threads with length: " + trimLength + " before: " + trimBeforeDate);
-    threadDatabase.trimAllThreads(trimLength, trimBeforeDate);
+    boolean trimmed = threadDatabase.trimAllThreads(trimLength, trimBeforeDate, (completed, total) -> Log.i(TAG, "Trimmed " + completed + "/" + total + " threads"));
+
+    if (trimmed) {
+      ApplicationDependencies.getJobManager().add(new AttachmentFileCleanupJob());
+    }
   }
 
   @Override
@@ -6,6 +6,7 @@ import android.database.Cursor;
 import androidx.annotation.NonNull;
 
 import org.signal.core.util.concurrent.SignalExecutors;
+import org.signal.core.util.logging.Log;
 import org.thoughtcrime.securesms.components.emoji.EmojiUtil;
 import org.thoughtcrime.securesms.database.AttachmentDatabase;
 import org.thoughtcrime.securesms.database.CursorList;
@@ -16,10 +17,11 @@ import org.thoughtcrime.securesms.database.model.StickerRecord;
 
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Set;
 
 public final class StickerSearchRepository {
 
+  private static final String TAG = Log.tag(StickerSearchRepository.class);
+
   private final StickerDatabase    stickerDatabase;
   private final AttachmentDatabase attachmentDatabase;
 
@@ -28,21 +30,29 @@ public final class StickerSearchRepository {
     this.attachmentDatabase = DatabaseFactory.getAttachmentDatabase(context);
   }
 
+  /**
+   * Builds the emoji search key map ahead of the first search, so the first suggestion as the user
+   * types doesn't wait on it.
+   */
+  public void warmUp() {
+    SignalExecutors.BOUNDED.execute(() -> EmojiUtil.getSearchKey(""));
+  }
+
   public void searchByEmoji(@NonNull String emoji, @NonNull Callback<List<StickerRecord>> callback) {
     SignalExecutors.BOUNDED.execute(() -> {
-      String              searchEmoji = EmojiUtil.getCanonicalRepresentation(emoji);
-      List<StickerRecord> out         = new ArrayList<>();
-      Set<String>         possible    = EmojiUtil.getAllRepresentations(searchEmoji);
-
-      for (String candidate : possible) {
-        try (StickerRecordReader reader = new StickerRecordReader(stickerDatabase.getStickersByEmoji(candidate))) {
-          StickerRecord record = null;
-          while ((record = reader.getNext()) != null) {
-            out.add(record);
-          }
+      long                startTime = System.currentTimeMillis();
+      String              searchKey = EmojiUtil.getSearchKey(emoji);
+      List<StickerRecord> out       = new ArrayList<>();
+
+      try (StickerRecordReader reader = new StickerRecordReader(stickerDatabase.getStickersByEmoji(searchKey))) {
+        StickerRecord record = null;
+        while ((record = reader.getNext()) != null) {
+          out.add(record);
         }
       }
 
+      Log.d(TAG, "searchByEmoji(): " + out.size() + " results in " + (System.currentTimeMillis() - startTime) + " ms");
+
       callback.onResult(out);
     });
   }
@@ -9,9 +9,14 @@ import androidx.annotation.NonNull;
 
 import org.signal.core.util.concurrent.SignalExecutors;
 import org.signal.core.util.logging.Log;
+import org.signal.core.util.tracing.Tracer;
 
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
 
 /**
  * Manages our app startup flow.
@@ -28,10 +33,11 @@ public final class AppStartup {
 
   private static final AppStartup INSTANCE = new AppStartup();
 
-  private final List<Task> blocking;
-  private final List<Task> nonBlocking;
-  private final List<Task> postRender;
-  private final Handler    postRenderHandler;
+  private final StartupTaskGraph  blocking;
+  private final Map<String, Long> blockingTimes;
+  private final List<Task>        nonBlocking;
+  private final List<Task>        postRender;
+  private final Handler           postRenderHandler;
 
   private int outstandingCriticalRenderEvents;
 
@@ -44,7 +50,8 @@ public final class AppStartup {
   }
 
   private AppStartup() {
-    this.blocking          = new LinkedList<>();
+    this.blockingTimes     = Collections.synchronizedMap(new LinkedHashMap<>());
+    this.blocking          = new StartupTaskGraph(new TracingListener(blockingTimes));
     this.nonBlocking       = new LinkedList<>();
     this.postRender        = new LinkedList<>();
     this.postRenderHandler = new Handler(Looper.getMainLooper());
@@ -55,11 +62,34 @@ public final class AppStartup {
   }
 
   /**
-   * Schedules a task that must happen during app startup in a blocking fashion.
+   * Schedules a task that must happen during app startup in a blocking fashion. It runs on the main
+   * thread after every blocking task that was added before it.
    */
   @MainThread
   public @NonNull AppStartup addBlocking(@NonNull String name, @NonNull Runnable task) {
-    blocking.add(new Task(name, task));
+    blocking.add(name, true, task, blocking.getNames());
+    return this;
+  }
+
+  /**
+   * Schedules a task that must happen during app startup in a blocking fashion, and that has to run
+   * on the main thread. It runs as soon as the named tasks, which must already have been added,
+   * have finished.
+   */
+  @MainThread
+  public @NonNull AppStartup addBlockingOnMainThread(@NonNull String name, @NonNull Runnable task, @NonNull String... dependencies) {
+    blocking.add(name, true, task, dependencies);
+    return this;
+  }
+
+  /**
+   * Schedules a task that must happen during app startup in a blocking fashion, but can run on a
+   * background thread alongside other blocking tasks. It runs as soon as the named tasks, which must
+   * already have been added, have finished.
+   */
+  @MainThread
+  public @NonNull AppStartup addBlockingInBackground(@NonNull String name, @NonNull Runnable task, @NonNull String... dependencies) {
+    blocking.add(name, false, task, dependencies);
     return this;
   }
 
@@ -138,11 +168,19 @@ public final class AppStartup {
   public void execute() {
     Stopwatch stopwatch = new Stopwatch("init");
 
-    for (Task task : blocking) {
-      task.getRunnable().run();
-      stopwatch.split(task.getName());
+    if (!blocking.isEmpty()) {
+      ExecutorService startupExecutor = SignalExecutors.newCachedBoundedExecutor("signal-startup", 1, SignalExecutors.getIdealThreadCount());
+
+      try {
+        blocking.execute(startupExecutor);
+      } finally {
+        startupExecutor.shutdown();
+      }
+
+      stopwatch.split("blocking");
+      Log.d(TAG, "Blocking task times: " + blockingTimes);
+      blockingTimes.clear();
     }
-    blocking.clear();
 
     for (Task task : nonBlocking) {
       SignalExecutors.BOUNDED.execute(task.getRunnable());
@@ -165,6 +203,25 @@ public final class AppStartup {
     postRender.clear();
   }
 
+  private static final class TracingListener implements StartupTaskGraph.Listener {
+    private final Map<String, Long> times;
+
+    private TracingListener(@NonNull Map<String, Long> times) {
+      this.times = times;
+    }
+
+    @Override
+    public void onTaskStarted(@NonNull String name) {
+      Tracer.getInstance().start("AppStartup#" + name);
+    }
+
+    @Override
+    public void onTaskFinished(@NonNull String name, long durationMs) {
+      Tracer.getInstance().end("AppStartup#" + name);
+      times.put(name, durationMs);
+    }
+  }
+
   private class Task {
     private final String   name;
     private final Runnable runnable;
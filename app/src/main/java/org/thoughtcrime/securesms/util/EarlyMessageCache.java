@@ -23,7 +23,7 @@ public final class EarlyMessageCache {
    * @param targetSender        The sender of the message this message depends on.
    * @param targetSentTimestamp The sent timestamp of the message this message depends on.
    */
-  public void store(@NonNull RecipientId targetSender, long targetSentTimestamp, @NonNull SignalServiceContent content) {
+  public synchronized void store(@NonNull RecipientId targetSender, long targetSentTimestamp, @NonNull SignalServiceContent content) {
     MessageId                  messageId   = new MessageId(targetSender, targetSentTimestamp);
     List<SignalServiceContent> contentList = cache.get(messageId);
 
@@ -41,7 +41,7 @@ public final class EarlyMessageCache {
    * @param sender        The sender of the message in question.
    * @param sentTimestamp The sent timestamp of the message in question.
    */
-  public Optional<List<SignalServiceContent>> retrieve(@NonNull RecipientId sender, long sentTimestamp) {
+  public synchronized Optional<List<SignalServiceContent>> retrieve(@NonNull RecipientId sender, long sentTimestamp) {
     return Optional.fromNullable(cache.remove(new MessageId(sender, sentTimestamp)));
   }
 
@@ -0,0 +1,193 @@
+package org.thoughtcrime.securesms.util;
+
+import androidx.annotation.NonNull;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * The blocking part of app startup, as a set of named tasks and the tasks each one depends on.
+ *
+ * Tasks that have to run on the main thread run on the thread that calls {@link #execute(Executor)},
+ * and every other task runs on the given executor, each as soon as its dependencies are done.
+ * {@link #execute(Executor)} returns once everything has finished, so startup only takes as long
+ * as its longest chain of dependent tasks rather than the sum of all of them.
+ *
+ * Dependencies have to be added before the tasks that depend on them, so there can't be a cycle.
+ */
+final class StartupTaskGraph {
+
+  private static final Node DONE = new Node("", false, () -> {}, Collections.emptyList());
+
+  private final Map<String, Node> nodes = new LinkedHashMap<>();
+  private final Listener          listener;
+
+  StartupTaskGraph(@NonNull Listener listener) {
+    this.listener = listener;
+  }
+
+  void add(@NonNull String name, boolean mainThread, @NonNull Runnable task, @NonNull String... dependencies) {
+    add(name, mainThread, task, Arrays.asList(dependencies));
+  }
+
+  void add(@NonNull String name, boolean mainThread, @NonNull Runnable task, @NonNull Collection<String> dependencies) {
+    if (nodes.containsKey(name)) {
+      throw new IllegalArgumentException("Task " + name + " was already added!");
+    }
+
+    for (String dependency : dependencies) {
+      if (!nodes.containsKey(dependency)) {
+        throw new IllegalArgumentException("Task " + name + " depends on " + dependency + ", which hasn't been added!");
+      }
+    }
+
+    nodes.put(name, new Node(name, mainThread, task, dependencies));
+  }
+
+  @NonNull Collection<String> getNames() {
+    return new ArrayList<>(nodes.keySet());
+  }
+
+  boolean isEmpty() {
+    return nodes.isEmpty();
+  }
+
+  /**
+   * Runs every task, and returns once they have all finished. Must be called from the thread that
+   * main thread tasks should run on. If any task throws, this rethrows the first failure once no
+   * more tasks can start.
+   */
+  void execute(@NonNull Executor executor) {
+    if (nodes.isEmpty()) {
+      return;
+    }
+
+    Run run = new Run(executor);
+
+    for (Node node : nodes.values()) {
+      node.pending.set(node.dependencies.size());
+
+      for (String dependency : node.dependencies) {
+        nodes.get(dependency).dependents.add(node);
+      }
+    }
+
+    run.remaining.set(nodes.size());
+
+    for (Node node : nodes.values()) {
+      if (node.dependencies.isEmpty()) {
+        run.dispatch(node);
+      }
+    }
+
+    nodes.clear();
+
+    while (true) {
+      Node node;
+
+      try {
+        node = run.mainThreadQueue.take();
+      } catch (InterruptedException e) {
+        throw new AssertionError(e);
+      }
+
+      if (node == DONE) {
+        break;
+      }
+
+      run.run(node);
+    }
+
+    Throwable failure = run.failure.get();
+
+    if (failure instanceof RuntimeException) {
+      throw (RuntimeException) failure;
+    } else if (failure instanceof Error) {
+      throw (Error) failure;
+    } else if (failure != null) {
+      throw new AssertionError(failure);
+    }
+  }
+
+  private final class Run {
+    private final Executor                   executor;
+    private final BlockingQueue<Node>        mainThreadQueue = new LinkedBlockingQueue<>();
+    private final AtomicInteger              remaining       = new AtomicInteger();
+    private final AtomicReference<Throwable> failure         = new AtomicReference<>();
+
+    private Run(@NonNull Executor executor) {
+      this.executor = executor;
+    }
+
+    private void dispatch(@NonNull Node node) {
+      if (node.mainThread) {
+        mainThreadQueue.add(node);
+      } else {
+        executor.execute(() -> run(node));
+      }
+    }
+
+    private void run(@NonNull Node node) {
+      if (failure.get() != null) {
+        return;
+      }
+
+      long start = System.currentTimeMillis();
+      listener.onTaskStarted(node.name);
+
+      try {
+        node.task.run();
+      } catch (Throwable t) {
+        failure.compareAndSet(null, t);
+        mainThreadQueue.add(DONE);
+        return;
+      }
+
+      listener.onTaskFinished(node.name, System.currentTimeMillis() - start);
+
+      for (Node dependent : node.dependents) {
+        if (dependent.pending.decrementAndGet() == 0) {
+          dispatch(dependent);
+        }
+      }
+
+      if (remaining.decrementAndGet() == 0) {
+        mainThreadQueue.add(DONE);
+      }
+    }
+  }
+
+  private static final class Node {
+    private final String        name;
+    private final boolean       mainThread;
+    private final Runnable      task;
+    private final List<String>  dependencies;
+    private final List<Node>    dependents;
+    private final AtomicInteger pending;
+
+    private Node(@NonNull String name, boolean mainThread, @NonNull Runnable task, @NonNull Collection<String> dependencies) {
+      this.name         = name;
+      this.mainThread   = mainThread;
+      this.task         = task;
+      this.dependencies = new ArrayList<>(dependencies);
+      this.dependents   = new ArrayList<>();
+      this.pending      = new AtomicInteger();
+    }
+  }
+
+  interface Listener {
+    void onTaskStarted(@NonNull String name);
+
+    void onTaskFinished(@NonNull String name, long durationMs);
+  }
+}
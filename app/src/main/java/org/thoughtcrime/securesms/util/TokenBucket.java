@@ -0,0 +1,97 @@
+package org.thoughtcrime.securesms.util;
+
+import androidx.annotation.VisibleForTesting;
+import androidx.annotation.WorkerThread;
+
+/**
+ * A simple token bucket rate limiter. Holds up to {@code capacity} tokens and gains one back every
+ * {@code refillIntervalMs}, allowing short bursts while bounding the sustained rate.
+ */
+public final class TokenBucket {
+
+  private final int   capacity;
+  private final long  refillIntervalMs;
+  private final Clock clock;
+
+  private int  tokens;
+  private long lastRefill;
+
+  public TokenBucket(int capacity, long refillIntervalMs) {
+    this(capacity, refillIntervalMs, System::currentTimeMillis);
+  }
+
+  @VisibleForTesting
+  TokenBucket(int capacity, long refillIntervalMs, Clock clock) {
+    if (capacity < 1 || refillIntervalMs < 1) {
+      throw new IllegalArgumentException();
+    }
+
+    this.capacity         = capacity;
+    this.refillIntervalMs = refillIntervalMs;
+    this.clock            = clock;
+    this.tokens           = capacity;
+    this.lastRefill       = clock.currentTimeMillis();
+  }
+
+  /**
+   * Takes a token if one is available.
+   *
+   * @return 0 if a token was taken, otherwise how many ms until the next one is available.
+   */
+  public synchronized long tryAcquire() {
+    long now = clock.currentTimeMillis();
+    long gained = (now - lastRefill) / refillIntervalMs;
+
+    if (gained > 0) {
+      tokens     = (int) Math.min(capacity, tokens + gained);
+      lastRefill = tokens == capacity ? now : lastRefill + gained * refillIntervalMs;
+    }
+
+    if (tokens > 0) {
+      tokens--;
+      return 0;
+    }
+
+    return Math.max(1, lastRefill + refillIntervalMs - now);
+  }
+
+  /**
+   * Blocks until a token is available, then takes it.
+   */
+  @WorkerThread
+  public void acquire() throws InterruptedException {
+    long wait;
+
+    while ((wait = tryAcquire()) > 0) {
+      Thread.sleep(wait);
+    }
+  }
+
+  /**
+   * Blocks until a token is available, then takes it, giving up after {@code timeoutMs}.
+   *
+   * @return True if a token was taken.
+   */
+  @WorkerThread
+  public boolean acquire(long timeoutMs) throws InterruptedException {
+    long deadline = clock.currentTimeMillis() + timeoutMs;
+    long wait;
+
+    while ((wait = tryAcquire()) > 0) {
+      long remaining = deadline - clock.currentTimeMillis();
+
+      if (remaining <= 0) {
+        return false;
+      }
+
+      Thread.sleep(Math.min(wait, remaining));
+    }
+
+    return true;
+  }
+
+  @VisibleForTesting
+  interface Clock {
+    long currentTimeMillis();
+  }
+}
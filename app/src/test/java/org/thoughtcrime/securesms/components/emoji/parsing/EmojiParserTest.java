@@ -0,0 +1,128 @@
+package org.thoughtcrime.securesms.components.emoji.parsing;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public final class EmojiParserTest {
+
+  private static final String THUMBS_UP = "\uD83D\uDC4D";
+  private static final String HEART     = "\u2764\uFE0F";
+  private static final String FAMILY    = "\uD83D\uDC68\u200D\uD83D\uDC69\u200D\uD83D\uDC67";
+  private static final String MAN       = "\uD83D\uDC68";
+  private static final String SKIN_TONE = "\uD83C\uDFFD";
+
+  private EmojiDrawInfo thumbsUp;
+  private EmojiDrawInfo heart;
+  private EmojiDrawInfo family;
+  private EmojiDrawInfo man;
+  private EmojiParser   parser;
+
+  @Before
+  public void setUp() {
+    EmojiTree tree = new EmojiTree();
+
+    thumbsUp = new EmojiDrawInfo(null, 0);
+    heart    = new EmojiDrawInfo(null, 1);
+    family   = new EmojiDrawInfo(null, 2);
+    man      = new EmojiDrawInfo(null, 3);
+
+    tree.add(THUMBS_UP, thumbsUp);
+    tree.add(HEART, heart);
+    tree.add(FAMILY, family);
+    tree.add(MAN, man);
+
+    parser = new EmojiParser(tree);
+  }
+
+  @Test
+  public void findCandidates_noEmoji_returnsSharedEmptyList() {
+    EmojiParser.CandidateList first  = parser.findCandidates("Hello there, nothing to see here.");
+    EmojiParser.CandidateList second = parser.findCandidates("Another message");
+
+    assertEquals(0, first.size());
+    assertFalse(first.allEmojis);
+    assertSame(first, second);
+  }
+
+  @Test
+  public void findCandidates_nullAndEmpty() {
+    assertEquals(0, parser.findCandidates(null).size());
+    assertEquals(0, parser.findCandidates("").size());
+  }
+
+  @Test
+  public void findCandidates_findsEmojiPositions() {
+    String                    text       = "hi " + THUMBS_UP + " there " + HEART;
+    EmojiParser.CandidateList candidates = parser.findCandidates(text);
+
+    assertEquals(2, candidates.size());
+    assertFalse(candidates.allEmojis);
+
+    assertEquals(3, candidates.list.get(0).getStartIndex());
+    assertEquals(5, candidates.list.get(0).getEndIndex());
+    assertSame(thumbsUp, candidates.list.get(0).getDrawInfo());
+
+    assertEquals(text.length() - 2, candidates.list.get(1).getStartIndex());
+    assertEquals(text.length(), candidates.list.get(1).getEndIndex());
+    assertSame(heart, candidates.list.get(1).getDrawInfo());
+  }
+
+  @Test
+  public void findCandidates_allEmojis() {
+    EmojiParser.CandidateList candidates = parser.findCandidates(THUMBS_UP + " " + THUMBS_UP);
+
+    assertEquals(2, candidates.size());
+    assertTrue(candidates.allEmojis);
+  }
+
+  @Test
+  public void findCandidates_prefersLongestMatch() {
+    EmojiParser.CandidateList candidates = parser.findCandidates(FAMILY);
+
+    assertEquals(1, candidates.size());
+    assertEquals(FAMILY.length(), candidates.list.get(0).getEndIndex());
+    assertSame(family, candidates.list.get(0).getDrawInfo());
+  }
+
+  @Test
+  public void findCandidates_fallsBackToShorterMatch() {
+    EmojiParser.CandidateList candidates = parser.findCandidates(MAN + "\u200D");
+
+    assertEquals(1, candidates.size());
+    assertEquals(MAN.length(), candidates.list.get(0).getEndIndex());
+    assertSame(man, candidates.list.get(0).getDrawInfo());
+  }
+
+  @Test
+  public void findCandidates_matchesWithoutVariationSelector() {
+    EmojiParser.CandidateList candidates = parser.findCandidates("\u2764");
+
+    assertEquals(1, candidates.size());
+    assertSame(heart, candidates.list.get(0).getDrawInfo());
+  }
+
+  @Test
+  public void findCandidates_includesSkinTone() {
+    EmojiParser.CandidateList candidates = parser.findCandidates(THUMBS_UP + SKIN_TONE);
+
+    assertEquals(1, candidates.size());
+    assertEquals(4, candidates.list.get(0).getEndIndex());
+  }
+
+  @Test
+  public void getEmoji_unknown_returnsNull() {
+    EmojiTree tree = new EmojiTree();
+    tree.add(THUMBS_UP, thumbsUp);
+
+    assertNull(tree.getEmoji("ab", 0, 2));
+    assertEquals(EmojiTree.Matches.IMPOSSIBLE, tree.isEmoji("ab", 0, 1));
+    assertEquals(EmojiTree.Matches.POSSIBLY, tree.isEmoji(THUMBS_UP, 0, 1));
+    assertEquals(EmojiTree.Matches.EXACTLY, tree.isEmoji(THUMBS_UP, 0, 2));
+  }
+}
@@ -0,0 +1,68 @@
+package org.thoughtcrime.securesms.components.emoji.parsing;
+
+import android.app.Application;
+import android.graphics.Bitmap;
+
+import androidx.test.core.app.ApplicationProvider;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE, application = Application.class)
+public final class EmojiTileCacheTest {
+
+  private EmojiTileCache tileCache;
+
+  @Before
+  public void setUp() {
+    tileCache = new EmojiTileCache(ApplicationProvider.getApplicationContext());
+  }
+
+  @Test
+  public void putDecoded_countsEveryDecode() {
+    assertEquals(1, tileCache.putDecoded("sheet#0", newTile()));
+    assertEquals(2, tileCache.putDecoded("sheet#1", newTile()));
+    assertEquals(3, tileCache.putDecoded("other#0", newTile()));
+  }
+
+  @Test
+  public void get_afterPutDecoded_returnsTileWithoutAnotherDecode() {
+    Bitmap tile = newTile();
+
+    assertEquals(1, tileCache.putDecoded("sheet#0", tile));
+
+    for (int i = 0; i < 10; i++) {
+      assertSame(tile, tileCache.get("sheet#0"));
+    }
+
+    assertEquals(2, tileCache.putDecoded("sheet#1", newTile()));
+  }
+
+  @Test
+  public void putDecoded_overMaxSize_evictsLeastRecentlyUsed() {
+    int tileBytes = newTile().getByteCount();
+    int capacity  = tileCache.getMaxSize() / tileBytes;
+
+    for (int i = 0; i < capacity; i++) {
+      assertEquals(i + 1, tileCache.putDecoded("sheet#" + i, newTile()));
+    }
+
+    tileCache.get("sheet#0");
+
+    assertEquals(capacity + 1, tileCache.putDecoded("sheet#" + capacity, newTile()));
+    assertNull(tileCache.get("sheet#1"));
+    assertEquals(capacity * tileBytes, tileCache.getSize());
+  }
+
+  private static Bitmap newTile() {
+    return Bitmap.createBitmap(EmojiPageBitmap.EMOJI_PER_ROW * EmojiPageBitmap.EMOJI_RAW_WIDTH, EmojiPageBitmap.EMOJI_RAW_HEIGHT, Bitmap.Config.ARGB_8888);
+  }
+}
@@ -0,0 +1,215 @@
+package org.thoughtcrime.securesms.database;
+
+import android.app.Application;
+import android.database.ContentObserver;
+
+import androidx.annotation.NonNull;
+import androidx.test.core.app.ApplicationProvider;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE, application = Application.class)
+public final class DatabaseObserverTest {
+
+  private static final long DEBOUNCE_MS    = 50;
+  private static final long MAX_LATENCY_MS = 250;
+  private static final int  BURST          = 200;
+
+  private Application      application;
+  private FakeScheduler    scheduler;
+  private DatabaseObserver subject;
+
+  @Before
+  public void setUp() {
+    application = ApplicationProvider.getApplicationContext();
+    scheduler   = new FakeScheduler(1000);
+    subject     = new DatabaseObserver(application, scheduler, scheduler, DEBOUNCE_MS, MAX_LATENCY_MS);
+  }
+
+  @Test
+  public void burst_collapsesToOneDelivery() {
+    AtomicInteger conversationRequeries = new AtomicInteger();
+    AtomicInteger listRequeries         = new AtomicInteger();
+
+    subject.registerConversationObserver(1, conversationRequeries::incrementAndGet);
+    subject.registerConversationListObserver(listRequeries::incrementAndGet);
+
+    for (int i = 0; i < BURST; i++) {
+      subject.notifyConversationListeners(1);
+      subject.notifyConversationListListeners();
+    }
+
+    scheduler.runUntilIdle();
+
+    assertEquals(1, conversationRequeries.get());
+    assertEquals(1, listRequeries.get());
+    assertEquals(1, subject.getDeliveryCount());
+    assertEquals(2 * BURST, subject.getRequestedNotificationCount());
+    assertEquals(2 * BURST - 2, subject.getSuppressedNotificationCount());
+  }
+
+  @Test
+  public void steadyChanges_deliveredOncePerMaxLatency() {
+    List<Long> deliveryTimes = new ArrayList<>();
+
+    subject.registerConversationListObserver(() -> deliveryTimes.add(scheduler.now));
+
+    for (int i = 0; i < 100; i++) {
+      subject.notifyConversationListListeners();
+      scheduler.advanceBy(10);
+    }
+
+    scheduler.runUntilIdle();
+
+    assertEquals(Arrays.asList(1000L, 1260L, 1510L, 1760L, 2010L), deliveryTimes);
+    assertEquals(5, subject.getDeliveryCount());
+    assertEquals(100 - 5, subject.getSuppressedNotificationCount());
+  }
+
+  @Test
+  public void burst_eachThreadStillNotified() {
+    AtomicInteger first  = new AtomicInteger();
+    AtomicInteger second = new AtomicInteger();
+    AtomicInteger other  = new AtomicInteger();
+
+    subject.registerConversationObserver(1, first::incrementAndGet);
+    subject.registerConversationObserver(2, second::incrementAndGet);
+    subject.registerConversationObserver(3, other::incrementAndGet);
+
+    for (int i = 0; i < BURST; i++) {
+      subject.notifyConversationListeners(i % 2 == 0 ? 1 : 2);
+    }
+
+    scheduler.runUntilIdle();
+
+    assertEquals(1, first.get());
+    assertEquals(1, second.get());
+    assertEquals(0, other.get());
+  }
+
+  @Test
+  public void spacedOutChanges_eachDeliveredRightAway() {
+    List<Long> deliveryTimes = new ArrayList<>();
+
+    subject.registerConversationListObserver(() -> deliveryTimes.add(scheduler.now));
+
+    for (int i = 0; i < 3; i++) {
+      subject.notifyConversationListListeners();
+      scheduler.advanceBy(DEBOUNCE_MS * 3);
+    }
+
+    assertEquals(Arrays.asList(1000L, 1150L, 1300L), deliveryTimes);
+    assertEquals(0, subject.getSuppressedNotificationCount());
+  }
+
+  @Test
+  public void verboseChange_deliveredOnlyToVerboseObservers() {
+    AtomicInteger regular = new AtomicInteger();
+    AtomicInteger verbose = new AtomicInteger();
+
+    subject.registerConversationObserver(1, regular::incrementAndGet);
+    subject.registerVerboseConversationObserver(1, verbose::incrementAndGet);
+
+    subject.notifyVerboseConversationListeners(1);
+
+    scheduler.runUntilIdle();
+
+    assertEquals(0, regular.get());
+    assertEquals(1, verbose.get());
+  }
+
+  @Test
+  public void conversationListChange_outsideTransaction_notifiesContentResolverRightAway() {
+    AtomicInteger changes = new AtomicInteger();
+
+    application.getContentResolver().registerContentObserver(DatabaseContentProviders.ConversationList.CONTENT_URI, false, new ContentObserver(null) {
+      @Override
+      public void onChange(boolean selfChange) {
+        changes.incrementAndGet();
+      }
+    });
+
+    subject.notifyConversationListListeners();
+
+    assertEquals(1, changes.get());
+  }
+
+  /**
+   * Runs tasks in the order they're due, as fake time is moved forward.
+   */
+  private static final class FakeScheduler implements DatabaseObserver.Scheduler, DatabaseObserver.Clock {
+
+    private final PriorityQueue<Task> tasks = new PriorityQueue<>();
+
+    private long now;
+    private long sequence;
+
+    private FakeScheduler(long now) {
+      this.now = now;
+    }
+
+    @Override
+    public void execute(@NonNull Runnable task) {
+      schedule(task, 0);
+    }
+
+    @Override
+    public void schedule(@NonNull Runnable task, long delayMs) {
+      tasks.add(new Task(now + delayMs, sequence++, task));
+    }
+
+    @Override
+    public long currentTimeMillis() {
+      return now;
+    }
+
+    void advanceBy(long ms) {
+      long target = now + ms;
+
+      while (!tasks.isEmpty() && tasks.peek().time <= target) {
+        Task task = tasks.poll();
+        now = Math.max(now, task.time);
+        task.runnable.run();
+      }
+
+      now = target;
+    }
+
+    void runUntilIdle() {
+      while (!tasks.isEmpty()) {
+        advanceBy(Math.max(0, tasks.peek().time - now));
+      }
+    }
+
+    private static final class Task implements Comparable<Task> {
+      private final long     time;
+      private final long     sequence;
+      private final Runnable runnable;
+
+      private Task(long time, long sequence, @NonNull Runnable runnable) {
+        this.time     = time;
+        this.sequence = sequence;
+        this.runnable = runnable;
+      }
+
+      @Override
+      public int compareTo(@NonNull Task other) {
+        int byTime = Long.compare(time, other.time);
+        return byTime != 0 ? byTime : Long.compare(sequence, other.sequence);
+      }
+    }
+  }
+}
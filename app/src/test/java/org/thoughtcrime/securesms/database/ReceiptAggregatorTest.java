@@ -0,0 +1,260 @@
+package org.thoughtcrime.securesms.database;
+
+import androidx.annotation.NonNull;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.signal.core.util.logging.Log;
+import org.thoughtcrime.securesms.database.MessageDatabase.SyncMessageId;
+import org.thoughtcrime.securesms.database.MmsSmsDatabase.PendingReceipt;
+import org.thoughtcrime.securesms.recipients.RecipientId;
+import org.thoughtcrime.securesms.testutil.EmptyLogger;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public final class ReceiptAggregatorTest {
+
+  private static final long THREAD_ID = 1;
+
+  private FakeStorage       storage;
+  private FakeApplier       applier;
+  private FakeScheduler     scheduler;
+  private ReceiptAggregator subject;
+
+  @Before
+  public void setUp() {
+    Log.initialize(new EmptyLogger());
+
+    storage   = new FakeStorage();
+    applier   = new FakeApplier();
+    scheduler = new FakeScheduler();
+    subject   = new ReceiptAggregator(storage, applier, scheduler);
+
+    scheduler.runPending();
+  }
+
+  @Test
+  public void enqueue_receiptsFromManyEnvelopes_updateThreadOnce() {
+    int envelopes = 500;
+
+    applier.addMessage(100, THREAD_ID);
+
+    for (int i = 0; i < envelopes; i++) {
+      ReceiptAggregator.Batch batch = new ReceiptAggregator.Batch();
+      batch.addDeliveryReceipts(Collections.singletonList(new SyncMessageId(RecipientId.from(i + 1), 100)), 1000 + i);
+
+      subject.enqueue(batch);
+    }
+
+    assertEquals(1, scheduler.pendingCount());
+    assertEquals(envelopes, storage.receipts.size());
+
+    scheduler.runPending();
+
+    assertEquals(1, applier.applyCalls);
+    assertEquals(envelopes, applier.applied.size());
+    assertEquals(1, applier.getThreadUpdateCount(THREAD_ID));
+    assertTrue(storage.receipts.isEmpty());
+  }
+
+  @Test
+  public void enqueue_storesReceiptsBeforeTheyAreApplied() {
+    ReceiptAggregator.Batch batch = new ReceiptAggregator.Batch();
+    batch.addDeliveryReceipts(Collections.singletonList(new SyncMessageId(RecipientId.from(1), 100)), 1000);
+
+    subject.enqueue(batch);
+
+    assertEquals(1, storage.receipts.size());
+    assertEquals(0, applier.applyCalls);
+  }
+
+  @Test
+  public void enqueue_emptyBatch_schedulesNothing() {
+    subject.enqueue(new ReceiptAggregator.Batch());
+
+    assertEquals(0, scheduler.pendingCount());
+  }
+
+  @Test
+  public void drain_applyFails_keepsReceiptsAndTriesAgain() {
+    applier.addMessage(100, THREAD_ID);
+
+    ReceiptAggregator.Batch batch = new ReceiptAggregator.Batch();
+    batch.addDeliveryReceipts(Collections.singletonList(new SyncMessageId(RecipientId.from(1), 100)), 1000);
+    subject.enqueue(batch);
+
+    applier.failNext = true;
+    scheduler.runPending();
+
+    assertEquals(1, storage.receipts.size());
+    assertEquals(1, scheduler.pendingCount());
+
+    scheduler.runPending();
+
+    assertTrue(storage.receipts.isEmpty());
+    assertEquals(1, applier.getThreadUpdateCount(THREAD_ID));
+  }
+
+  @Test
+  public void drain_unmatchedReceipts_reportedToTheirListener() {
+    applier.addMessage(100, THREAD_ID);
+
+    List<SyncMessageId> unhandled = new LinkedList<>();
+
+    ReceiptAggregator.Batch batch = new ReceiptAggregator.Batch();
+    batch.addReadReceipts(Collections.singletonList(new SyncMessageId(RecipientId.from(1), 100)), 1000, unhandled::addAll);
+    batch.addReadReceipts(Collections.singletonList(new SyncMessageId(RecipientId.from(1), 200)), 1000, unhandled::addAll);
+    subject.enqueue(batch);
+
+    scheduler.runPending();
+
+    assertEquals(1, unhandled.size());
+    assertEquals(200, unhandled.get(0).getTimetamp());
+  }
+
+  @Test
+  public void create_withLeftoverReceipts_appliesThem() {
+    applier.addMessage(100, THREAD_ID);
+    storage.insert(Collections.singletonList(new PendingReceipt(new SyncMessageId(RecipientId.from(1), 100), 1000, MessageDatabase.ReceiptType.DELIVERY)));
+
+    new ReceiptAggregator(storage, applier, scheduler);
+    scheduler.runPending();
+
+    assertTrue(storage.receipts.isEmpty());
+    assertEquals(1, applier.getThreadUpdateCount(THREAD_ID));
+  }
+
+  private static final class FakeStorage implements ReceiptAggregator.Storage {
+
+    private Map<Long, PendingReceipt> receipts = new LinkedHashMap<>();
+    private long                      nextId   = 1;
+
+    @Override
+    public @NonNull List<Long> insert(@NonNull List<PendingReceipt> toInsert) {
+      List<Long> ids = new ArrayList<>(toInsert.size());
+
+      for (PendingReceipt receipt : toInsert) {
+        receipts.put(nextId, receipt);
+        ids.add(nextId++);
+      }
+
+      return ids;
+    }
+
+    @Override
+    public @NonNull Map<Long, PendingReceipt> getAll() {
+      return new LinkedHashMap<>(receipts);
+    }
+
+    @Override
+    public void delete(@NonNull Collection<Long> ids) {
+      receipts.keySet().removeAll(ids);
+    }
+
+    /**
+     * Puts back the stored receipts if the runnable fails, like a rolled back transaction.
+     */
+    @Override
+    public void runInTransaction(@NonNull Runnable runnable) {
+      Map<Long, PendingReceipt> before = new LinkedHashMap<>(receipts);
+
+      try {
+        runnable.run();
+      } catch (RuntimeException e) {
+        receipts = before;
+        throw e;
+      }
+    }
+  }
+
+  /**
+   * Matches receipts to messages by timestamp, and counts how many times each thread would be
+   * recomputed.
+   */
+  private static final class FakeApplier implements ReceiptAggregator.Applier {
+
+    private final Map<Long, Long>      threadsByMessage = new HashMap<>();
+    private final Map<Long, Integer>   threadUpdates    = new HashMap<>();
+    private final List<PendingReceipt> applied          = new LinkedList<>();
+
+    private int     applyCalls;
+    private boolean failNext;
+
+    void addMessage(long timestamp, long threadId) {
+      threadsByMessage.put(timestamp, threadId);
+    }
+
+    int getThreadUpdateCount(long threadId) {
+      Integer count = threadUpdates.get(threadId);
+      return count != null ? count : 0;
+    }
+
+    @Override
+    public @NonNull List<PendingReceipt> apply(@NonNull List<PendingReceipt> receipts) {
+      if (failNext) {
+        failNext = false;
+        throw new IllegalStateException("Failed to apply");
+      }
+
+      applyCalls++;
+
+      Set<Long>            threads   = new HashSet<>();
+      List<PendingReceipt> unhandled = new LinkedList<>();
+
+      for (PendingReceipt receipt : receipts) {
+        Long threadId = threadsByMessage.get(receipt.getSyncMessageId().getTimetamp());
+
+        if (threadId != null) {
+          threads.add(threadId);
+          applied.add(receipt);
+        } else {
+          unhandled.add(receipt);
+        }
+      }
+
+      for (long threadId : threads) {
+        threadUpdates.put(threadId, getThreadUpdateCount(threadId) + 1);
+      }
+
+      return unhandled;
+    }
+  }
+
+  /**
+   * Holds on to scheduled tasks until they're run by hand, regardless of their delay.
+   */
+  private static final class FakeScheduler implements ReceiptAggregator.Scheduler {
+
+    private final List<Runnable> tasks = new LinkedList<>();
+
+    @Override
+    public void schedule(@NonNull Runnable task, long delayMs) {
+      tasks.add(task);
+    }
+
+    int pendingCount() {
+      return tasks.size();
+    }
+
+    void runPending() {
+      List<Runnable> pending = new ArrayList<>(tasks);
+      tasks.clear();
+
+      for (Runnable task : pending) {
+        task.run();
+      }
+    }
+  }
+}
@@ -0,0 +1,113 @@
+package org.thoughtcrime.securesms.database.model;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public final class PackedGroupReceiptsTest {
+
+  private static final int STATUS_UNKNOWN     = -1;
+  private static final int STATUS_UNDELIVERED = 0;
+  private static final int STATUS_DELIVERED   = 1;
+  private static final int STATUS_READ        = 2;
+
+  @Test
+  public void members_round_trip() {
+    long[] members = new long[] { 5, 1, 123456789L, 42 };
+
+    String encoded = PackedGroupReceipts.encodeMembers(members);
+
+    assertEquals(",5,1,123456789,42,", encoded);
+    assertArrayEquals(members, PackedGroupReceipts.decodeMembers(encoded));
+  }
+
+  @Test
+  public void empty_members_round_trip() {
+    assertArrayEquals(new long[0], PackedGroupReceipts.decodeMembers(PackedGroupReceipts.encodeMembers(new long[0])));
+  }
+
+  @Test
+  public void statuses_and_timestamps_round_trip() {
+    long                base     = 1_600_000_000_000L;
+    PackedGroupReceipts receipts = new PackedGroupReceipts();
+
+    receipts.add(1, STATUS_UNKNOWN, base, false);
+    receipts.add(2, STATUS_UNDELIVERED, base + 1, true);
+    receipts.add(3, STATUS_DELIVERED, base + 86_400_000L, false);
+    receipts.add(4, STATUS_READ, base - 5_000, true);
+
+    PackedGroupReceipts decoded = PackedGroupReceipts.decode(PackedGroupReceipts.encodeMembers(receipts.getMembers()),
+                                                             receipts.encodeStatuses(),
+                                                             receipts.encodeTimestamps(base),
+                                                             base);
+
+    assertEquals(4, decoded.size());
+
+    for (int i = 0; i < receipts.size(); i++) {
+      assertEquals(receipts.getMember(i), decoded.getMember(i));
+      assertEquals(receipts.getStatus(i), decoded.getStatus(i));
+      assertEquals(receipts.getTimestamp(i), decoded.getTimestamp(i));
+      assertEquals(receipts.isUnidentified(i), decoded.isUnidentified(i));
+    }
+  }
+
+  @Test
+  public void unchanged_timestamps_take_one_byte_each() {
+    long                base     = 1_600_000_000_000L;
+    PackedGroupReceipts receipts = new PackedGroupReceipts();
+
+    for (int i = 0; i < 1000; i++) {
+      receipts.add(i, STATUS_UNDELIVERED, base, false);
+    }
+
+    assertEquals(1000, receipts.encodeStatuses().length);
+    assertEquals(1000, receipts.encodeTimestamps(base).length);
+  }
+
+  @Test
+  public void add_ignores_existing_member() {
+    PackedGroupReceipts receipts = new PackedGroupReceipts();
+
+    assertTrue(receipts.add(7, STATUS_UNDELIVERED, 10, false));
+    assertFalse(receipts.add(7, STATUS_READ, 20, false));
+    assertEquals(1, receipts.size());
+    assertEquals(STATUS_UNDELIVERED, receipts.getStatus(0));
+  }
+
+  @Test
+  public void update_only_moves_status_forward() {
+    PackedGroupReceipts receipts = new PackedGroupReceipts();
+    receipts.add(7, STATUS_READ, 10, false);
+
+    assertFalse(receipts.update(0, STATUS_DELIVERED, 20));
+    assertEquals(STATUS_READ, receipts.getStatus(0));
+    assertEquals(10, receipts.getTimestamp(0));
+
+    receipts.add(8, STATUS_UNDELIVERED, 10, false);
+
+    assertTrue(receipts.update(1, STATUS_DELIVERED, 30));
+    assertEquals(STATUS_DELIVERED, receipts.getStatus(1));
+    assertEquals(30, receipts.getTimestamp(1));
+  }
+
+  @Test
+  public void replaceMember_preserves_positions() {
+    long[] members = new long[] { 1, 2, 3 };
+
+    assertTrue(PackedGroupReceipts.replaceMember(members, 2, 9));
+    assertArrayEquals(new long[] { 1, 9, 3 }, members);
+    assertFalse(PackedGroupReceipts.replaceMember(members, 2, 9));
+  }
+
+  @Test
+  public void decode_tolerates_missing_arrays() {
+    PackedGroupReceipts decoded = PackedGroupReceipts.decode(",1,2,", null, null, 100);
+
+    assertEquals(2, decoded.size());
+    assertEquals(STATUS_UNKNOWN, decoded.getStatus(1));
+    assertEquals(0, decoded.getTimestamp(1));
+  }
+}
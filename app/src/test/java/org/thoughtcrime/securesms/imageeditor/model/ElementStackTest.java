@@ -0,0 +1,227 @@
+package org.thoughtcrime.securesms.imageeditor.model;
+
+import android.app.Application;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.PointF;
+import android.os.Parcel;
+
+import androidx.annotation.NonNull;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+import org.thoughtcrime.securesms.imageeditor.renderers.BezierDrawingRenderer;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE, application = Application.class)
+public final class ElementStackTest {
+
+  private static final int STROKES           = 100;
+  private static final int POINTS_PER_STROKE = 500;
+  private static final int STICKERS          = 20;
+  private static final int EDITS             = 50;
+
+  @Test
+  public void snapshot_unchanged_returnsSameInstance() {
+    EditorElement root = createDrawing(10, 20, 2);
+
+    assertSame(root.snapshot(), root.snapshot());
+  }
+
+  @Test
+  public void snapshot_oneElementMoved_sharesUnchangedSiblings() {
+    EditorElement   root   = createDrawing(10, 20, 2);
+    ElementSnapshot before = root.snapshot();
+
+    root.getChild(3).getLocalMatrix().postTranslate(5, 5);
+
+    ElementSnapshot after = root.snapshot();
+
+    assertNotSame(before, after);
+    assertNotSame(before.getChildren().get(3), after.getChildren().get(3));
+    assertSame(before.getChildren().get(3).getRendererBytes(), after.getChildren().get(3).getRendererBytes());
+
+    for (int i = 0; i < root.getChildCount(); i++) {
+      if (i != 3) {
+        assertSame(before.getChildren().get(i), after.getChildren().get(i));
+      }
+    }
+  }
+
+  @Test
+  public void snapshot_strokeExtended_reserializesOnlyThatRenderer() {
+    EditorElement         root   = createDrawing(10, 20, 2);
+    BezierDrawingRenderer stroke = (BezierDrawingRenderer) root.getChild(0).getRenderer();
+    ElementSnapshot       before = root.snapshot();
+
+    assertNotNull(stroke);
+    stroke.addNewPoint(new PointF(0.5f, 0.5f));
+
+    ElementSnapshot after = root.snapshot();
+
+    assertFalse(before.equals(after));
+    assertSame(before.getChildren().get(1), after.getChildren().get(1));
+  }
+
+  @Test
+  public void pop_restoresPreviousState() {
+    EditorElement root  = createDrawing(10, 20, 2);
+    ElementStack  stack = new ElementStack(50);
+
+    stack.tryPush(root);
+    ElementSnapshot original = root.snapshot();
+
+    root.getChild(2).getLocalMatrix().postScale(2, 2);
+    root.addElement(createStroke(new Random(1), 20));
+
+    EditorElement restored = stack.pop(root);
+
+    assertNotNull(restored);
+    assertEquals(original, restored.snapshot());
+    assertArrayEquals(ElementStack.getBytes(restored), original.toBytes());
+  }
+
+  @Test
+  public void tryPush_sameState_isIgnored() {
+    EditorElement root  = createDrawing(10, 20, 2);
+    ElementStack  stack = new ElementStack(50);
+
+    assertTrue(stack.tryPush(root));
+    assertFalse(stack.tryPush(root));
+  }
+
+  @Test
+  public void parcel_roundTrip_keepsEveryState() {
+    EditorElement root  = createDrawing(10, 20, 2);
+    ElementStack  stack = new ElementStack(50);
+
+    stack.tryPush(root);
+    root.getChild(1).getLocalMatrix().postRotate(45);
+    stack.tryPush(root);
+    root.getChild(5).getLocalMatrix().postTranslate(1, 1);
+
+    ElementSnapshot moved = root.snapshot();
+
+    Parcel parcel = Parcel.obtain();
+    parcel.writeParcelable(stack, 0);
+    parcel.setDataPosition(0);
+    ElementStack restoredStack = parcel.readParcelable(ElementStack.class.getClassLoader());
+    parcel.recycle();
+
+    EditorElement first = restoredStack.pop(root);
+    assertNotNull(first);
+    assertFalse(moved.equals(first.snapshot()));
+
+    EditorElement second = restoredStack.pop(first);
+    assertNotNull(second);
+    assertFalse(first.snapshot().equals(second.snapshot()));
+  }
+
+  /**
+   * Pushes undo points on a large synthetic drawing, and checks that they hold no more than the
+   * edits they record, where serializing the whole tree each time held a full copy per point.
+   */
+  @Test
+  public void tryPush_manyEdits_holdsOnlyWhatChanged() {
+    EditorElement root   = createDrawing(STROKES, POINTS_PER_STROKE, STICKERS);
+    ElementStack  stack  = new ElementStack(EDITS + 1);
+    Random        random = new Random(42);
+
+    List<ElementSnapshot> undoPoints = new ArrayList<>(EDITS + 1);
+
+    assertTrue(stack.tryPush(root));
+    undoPoints.add(root.snapshot());
+
+    for (int i = 0; i < EDITS; i++) {
+      root.getChild(random.nextInt(root.getChildCount())).getLocalMatrix().postTranslate(1, 1);
+      assertTrue(stack.tryPush(root));
+      undoPoints.add(root.snapshot());
+    }
+
+    Set<ElementSnapshot> nodes         = Collections.newSetFromMap(new IdentityHashMap<>());
+    Set<byte[]>          rendererBytes = Collections.newSetFromMap(new IdentityHashMap<>());
+
+    for (ElementSnapshot undoPoint : undoPoints) {
+      collect(undoPoint, nodes, rendererBytes);
+    }
+
+    int childCount = root.getChildCount();
+
+    assertEquals(1 + childCount + EDITS * 2, nodes.size());
+    assertEquals(STROKES, rendererBytes.size());
+    assertTrue(totalLength(rendererBytes) < ElementStack.getBytes(root).length);
+
+    for (int i = 0; i < EDITS; i++) {
+      assertNotNull(stack.pop(root));
+    }
+  }
+
+  private static void collect(@NonNull ElementSnapshot snapshot, @NonNull Set<ElementSnapshot> nodes, @NonNull Set<byte[]> rendererBytes) {
+    if (!nodes.add(snapshot)) {
+      return;
+    }
+
+    if (snapshot.getRendererBytes() != null) {
+      rendererBytes.add(snapshot.getRendererBytes());
+    }
+
+    for (ElementSnapshot child : snapshot.getChildren()) {
+      collect(child, nodes, rendererBytes);
+    }
+  }
+
+  private static long totalLength(@NonNull Set<byte[]> arrays) {
+    long total = 0;
+
+    for (byte[] array : arrays) {
+      total += array.length;
+    }
+
+    return total;
+  }
+
+  private static EditorElement createDrawing(int strokes, int pointsPerStroke, int stickers) {
+    Random        random = new Random(strokes);
+    EditorElement root   = new EditorElement(null);
+
+    for (int i = 0; i < strokes; i++) {
+      root.addElement(createStroke(random, pointsPerStroke));
+    }
+
+    for (int i = 0; i < stickers; i++) {
+      EditorElement sticker = new EditorElement(null, EditorModel.Z_STICKERS);
+      sticker.getLocalMatrix().postTranslate(random.nextFloat(), random.nextFloat());
+      root.addElement(sticker);
+    }
+
+    return root;
+  }
+
+  private static EditorElement createStroke(Random random, int points) {
+    BezierDrawingRenderer renderer = new BezierDrawingRenderer(Color.RED, 0.02f, Paint.Cap.ROUND, null);
+
+    renderer.setFirstPoint(new PointF(random.nextFloat(), random.nextFloat()));
+    for (int i = 1; i < points; i++) {
+      renderer.addNewPoint(new PointF(random.nextFloat(), random.nextFloat()));
+    }
+
+    return new EditorElement(renderer, EditorModel.Z_DRAWING);
+  }
+}
@@ -0,0 +1,77 @@
+package org.thoughtcrime.securesms.jobs;
+
+import androidx.annotation.Nullable;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public final class ContactSyncDigestTrackerTest {
+
+  private static final byte[] DIGEST_A = new byte[] { 1, 2, 3 };
+  private static final byte[] DIGEST_B = new byte[] { 4, 5, 6 };
+
+  private ContactSyncDigestTracker subject;
+
+  @Before
+  public void setUp() {
+    subject = new ContactSyncDigestTracker(new ContactSyncDigestTracker.Store() {
+      private byte[] digest;
+
+      @Override
+      public @Nullable byte[] getLastCompleteDigest() {
+        return digest;
+      }
+
+      @Override
+      public void setLastCompleteDigest(@Nullable byte[] digest) {
+        this.digest = digest;
+      }
+    });
+  }
+
+  @Test
+  public void canSkipCompleteSync_nothingSentYet_false() {
+    assertFalse(subject.canSkipCompleteSync(DIGEST_A, false));
+  }
+
+  @Test
+  public void canSkipCompleteSync_sameAsLastComplete_true() {
+    subject.onCompleteSyncSent(DIGEST_A);
+
+    assertTrue(subject.canSkipCompleteSync(DIGEST_A, false));
+  }
+
+  @Test
+  public void canSkipCompleteSync_differentFromLastComplete_false() {
+    subject.onCompleteSyncSent(DIGEST_A);
+
+    assertFalse(subject.canSkipCompleteSync(DIGEST_B, false));
+  }
+
+  @Test
+  public void canSkipCompleteSync_forced_false() {
+    subject.onCompleteSyncSent(DIGEST_A);
+
+    assertFalse(subject.canSkipCompleteSync(DIGEST_A, true));
+  }
+
+  @Test
+  public void canSkipCompleteSync_partialSentSinceIdenticalComplete_false() {
+    subject.onCompleteSyncSent(DIGEST_A);
+    subject.onPartialSyncSent();
+
+    assertFalse(subject.canSkipCompleteSync(DIGEST_A, false));
+  }
+
+  @Test
+  public void canSkipCompleteSync_completeSentAfterPartial_true() {
+    subject.onCompleteSyncSent(DIGEST_A);
+    subject.onPartialSyncSent();
+    subject.onCompleteSyncSent(DIGEST_A);
+
+    assertTrue(subject.canSkipCompleteSync(DIGEST_A, false));
+  }
+}
@@ -0,0 +1,190 @@
+package org.thoughtcrime.securesms.keyvalue;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.signal.core.util.logging.Log;
+import org.thoughtcrime.securesms.database.KeyValueDatabase;
+import org.thoughtcrime.securesms.testutil.EmptyLogger;
+import org.whispersystems.libsignal.util.Pair;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class KeyValueStoreTest {
+
+  private ScheduledExecutorService executor;
+  private KeyValueDatabase         database;
+  private KeyValueStore            subject;
+
+  @Before
+  public void setUp() {
+    Log.initialize(new EmptyLogger());
+
+    executor = Executors.newSingleThreadScheduledExecutor();
+    database = mock(KeyValueDatabase.class);
+
+    when(database.getDataSet()).thenReturn(new KeyValueDataSet());
+
+    subject = new KeyValueStore(executor, database);
+  }
+
+  @After
+  public void tearDown() {
+    executor.shutdownNow();
+  }
+
+  @Test
+  public void apply_manyWritesToOneKey_flushedAsOneTransaction() {
+    for (int i = 0; i < 100; i++) {
+      subject.beginWrite().putLong("counter", i).apply();
+    }
+
+    subject.blockUntilAllWritesFinished();
+
+    KeyValueDataSet written = captureSingleWrite().first();
+
+    assertEquals(1, written.getValues().size());
+    assertEquals(99, written.getLong("counter", -1));
+  }
+
+  @Test
+  public void apply_putThenRemove_onlyRemoves() {
+    subject.beginWrite().putString("a", "spiderman").putString("b", "venom").apply();
+    subject.beginWrite().remove("a").apply();
+
+    subject.blockUntilAllWritesFinished();
+
+    Pair<KeyValueDataSet, Collection<String>> written = captureSingleWrite();
+
+    assertFalse(written.first().containsKey("a"));
+    assertTrue(written.first().containsKey("b"));
+    assertTrue(written.second().contains("a"));
+  }
+
+  @Test
+  public void apply_removeThenPut_onlyPuts() {
+    subject.beginWrite().remove("a").apply();
+    subject.beginWrite().putString("a", "spiderman").apply();
+
+    subject.blockUntilAllWritesFinished();
+
+    Pair<KeyValueDataSet, Collection<String>> written = captureSingleWrite();
+
+    assertEquals("spiderman", written.first().getString("a", null));
+    assertFalse(written.second().contains("a"));
+  }
+
+  @Test
+  public void apply_readsSeeWriteBeforeFlush() {
+    subject.beginWrite().putBoolean("a", true).apply();
+
+    assertTrue(subject.getBoolean("a", false));
+  }
+
+  @Test
+  public void beginRead_unaffectedByLaterWrites() {
+    subject.beginWrite().putInteger("a", 1).apply();
+
+    KeyValueReader snapshot = subject.beginRead();
+
+    subject.beginWrite().putInteger("a", 2).remove("b").apply();
+
+    assertEquals(1, snapshot.getInteger("a", 0));
+    assertEquals(2, subject.getInteger("a", 0));
+  }
+
+  @Test
+  public void apply_manyKeys_flushesWithoutWaiting() {
+    KeyValueStore.Writer writer = subject.beginWrite();
+
+    for (int i = 0; i < 100; i++) {
+      writer.putInteger("key" + i, i);
+    }
+
+    writer.apply();
+
+    verify(database, timeout(200)).writeDataSet(any(), any());
+  }
+
+  @Test
+  public void apply_fewKeys_flushedAfterDelay() {
+    subject.beginWrite().putInteger("a", 1).apply();
+
+    verify(database, never()).writeDataSet(any(), any());
+    verify(database, timeout(2000)).writeDataSet(any(), any());
+  }
+
+  @Test
+  public void blockUntilAllWritesFinished_nothingPending_doesNotWrite() {
+    subject.blockUntilAllWritesFinished();
+
+    verify(database, never()).writeDataSet(any(), any());
+  }
+
+  @Test
+  public void blockUntilAllWritesFinished_writeFails_returnsAndKeepsValues() {
+    doThrow(new IllegalStateException()).doNothing().when(database).writeDataSet(any(), any());
+
+    subject.beginWrite().putInteger("a", 1).remove("b").apply();
+    subject.blockUntilAllWritesFinished();
+
+    assertEquals(1, subject.getInteger("a", 0));
+  }
+
+  @Test
+  public void blockUntilAllWritesFinished_afterFailedWrite_writesFailedAndNewKeysTogether() {
+    doThrow(new IllegalStateException()).doNothing().when(database).writeDataSet(any(), any());
+
+    subject.beginWrite().putInteger("a", 1).putInteger("b", 1).remove("c").apply();
+    subject.blockUntilAllWritesFinished();
+
+    subject.beginWrite().putInteger("b", 2).putInteger("c", 2).apply();
+    subject.blockUntilAllWritesFinished();
+
+    Pair<KeyValueDataSet, Collection<String>> written = captureLastWrite(2);
+
+    assertEquals(1, written.first().getInteger("a", 0));
+    assertEquals(2, written.first().getInteger("b", 0));
+    assertEquals(2, written.first().getInteger("c", 0));
+    assertTrue(written.second().isEmpty());
+  }
+
+  @SuppressWarnings("unchecked")
+  private Pair<KeyValueDataSet, Collection<String>> captureLastWrite(int expectedWrites) {
+    ArgumentCaptor<KeyValueDataSet>    dataSet = ArgumentCaptor.forClass(KeyValueDataSet.class);
+    ArgumentCaptor<Collection<String>> removes = ArgumentCaptor.forClass(Collection.class);
+
+    verify(database, times(expectedWrites)).writeDataSet(dataSet.capture(), removes.capture());
+
+    List<KeyValueDataSet>    dataSets   = dataSet.getAllValues();
+    List<Collection<String>> removeSets = removes.getAllValues();
+
+    return new Pair<>(dataSets.get(dataSets.size() - 1), removeSets.get(removeSets.size() - 1));
+  }
+
+  @SuppressWarnings("unchecked")
+  private Pair<KeyValueDataSet, Collection<String>> captureSingleWrite() {
+    ArgumentCaptor<KeyValueDataSet>    dataSet = ArgumentCaptor.forClass(KeyValueDataSet.class);
+    ArgumentCaptor<Collection<String>> removes = ArgumentCaptor.forClass(Collection.class);
+
+    verify(database, times(1)).writeDataSet(dataSet.capture(), removes.capture());
+
+    return new Pair<>(dataSet.getValue(), removes.getValue());
+  }
+}
@@ -0,0 +1,100 @@
+package org.thoughtcrime.securesms.linkpreview;
+
+import android.app.Application;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+import org.signal.core.util.StreamUtil;
+import org.thoughtcrime.securesms.crypto.AttachmentSecret;
+import org.thoughtcrime.securesms.util.Util;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE, application = Application.class)
+public final class LinkPreviewCacheTest {
+
+  private static final String URL = "https://signal.org/blog/";
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private File             directory;
+  private AttachmentSecret attachmentSecret;
+
+  @Before
+  public void setUp() throws IOException {
+    directory        = folder.newFolder();
+    attachmentSecret = new AttachmentSecret(null, null, Util.getSecretBytes(32));
+  }
+
+  @Test
+  public void get_afterPut_inNewInstance_readsFromDisk() {
+    byte[] thumbnail = Util.getSecretBytes(1024);
+
+    new LinkPreviewCache(directory, attachmentSecret).put(URL, new LinkPreviewCache.Entry("Title", "Description", 1234, new LinkPreviewCache.Thumbnail(thumbnail, "image/jpeg", 64, 32), System.currentTimeMillis()));
+
+    LinkPreviewCache.Entry entry = new LinkPreviewCache(directory, attachmentSecret).get(URL);
+
+    assertNotNull(entry);
+    assertEquals("Title", entry.getTitle());
+    assertEquals("Description", entry.getDescription());
+    assertEquals(1234, entry.getDate());
+    assertNotNull(entry.getThumbnail());
+    assertArrayEquals(thumbnail, entry.getThumbnail().getData());
+    assertEquals("image/jpeg", entry.getThumbnail().getContentType());
+    assertEquals(64, entry.getThumbnail().getWidth());
+    assertEquals(32, entry.getThumbnail().getHeight());
+  }
+
+  @Test
+  public void get_unknownUrl_isNull() {
+    LinkPreviewCache cache = new LinkPreviewCache(directory, attachmentSecret);
+
+    cache.put(URL, new LinkPreviewCache.Entry("Title", "", 0, null, System.currentTimeMillis()));
+
+    assertNull(cache.get("https://signal.org/"));
+  }
+
+  @Test
+  public void get_expired_isNullAndRemoved() {
+    LinkPreviewCache cache = new LinkPreviewCache(directory, attachmentSecret);
+
+    cache.put(URL, new LinkPreviewCache.Entry("Title", "", 0, null, System.currentTimeMillis() - LinkPreviewCache.TTL - 1));
+
+    assertNull(cache.get(URL));
+    assertEquals(0, directory.listFiles().length);
+  }
+
+  @Test
+  public void put_storesNeitherUrlNorContentInTheClear() throws IOException {
+    new LinkPreviewCache(directory, attachmentSecret).put(URL, new LinkPreviewCache.Entry("A very recognizable title", "", 0, null, System.currentTimeMillis()));
+
+    File[] files = directory.listFiles();
+
+    assertEquals(1, files.length);
+    assertFalse(files[0].getName().contains("signal"));
+    assertFalse(new String(StreamUtil.readFully(new FileInputStream(files[0])), Charset.forName("ISO-8859-1")).contains("recognizable"));
+  }
+
+  @Test
+  public void get_withWrongSecret_isNull() {
+    new LinkPreviewCache(directory, attachmentSecret).put(URL, new LinkPreviewCache.Entry("Title", "", 0, null, System.currentTimeMillis()));
+
+    assertNull(new LinkPreviewCache(directory, new AttachmentSecret(null, null, Util.getSecretBytes(32))).get(URL));
+  }
+}
@@ -0,0 +1,109 @@
+package org.thoughtcrime.securesms.linkpreview;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okio.Buffer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class LinkPreviewUtilTest_readHtmlHead {
+
+  private static final String HEAD = "<html><HEAD>" +
+                                     "<title>Daily Bugle</title>" +
+                                     "<meta content=\"A newspaper\" property=\"og:description\">" +
+                                     "</HEAD>";
+
+  private static final int  LARGE_BODY_SIZE = 8 * 1024 * 1024;
+  private static final long SIZE_LIMIT      = 1024 * 1024;
+
+  private MockWebServer server;
+  private OkHttpClient  client;
+
+  @Before
+  public void setUp() throws IOException {
+    server = new MockWebServer();
+    server.start();
+
+    client = new OkHttpClient.Builder().readTimeout(5, TimeUnit.SECONDS).build();
+  }
+
+  @After
+  public void tearDown() throws IOException {
+    server.shutdown();
+  }
+
+  @Test
+  public void readHtmlHead_largePage_stopsAtEndOfHead() throws IOException {
+    server.enqueue(new MockResponse().setHeader("Content-Type", "text/html")
+                                     .setBody(page(HEAD + "<body>", LARGE_BODY_SIZE))
+                                     .throttleBody(256 * 1024, 1, TimeUnit.SECONDS));
+
+    long   start = System.currentTimeMillis();
+    String head  = fetchHead();
+
+    assertEquals(HEAD.substring(0, HEAD.length() - 1), head);
+    assertTrue("Read the whole page", System.currentTimeMillis() - start < TimeUnit.SECONDS.toMillis(5));
+
+    LinkPreviewUtil.OpenGraph openGraph = LinkPreviewUtil.parseOpenGraphFields(head, html -> html);
+
+    assertEquals("Daily Bugle", openGraph.getTitle().get());
+    assertEquals("A newspaper", openGraph.getDescription().get());
+  }
+
+  @Test
+  public void readHtmlHead_largePageWithoutHead_stopsAtSizeLimit() throws IOException {
+    server.enqueue(new MockResponse().setHeader("Content-Type", "text/html")
+                                     .setBody(page("<html><title>Daily Bugle</title><body>", LARGE_BODY_SIZE)));
+
+    String head = fetchHead();
+
+    assertEquals(SIZE_LIMIT, head.length());
+    assertEquals("Daily Bugle", LinkPreviewUtil.parseOpenGraphFields(head, html -> html).getTitle().get());
+  }
+
+  @Test
+  public void readHtmlHead_largeContentLength_isNotAnError() throws IOException {
+    server.enqueue(new MockResponse().setHeader("Content-Type", "text/html")
+                                     .setBody(page(HEAD, LARGE_BODY_SIZE)));
+
+    assertEquals(HEAD.substring(0, HEAD.length() - 1), fetchHead());
+  }
+
+  @Test
+  public void readHtmlHead_usesResponseCharset() throws IOException {
+    Buffer body = new Buffer().writeString("<head><title>Café</title></head>", Charset.forName("ISO-8859-1"));
+
+    server.enqueue(new MockResponse().setHeader("Content-Type", "text/html; charset=ISO-8859-1")
+                                     .setBody(body));
+
+    assertEquals("Café", LinkPreviewUtil.parseOpenGraphFields(fetchHead(), html -> html).getTitle().get());
+  }
+
+  private String fetchHead() throws IOException {
+    try (Response response = client.newCall(new Request.Builder().url(server.url("/")).build()).execute()) {
+      return LinkPreviewUtil.readHtmlHead(response.body(), SIZE_LIMIT);
+    }
+  }
+
+  private static Buffer page(String prefix, int size) {
+    Buffer buffer = new Buffer().writeUtf8(prefix);
+
+    while (buffer.size() < size) {
+      buffer.writeUtf8("<p>Lorem ipsum dolor sit amet, consectetur adipiscing elit.</p>\n");
+    }
+
+    return buffer;
+  }
+}
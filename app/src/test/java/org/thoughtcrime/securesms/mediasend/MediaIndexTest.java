@@ -0,0 +1,309 @@
+package org.thoughtcrime.securesms.mediasend;
+
+import android.app.Application;
+import android.content.ContentProvider;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.net.Uri;
+import android.provider.MediaStore;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.test.core.app.ApplicationProvider;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE, application = Application.class)
+public final class MediaIndexTest {
+
+  private static final Uri IMAGES = MediaStore.Images.Media.EXTERNAL_CONTENT_URI;
+  private static final Uri VIDEOS = MediaStore.Video.Media.EXTERNAL_CONTENT_URI;
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private Context           context;
+  private FakeMediaProvider provider;
+  private File              snapshotFile;
+  private long              now;
+
+  @Before
+  public void setUp() throws IOException {
+    context      = ApplicationProvider.getApplicationContext();
+    provider     = Robolectric.buildContentProvider(FakeMediaProvider.class).create(MediaStore.AUTHORITY).get();
+    snapshotFile = new File(folder.newFolder(), "media_index");
+    now          = 0;
+
+    provider.add(IMAGES, 1, "a", "Camera", 100);
+    provider.add(IMAGES, 2, "a", "Camera", 200);
+    provider.add(IMAGES, 3, "a", "Camera", 300);
+    provider.add(VIDEOS, 4, "b", "Movies", 150);
+  }
+
+  @Test
+  public void getFolders_firstTime_buildsCountsAndNewestItems() {
+    Map<String, MediaIndex.Folder> folders = getFolders(newIndex());
+
+    assertEquals(2, folders.size());
+    assertFolder(folders.get("a"), 3, 3);
+    assertFolder(folders.get("b"), 1, 4);
+    assertTrue(folders.get("a").isCamera());
+    assertEquals(1, provider.fullScans(IMAGES));
+    assertEquals(1, provider.fullScans(VIDEOS));
+  }
+
+  @Test
+  public void getFolders_afterItemNotification_readsOnlyThatItem() {
+    MediaIndex index = newIndex();
+    getFolders(index);
+
+    provider.add(IMAGES, 5, "a", "Camera", 50);
+    notifyChange(ContentUris.withAppendedId(IMAGES, 5));
+
+    assertFolder(getFolders(index).get("a"), 4, 3);
+    assertEquals(1, provider.fullScans(IMAGES));
+    assertEquals(0, provider.idQueries(IMAGES));
+  }
+
+  @Test
+  public void getFolders_afterCollectionNotification_readsPastWatermark() {
+    MediaIndex index = newIndex();
+    getFolders(index);
+
+    provider.add(IMAGES, 5, "c", "Screenshots", 400);
+    notifyChange(IMAGES);
+
+    Map<String, MediaIndex.Folder> folders = getFolders(index);
+
+    assertFolder(folders.get("a"), 3, 3);
+    assertFolder(folders.get("c"), 1, 5);
+    assertEquals(1, provider.fullScans(IMAGES));
+    assertEquals(1, provider.idQueries(IMAGES));
+    assertEquals(0, provider.idQueries(VIDEOS));
+  }
+
+  @Test
+  public void getFolders_afterDeletingNewestItem_scansIdsAndFindsNextNewest() {
+    MediaIndex index = newIndex();
+    getFolders(index);
+
+    provider.delete(IMAGES, 3);
+    notifyChange(IMAGES);
+    now += MediaIndex.MIN_ID_SCAN_INTERVAL_MS;
+
+    assertFolder(getFolders(index).get("a"), 2, 2);
+    assertEquals(1, provider.fullScans(IMAGES));
+    assertEquals(2, provider.idQueries(IMAGES));
+  }
+
+  @Test
+  public void getFolders_afterDeletingLastItemInBucket_removesBucket() {
+    MediaIndex index = newIndex();
+    getFolders(index);
+
+    provider.delete(VIDEOS, 4);
+    notifyChange(ContentUris.withAppendedId(VIDEOS, 4));
+
+    Map<String, MediaIndex.Folder> folders = getFolders(index);
+
+    assertEquals(1, folders.size());
+    assertFalse(folders.containsKey("b"));
+  }
+
+  @Test
+  public void getFolders_idScanTooSoon_isPutOffToLaterSync() {
+    MediaIndex index = newIndex();
+    getFolders(index);
+
+    provider.delete(IMAGES, 1);
+    notifyChange(IMAGES);
+    now += MediaIndex.MIN_ID_SCAN_INTERVAL_MS - 1;
+
+    assertFolder(getFolders(index).get("a"), 3, 3);
+    assertEquals(1, provider.idQueries(IMAGES));
+
+    now += 1;
+
+    assertFolder(getFolders(index).get("a"), 2, 3);
+    assertEquals(3, provider.idQueries(IMAGES));
+    assertEquals(1, provider.fullScans(IMAGES));
+  }
+
+  @Test
+  public void getFolders_newInstance_restoresSnapshotAndReadsPastWatermark() {
+    getFolders(newIndex());
+
+    provider.add(IMAGES, 5, "a", "Camera", 500);
+
+    Map<String, MediaIndex.Folder> folders = getFolders(newIndex());
+
+    assertFolder(folders.get("a"), 4, 5);
+    assertFolder(folders.get("b"), 1, 4);
+    assertEquals(1, provider.fullScans(IMAGES));
+    assertEquals(1, provider.fullScans(VIDEOS));
+  }
+
+  @Test
+  public void getFolders_newInstance_findsItemsDeletedWhileClosed() {
+    getFolders(newIndex());
+
+    provider.delete(IMAGES, 3);
+
+    MediaIndex index = newIndex();
+
+    assertFolder(getFolders(index).get("a"), 2, 2);
+    assertEquals(1, provider.fullScans(IMAGES));
+    assertEquals(2, provider.idQueries(IMAGES));
+
+    List<MediaIndex.Item> items = index.getItemsInBucket("a");
+
+    assertEquals(2, items.size());
+    assertEquals(2, items.get(0).getId());
+    assertEquals(1, items.get(1).getId());
+  }
+
+  @Test
+  public void getFolders_unreadableSnapshot_rebuilds() throws IOException {
+    assertTrue(snapshotFile.createNewFile());
+
+    assertFolder(getFolders(newIndex()).get("a"), 3, 3);
+    assertEquals(1, provider.fullScans(IMAGES));
+  }
+
+  private @NonNull MediaIndex newIndex() {
+    return new MediaIndex(context, snapshotFile, () -> now);
+  }
+
+  private void notifyChange(@NonNull Uri uri) {
+    context.getContentResolver().notifyChange(uri, null);
+  }
+
+  private static @NonNull Map<String, MediaIndex.Folder> getFolders(@NonNull MediaIndex index) {
+    Map<String, MediaIndex.Folder> folders = new HashMap<>();
+
+    for (MediaIndex.Folder folder : index.getFolders()) {
+      folders.put(folder.getBucketId(), folder);
+    }
+
+    return folders;
+  }
+
+  private static void assertFolder(@Nullable MediaIndex.Folder folder, int count, long newestId) {
+    assertNotNull(folder);
+    assertEquals(count, folder.getCount());
+    assertNotNull(folder.getNewest());
+    assertEquals(newestId, folder.getNewest().getId());
+  }
+
+  /**
+   * Stands in for MediaStore, with a table for each collection. It counts queries that read every
+   * row, and queries for nothing but IDs.
+   */
+  public static final class FakeMediaProvider extends ContentProvider {
+
+    private final Map<String, Integer> fullScans = new HashMap<>();
+    private final Map<String, Integer> idQueries = new HashMap<>();
+
+    private SQLiteDatabase db;
+
+    @Override
+    public boolean onCreate() {
+      db = SQLiteDatabase.create(null);
+
+      for (String table : new String[] { getTable(IMAGES), getTable(VIDEOS) }) {
+        db.execSQL("CREATE TABLE " + table + " (_id INTEGER PRIMARY KEY, bucket_id TEXT, bucket_display_name TEXT, date_modified INTEGER, _data TEXT)");
+      }
+
+      return true;
+    }
+
+    void add(@NonNull Uri collection, long id, @NonNull String bucketId, @NonNull String bucketName, long date) {
+      ContentValues values = new ContentValues();
+      values.put(MediaStore.MediaColumns._ID, id);
+      values.put(MediaStore.Images.Media.BUCKET_ID, bucketId);
+      values.put(MediaStore.Images.Media.BUCKET_DISPLAY_NAME, bucketName);
+      values.put(MediaStore.MediaColumns.DATE_MODIFIED, date);
+      values.put(MediaStore.Images.Media.DATA, "/sdcard/" + bucketName + "/" + id);
+
+      db.insert(getTable(collection), null, values);
+    }
+
+    void delete(@NonNull Uri collection, long id) {
+      db.delete(getTable(collection), MediaStore.MediaColumns._ID + " = ?", new String[] { String.valueOf(id) });
+    }
+
+    int fullScans(@NonNull Uri collection) {
+      Integer count = fullScans.get(getTable(collection));
+      return count != null ? count : 0;
+    }
+
+    int idQueries(@NonNull Uri collection) {
+      Integer count = idQueries.get(getTable(collection));
+      return count != null ? count : 0;
+    }
+
+    @Override
+    public @Nullable Cursor query(@NonNull Uri uri, @Nullable String[] projection, @Nullable String selection, @Nullable String[] selectionArgs, @Nullable String sortOrder) {
+      String table = getTable(uri);
+
+      if (projection != null && projection.length == 1) {
+        increment(idQueries, table);
+      } else if (MediaIndex.isNotPending().equals(selection)) {
+        increment(fullScans, table);
+      }
+
+      return db.query(table, projection, selection, selectionArgs, null, null, sortOrder);
+    }
+
+    @Override
+    public @Nullable String getType(@NonNull Uri uri) {
+      return null;
+    }
+
+    @Override
+    public @Nullable Uri insert(@NonNull Uri uri, @Nullable ContentValues values) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public int delete(@NonNull Uri uri, @Nullable String selection, @Nullable String[] selectionArgs) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public int update(@NonNull Uri uri, @Nullable ContentValues values, @Nullable String selection, @Nullable String[] selectionArgs) {
+      throw new UnsupportedOperationException();
+    }
+
+    private static @NonNull String getTable(@NonNull Uri uri) {
+      return uri.getPathSegments().get(1);
+    }
+
+    private static void increment(@NonNull Map<String, Integer> counts, @NonNull String table) {
+      Integer count = counts.get(table);
+      counts.put(table, count != null ? count + 1 : 1);
+    }
+  }
+}
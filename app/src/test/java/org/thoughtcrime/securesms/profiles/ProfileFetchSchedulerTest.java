@@ -0,0 +1,165 @@
+package org.thoughtcrime.securesms.profiles;
+
+import androidx.annotation.NonNull;
+
+import org.junit.Test;
+import org.thoughtcrime.securesms.recipients.Recipient;
+import org.thoughtcrime.securesms.recipients.RecipientId;
+import org.thoughtcrime.securesms.util.TokenBucket;
+import org.whispersystems.signalservice.api.profiles.ProfileAndCredential;
+import org.whispersystems.signalservice.api.profiles.SignalServiceProfile.RequestType;
+import org.whispersystems.signalservice.api.push.exceptions.NotFoundException;
+import org.whispersystems.signalservice.api.push.exceptions.PushNetworkException;
+import org.whispersystems.signalservice.internal.util.concurrent.ListenableFuture;
+import org.whispersystems.signalservice.internal.util.concurrent.SettableFuture;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public final class ProfileFetchSchedulerTest {
+
+  private static final long ACQUIRE_TIMEOUT_MS = 50;
+
+  private final FakeFetcher fetcher = new FakeFetcher();
+
+  @Test
+  public void fetch_sameRecipient_sharesRequestInFlight() throws Exception {
+    ProfileFetchScheduler testSubject = newScheduler(10);
+
+    ListenableFuture<ProfileAndCredential> first  = testSubject.fetch(recipient(1), RequestType.PROFILE);
+    ListenableFuture<ProfileAndCredential> second = testSubject.fetch(recipient(1), RequestType.PROFILE);
+
+    assertSame(first, second);
+    assertEquals(1, fetcher.requests.size());
+
+    fetcher.requests.get(0).set(null);
+
+    assertTrue(first.isDone());
+    assertEquals(1, fetcher.requests.size());
+  }
+
+  @Test
+  public void fetch_afterCompletion_startsNewRequest() {
+    ProfileFetchScheduler testSubject = newScheduler(10);
+
+    ListenableFuture<ProfileAndCredential> first = testSubject.fetch(recipient(1), RequestType.PROFILE);
+    fetcher.requests.get(0).set(null);
+
+    ListenableFuture<ProfileAndCredential> second = testSubject.fetch(recipient(1), RequestType.PROFILE);
+
+    assertNotSame(first, second);
+    assertEquals(2, fetcher.requests.size());
+  }
+
+  @Test
+  public void fetch_credentialRequest_satisfiesPlainRequestButNotViceVersa() {
+    ProfileFetchScheduler testSubject = newScheduler(10);
+
+    ListenableFuture<ProfileAndCredential> withCredential = testSubject.fetch(recipient(1), RequestType.PROFILE_AND_CREDENTIAL);
+    ListenableFuture<ProfileAndCredential> plain          = testSubject.fetch(recipient(1), RequestType.PROFILE);
+
+    assertSame(withCredential, plain);
+    assertEquals(1, fetcher.requests.size());
+
+    ListenableFuture<ProfileAndCredential> plainOther          = testSubject.fetch(recipient(2), RequestType.PROFILE);
+    ListenableFuture<ProfileAndCredential> withCredentialOther = testSubject.fetch(recipient(2), RequestType.PROFILE_AND_CREDENTIAL);
+
+    assertNotSame(plainOther, withCredentialOther);
+    assertEquals(3, fetcher.requests.size());
+  }
+
+  @Test
+  public void fetch_atConcurrencyCap_failsAfterTimeout() throws Exception {
+    ProfileFetchScheduler testSubject = newScheduler(2);
+
+    testSubject.fetch(recipient(1), RequestType.PROFILE);
+    testSubject.fetch(recipient(2), RequestType.PROFILE);
+
+    ListenableFuture<ProfileAndCredential> third = testSubject.fetch(recipient(3), RequestType.PROFILE);
+
+    assertEquals(2, fetcher.requests.size());
+    assertFailure(third, PushNetworkException.class);
+
+    fetcher.requests.get(0).set(null);
+    testSubject.fetch(recipient(3), RequestType.PROFILE);
+
+    assertEquals(3, fetcher.requests.size());
+  }
+
+  @Test
+  public void fetch_failedRequest_releasesSlotAndIsNotShared() throws Exception {
+    ProfileFetchScheduler testSubject = newScheduler(1);
+
+    ListenableFuture<ProfileAndCredential> first = testSubject.fetch(recipient(1), RequestType.PROFILE);
+    fetcher.requests.get(0).setException(new NotFoundException("not found"));
+
+    assertFailure(first, NotFoundException.class);
+
+    ListenableFuture<ProfileAndCredential> second = testSubject.fetch(recipient(1), RequestType.PROFILE);
+
+    assertNotSame(first, second);
+    assertEquals(2, fetcher.requests.size());
+  }
+
+  @Test
+  public void fetch_fetcherThrows_releasesSlotAndFails() throws Exception {
+    ProfileFetchScheduler testSubject = newScheduler(1);
+
+    fetcher.throwNext = true;
+
+    ListenableFuture<ProfileAndCredential> first = testSubject.fetch(recipient(1), RequestType.PROFILE);
+
+    assertFailure(first, IllegalStateException.class);
+
+    testSubject.fetch(recipient(1), RequestType.PROFILE);
+
+    assertEquals(1, fetcher.requests.size());
+  }
+
+  private @NonNull ProfileFetchScheduler newScheduler(int maxConcurrent) {
+    return new ProfileFetchScheduler(fetcher, maxConcurrent, new TokenBucket(100, 1), ACQUIRE_TIMEOUT_MS);
+  }
+
+  private static void assertFailure(@NonNull ListenableFuture<ProfileAndCredential> future, @NonNull Class<? extends Throwable> cause) throws Exception {
+    try {
+      future.get(1, TimeUnit.SECONDS);
+      fail();
+    } catch (ExecutionException e) {
+      assertTrue(String.valueOf(e.getCause()), cause.isInstance(e.getCause()));
+    }
+  }
+
+  private static @NonNull Recipient recipient(long id) {
+    Recipient recipient = mock(Recipient.class);
+    when(recipient.getId()).thenReturn(RecipientId.from(id));
+    return recipient;
+  }
+
+  private static final class FakeFetcher implements ProfileFetchScheduler.Fetcher {
+    private final List<SettableFuture<ProfileAndCredential>> requests = new CopyOnWriteArrayList<>();
+
+    private boolean throwNext;
+
+    @Override
+    public @NonNull ListenableFuture<ProfileAndCredential> fetch(@NonNull Recipient recipient, @NonNull RequestType requestType) {
+      if (throwNext) {
+        throwNext = false;
+        throw new IllegalStateException();
+      }
+
+      SettableFuture<ProfileAndCredential> future = new SettableFuture<>();
+      requests.add(future);
+      return future;
+    }
+  }
+}
@@ -0,0 +1,161 @@
+package org.thoughtcrime.securesms.util;
+
+import androidx.annotation.NonNull;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public final class StartupTaskGraphTest {
+
+  private static final long TASK_MS = 100;
+
+  private ExecutorService   executor;
+  private RecordingListener listener;
+  private StartupTaskGraph  subject;
+
+  @Before
+  public void setUp() {
+    executor = Executors.newFixedThreadPool(4);
+    listener = new RecordingListener();
+    subject  = new StartupTaskGraph(listener);
+  }
+
+  @After
+  public void tearDown() {
+    executor.shutdownNow();
+  }
+
+  @Test
+  public void execute_tasksStartAfterTheirDependenciesFinish() {
+    subject.add("a", false, sleep(TASK_MS));
+    subject.add("b", false, sleep(TASK_MS), "a");
+    subject.add("c", true, sleep(TASK_MS), "a");
+    subject.add("d", false, sleep(TASK_MS), "b", "c");
+
+    subject.execute(executor);
+
+    assertStartsAfter("b", "a");
+    assertStartsAfter("c", "a");
+    assertStartsAfter("d", "b");
+    assertStartsAfter("d", "c");
+  }
+
+  @Test
+  public void execute_mainThreadTasksRunOnCallingThread() {
+    Map<String, Thread> threads = new ConcurrentHashMap<>();
+
+    subject.add("background", false, () -> threads.put("background", Thread.currentThread()));
+    subject.add("main", true, () -> threads.put("main", Thread.currentThread()), "background");
+
+    subject.execute(executor);
+
+    assertEquals(Thread.currentThread(), threads.get("main"));
+    assertNotEquals(Thread.currentThread(), threads.get("background"));
+  }
+
+  /**
+   * Every task in a wave waits at a latch until the rest of its wave has started, so this only
+   * finishes if the graph runs as many tasks at once as the dependencies allow, taking as many
+   * steps as the critical path is long.
+   */
+  @Test
+  public void execute_runsEachWaveOfIndependentTasksTogether() {
+    CountDownLatch firstWave  = new CountDownLatch(3);
+    CountDownLatch secondWave = new CountDownLatch(2);
+
+    subject.add("a", true, meet(firstWave));
+    subject.add("b", true, meet(secondWave), "a");
+    subject.add("c", false, meet(firstWave));
+    subject.add("d", false, meet(firstWave));
+    subject.add("e", false, meet(secondWave), "c");
+
+    subject.execute(executor);
+
+    assertEquals(5, listener.finished.size());
+  }
+
+  @Test
+  public void execute_failure_isRethrownAndDependentsDoNotRun() {
+    RuntimeException failure = new RuntimeException("boom");
+
+    subject.add("a", false, () -> { throw failure; });
+    subject.add("b", true, sleep(0), "a");
+
+    try {
+      subject.execute(executor);
+      fail();
+    } catch (RuntimeException e) {
+      assertEquals(failure, e);
+    }
+
+    assertFalse(listener.started.containsKey("b"));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void add_unknownDependency_throws() {
+    subject.add("a", false, sleep(0), "b");
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void add_duplicateName_throws() {
+    subject.add("a", false, sleep(0));
+    subject.add("a", true, sleep(0));
+  }
+
+  private void assertStartsAfter(@NonNull String task, @NonNull String dependency) {
+    assertTrue(task + " started before " + dependency + " finished", listener.started.get(task) >= listener.finished.get(dependency));
+  }
+
+  private static @NonNull Runnable meet(@NonNull CountDownLatch latch) {
+    return () -> {
+      latch.countDown();
+
+      try {
+        if (!latch.await(5, TimeUnit.SECONDS)) {
+          throw new AssertionError("Tasks that could have run together didn't.");
+        }
+      } catch (InterruptedException e) {
+        throw new AssertionError(e);
+      }
+    };
+  }
+
+  private static @NonNull Runnable sleep(long ms) {
+    return () -> {
+      try {
+        Thread.sleep(ms);
+      } catch (InterruptedException e) {
+        throw new AssertionError(e);
+      }
+    };
+  }
+
+  private static final class RecordingListener implements StartupTaskGraph.Listener {
+    private final Map<String, Long> started  = new ConcurrentHashMap<>();
+    private final Map<String, Long> finished = new ConcurrentHashMap<>();
+
+    @Override
+    public void onTaskStarted(@NonNull String name) {
+      started.put(name, System.nanoTime());
+    }
+
+    @Override
+    public void onTaskFinished(@NonNull String name, long durationMs) {
+      finished.put(name, System.nanoTime());
+    }
+  }
+}
@@ -0,0 +1,54 @@
+package org.thoughtcrime.securesms.util;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public final class TokenBucketTest {
+
+  private long now = 1000;
+
+  private final TokenBucket testSubject = new TokenBucket(3, 100, () -> now);
+
+  @Test
+  public void tryAcquire_allowsBurstUpToCapacity() {
+    assertEquals(0, testSubject.tryAcquire());
+    assertEquals(0, testSubject.tryAcquire());
+    assertEquals(0, testSubject.tryAcquire());
+    assertEquals(100, testSubject.tryAcquire());
+  }
+
+  @Test
+  public void tryAcquire_refillsOneTokenPerInterval() {
+    drain();
+
+    now += 40;
+    assertEquals(60, testSubject.tryAcquire());
+
+    now += 60;
+    assertEquals(0, testSubject.tryAcquire());
+    assertEquals(100, testSubject.tryAcquire());
+  }
+
+  @Test
+  public void tryAcquire_keepsPartialIntervalAcrossRefills() {
+    drain();
+
+    now += 250;
+    assertEquals(0, testSubject.tryAcquire());
+    assertEquals(0, testSubject.tryAcquire());
+    assertEquals(50, testSubject.tryAcquire());
+  }
+
+  @Test
+  public void tryAcquire_neverExceedsCapacity() {
+    now += 10_000;
+
+    drain();
+    assertEquals(100, testSubject.tryAcquire());
+  }
+
+  private void drain() {
+    while (testSubject.tryAcquire() == 0) { }
+  }
+}
@@ -9,6 +9,7 @@ import org.signal.core.util.LinkedBlockingLifoQueue;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
@@ -28,6 +29,10 @@ public final class SignalExecutors {
     return executor;
   }
 
+  public static ScheduledExecutorService newSingleThreadScheduledExecutor(final String name) {
+    return Executors.newSingleThreadScheduledExecutor(r -> new Thread(r, name));
+  }
+
   /**
    * ThreadPoolExecutor will only create a new thread if the provided queue returns false from
    * offer(). That means if you give it an unbounded queue, it'll only ever create 1 thread, no
@@ -90,6 +90,10 @@ import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 
@@ -106,6 +110,10 @@ public class SignalServiceAccountManager {
 
   private static final String TAG = SignalServiceAccountManager.class.getSimpleName();
 
+  private static final int             STORAGE_READ_MAX_ITEMS = 1000;
+  private static final int             STORAGE_READ_THREADS   = 4;
+  private static final ExecutorService STORAGE_READ_EXECUTOR  = createStorageReadExecutor();
+
   private final PushServiceSocket   pushServiceSocket;
   private final CredentialsProvider credentials;
   private final String              userAgent;
@@ -451,39 +459,108 @@ public class SignalServiceAccountManager {
     }
   }
 
+  /**
+   * Large reads are split into chunks of at most {@link #STORAGE_READ_MAX_ITEMS} that are fetched
+   * concurrently, with each chunk decrypted on its worker as soon as it arrives. Results are in the
+   * order the server returned them within each chunk, with chunks in request order.
+   */
   public List<SignalStorageRecord> readStorageRecords(StorageKey storageKey, List<StorageId> storageKeys) throws IOException, InvalidKeyException {
     if (storageKeys.isEmpty()) {
       return Collections.emptyList();
     }
 
-    List<SignalStorageRecord> result    = new ArrayList<>();
-    ReadOperation.Builder     operation = ReadOperation.newBuilder();
-    Map<ByteString, Integer>  typeMap   = new HashMap<>();
+    List<SignalStorageRecord> result   = new ArrayList<>();
+    Map<ByteString, Integer>  typeMap  = new HashMap<>();
+    List<ByteString>          readKeys = new ArrayList<>();
 
     for (StorageId key : storageKeys) {
-      typeMap.put(ByteString.copyFrom(key.getRaw()), key.getType());
+      ByteString rawKey = ByteString.copyFrom(key.getRaw());
+
+      typeMap.put(rawKey, key.getType());
 
       if (StorageId.isKnownType(key.getType())) {
-        operation.addReadKey(ByteString.copyFrom(key.getRaw()));
+        readKeys.add(rawKey);
       } else {
         result.add(SignalStorageRecord.forUnknown(key));
       }
     }
 
-    String       authToken = this.pushServiceSocket.getStorageAuth();
-    StorageItems items     = this.pushServiceSocket.readStorageItems(authToken, operation.build());
+    if (readKeys.isEmpty()) {
+      return result;
+    }
+
+    String authToken = this.pushServiceSocket.getStorageAuth();
+
+    if (readKeys.size() <= STORAGE_READ_MAX_ITEMS) {
+      result.addAll(readStorageChunk(authToken, readKeys, typeMap, storageKey));
+      return result;
+    }
+
+    List<Future<List<SignalStorageRecord>>> futures = new ArrayList<>();
+
+    for (int i = 0; i < readKeys.size(); i += STORAGE_READ_MAX_ITEMS) {
+      List<ByteString> chunk = readKeys.subList(i, Math.min(i + STORAGE_READ_MAX_ITEMS, readKeys.size()));
+      futures.add(STORAGE_READ_EXECUTOR.submit(() -> readStorageChunk(authToken, chunk, typeMap, storageKey)));
+    }
+
+    try {
+      for (Future<List<SignalStorageRecord>> future : futures) {
+        result.addAll(future.get());
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException(e);
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+
+      if      (cause instanceof IOException)         throw (IOException) cause;
+      else if (cause instanceof InvalidKeyException) throw (InvalidKeyException) cause;
+      else if (cause instanceof RuntimeException)    throw (RuntimeException) cause;
+      else                                           throw new AssertionError(cause);
+    } finally {
+      for (Future<List<SignalStorageRecord>> future : futures) {
+        future.cancel(true);
+      }
+    }
+
+    Log.i(TAG, "Read " + readKeys.size() + " storage records in " + futures.size() + " chunks.");
+
+    return result;
+  }
+
+  private List<SignalStorageRecord> readStorageChunk(String authToken, List<ByteString> keys, Map<ByteString, Integer> typeMap, StorageKey storageKey)
+      throws IOException, InvalidKeyException
+  {
+    StorageItems              items   = this.pushServiceSocket.readStorageItems(authToken, ReadOperation.newBuilder().addAllReadKey(keys).build());
+    List<SignalStorageRecord> records = new ArrayList<>(items.getItemsCount());
 
     for (StorageItem item : items.getItemsList()) {
       Integer type = typeMap.get(item.getKey());
       if (type != null) {
-        result.add(SignalStorageModels.remoteToLocalStorageRecord(item, type, storageKey));
+        records.add(SignalStorageModels.remoteToLocalStorageRecord(item, type, storageKey));
       } else {
         Log.w(TAG, "No type found! Skipping.");
       }
     }
 
-    return result;
+    return records;
   }
+
+  private static ExecutorService createStorageReadExecutor() {
+    ThreadPoolExecutor executor = new ThreadPoolExecutor(STORAGE_READ_THREADS,
+                                                         STORAGE_READ_THREADS,
+                                                         30,
+                                                         TimeUnit.SECONDS,
+                                                         new LinkedBlockingQueue<>(),
+                                                         runnable -> {
+                                                           Thread thread = new Thread(runnable, "signal-storage-read");
+                                                           thread.setDaemon(true);
+                                                           return thread;
+                                                         });
+    executor.allowCoreThreadTimeOut(true);
+    return executor;
+  }
+
   /**
    * @return If there was a conflict, the latest {@link SignalStorageManifest}. Otherwise absent.
    */
@@ -0,0 +1,82 @@
+package org.whispersystems.signalservice.api.groupsv2;
+
+import com.google.protobuf.ByteString;
+
+import org.signal.zkgroup.profiles.ProfileKey;
+import org.whispersystems.signalservice.api.util.UuidUtil;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Remembers the results of UUID and profile key ciphertext decryptions for a single group.
+ * <p>
+ * The same ciphertexts show up over and over again when replaying group history, and each
+ * decryption is an expensive zkgroup operation. Ciphertexts are only meaningful under the
+ * group's secret params, so there should be one of these per group.
+ * <p>
+ * Thread safe.
+ */
+final class GroupDecryptionCache {
+
+  private final Map<ByteString, UUID>       uuids;
+  private final Map<ByteString, ProfileKey> profileKeys;
+
+  private long hits;
+  private long misses;
+
+  GroupDecryptionCache(int maxEntries) {
+    this.uuids       = new LruMap<>(maxEntries);
+    this.profileKeys = new LruMap<>(maxEntries);
+  }
+
+  synchronized UUID getUuid(ByteString uuidCiphertext) {
+    return count(uuids.get(uuidCiphertext));
+  }
+
+  synchronized void putUuid(ByteString uuidCiphertext, UUID uuid) {
+    uuids.put(uuidCiphertext, uuid);
+  }
+
+  /**
+   * Profile key decryption is bound to the UUID, so the UUID forms part of the key.
+   */
+  synchronized ProfileKey getProfileKey(ByteString profileKeyCiphertext, UUID uuid) {
+    return count(profileKeys.get(profileKeyCiphertext.concat(UuidUtil.toByteString(uuid))));
+  }
+
+  synchronized void putProfileKey(ByteString profileKeyCiphertext, UUID uuid, ProfileKey profileKey) {
+    profileKeys.put(profileKeyCiphertext.concat(UuidUtil.toByteString(uuid)), profileKey);
+  }
+
+  synchronized long getHits() {
+    return hits;
+  }
+
+  synchronized long getMisses() {
+    return misses;
+  }
+
+  private <T> T count(T cached) {
+    if (cached != null) hits++;
+    else                misses++;
+
+    return cached;
+  }
+
+  static final class LruMap<K, V> extends LinkedHashMap<K, V> {
+
+    private final int maxEntries;
+
+    LruMap(int maxEntries) {
+      super(16, 0.75f, true);
+      this.maxEntries = maxEntries;
+    }
+
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+      return size() > maxEntries;
+    }
+  }
+}
@@ -45,8 +45,15 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 import java.util.Locale;
+import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Contains operations to create, modify and validate groups and group changes.
@@ -61,16 +68,31 @@ public final class GroupsV2Operations {
   /** Highest change epoch this class knows now to decrypt */
   public static final int HIGHEST_KNOWN_EPOCH = 1;
 
-  private final ServerPublicParams        serverPublicParams;
-  private final ClientZkProfileOperations clientZkProfileOperations;
-  private final ClientZkAuthOperations    clientZkAuthOperations;
-  private final SecureRandom              random;
+  /** Number of groups whose decryption results are remembered */
+  private static final int MAX_CACHED_GROUPS = 16;
+
+  /** Number of UUID and profile key decryptions remembered per group */
+  private static final int MAX_CACHED_DECRYPTIONS_PER_GROUP = 2000;
+
+  /** Member lists at least this long are decrypted in parallel */
+  private static final int PARALLEL_DECRYPTION_THRESHOLD = 32;
+
+  private static final int DECRYPTION_THREADS = Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors()));
+
+  private final ServerPublicParams                    serverPublicParams;
+  private final ClientZkProfileOperations             clientZkProfileOperations;
+  private final ClientZkAuthOperations                clientZkAuthOperations;
+  private final SecureRandom                          random;
+  private final ExecutorService                       decryptionExecutor;
+  private final Map<ByteString, GroupDecryptionCache> decryptionCaches;
 
   public GroupsV2Operations(ClientZkOperations clientZkOperations) {
     this.serverPublicParams        = clientZkOperations.getServerPublicParams();
     this.clientZkProfileOperations = clientZkOperations.getProfileOperations();
     this.clientZkAuthOperations    = clientZkOperations.getAuthOperations();
     this.random                    = new SecureRandom();
+    this.decryptionExecutor        = createDecryptionExecutor();
+    this.decryptionCaches          = new GroupDecryptionCache.LruMap<>(MAX_CACHED_GROUPS);
   }
 
   /**
@@ -119,7 +141,37 @@ public final class GroupsV2Operations {
   }
 
   public GroupOperations forGroup(final GroupSecretParams groupSecretParams) {
-    return new GroupOperations(groupSecretParams);
+    return new GroupOperations(groupSecretParams, getDecryptionCache(groupSecretParams));
+  }
+
+  private GroupDecryptionCache getDecryptionCache(GroupSecretParams groupSecretParams) {
+    ByteString groupKey = ByteString.copyFrom(groupSecretParams.getPublicParams().serialize());
+
+    synchronized (decryptionCaches) {
+      GroupDecryptionCache cache = decryptionCaches.get(groupKey);
+
+      if (cache == null) {
+        cache = new GroupDecryptionCache(MAX_CACHED_DECRYPTIONS_PER_GROUP);
+        decryptionCaches.put(groupKey, cache);
+      }
+
+      return cache;
+    }
+  }
+
+  private static ExecutorService createDecryptionExecutor() {
+    ThreadPoolExecutor executor = new ThreadPoolExecutor(DECRYPTION_THREADS,
+                                                         DECRYPTION_THREADS,
+                                                         30,
+                                                         TimeUnit.SECONDS,
+                                                         new LinkedBlockingQueue<>(),
+                                                         runnable -> {
+                                                           Thread thread = new Thread(runnable, "signal-group-decryption");
+                                                           thread.setDaemon(true);
+                                                           return thread;
+                                                         });
+    executor.allowCoreThreadTimeOut(true);
+    return executor;
   }
 
   public ClientZkProfileOperations getProfileOperations() {
@@ -135,12 +187,18 @@ public final class GroupsV2Operations {
    */
   public final class GroupOperations {
 
-    private final GroupSecretParams   groupSecretParams;
-    private final ClientZkGroupCipher clientZkGroupCipher;
+    private final GroupSecretParams    groupSecretParams;
+    private final ClientZkGroupCipher  clientZkGroupCipher;
+    private final GroupDecryptionCache decryptionCache;
 
-    private GroupOperations(GroupSecretParams groupSecretParams) {
+    private GroupOperations(GroupSecretParams groupSecretParams, GroupDecryptionCache decryptionCache) {
       this.groupSecretParams   = groupSecretParams;
       this.clientZkGroupCipher = new ClientZkGroupCipher(groupSecretParams);
+      this.decryptionCache     = decryptionCache;
+    }
+
+    GroupDecryptionCache getDecryptionCache() {
+      return decryptionCache;
     }
 
     public GroupChange.Actions.Builder createModifyGroupTitle(final String title) {
@@ -356,28 +414,9 @@ public final class GroupsV2Operations {
     public DecryptedGroup decryptGroup(Group group)
         throws VerificationFailedException, InvalidGroupStateException
     {
-      List<Member>                    membersList                = group.getMembersList();
-      List<PendingMember>             pendingMembersList         = group.getPendingMembersList();
-      List<RequestingMember>          requestingMembersList      = group.getRequestingMembersList();
-      List<DecryptedMember>           decryptedMembers           = new ArrayList<>(membersList.size());
-      List<DecryptedPendingMember>    decryptedPendingMembers    = new ArrayList<>(pendingMembersList.size());
-      List<DecryptedRequestingMember> decryptedRequestingMembers = new ArrayList<>(requestingMembersList.size());
-
-      for (Member member : membersList) {
-        try {
-          decryptedMembers.add(decryptMember(member).build());
-        } catch (InvalidInputException e) {
-          throw new InvalidGroupStateException(e);
-        }
-      }
-
-      for (PendingMember member : pendingMembersList) {
-        decryptedPendingMembers.add(decryptMember(member));
-      }
-
-      for (RequestingMember member : requestingMembersList) {
-        decryptedRequestingMembers.add(decryptRequestingMember(member));
-      }
+      List<DecryptedMember>           decryptedMembers           = decryptAll(group.getMembersList(), this::decryptFullMember);
+      List<DecryptedPendingMember>    decryptedPendingMembers    = decryptAll(group.getPendingMembersList(), this::decryptMember);
+      List<DecryptedRequestingMember> decryptedRequestingMembers = decryptAll(group.getRequestingMembersList(), this::decryptRequestingMember);
 
       return DecryptedGroup.newBuilder()
                            .setTitle(decryptTitle(group.getTitle()))
@@ -505,8 +544,8 @@ public final class GroupsV2Operations {
         } catch (InvalidInputException e) {
           throw new InvalidGroupStateException(e);
         }
-        UUID       uuid       = clientZkGroupCipher.decryptUuid(profileKeyCredentialPresentation.getUuidCiphertext());
-        ProfileKey profileKey = clientZkGroupCipher.decryptProfileKey(profileKeyCredentialPresentation.getProfileKeyCiphertext(), uuid);
+        UUID       uuid       = decryptUuid(profileKeyCredentialPresentation.getUuidCiphertext());
+        ProfileKey profileKey = decryptProfileKey(profileKeyCredentialPresentation.getProfileKeyCiphertext(), uuid);
         builder.addPromotePendingMembers(DecryptedMember.newBuilder()
                                                         .setJoinedAtRevision(-1)
                                                         .setRole(Member.Role.DEFAULT)
@@ -579,6 +618,16 @@ public final class GroupsV2Operations {
                                    .build();
     }
 
+    private DecryptedMember decryptFullMember(Member member)
+        throws InvalidGroupStateException, VerificationFailedException
+    {
+      try {
+        return decryptMember(member).build();
+      } catch (InvalidInputException e) {
+        throw new InvalidGroupStateException(e);
+      }
+    }
+
     private DecryptedMember.Builder decryptMember(Member member)
         throws InvalidGroupStateException, VerificationFailedException, InvalidInputException
     {
@@ -592,8 +641,8 @@ public final class GroupsV2Operations {
                               .setRole(member.getRole());
       } else {
         ProfileKeyCredentialPresentation profileKeyCredentialPresentation = new ProfileKeyCredentialPresentation(member.getPresentation().toByteArray());
-        UUID                             uuid                             = clientZkGroupCipher.decryptUuid(profileKeyCredentialPresentation.getUuidCiphertext());
-        ProfileKey                       profileKey                       = clientZkGroupCipher.decryptProfileKey(profileKeyCredentialPresentation.getProfileKeyCiphertext(), uuid);
+        UUID                             uuid                             = decryptUuid(profileKeyCredentialPresentation.getUuidCiphertext());
+        ProfileKey                       profileKey                       = decryptProfileKey(profileKeyCredentialPresentation.getProfileKeyCiphertext(), uuid);
 
         return DecryptedMember.newBuilder()
                               .setUuid(UuidUtil.toByteString(uuid))
@@ -644,8 +693,8 @@ public final class GroupsV2Operations {
           throw new InvalidGroupStateException(e);
         }
 
-        UUID       uuid       = clientZkGroupCipher.decryptUuid(profileKeyCredentialPresentation.getUuidCiphertext());
-        ProfileKey profileKey = clientZkGroupCipher.decryptProfileKey(profileKeyCredentialPresentation.getProfileKeyCiphertext(), uuid);
+        UUID       uuid       = decryptUuid(profileKeyCredentialPresentation.getUuidCiphertext());
+        ProfileKey profileKey = decryptProfileKey(profileKeyCredentialPresentation.getProfileKeyCiphertext(), uuid);
 
         return DecryptedRequestingMember.newBuilder()
                                         .setUuid(UuidUtil.toByteString(uuid))
@@ -655,14 +704,34 @@ public final class GroupsV2Operations {
     }
 
     private ProfileKey decryptProfileKey(ByteString profileKey, UUID uuid) throws VerificationFailedException, InvalidGroupStateException {
+      ProfileKey cached = decryptionCache.getProfileKey(profileKey, uuid);
+
+      if (cached != null) {
+        return cached;
+      }
+
       try {
-        ProfileKeyCiphertext profileKeyCiphertext = new ProfileKeyCiphertext(profileKey.toByteArray());
-        return clientZkGroupCipher.decryptProfileKey(profileKeyCiphertext, uuid);
+        ProfileKey decrypted = clientZkGroupCipher.decryptProfileKey(new ProfileKeyCiphertext(profileKey.toByteArray()), uuid);
+        decryptionCache.putProfileKey(profileKey, uuid, decrypted);
+        return decrypted;
       } catch (InvalidInputException e) {
         throw new InvalidGroupStateException(e);
       }
     }
 
+    private ProfileKey decryptProfileKey(ProfileKeyCiphertext profileKeyCiphertext, UUID uuid) throws VerificationFailedException {
+      ByteString key    = ByteString.copyFrom(profileKeyCiphertext.serialize());
+      ProfileKey cached = decryptionCache.getProfileKey(key, uuid);
+
+      if (cached != null) {
+        return cached;
+      }
+
+      ProfileKey decrypted = clientZkGroupCipher.decryptProfileKey(profileKeyCiphertext, uuid);
+      decryptionCache.putProfileKey(key, uuid, decrypted);
+      return decrypted;
+    }
+
     private ByteString decryptProfileKeyToByteString(ByteString profileKey, UUID uuid) throws VerificationFailedException, InvalidGroupStateException {
       return ByteString.copyFrom(decryptProfileKey(profileKey, uuid).serialize());
     }
@@ -676,24 +745,117 @@ public final class GroupsV2Operations {
     }
 
     private UUID decryptUuid(ByteString userId) throws InvalidGroupStateException, VerificationFailedException {
+      UUID cached = decryptionCache.getUuid(userId);
+
+      if (cached != null) {
+        return cached;
+      }
+
       try {
-        return clientZkGroupCipher.decryptUuid(new UuidCiphertext(userId.toByteArray()));
+        UUID decrypted = clientZkGroupCipher.decryptUuid(new UuidCiphertext(userId.toByteArray()));
+        decryptionCache.putUuid(userId, decrypted);
+        return decrypted;
       } catch (InvalidInputException e) {
         throw new InvalidGroupStateException(e);
       }
     }
 
+    private UUID decryptUuid(UuidCiphertext uuidCiphertext) throws VerificationFailedException {
+      ByteString key    = ByteString.copyFrom(uuidCiphertext.serialize());
+      UUID       cached = decryptionCache.getUuid(key);
+
+      if (cached != null) {
+        return cached;
+      }
+
+      UUID decrypted = clientZkGroupCipher.decryptUuid(uuidCiphertext);
+      decryptionCache.putUuid(key, decrypted);
+      return decrypted;
+    }
+
     /**
      * Attempts to decrypt a UUID, but will return {@link #UNKNOWN_UUID} if it cannot.
      */
     private UUID decryptUuidOrUnknown(ByteString userId) {
       try {
-        return clientZkGroupCipher.decryptUuid(new UuidCiphertext(userId.toByteArray()));
-      } catch (InvalidInputException | VerificationFailedException e) {
+        return decryptUuid(userId);
+      } catch (InvalidGroupStateException | VerificationFailedException e) {
         return UNKNOWN_UUID;
       }
     }
 
+    /**
+     * Decrypts each item, preserving order. Long lists are split into one chunk per decryption
+     * thread, with the calling thread decrypting the first chunk itself.
+     */
+    private <I, O> List<O> decryptAll(List<I> items, Decryptor<I, O> decryptor)
+        throws InvalidGroupStateException, VerificationFailedException
+    {
+      if (items.size() < PARALLEL_DECRYPTION_THRESHOLD || DECRYPTION_THREADS == 1) {
+        return decryptChunk(items, decryptor);
+      }
+
+      int                   chunkSize = (items.size() + DECRYPTION_THREADS - 1) / DECRYPTION_THREADS;
+      List<List<I>>         chunks    = new ArrayList<>(DECRYPTION_THREADS);
+      List<Future<List<O>>> futures   = new ArrayList<>(DECRYPTION_THREADS);
+      List<O>               results   = new ArrayList<>(items.size());
+
+      for (int i = chunkSize; i < items.size(); i += chunkSize) {
+        List<I> chunk = items.subList(i, Math.min(i + chunkSize, items.size()));
+        chunks.add(chunk);
+        futures.add(decryptionExecutor.submit(() -> decryptChunk(chunk, decryptor)));
+      }
+
+      try {
+        results.addAll(decryptChunk(items.subList(0, chunkSize), decryptor));
+
+        boolean interrupted = false;
+
+        for (int i = 0; i < futures.size(); i++) {
+          if (!interrupted) {
+            try {
+              results.addAll(futures.get(i).get());
+              continue;
+            } catch (InterruptedException e) {
+              Log.w(TAG, "Interrupted waiting for decryption, finishing on this thread");
+              interrupted = true;
+            }
+          }
+
+          results.addAll(decryptChunk(chunks.get(i), decryptor));
+        }
+
+        if (interrupted) {
+          Thread.currentThread().interrupt();
+        }
+      } catch (ExecutionException e) {
+        Throwable cause = e.getCause();
+
+        if      (cause instanceof InvalidGroupStateException)  throw (InvalidGroupStateException) cause;
+        else if (cause instanceof VerificationFailedException) throw (VerificationFailedException) cause;
+        else if (cause instanceof RuntimeException)            throw (RuntimeException) cause;
+        else                                                   throw new AssertionError(cause);
+      } finally {
+        for (Future<List<O>> future : futures) {
+          future.cancel(false);
+        }
+      }
+
+      return results;
+    }
+
+    private <I, O> List<O> decryptChunk(List<I> items, Decryptor<I, O> decryptor)
+        throws InvalidGroupStateException, VerificationFailedException
+    {
+      List<O> results = new ArrayList<>(items.size());
+
+      for (I item : items) {
+        results.add(decryptor.decrypt(item));
+      }
+
+      return results;
+    }
+
     ByteString encryptTitle(String title) {
       try {
         GroupAttributeBlob blob = GroupAttributeBlob.newBuilder().setTitle(title).build();
@@ -808,4 +970,8 @@ public final class GroupsV2Operations {
       return avatar;
     }
   }
+
+  private interface Decryptor<I, O> {
+    O decrypt(I input) throws InvalidGroupStateException, VerificationFailedException;
+  }
 }
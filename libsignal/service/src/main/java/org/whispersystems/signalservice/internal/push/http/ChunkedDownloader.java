@@ -0,0 +1,617 @@
+package org.whispersystems.signalservice.internal.push.http;
+
+import org.whispersystems.libsignal.logging.Log;
+import org.whispersystems.libsignal.util.guava.Optional;
+import org.whispersystems.signalservice.api.messages.SignalServiceAttachment.ProgressListener;
+import org.whispersystems.signalservice.api.push.exceptions.NonSuccessfulResponseCodeException;
+import org.whispersystems.signalservice.api.push.exceptions.PushNetworkException;
+import org.whispersystems.signalservice.api.push.exceptions.RangeException;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import okhttp3.Call;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+
+/**
+ * Downloads a file from the CDN as a set of byte ranges, several at a time.
+ *
+ * Which ranges have been completely written is recorded in a small progress file next to the
+ * destination, so an interrupted download picks up exactly where it left off rather than starting
+ * over. A range that's cut off mid-transfer is retried from the last byte received.
+ */
+public final class ChunkedDownloader {
+
+  private static final String TAG = ChunkedDownloader.class.getSimpleName();
+
+  static final int CHUNK_SIZE         = 1024 * 1024;
+  static final int MIN_BUFFER_SIZE    = 8 * 1024;
+  static final int MAX_BUFFER_SIZE    = 256 * 1024;
+  static final int MAX_CHUNK_ATTEMPTS = 3;
+
+  private static final int     DOWNLOAD_THREADS      = 3;
+  private static final long    BUFFER_TARGET_MILLIS  = 50;
+  private static final Pattern CONTENT_RANGE_PATTERN = Pattern.compile("bytes (\\d+)-(\\d+)/(\\d+)");
+
+  private static final ExecutorService DOWNLOAD_EXECUTOR = createDownloadExecutor();
+
+  private final OkHttpClient     client;
+  private final String           url;
+  private final Optional<String> hostHeader;
+  private final long             maxSizeBytes;
+  private final ProgressListener listener;
+  private final Set<Call>        connections;
+  private final TransferMetrics  metrics;
+
+  private long firstChunkPosition;
+
+  /**
+   * Set once any of our calls turns out to have been canceled, so that no chunk makes another
+   * request after the caller has given up on the download.
+   */
+  private volatile boolean canceled;
+
+  /**
+   * @param connections In-flight calls are added to (and removed from) this set while they run, so
+   *                    that they can be canceled. Access is synchronized on the set.
+   */
+  public ChunkedDownloader(OkHttpClient client,
+                           String url,
+                           Optional<String> hostHeader,
+                           long maxSizeBytes,
+                           ProgressListener listener,
+                           Set<Call> connections)
+  {
+    this.client       = client;
+    this.url          = url;
+    this.hostHeader   = hostHeader;
+    this.maxSizeBytes = maxSizeBytes;
+    this.listener     = listener;
+    this.connections  = connections;
+    this.metrics      = new TransferMetrics();
+  }
+
+  /**
+   * The file used to record progress for a download to the given destination. It's removed once
+   * the download completes.
+   */
+  public static File getProgressFile(File destination) {
+    return new File(destination.getPath() + ".progress");
+  }
+
+  public TransferMetrics download(File destination) throws IOException {
+    File          progressFile = getProgressFile(destination);
+    ChunkProgress progress     = ChunkProgress.read(progressFile);
+
+    if (progress != null && (!destination.exists() || destination.length() != progress.getTotal())) {
+      Log.w(TAG, "Destination doesn't match saved progress, starting over.");
+      progressFile.delete();
+      progress = null;
+    }
+
+    if (progress == null) {
+      Log.i(TAG, "Starting new download.");
+      progress = probe(destination, progressFile);
+    } else {
+      Log.i(TAG, "Resuming download. " + progress.getCompleteCount() + "/" + progress.getChunkCount() + " chunks already complete.");
+      metrics.alreadyPresent(progress.getCompleteBytes());
+    }
+
+    if (progress != null) {
+      downloadRemaining(destination, progressFile, progress);
+
+      if (!progressFile.delete()) {
+        Log.w(TAG, "Failed to delete progress file.");
+      }
+    }
+
+    Log.i(TAG, "Download complete. " + metrics);
+    return metrics;
+  }
+
+  /**
+   * Requests the first chunk, which also tells us how big the whole file is.
+   *
+   * @return The progress of the download, or null if the server sent back the whole file at once.
+   */
+  private ChunkProgress probe(File destination, File progressFile) throws IOException {
+    Call     call     = newCall(0, CHUNK_SIZE - 1);
+    Response response = null;
+
+    try {
+      response = call.execute();
+
+      if (response.code() == 200) {
+        Log.w(TAG, "Server ignored range request, downloading in one piece.");
+        ResponseBody body = requireBody(response);
+
+        if (body.contentLength() > maxSizeBytes) throw new PushNetworkException("Response exceeds max size!");
+
+        try (RandomAccessFile file = new RandomAccessFile(destination, "rw")) {
+          file.setLength(0);
+          writeBody(body, file.getChannel(), new Cursor(0), body.contentLength(), body.contentLength());
+        }
+        return null;
+      } else if (response.code() == 206) {
+        long[] contentRange = parseContentRange(response.header("Content-Range"));
+        long   total        = contentRange[2];
+
+        if (contentRange[0] != 0) throw new PushNetworkException("Unexpected range start: " + contentRange[0]);
+        if (total > maxSizeBytes) throw new PushNetworkException("Response exceeds max size!");
+
+        ChunkProgress progress = new ChunkProgress(total, CHUNK_SIZE);
+
+        try (RandomAccessFile file = new RandomAccessFile(destination, "rw")) {
+          file.setLength(total);
+
+          Cursor cursor = new Cursor(0);
+
+          try {
+            writeBody(requireBody(response), file.getChannel(), cursor, progress.getChunkEnd(0) + 1, total);
+            file.getChannel().force(false);
+            progress.markComplete(0);
+          } catch (IOException e) {
+            Log.w(TAG, "First chunk interrupted at " + cursor.position + " bytes, will resume it with the rest. (" + e.getMessage() + ")");
+            firstChunkPosition = cursor.position;
+            metrics.retried();
+          }
+        }
+
+        progress.write(progressFile);
+
+        return progress;
+      } else if (response.code() == 416) {
+        throw new RangeException(0);
+      } else {
+        throw new NonSuccessfulResponseCodeException(response.code(), "Response: " + response);
+      }
+    } catch (NonSuccessfulResponseCodeException | PushNetworkException e) {
+      throw e;
+    } catch (IOException e) {
+      throw new PushNetworkException(e);
+    } finally {
+      if (response != null && response.body() != null) {
+        response.body().close();
+      }
+      release(call);
+    }
+  }
+
+  private void downloadRemaining(File destination, File progressFile, ChunkProgress progress) throws IOException {
+    reportProgress(progress.getTotal());
+
+    try (RandomAccessFile file = new RandomAccessFile(destination, "rw")) {
+      FileChannel        channel = file.getChannel();
+      List<Future<Void>> futures = new ArrayList<>();
+
+      for (int i = 0; i < progress.getChunkCount(); i++) {
+        if (progress.isComplete(i)) continue;
+
+        final int chunk = i;
+        futures.add(DOWNLOAD_EXECUTOR.submit(() -> {
+          downloadChunk(channel, progress, chunk);
+
+          synchronized (progress) {
+            channel.force(false);
+            progress.markComplete(chunk);
+            progress.write(progressFile);
+          }
+          return null;
+        }));
+      }
+
+      awaitAll(futures);
+    } catch (RangeException e) {
+      Log.w(TAG, "Remote file no longer matches our progress, discarding it.");
+      progressFile.delete();
+      throw e;
+    }
+  }
+
+  private void downloadChunk(FileChannel channel, ChunkProgress progress, int chunk) throws IOException {
+    long   start  = progress.getChunkStart(chunk);
+    long   end    = progress.getChunkEnd(chunk);
+    Cursor cursor = new Cursor(chunk == 0 ? firstChunkPosition : start);
+
+    for (int attempt = 1; ; attempt++) {
+      if (canceled) {
+        throw new PushNetworkException("Download canceled");
+      }
+
+      Call     call     = newCall(cursor.position, end);
+      Response response = null;
+
+      try {
+        response = call.execute();
+
+        if (response.code() == 416) {
+          throw new RangeException(cursor.position);
+        } else if (response.code() != 206) {
+          throw new NonSuccessfulResponseCodeException(response.code(), "Response: " + response);
+        }
+
+        long[] contentRange = parseContentRange(response.header("Content-Range"));
+
+        if (contentRange[0] != cursor.position || contentRange[2] != progress.getTotal()) {
+          throw new RangeException(cursor.position);
+        }
+
+        writeBody(requireBody(response), channel, cursor, end + 1, progress.getTotal());
+        return;
+      } catch (NonSuccessfulResponseCodeException e) {
+        throw e;
+      } catch (IOException e) {
+        if (call.isCanceled() || Thread.currentThread().isInterrupted()) {
+          canceled = true;
+        }
+
+        if (canceled || attempt >= MAX_CHUNK_ATTEMPTS) {
+          throw e instanceof PushNetworkException ? e : new PushNetworkException(e);
+        }
+
+        Log.w(TAG, "Chunk " + chunk + " interrupted at " + (cursor.position - start) + "/" + (end - start + 1) + " bytes, retrying. (" + e.getMessage() + ")");
+        metrics.retried();
+      } finally {
+        if (response != null && response.body() != null) {
+          response.body().close();
+        }
+        release(call);
+      }
+    }
+  }
+
+  /**
+   * Writes the body to the channel at the cursor's position, stopping at {@code limit}. The cursor
+   * is advanced as bytes are written, so if the connection drops it marks where to resume from.
+   *
+   * @param limit The position to stop at, or -1 to read until the body ends.
+   */
+  private void writeBody(ResponseBody body, FileChannel channel, Cursor cursor, long limit, long total) throws IOException {
+    long start = cursor.position;
+
+    try (InputStream in = body.byteStream()) {
+      byte[] buffer = new byte[getBufferSize(metrics.getBytesPerSecond())];
+      int    read;
+
+      while (limit < 0 || cursor.position < limit) {
+        int length = limit < 0 ? buffer.length : (int) Math.min(buffer.length, limit - cursor.position);
+
+        if ((read = in.read(buffer, 0, length)) == -1) break;
+
+        channel.write(ByteBuffer.wrap(buffer, 0, read), cursor.position);
+        cursor.position += read;
+
+        if (cursor.position > maxSizeBytes) throw new PushNetworkException("Response exceeded max size!");
+
+        metrics.transferred(read);
+        reportProgress(total);
+      }
+    }
+
+    if (limit >= 0 && cursor.position < limit) {
+      throw new IOException("Connection closed after " + (cursor.position - start) + " bytes");
+    }
+  }
+
+  private Call newCall(long start, long end) {
+    Request.Builder request = new Request.Builder().url(url)
+                                                   .get()
+                                                   .addHeader("Range", "bytes=" + start + "-" + end);
+
+    if (hostHeader.isPresent()) {
+      request.addHeader("Host", hostHeader.get());
+    }
+
+    Call call = client.newCall(request.build());
+
+    synchronized (connections) {
+      connections.add(call);
+    }
+
+    return call;
+  }
+
+  private void release(Call call) {
+    synchronized (connections) {
+      connections.remove(call);
+    }
+  }
+
+  private void reportProgress(long total) {
+    if (listener != null) {
+      synchronized (listener) {
+        listener.onAttachmentProgress(total, Math.min(total, metrics.getAlreadyPresentBytes() + metrics.getTransferredBytes()));
+      }
+    }
+  }
+
+  private static ResponseBody requireBody(Response response) throws PushNetworkException {
+    ResponseBody body = response.body();
+
+    if (body == null) throw new PushNetworkException("No response body!");
+
+    return body;
+  }
+
+  /**
+   * Waits for every chunk to finish, even if one fails, so that as much progress as possible is
+   * saved for the next attempt.
+   */
+  private static void awaitAll(List<Future<Void>> futures) throws IOException {
+    Throwable failure = null;
+
+    for (Future<Void> future : futures) {
+      try {
+        future.get();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        for (Future<Void> remaining : futures) {
+          remaining.cancel(true);
+        }
+        throw new PushNetworkException(e);
+      } catch (ExecutionException e) {
+        if (failure == null) {
+          failure = e.getCause();
+        }
+      }
+    }
+
+    if      (failure == null)                     return;
+    else if (failure instanceof IOException)      throw (IOException) failure;
+    else if (failure instanceof RuntimeException) throw (RuntimeException) failure;
+    else                                          throw new PushNetworkException(new Exception(failure));
+  }
+
+  /**
+   * @return A read buffer that holds roughly {@link #BUFFER_TARGET_MILLIS} worth of data at the
+   *         measured bandwidth, rounded to a power of two. Slow connections get small buffers so
+   *         progress and cancelation stay responsive, fast ones get large buffers to cut per-read
+   *         overhead.
+   */
+  static int getBufferSize(long bytesPerSecond) {
+    long target = bytesPerSecond * BUFFER_TARGET_MILLIS / 1000;
+    int  size   = MIN_BUFFER_SIZE;
+
+    while (size < MAX_BUFFER_SIZE && size < target) {
+      size *= 2;
+    }
+
+    return size;
+  }
+
+  /**
+   * @return [start, end, total] of a "bytes start-end/total" header.
+   */
+  static long[] parseContentRange(String header) throws PushNetworkException {
+    if (header != null) {
+      Matcher matcher = CONTENT_RANGE_PATTERN.matcher(header.trim());
+
+      if (matcher.matches()) {
+        return new long[] { Long.parseLong(matcher.group(1)), Long.parseLong(matcher.group(2)), Long.parseLong(matcher.group(3)) };
+      }
+    }
+
+    throw new PushNetworkException("Bad Content-Range: " + header);
+  }
+
+  private static ExecutorService createDownloadExecutor() {
+    ThreadPoolExecutor executor = new ThreadPoolExecutor(DOWNLOAD_THREADS,
+                                                         DOWNLOAD_THREADS,
+                                                         30,
+                                                         TimeUnit.SECONDS,
+                                                         new LinkedBlockingQueue<>(),
+                                                         runnable -> {
+                                                           Thread thread = new Thread(runnable, "signal-cdn-download");
+                                                           thread.setDaemon(true);
+                                                           return thread;
+                                                         });
+    executor.allowCoreThreadTimeOut(true);
+    return executor;
+  }
+
+  private static final class Cursor {
+    private long position;
+
+    private Cursor(long position) {
+      this.position = position;
+    }
+  }
+
+  /**
+   * Which fixed-size chunks of a download have been completely written. Persisted as a total
+   * length, a chunk size and one flag per chunk.
+   */
+  static final class ChunkProgress {
+
+    private static final int VERSION = 1;
+
+    private final long      total;
+    private final int       chunkSize;
+    private final boolean[] complete;
+
+    ChunkProgress(long total, int chunkSize) {
+      this(total, chunkSize, new boolean[(int) Math.max(1, (total + chunkSize - 1) / chunkSize)]);
+    }
+
+    private ChunkProgress(long total, int chunkSize, boolean[] complete) {
+      this.total     = total;
+      this.chunkSize = chunkSize;
+      this.complete  = complete;
+    }
+
+    long getTotal() {
+      return total;
+    }
+
+    int getChunkCount() {
+      return complete.length;
+    }
+
+    long getChunkStart(int chunk) {
+      return (long) chunk * chunkSize;
+    }
+
+    long getChunkEnd(int chunk) {
+      return Math.min(total, getChunkStart(chunk) + chunkSize) - 1;
+    }
+
+    boolean isComplete(int chunk) {
+      return complete[chunk];
+    }
+
+    void markComplete(int chunk) {
+      complete[chunk] = true;
+    }
+
+    int getCompleteCount() {
+      int count = 0;
+      for (boolean chunk : complete) {
+        if (chunk) count++;
+      }
+      return count;
+    }
+
+    long getCompleteBytes() {
+      long bytes = 0;
+      for (int i = 0; i < complete.length; i++) {
+        if (complete[i]) bytes += getChunkEnd(i) - getChunkStart(i) + 1;
+      }
+      return bytes;
+    }
+
+    /**
+     * Written to a temporary file and renamed into place, so a crash mid-write leaves the previous
+     * state intact.
+     */
+    void write(File file) throws IOException {
+      File temp = new File(file.getPath() + ".tmp");
+
+      try (FileOutputStream fileOut = new FileOutputStream(temp)) {
+        DataOutputStream out = new DataOutputStream(fileOut);
+
+        out.writeInt(VERSION);
+        out.writeLong(total);
+        out.writeInt(chunkSize);
+        out.writeInt(complete.length);
+
+        for (boolean chunk : complete) {
+          out.writeBoolean(chunk);
+        }
+
+        out.flush();
+        fileOut.getFD().sync();
+      }
+
+      if (!temp.renameTo(file)) {
+        throw new IOException("Failed to save download progress.");
+      }
+    }
+
+    /**
+     * @return The saved progress, or null if there is none or it can't be read.
+     */
+    static ChunkProgress read(File file) {
+      if (!file.exists()) {
+        return null;
+      }
+
+      try (DataInputStream in = new DataInputStream(new FileInputStream(file))) {
+        if (in.readInt() != VERSION) {
+          return null;
+        }
+
+        long      total     = in.readLong();
+        int       chunkSize = in.readInt();
+        boolean[] complete  = new boolean[in.readInt()];
+
+        for (int i = 0; i < complete.length; i++) {
+          complete[i] = in.readBoolean();
+        }
+
+        return new ChunkProgress(total, chunkSize, complete);
+      } catch (IOException e) {
+        Log.w(TAG, "Unreadable download progress, starting over.", e);
+        return null;
+      }
+    }
+  }
+
+  /**
+   * Throughput of a single download, used to size read buffers and for logging.
+   */
+  public static final class TransferMetrics {
+
+    private final long       startTime        = System.currentTimeMillis();
+    private final AtomicLong transferredBytes = new AtomicLong();
+    private final AtomicLong presentBytes     = new AtomicLong();
+    private final AtomicInteger retries       = new AtomicInteger();
+
+    void transferred(long bytes) {
+      transferredBytes.addAndGet(bytes);
+    }
+
+    void alreadyPresent(long bytes) {
+      presentBytes.addAndGet(bytes);
+    }
+
+    void retried() {
+      retries.incrementAndGet();
+    }
+
+    /**
+     * @return Bytes actually received over the network during this download.
+     */
+    public long getTransferredBytes() {
+      return transferredBytes.get();
+    }
+
+    /**
+     * @return Bytes that were already on disk from a previous, interrupted attempt.
+     */
+    public long getAlreadyPresentBytes() {
+      return presentBytes.get();
+    }
+
+    public int getRetries() {
+      return retries.get();
+    }
+
+    public long getElapsedMillis() {
+      return Math.max(1, System.currentTimeMillis() - startTime);
+    }
+
+    public long getBytesPerSecond() {
+      return getTransferredBytes() * 1000 / getElapsedMillis();
+    }
+
+    @Override
+    public String toString() {
+      return "transferred: " + getTransferredBytes() + " bytes, alreadyPresent: " + getAlreadyPresentBytes() + " bytes, retries: " + getRetries() +
+             ", elapsed: " + getElapsedMillis() + " ms, bandwidth: " + (getBytesPerSecond() / 1024) + " KiB/s";
+    }
+  }
+}
@@ -20,15 +20,17 @@ import org.whispersystems.signalservice.internal.util.concurrent.SettableFuture;
 import java.io.IOException;
 import java.security.KeyManagementException;
 import java.security.NoSuchAlgorithmException;
-import java.util.HashMap;
 import java.util.Iterator;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.Future;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.net.ssl.SSLContext;
 import javax.net.ssl.SSLSocketFactory;
@@ -49,13 +51,34 @@ import static org.whispersystems.signalservice.internal.websocket.WebSocketProto
 import static org.whispersystems.signalservice.internal.websocket.WebSocketProtos.WebSocketRequestMessage;
 import static org.whispersystems.signalservice.internal.websocket.WebSocketProtos.WebSocketResponseMessage;
 
+/**
+ * A single authenticated or unidentified websocket to the service.
+ *
+ * Only connection lifecycle changes (connect, disconnect, close and reconnect) are serialized on
+ * this object's monitor. Reading incoming requests, sending requests and responses, and handling
+ * frames from the socket don't take the lock, so a slow consumer of {@link #readRequest(long)}
+ * can't hold up the matching of responses to in-flight requests.
+ *
+ * Frames from the socket are never waited on, since OkHttp reads every frame, including responses
+ * to our own requests, on a single thread. Instead, once {@link #INCOMING_CAPACITY} incoming
+ * requests are buffered, responses to incoming requests are held back until the buffer drains.
+ * The server doesn't send more than a window of unacknowledged envelopes, so this bounds the buffer
+ * without stalling the reader.
+ */
 public class WebSocketConnection extends WebSocketListener {
 
   private static final String TAG                       = WebSocketConnection.class.getSimpleName();
   private static final int    KEEPALIVE_TIMEOUT_SECONDS = 55;
 
-  private final LinkedList<WebSocketRequestMessage>              incomingRequests = new LinkedList<>();
-  private final Map<Long, OutgoingRequest> outgoingRequests = new HashMap<>();
+  static final int  INCOMING_CAPACITY      = 100;
+  static final long REQUEST_TIMEOUT_MILLIS = TimeUnit.SECONDS.toMillis(30);
+
+  private final ConcurrentLinkedQueue<WebSocketRequestMessage> incomingRequests = new ConcurrentLinkedQueue<>();
+  private final Semaphore                                      incomingPermits  = new Semaphore(0);
+  private final ConcurrentLinkedQueue<ByteString>              heldResponses    = new ConcurrentLinkedQueue<>();
+  private final AtomicBoolean                                  holding          = new AtomicBoolean();
+  private final Map<Long, OutgoingRequest>                     outgoingRequests = new ConcurrentHashMap<>();
+  private final ConnectionMetrics                              metrics          = new ConnectionMetrics();
 
   private final String                        wsUri;
   private final TrustStore                    trustStore;
@@ -66,11 +89,13 @@ public class WebSocketConnection extends WebSocketListener {
   private final List<Interceptor>             interceptors;
   private final Optional<Dns>                 dns;
   private final Optional<SignalProxy>         signalProxy;
+  private final WebSocket.Factory             webSocketFactory;
+  private final AtomicLong                    lastSweepTime = new AtomicLong();
 
-  private WebSocket           client;
-  private KeepAliveSender     keepAliveSender;
-  private int                 attempts;
-  private boolean             connected;
+  private volatile WebSocket       client;
+  private volatile boolean         connected;
+  private          KeepAliveSender keepAliveSender;
+  private          int             attempts;
 
   public WebSocketConnection(String httpUri,
                              TrustStore trustStore,
@@ -81,6 +106,24 @@ public class WebSocketConnection extends WebSocketListener {
                              List<Interceptor> interceptors,
                              Optional<Dns> dns,
                              Optional<SignalProxy> signalProxy)
+  {
+    this(httpUri, trustStore, credentialsProvider, signalAgent, listener, timer, interceptors, dns, signalProxy, null);
+  }
+
+  /**
+   * @param webSocketFactory Opens the socket instead of an OkHttp client built from the other
+   *                         parameters. Only used by tests; null in production.
+   */
+  WebSocketConnection(String httpUri,
+                      TrustStore trustStore,
+                      Optional<CredentialsProvider> credentialsProvider,
+                      String signalAgent,
+                      ConnectivityListener listener,
+                      SleepTimer timer,
+                      List<Interceptor> interceptors,
+                      Optional<Dns> dns,
+                      Optional<SignalProxy> signalProxy,
+                      WebSocket.Factory webSocketFactory)
   {
     this.trustStore          = trustStore;
     this.credentialsProvider = credentialsProvider;
@@ -90,6 +133,7 @@ public class WebSocketConnection extends WebSocketListener {
     this.interceptors        = interceptors;
     this.dns                 = dns;
     this.signalProxy         = signalProxy;
+    this.webSocketFactory    = webSocketFactory;
     this.attempts            = 0;
     this.connected           = false;
 
@@ -112,24 +156,7 @@ public class WebSocketConnection extends WebSocketListener {
         filledUri = wsUri;
       }
 
-      Pair<SSLSocketFactory, X509TrustManager> socketFactory = createTlsSocketFactory(trustStore);
-
-      OkHttpClient.Builder clientBuilder = new OkHttpClient.Builder()
-                                                           .sslSocketFactory(new Tls12SocketFactory(socketFactory.first()), socketFactory.second())
-                                                           .connectionSpecs(Util.immutableList(ConnectionSpec.RESTRICTED_TLS))
-                                                           .readTimeout(KEEPALIVE_TIMEOUT_SECONDS + 10, TimeUnit.SECONDS)
-                                                           .dns(dns.or(Dns.SYSTEM))
-                                                           .connectTimeout(KEEPALIVE_TIMEOUT_SECONDS + 10, TimeUnit.SECONDS);
-
-      for (Interceptor interceptor : interceptors) {
-        clientBuilder.addInterceptor(interceptor);
-      }
-
-      if (signalProxy.isPresent()) {
-        clientBuilder.socketFactory(new TlsProxySocketFactory(signalProxy.get().getHost(), signalProxy.get().getPort(), dns));
-      }
-
-      OkHttpClient okHttpClient = clientBuilder.build();
+      WebSocket.Factory factory = webSocketFactory != null ? webSocketFactory : createOkHttpClient();
 
       Request.Builder requestBuilder = new Request.Builder().url(filledUri);
 
@@ -142,7 +169,7 @@ public class WebSocketConnection extends WebSocketListener {
       }
 
       this.connected = false;
-      this.client    = okHttpClient.newWebSocket(requestBuilder.build(), this);
+      this.client    = factory.newWebSocket(requestBuilder.build(), this);
     }
   }
 
@@ -160,47 +187,73 @@ public class WebSocketConnection extends WebSocketListener {
       keepAliveSender = null;
     }
 
+    dropHeldResponses();
+    wakeReaders();
     notifyAll();
   }
 
-  public synchronized WebSocketRequestMessage readRequest(long timeoutMillis)
+  public WebSocketRequestMessage readRequest(long timeoutMillis)
       throws TimeoutException, IOException
   {
-    if (client == null) {
-      throw new IOException("Connection closed!");
-    }
+    long deadline = System.currentTimeMillis() + timeoutMillis;
 
-    long startTime = System.currentTimeMillis();
+    while (true) {
+      if (client == null) {
+        throw new IOException("Connection closed!");
+      }
 
-    while (client != null && incomingRequests.isEmpty() && elapsedTime(startTime) < timeoutMillis) {
-      Util.wait(this, Math.max(1, timeoutMillis - elapsedTime(startTime)));
-    }
+      if (!acquire(incomingPermits, Math.max(0, deadline - System.currentTimeMillis()))) {
+        if (client == null) throw new IOException("Connection closed!");
+        else                throw new TimeoutException("Timeout exceeded");
+      }
 
-    if      (incomingRequests.isEmpty() && client == null) throw new IOException("Connection closed!");
-    else if (incomingRequests.isEmpty())                   throw new TimeoutException("Timeout exceeded");
-    else                                                   return incomingRequests.removeFirst();
+      WebSocketRequestMessage request = incomingRequests.poll();
+
+      if (request != null) {
+        metrics.dequeued();
+        releaseHeldResponses();
+        return request;
+      }
+    }
   }
 
-  public synchronized ListenableFuture<WebsocketResponse> sendRequest(WebSocketRequestMessage request) throws IOException {
-    if (client == null || !connected) throw new IOException("No connection!");
+  public ListenableFuture<WebsocketResponse> sendRequest(WebSocketRequestMessage request) throws IOException {
+    WebSocket socket = client;
+
+    if (socket == null || !connected) throw new IOException("No connection!");
 
     WebSocketMessage message = WebSocketMessage.newBuilder()
                                                .setType(WebSocketMessage.Type.REQUEST)
                                                .setRequest(request)
                                                .build();
 
+    long                              now    = System.currentTimeMillis();
     SettableFuture<WebsocketResponse> future = new SettableFuture<>();
-    outgoingRequests.put(request.getId(), new OutgoingRequest(future, System.currentTimeMillis()));
 
-    if (!client.send(ByteString.of(message.toByteArray()))) {
+    outgoingRequests.put(request.getId(), new OutgoingRequest(future, now));
+
+    if (!socket.send(ByteString.of(message.toByteArray()))) {
+      outgoingRequests.remove(request.getId());
       throw new IOException("Write failed!");
     }
 
+    long lastSweep = lastSweepTime.get();
+
+    if (now - lastSweep > REQUEST_TIMEOUT_MILLIS && lastSweepTime.compareAndSet(lastSweep, now)) {
+      sweepTimedOutRequests(now);
+    }
+
     return future;
   }
 
-  public synchronized void sendResponse(WebSocketResponseMessage response) throws IOException {
-    if (client == null) {
+  /**
+   * Sends a response to an incoming request. While the incoming buffer is full the response is
+   * held back instead, and sent once {@link #readRequest(long)} has made room.
+   */
+  public void sendResponse(WebSocketResponseMessage response) throws IOException {
+    WebSocket socket = client;
+
+    if (socket == null) {
       throw new IOException("Connection closed!");
     }
 
@@ -209,11 +262,60 @@ public class WebSocketConnection extends WebSocketListener {
                                                .setResponse(response)
                                                .build();
 
-    if (!client.send(ByteString.of(message.toByteArray()))) {
+    ByteString frame = ByteString.of(message.toByteArray());
+
+    if (metrics.getQueueDepth() >= INCOMING_CAPACITY) {
+      heldResponses.offer(frame);
+
+      if (holding.compareAndSet(false, true)) {
+        Log.w(TAG, "Incoming queue full (" + INCOMING_CAPACITY + "), holding back responses.");
+        metrics.stalled();
+      }
+
+      // The queue may have drained between the check and the offer.
+      if (metrics.getQueueDepth() < INCOMING_CAPACITY) {
+        releaseHeldResponses();
+      }
+      return;
+    }
+
+    releaseHeldResponses();
+
+    if (!socket.send(frame)) {
       throw new IOException("Write failed!");
     }
   }
 
+  /**
+   * @return Counters for incoming queue depth and request round trips over the life of this
+   *         connection, across reconnects.
+   */
+  public ConnectionMetrics getMetrics() {
+    return metrics;
+  }
+
+  /**
+   * Fails requests that have been waiting for a response for longer than
+   * {@link #REQUEST_TIMEOUT_MILLIS}, so a lost response doesn't leave a future pending forever.
+   */
+  void sweepTimedOutRequests(long now) {
+    Iterator<Map.Entry<Long, OutgoingRequest>> iterator = outgoingRequests.entrySet().iterator();
+
+    while (iterator.hasNext()) {
+      OutgoingRequest request = iterator.next().getValue();
+
+      if (now - request.getStartTimestamp() > REQUEST_TIMEOUT_MILLIS) {
+        iterator.remove();
+        metrics.timedOut();
+        request.getResponseFuture().setException(new TimeoutException("No response after " + REQUEST_TIMEOUT_MILLIS + " ms"));
+      }
+    }
+  }
+
+  int getOutgoingRequestCount() {
+    return outgoingRequests.size();
+  }
+
   private synchronized void sendKeepAlive() throws IOException {
     if (keepAliveSender != null && client != null) {
       byte[] message = WebSocketMessage.newBuilder()
@@ -245,26 +347,59 @@ public class WebSocketConnection extends WebSocketListener {
   }
 
   @Override
-  public synchronized void onMessage(WebSocket webSocket, ByteString payload) {
+  public void onMessage(WebSocket webSocket, ByteString payload) {
     try {
       WebSocketMessage message = WebSocketMessage.parseFrom(payload.toByteArray());
 
       if (message.getType().getNumber() == WebSocketMessage.Type.REQUEST_VALUE)  {
-        incomingRequests.add(message.getRequest());
+        incomingRequests.offer(message.getRequest());
+        metrics.enqueued();
+        incomingPermits.release();
       } else if (message.getType().getNumber() == WebSocketMessage.Type.RESPONSE_VALUE) {
-        OutgoingRequest listener = outgoingRequests.get(message.getResponse().getId());
+        OutgoingRequest listener = outgoingRequests.remove(message.getResponse().getId());
         if (listener != null) {
+          metrics.responded(System.currentTimeMillis() - listener.getStartTimestamp());
           listener.getResponseFuture().set(new WebsocketResponse(message.getResponse().getStatus(),
                                                                  new String(message.getResponse().getBody().toByteArray())));
         }
       }
-
-      notifyAll();
     } catch (InvalidProtocolBufferException e) {
       Log.w(TAG, e);
     }
   }
 
+  /**
+   * Sends the responses that were held back while the incoming buffer was full, once it no longer
+   * is. Safe to call from several threads at once.
+   */
+  private void releaseHeldResponses() {
+    if (heldResponses.isEmpty() || metrics.getQueueDepth() >= INCOMING_CAPACITY) {
+      return;
+    }
+
+    WebSocket  socket = client;
+    ByteString frame;
+
+    while ((frame = heldResponses.poll()) != null) {
+      if (socket == null || !socket.send(frame)) {
+        Log.w(TAG, "Failed to send held responses, the server will deliver those requests again.");
+        dropHeldResponses();
+        return;
+      }
+    }
+
+    holding.set(false);
+  }
+
+  /**
+   * Held responses are for requests on the current socket, so they mean nothing once it closes. The
+   * server delivers anything that wasn't acknowledged again on the next connection.
+   */
+  private void dropHeldResponses() {
+    heldResponses.clear();
+    holding.set(false);
+  }
+
   @Override
   public synchronized void onClosed(WebSocket webSocket, int code, String reason) {
     Log.i(TAG, "onClose()");
@@ -274,8 +409,8 @@ public class WebSocketConnection extends WebSocketListener {
 
     while (iterator.hasNext()) {
       Map.Entry<Long, OutgoingRequest> entry = iterator.next();
-      entry.getValue().getResponseFuture().setException(new IOException("Closed: " + code + ", " + reason));
       iterator.remove();
+      entry.getValue().getResponseFuture().setException(new IOException("Closed: " + code + ", " + reason));
     }
 
     if (keepAliveSender != null) {
@@ -283,6 +418,8 @@ public class WebSocketConnection extends WebSocketListener {
       keepAliveSender = null;
     }
 
+    dropHeldResponses();
+
     if (listener != null) {
       listener.onDisconnected();
     }
@@ -296,6 +433,7 @@ public class WebSocketConnection extends WebSocketListener {
       connect();
     }
 
+    wakeReaders();
     notifyAll();
   }
 
@@ -331,8 +469,41 @@ public class WebSocketConnection extends WebSocketListener {
     webSocket.close(1000, "OK");
   }
 
-  private long elapsedTime(long startTime) {
-    return System.currentTimeMillis() - startTime;
+  /**
+   * Releases a permit for every blocked reader so it can notice the socket is gone. A reader that
+   * takes one of these permits finds no request to poll and simply loops.
+   */
+  private void wakeReaders() {
+    incomingPermits.release(Math.max(1, incomingPermits.getQueueLength()));
+  }
+
+  private static boolean acquire(Semaphore semaphore, long timeoutMillis) {
+    try {
+      return semaphore.tryAcquire(timeoutMillis, TimeUnit.MILLISECONDS);
+    } catch (InterruptedException e) {
+      throw new AssertionError(e);
+    }
+  }
+
+  private OkHttpClient createOkHttpClient() {
+    Pair<SSLSocketFactory, X509TrustManager> socketFactory = createTlsSocketFactory(trustStore);
+
+    OkHttpClient.Builder clientBuilder = new OkHttpClient.Builder()
+                                                         .sslSocketFactory(new Tls12SocketFactory(socketFactory.first()), socketFactory.second())
+                                                         .connectionSpecs(Util.immutableList(ConnectionSpec.RESTRICTED_TLS))
+                                                         .readTimeout(KEEPALIVE_TIMEOUT_SECONDS + 10, TimeUnit.SECONDS)
+                                                         .dns(dns.or(Dns.SYSTEM))
+                                                         .connectTimeout(KEEPALIVE_TIMEOUT_SECONDS + 10, TimeUnit.SECONDS);
+
+    for (Interceptor interceptor : interceptors) {
+      clientBuilder.addInterceptor(interceptor);
+    }
+
+    if (signalProxy.isPresent()) {
+      clientBuilder.socketFactory(new TlsProxySocketFactory(signalProxy.get().getHost(), signalProxy.get().getPort(), dns));
+    }
+
+    return clientBuilder.build();
   }
 
   private Pair<SSLSocketFactory, X509TrustManager> createTlsSocketFactory(TrustStore trustStore) {
@@ -356,8 +527,12 @@ public class WebSocketConnection extends WebSocketListener {
         try {
           sleepTimer.sleep(TimeUnit.SECONDS.toMillis(KEEPALIVE_TIMEOUT_SECONDS));
 
-          Log.d(TAG, "Sending keep alive...");
+          Log.d(TAG, "Sending keep alive... " + metrics);
           sendKeepAlive();
+
+          long now = System.currentTimeMillis();
+          lastSweepTime.set(now);
+          sweepTimedOutRequests(now);
         } catch (Throwable e) {
           Log.w(TAG, e);
         }
@@ -386,4 +561,87 @@ public class WebSocketConnection extends WebSocketListener {
       return startTimestamp;
     }
   }
+
+  /**
+   * Queue depth and round-trip latency of a connection, logged with each keep alive.
+   */
+  public static final class ConnectionMetrics {
+
+    private final AtomicInteger queueDepth    = new AtomicInteger();
+    private final AtomicInteger maxQueueDepth = new AtomicInteger();
+    private final AtomicInteger stalls        = new AtomicInteger();
+    private final AtomicLong    responses     = new AtomicLong();
+    private final AtomicLong    totalLatency  = new AtomicLong();
+    private final AtomicLong    maxLatency    = new AtomicLong();
+    private final AtomicLong    timeouts      = new AtomicLong();
+
+    void enqueued() {
+      int depth = queueDepth.incrementAndGet();
+      int max;
+
+      while (depth > (max = maxQueueDepth.get()) && !maxQueueDepth.compareAndSet(max, depth)) {}
+    }
+
+    void dequeued() {
+      queueDepth.decrementAndGet();
+    }
+
+    void stalled() {
+      stalls.incrementAndGet();
+    }
+
+    void responded(long latencyMillis) {
+      long max;
+
+      responses.incrementAndGet();
+      totalLatency.addAndGet(latencyMillis);
+
+      while (latencyMillis > (max = maxLatency.get()) && !maxLatency.compareAndSet(max, latencyMillis)) {}
+    }
+
+    void timedOut() {
+      timeouts.incrementAndGet();
+    }
+
+    /**
+     * @return Incoming requests waiting to be read.
+     */
+    public int getQueueDepth() {
+      return queueDepth.get();
+    }
+
+    public int getMaxQueueDepth() {
+      return maxQueueDepth.get();
+    }
+
+    /**
+     * @return How many times the incoming queue filled up and responses were held back.
+     */
+    public int getStalls() {
+      return stalls.get();
+    }
+
+    public long getResponseCount() {
+      return responses.get();
+    }
+
+    public long getAverageLatencyMillis() {
+      long count = responses.get();
+      return count > 0 ? totalLatency.get() / count : 0;
+    }
+
+    public long getMaxLatencyMillis() {
+      return maxLatency.get();
+    }
+
+    public long getTimeoutCount() {
+      return timeouts.get();
+    }
+
+    @Override
+    public String toString() {
+      return "queue: " + getQueueDepth() + " (max " + getMaxQueueDepth() + ", stalls " + getStalls() + "), responses: " + getResponseCount() +
+             ", latency: " + getAverageLatencyMillis() + " ms avg, " + getMaxLatencyMillis() + " ms max, timeouts: " + getTimeoutCount();
+    }
+  }
 }
@@ -272,6 +272,42 @@ public final class GroupsV2Operations_decrypt_group_Test {
     assertEquals(password, decryptedGroup.getInviteLinkPassword());
   }
 
+  @Test
+  public void decrypt_large_member_list_preserves_order() throws VerificationFailedException, InvalidGroupStateException {
+    Group.Builder          group    = Group.newBuilder();
+    DecryptedGroup.Builder expected = DecryptedGroup.newBuilder();
+
+    for (int i = 0; i < 100; i++) {
+      UUID       member     = UUID.randomUUID();
+      ProfileKey profileKey = newProfileKey();
+
+      group.addMembers(Member.newBuilder()
+                             .setRole(Member.Role.DEFAULT)
+                             .setUserId(groupOperations.encryptUuid(member))
+                             .setJoinedAtRevision(i)
+                             .setProfileKey(encryptProfileKey(member, profileKey)));
+      expected.addMembers(DecryptedMember.newBuilder()
+                                         .setJoinedAtRevision(i)
+                                         .setRole(Member.Role.DEFAULT)
+                                         .setUuid(UuidUtil.toByteString(member))
+                                         .setProfileKey(ByteString.copyFrom(profileKey.serialize())));
+    }
+
+    GroupDecryptionCache cache = groupOperations.getDecryptionCache();
+
+    DecryptedGroup decryptedGroup = groupOperations.decryptGroup(group.build());
+
+    assertEquals(expected.build().getMembersList(), decryptedGroup.getMembersList());
+    assertEquals(0, cache.getHits());
+    assertEquals(200, cache.getMisses());
+
+    DecryptedGroup cachedDecryptedGroup = groupOperations.decryptGroup(group.build());
+
+    assertEquals(decryptedGroup, cachedDecryptedGroup);
+    assertEquals(200, cache.getHits());
+    assertEquals(200, cache.getMisses());
+  }
+
   private ByteString encryptProfileKey(UUID uuid, ProfileKey profileKey) {
     return ByteString.copyFrom(new ClientZkGroupCipher(groupSecretParams).encryptProfileKey(profileKey, uuid).serialize());
   }
@@ -0,0 +1,269 @@
+package org.whispersystems.signalservice.internal.push.http;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.whispersystems.libsignal.util.guava.Optional;
+import org.whispersystems.signalservice.api.push.exceptions.PushNetworkException;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import okhttp3.Call;
+import okhttp3.OkHttpClient;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public final class ChunkedDownloaderTest {
+
+  private static final Pattern RANGE_PATTERN = Pattern.compile("bytes=(\\d+)-(\\d+)");
+
+  private final byte[]    content     = new byte[ChunkedDownloader.CHUNK_SIZE * 3 + 12345];
+  private final Set<Call> connections = new HashSet<>();
+
+  private ServerSocket server;
+  private Fault        fault;
+  private boolean      rangesSupported;
+  private File         destination;
+
+  private final ConcurrentHashMap<Long, AtomicInteger> attempts = new ConcurrentHashMap<>();
+
+  @Before
+  public void setUp() throws IOException {
+    new Random(42).nextBytes(content);
+
+    fault           = (start, attempt) -> -1;
+    rangesSupported = true;
+    destination     = File.createTempFile("download", ".tmp");
+    server          = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+
+    Thread acceptThread = new Thread(() -> {
+      while (!server.isClosed()) {
+        try {
+          Socket socket = server.accept();
+          Thread thread = new Thread(() -> serve(socket));
+          thread.setDaemon(true);
+          thread.start();
+        } catch (IOException e) {
+          return;
+        }
+      }
+    });
+    acceptThread.setDaemon(true);
+    acceptThread.start();
+  }
+
+  @After
+  public void tearDown() throws IOException {
+    server.close();
+    destination.delete();
+    ChunkedDownloader.getProgressFile(destination).delete();
+  }
+
+  @Test
+  public void download_whole_file_in_chunks() throws IOException {
+    ChunkedDownloader.TransferMetrics metrics = newDownloader().download(destination);
+
+    assertArrayEquals(content, Files.readAllBytes(destination.toPath()));
+    assertEquals(content.length, metrics.getTransferredBytes());
+    assertEquals(0, metrics.getRetries());
+    assertFalse(ChunkedDownloader.getProgressFile(destination).exists());
+  }
+
+  @Test
+  public void download_resumes_within_chunk_after_disconnect() throws IOException {
+    fault = (start, attempt) -> attempt == 1 ? 1000 : -1;
+
+    ChunkedDownloader.TransferMetrics metrics = newDownloader().download(destination);
+
+    assertArrayEquals(content, Files.readAllBytes(destination.toPath()));
+    assertEquals(content.length, metrics.getTransferredBytes());
+    assertTrue(metrics.getRetries() > 0);
+  }
+
+  @Test
+  public void download_resumes_from_saved_progress_after_failure() throws IOException {
+    long brokenChunkStart = 2L * ChunkedDownloader.CHUNK_SIZE;
+
+    fault = (start, attempt) -> start >= brokenChunkStart && start < brokenChunkStart + ChunkedDownloader.CHUNK_SIZE ? 10 : -1;
+
+    try {
+      newDownloader().download(destination);
+      fail();
+    } catch (PushNetworkException e) {
+      assertTrue(ChunkedDownloader.getProgressFile(destination).exists());
+    }
+
+    fault = (start, attempt) -> -1;
+
+    ChunkedDownloader.TransferMetrics metrics = newDownloader().download(destination);
+
+    assertArrayEquals(content, Files.readAllBytes(destination.toPath()));
+    assertEquals(content.length - ChunkedDownloader.CHUNK_SIZE, metrics.getAlreadyPresentBytes());
+    assertEquals(ChunkedDownloader.CHUNK_SIZE, metrics.getTransferredBytes());
+    assertFalse(ChunkedDownloader.getProgressFile(destination).exists());
+  }
+
+  @Test
+  public void download_starts_over_when_destination_does_not_match_progress() throws IOException {
+    long brokenChunkStart = 2L * ChunkedDownloader.CHUNK_SIZE;
+
+    fault = (start, attempt) -> start >= brokenChunkStart && start < brokenChunkStart + ChunkedDownloader.CHUNK_SIZE ? 10 : -1;
+
+    try {
+      newDownloader().download(destination);
+      fail();
+    } catch (PushNetworkException e) {
+      assertTrue(ChunkedDownloader.getProgressFile(destination).exists());
+    }
+
+    assertTrue(destination.delete());
+
+    fault = (start, attempt) -> -1;
+
+    ChunkedDownloader.TransferMetrics metrics = newDownloader().download(destination);
+
+    assertArrayEquals(content, Files.readAllBytes(destination.toPath()));
+    assertEquals(0, metrics.getAlreadyPresentBytes());
+    assertEquals(content.length, metrics.getTransferredBytes());
+    assertFalse(ChunkedDownloader.getProgressFile(destination).exists());
+  }
+
+  @Test
+  public void download_does_not_retry_after_cancel() {
+    long brokenChunkStart = 2L * ChunkedDownloader.CHUNK_SIZE;
+
+    fault = (start, attempt) -> {
+      if (start >= brokenChunkStart && start < brokenChunkStart + ChunkedDownloader.CHUNK_SIZE) {
+        cancelInFlightCalls();
+        return 10;
+      }
+      return -1;
+    };
+
+    try {
+      newDownloader().download(destination);
+      fail();
+    } catch (IOException e) {
+      // Expected
+    }
+
+    assertEquals(1, attempts.get(2L).get());
+
+    for (AtomicInteger chunkAttempts : attempts.values()) {
+      assertEquals(1, chunkAttempts.get());
+    }
+  }
+
+  @Test
+  public void download_without_range_support() throws IOException {
+    rangesSupported = false;
+
+    newDownloader().download(destination);
+
+    assertArrayEquals(content, Files.readAllBytes(destination.toPath()));
+    assertFalse(ChunkedDownloader.getProgressFile(destination).exists());
+  }
+
+  @Test(expected = PushNetworkException.class)
+  public void download_too_large() throws IOException {
+    new ChunkedDownloader(new OkHttpClient(), getUrl(), Optional.absent(), content.length - 1, null, connections).download(destination);
+  }
+
+  @Test
+  public void getBufferSize_is_bounded() {
+    assertEquals(ChunkedDownloader.MIN_BUFFER_SIZE, ChunkedDownloader.getBufferSize(0));
+    assertEquals(ChunkedDownloader.MIN_BUFFER_SIZE, ChunkedDownloader.getBufferSize(10 * 1024));
+    assertEquals(64 * 1024, ChunkedDownloader.getBufferSize(1024 * 1024));
+    assertEquals(ChunkedDownloader.MAX_BUFFER_SIZE, ChunkedDownloader.getBufferSize(Long.MAX_VALUE / 1000));
+  }
+
+  private ChunkedDownloader newDownloader() {
+    return new ChunkedDownloader(new OkHttpClient(), getUrl(), Optional.absent(), Long.MAX_VALUE, null, connections);
+  }
+
+  /**
+   * What {@code PushServiceSocket#cancelInFlightRequests()} does.
+   */
+  private void cancelInFlightCalls() {
+    synchronized (connections) {
+      for (Call call : connections) {
+        call.cancel();
+      }
+    }
+  }
+
+  private String getUrl() {
+    return "http://127.0.0.1:" + server.getLocalPort() + "/file";
+  }
+
+  /**
+   * A minimal HTTP server for one request per connection. Where the fault says to, it closes the
+   * socket partway through the body.
+   */
+  private void serve(Socket socket) {
+    try (Socket closeable = socket) {
+      BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.US_ASCII));
+      Matcher        range  = null;
+      String         line;
+
+      while ((line = reader.readLine()) != null && !line.isEmpty()) {
+        if (line.toLowerCase(Locale.US).startsWith("range:")) {
+          range = RANGE_PATTERN.matcher(line.substring("range:".length()).trim());
+        }
+      }
+
+      OutputStream out = socket.getOutputStream();
+
+      if (!rangesSupported || range == null || !range.matches()) {
+        out.write(("HTTP/1.1 200 OK\r\nContent-Length: " + content.length + "\r\nConnection: close\r\n\r\n").getBytes(StandardCharsets.US_ASCII));
+        out.write(content);
+        return;
+      }
+
+      int start    = Integer.parseInt(range.group(1));
+      int end      = Math.min(content.length - 1, Integer.parseInt(range.group(2)));
+      int attempt  = attempts.computeIfAbsent((long) start / ChunkedDownloader.CHUNK_SIZE, k -> new AtomicInteger()).incrementAndGet();
+      int cutAfter = fault.bytesBeforeDisconnect(start, attempt);
+      int length   = end - start + 1;
+
+      out.write(("HTTP/1.1 206 Partial Content\r\n" +
+                 "Content-Range: bytes " + start + "-" + end + "/" + content.length + "\r\n" +
+                 "Content-Length: " + length + "\r\n" +
+                 "Connection: close\r\n\r\n").getBytes(StandardCharsets.US_ASCII));
+      out.write(content, start, cutAfter >= 0 ? Math.min(cutAfter, length) : length);
+      out.flush();
+    } catch (IOException e) {
+      // Client went away.
+    }
+  }
+
+  private interface Fault {
+    /**
+     * @param attempt How many times the chunk containing {@code start} has been requested.
+     * @return How many bytes of the range starting at {@code start} to send before disconnecting,
+     *         or -1 to send all of them.
+     */
+    int bytesBeforeDisconnect(long start, int attempt);
+  }
+}
@@ -0,0 +1,249 @@
+package org.whispersystems.signalservice.internal.websocket;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.whispersystems.libsignal.util.guava.Optional;
+import org.whispersystems.signalservice.internal.util.concurrent.ListenableFuture;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicReference;
+
+import okhttp3.Request;
+import okhttp3.WebSocket;
+import okio.ByteString;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.whispersystems.signalservice.internal.websocket.WebSocketProtos.WebSocketMessage;
+import static org.whispersystems.signalservice.internal.websocket.WebSocketProtos.WebSocketRequestMessage;
+import static org.whispersystems.signalservice.internal.websocket.WebSocketProtos.WebSocketResponseMessage;
+
+public final class WebSocketConnectionTest {
+
+  private FakeWebSocket       socket;
+  private WebSocketConnection connection;
+
+  @Before
+  public void setUp() {
+    socket     = new FakeWebSocket();
+    connection = new WebSocketConnection("https://example.org",
+                                         null,
+                                         Optional.absent(),
+                                         null,
+                                         null,
+                                         millis -> Thread.sleep(TimeUnit.MINUTES.toMillis(10)),
+                                         Collections.emptyList(),
+                                         Optional.absent(),
+                                         Optional.absent(),
+                                         (request, listener) -> socket);
+    connection.connect();
+    connection.onOpen(socket, null);
+  }
+
+  @After
+  public void tearDown() {
+    connection.disconnect();
+  }
+
+  @Test
+  public void readRequest_returnsIncomingRequestsInOrder() throws Exception {
+    connection.onMessage(socket, incoming(1));
+    connection.onMessage(socket, incoming(2));
+
+    assertEquals(1, connection.readRequest(1000).getId());
+    assertEquals(2, connection.readRequest(1000).getId());
+    assertEquals(0, connection.getMetrics().getQueueDepth());
+    assertEquals(2, connection.getMetrics().getMaxQueueDepth());
+  }
+
+  @Test(expected = TimeoutException.class)
+  public void readRequest_timesOutWhenNothingArrives() throws Exception {
+    connection.readRequest(50);
+  }
+
+  @Test
+  public void readRequest_wakesUpOnDisconnect() throws Exception {
+    AtomicReference<Throwable> result = new AtomicReference<>();
+    Thread                     reader = new Thread(() -> {
+      try {
+        connection.readRequest(TimeUnit.MINUTES.toMillis(1));
+      } catch (Throwable t) {
+        result.set(t);
+      }
+    });
+
+    reader.start();
+    Thread.sleep(100);
+    connection.disconnect();
+    reader.join(5000);
+
+    assertFalse(reader.isAlive());
+    assertTrue(result.get() instanceof IOException);
+  }
+
+  @Test
+  public void sendRequest_completesWhenResponseArrives() throws Exception {
+    ListenableFuture<WebsocketResponse> future = connection.sendRequest(outgoing(7));
+
+    assertEquals(1, socket.sent.size());
+    assertEquals(7, WebSocketMessage.parseFrom(socket.sent.get(0).toByteArray()).getRequest().getId());
+
+    connection.onMessage(socket, response(7, 200, "ok"));
+
+    WebsocketResponse response = future.get(1, TimeUnit.SECONDS);
+    assertEquals(200, response.getStatus());
+    assertEquals("ok", response.getBody());
+    assertEquals(0, connection.getOutgoingRequestCount());
+    assertEquals(1, connection.getMetrics().getResponseCount());
+  }
+
+  @Test
+  public void responses_areMatchedWhileReaderIsBlocked() throws Exception {
+    Thread reader = new Thread(() -> {
+      try {
+        connection.readRequest(TimeUnit.MINUTES.toMillis(1));
+      } catch (Exception e) {
+        // Expected on disconnect
+      }
+    });
+    reader.start();
+    Thread.sleep(50);
+
+    ListenableFuture<WebsocketResponse> future = connection.sendRequest(outgoing(3));
+    connection.onMessage(socket, response(3, 204, ""));
+
+    assertEquals(204, future.get(1, TimeUnit.SECONDS).getStatus());
+  }
+
+  @Test
+  public void sweepTimedOutRequests_failsOnlyExpiredRequests() throws Exception {
+    ListenableFuture<WebsocketResponse> future = connection.sendRequest(outgoing(9));
+
+    connection.sweepTimedOutRequests(System.currentTimeMillis());
+    assertEquals(1, connection.getOutgoingRequestCount());
+
+    connection.sweepTimedOutRequests(System.currentTimeMillis() + WebSocketConnection.REQUEST_TIMEOUT_MILLIS + 1);
+    assertEquals(0, connection.getOutgoingRequestCount());
+    assertEquals(1, connection.getMetrics().getTimeoutCount());
+
+    try {
+      future.get(1, TimeUnit.SECONDS);
+      fail();
+    } catch (ExecutionException e) {
+      assertTrue(e.getCause() instanceof TimeoutException);
+    }
+  }
+
+  @Test
+  public void onMessage_doesNotBlockResponsesWhenQueueIsFull() throws Exception {
+    for (int i = 0; i <= WebSocketConnection.INCOMING_CAPACITY; i++) {
+      connection.onMessage(socket, incoming(i));
+    }
+
+    ListenableFuture<WebsocketResponse> future = connection.sendRequest(outgoing(5));
+    connection.onMessage(socket, response(5, 200, ""));
+
+    assertEquals(200, future.get(1, TimeUnit.SECONDS).getStatus());
+    assertEquals(WebSocketConnection.INCOMING_CAPACITY + 1, connection.getMetrics().getQueueDepth());
+
+    for (int i = 0; i <= WebSocketConnection.INCOMING_CAPACITY; i++) {
+      assertEquals(i, connection.readRequest(1000).getId());
+    }
+  }
+
+  @Test
+  public void sendResponse_isHeldUntilQueueHasRoom() throws Exception {
+    for (int i = 0; i < WebSocketConnection.INCOMING_CAPACITY; i++) {
+      connection.onMessage(socket, incoming(i));
+    }
+
+    connection.sendResponse(WebSocketResponseMessage.newBuilder().setId(0).setStatus(200).build());
+
+    assertTrue(socket.sent.isEmpty());
+    assertEquals(1, connection.getMetrics().getStalls());
+
+    assertEquals(0, connection.readRequest(1000).getId());
+
+    assertEquals(1, socket.sent.size());
+    assertEquals(WebSocketMessage.Type.RESPONSE, WebSocketMessage.parseFrom(socket.sent.get(0).toByteArray()).getType());
+
+    connection.sendResponse(WebSocketResponseMessage.newBuilder().setId(1).setStatus(200).build());
+
+    assertEquals(2, socket.sent.size());
+    assertEquals(1, connection.getMetrics().getStalls());
+  }
+
+  private static ByteString incoming(long id) {
+    return ByteString.of(WebSocketMessage.newBuilder()
+                                         .setType(WebSocketMessage.Type.REQUEST)
+                                         .setRequest(outgoing(id))
+                                         .build()
+                                         .toByteArray());
+  }
+
+  private static WebSocketRequestMessage outgoing(long id) {
+    return WebSocketRequestMessage.newBuilder()
+                                  .setId(id)
+                                  .setVerb("PUT")
+                                  .setPath("/api/v1/message")
+                                  .build();
+  }
+
+  private static ByteString response(long id, int status, String body) {
+    return ByteString.of(WebSocketMessage.newBuilder()
+                                         .setType(WebSocketMessage.Type.RESPONSE)
+                                         .setResponse(WebSocketResponseMessage.newBuilder()
+                                                                              .setId(id)
+                                                                              .setStatus(status)
+                                                                              .setBody(com.google.protobuf.ByteString.copyFromUtf8(body)))
+                                         .build()
+                                         .toByteArray());
+  }
+
+  /**
+   * Stands in for the OkHttp socket, recording frames the connection writes.
+   */
+  private static final class FakeWebSocket implements WebSocket {
+
+    private final List<ByteString> sent = new CopyOnWriteArrayList<>();
+
+    @Override
+    public Request request() {
+      return new Request.Builder().url("https://example.org/v1/websocket/").build();
+    }
+
+    @Override
+    public long queueSize() {
+      return 0;
+    }
+
+    @Override
+    public boolean send(String text) {
+      return true;
+    }
+
+    @Override
+    public boolean send(ByteString bytes) {
+      sent.add(bytes);
+      return true;
+    }
+
+    @Override
+    public boolean close(int code, String reason) {
+      return true;
+    }
+
+    @Override
+    public void cancel() {
+    }
+  }
+}
@@ -3,9 +3,10 @@ package org.signal.paging;
 import androidx.annotation.NonNull;
 import androidx.lifecycle.MutableLiveData;
 
+import org.signal.core.util.concurrent.SignalExecutors;
+
 import java.util.List;
 import java.util.concurrent.Executor;
-import java.util.concurrent.Executors;
 
 /**
  * We have a bit of a threading problem -- we want our controller to have a fixed size so that it
@@ -34,7 +35,7 @@ class BufferedPagingController<E> implements PagingController {
     this.dataSource            = dataSource;
     this.config                = config;
     this.liveData              = liveData;
-    this.serializationExecutor = Executors.newSingleThreadExecutor();
+    this.serializationExecutor = SignalExecutors.newCachedSingleThreadExecutor("signal-BufferedPagingController");
 
     this.activeController   = null;
     this.lastRequestedIndex = config.startIndex();